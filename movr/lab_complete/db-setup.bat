@@ -19,6 +19,7 @@ REM and the data directory
 set run_dir=%CD%
 set dbinit_script=%run_dir%\..\dbinit.sql
 set data_dir="%run_dir%\..\..\data"
+set migrations_dir="%run_dir%\..\migrations"
 
 REM Log file for SQL output
 set log_file=db-setup.log
@@ -45,5 +46,11 @@ for %%d in ( %datasets% ) do (
         cockroach sql --url=%url% < %data_dir%\%%d >> %log_file%
        )
 
+REM Apply schema migrations (in file name order) on top of the loaded data.
+for %%m in ( %migrations_dir%\*.sql ) do (
+        echo %time%: Applying %%m
+        cockroach sql --url=%url% < %%m >> %log_file%
+       )
+
 echo Database setup for this lab is complete.
 echo For details, view %log_file%.
@@ -23,6 +23,7 @@ datasets=(
 run_dir=`dirname $0`
 dbinit_script="$run_dir/dbinit.sql"
 data_dir=$run_dir/../data
+migrations_dir=$run_dir/migrations
 
 # Log file for SQL output
 log_file=db-setup.log
@@ -59,5 +60,14 @@ do
 	cockroach sql --url $url < $data_dir/$dataset >> $log_file
 done
 
+# Apply schema migrations (in file name order) on top of the loaded data.
+# These can also be run on their own against an existing movr database.
+for migration in $migrations_dir/*.sql
+do
+	echo "Applying [$migration]"
+	echo "`date`: cockroach sql --url $url < $migration" >> $log_file
+	cockroach sql --url $url < $migration >> $log_file
+done
+
 echo "Database setup for this lab is complete."
 echo "For details, view $log_file."
@@ -0,0 +1,22 @@
+/*
+Maintains the most recent location of each vehicle directly on the vehicles
+table, so that listing vehicles with their current location no longer has
+to aggregate the whole location_history table.
+
+The application keeps these columns up to date whenever it writes a new
+location_history row (adding, checking out and checking in a vehicle).
+
+This script is safe to re-run: the UPDATE below doubles as the backfill
+command for location_history data that was loaded outside the application.
+*/
+
+ALTER TABLE movr.vehicles ADD COLUMN IF NOT EXISTS last_longitude FLOAT8;
+ALTER TABLE movr.vehicles ADD COLUMN IF NOT EXISTS last_latitude FLOAT8;
+ALTER TABLE movr.vehicles ADD COLUMN IF NOT EXISTS last_checkin TIMESTAMP;
+
+UPDATE movr.vehicles
+   SET (last_longitude, last_latitude, last_checkin) = (latest.longitude, latest.latitude, latest.ts)
+  FROM (  SELECT DISTINCT ON (vehicle_id) vehicle_id, longitude, latitude, ts
+            FROM movr.location_history
+        ORDER BY vehicle_id, ts DESC) AS latest
+ WHERE vehicles.id = latest.vehicle_id;
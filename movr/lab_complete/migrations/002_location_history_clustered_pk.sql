@@ -0,0 +1,26 @@
+/*
+Re-keys location_history on (vehicle_id, ts DESC) instead of a random UUID.
+
+Rows for the same vehicle are then stored next to each other, newest first,
+so looking up a vehicle's latest location is a single-key seek and reading a
+time range of its history is one contiguous scan.
+
+The old id column is then dropped. CockroachDB turns the old primary key
+into a unique secondary index on id (location_history_id_key) when the
+primary key is changed; that index is dropped first, so that each row is
+stored once rather than twice and inserts only write the primary index.
+Applications must no longer supply an id when inserting location history
+(the Java application doesn't; the Python, Go and Node versions of the lab
+still do, and need a database set up without this migration).
+
+The primary key change will fail if a vehicle has two location history rows
+with the same timestamp. Any such rows can be found with:
+
+    SELECT vehicle_id, ts, count(*) FROM movr.location_history
+     GROUP BY vehicle_id, ts HAVING count(*) > 1;
+*/
+
+ALTER TABLE movr.location_history ALTER COLUMN vehicle_id SET NOT NULL;
+ALTER TABLE movr.location_history ALTER PRIMARY KEY USING COLUMNS (vehicle_id, ts DESC);
+DROP INDEX IF EXISTS movr.location_history@location_history_id_key CASCADE;
+ALTER TABLE movr.location_history DROP COLUMN IF EXISTS id;
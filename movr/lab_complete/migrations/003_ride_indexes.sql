@@ -0,0 +1,14 @@
+/*
+Indexes for the two ride lookups the API makes.
+
+rides_user_start_idx serves the ride history for a user (newest first), so
+GET /api/rides?email= reads only that user's rides, already in order.
+
+rides_active_idx is a partial index that holds only rides that have not
+ended yet. Finding the active ride for a vehicle/user pair is a single seek
+into it, and the index stays small however long the ride history grows.
+*/
+
+CREATE INDEX IF NOT EXISTS rides_user_start_idx ON movr.rides (user_email, start_ts DESC);
+CREATE INDEX IF NOT EXISTS rides_active_idx ON movr.rides (vehicle_id, user_email, start_ts DESC)
+    WHERE end_ts IS NULL;
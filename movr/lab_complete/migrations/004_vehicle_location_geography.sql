@@ -0,0 +1,17 @@
+/*
+Adds the current position of each vehicle as a GEOGRAPHY point, with an
+inverted (spatial) index, so that area searches are answered by the
+database instead of filtering the full vehicle list in the application.
+
+last_location is a stored computed column derived from last_longitude and
+last_latitude (see 001), so it never needs to be written by the
+application and is backfilled for existing rows when it is added.
+
+vehicles_last_location_idx serves the radius (ST_DWithin) and map viewport
+(ST_Intersects) queries in VehicleRepository: only the S2 cells covering
+the searched area are read.
+*/
+
+ALTER TABLE movr.vehicles ADD COLUMN IF NOT EXISTS last_location GEOGRAPHY(POINT, 4326)
+    AS (ST_MakePoint(last_longitude, last_latitude)::GEOGRAPHY) STORED;
+CREATE INVERTED INDEX IF NOT EXISTS vehicles_last_location_idx ON movr.vehicles (last_location);
@@ -0,0 +1,16 @@
+/*
+Records how far background jobs that work through the location history in
+time order have got.
+
+The location history compaction job (LocationHistoryCompactor in the Java
+application) thins out each day of history once, when it has left the hot
+window, and then moves its watermark past it: simplifying a track that has
+already been simplified would drift further from the original one each time.
+One row per job; processed_before is the end of the last stretch of time the
+job has finished with.
+*/
+
+CREATE TABLE IF NOT EXISTS movr.job_watermarks (
+    job STRING PRIMARY KEY,
+    processed_before TIMESTAMP NOT NULL
+);
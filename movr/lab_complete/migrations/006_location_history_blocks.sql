@@ -0,0 +1,27 @@
+/*
+Adds a compact form of the location history: one row per vehicle per bucket
+of time (an hour by default) instead of one row per position.
+
+The packing job (LocationHistoryPacker in the Java application, off unless
+movr.track-blocks.enabled is set) moves the rows of each bucket that has left
+the hot window into a block, and deletes them from location_history. A block's
+data is the bucket's positions encoded by TrackBlockCodec: timestamps as
+varint deltas of deltas, coordinates as varint deltas of fixed-point values
+(1e-7 degrees, about a centimeter), so a position takes a few bytes instead of
+a row with its own key, columns and MVCC overhead.
+
+The blocks are keyed like location_history (vehicle first, newest first), so a
+vehicle's history is still one contiguous scan. first_ts and last_ts are the
+timestamps of the oldest and newest positions in the block, and points the
+number of positions.
+*/
+
+CREATE TABLE IF NOT EXISTS movr.location_history_blocks (
+    vehicle_id UUID NOT NULL REFERENCES movr.vehicles(id) ON DELETE CASCADE,
+    bucket TIMESTAMP NOT NULL,
+    first_ts TIMESTAMP NOT NULL,
+    last_ts TIMESTAMP NOT NULL,
+    points INT4 NOT NULL,
+    data BYTES NOT NULL,
+    PRIMARY KEY (vehicle_id, bucket DESC)
+);
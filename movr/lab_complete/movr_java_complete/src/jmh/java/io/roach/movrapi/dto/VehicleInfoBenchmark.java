@@ -0,0 +1,151 @@
+package io.roach.movrapi.dto;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+import io.roach.movrapi.util.JsonCodec;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the vehicle_info path of a response listing VEHICLES vehicles: writing the stored json into the
+ * response as is, against decoding it into a Map with JSONObject and serializing that (as the responses used to),
+ * and reading a field through VehicleInfo against reading it through JSONObject.
+ *
+ * The mapper is set up as Spring Boot sets it up for the application (snake case, Afterburner).
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VehicleInfoBenchmark {
+
+    private static final int VEHICLES = 1000;
+    private static final String VEHICLE_INFO = "{\"color\": \"red\", \"purchase_information\": " +
+        "{\"manufacturer\": \"Scoot Life\", \"purchase_date\": \"2019-10-31 01:45:18\", \"serial_number\": \"%d\"}, " +
+        "\"type\": \"scooter\", \"wear\": \"mint\"}";
+
+    private ObjectMapper objectMapper;
+    private List<VehicleWithLocationDTO> vehicles;
+
+    @Setup
+    public void setup() throws JsonProcessingException {
+        objectMapper = new ObjectMapper().setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE)
+            .registerModule(new AfterburnerModule());
+        // VehicleInfo reads with the application's mapper
+        new JsonCodec(objectMapper);
+
+        vehicles = new ArrayList<>();
+        Timestamp timestamp = Timestamp.valueOf("2020-11-01 10:00:00");
+        for (int i = 0; i < VEHICLES; i++) {
+            vehicles.add(new VehicleWithLocationDTO(UUID.randomUUID(), 80, false, String.valueOf(i),
+                String.format(VEHICLE_INFO, i), timestamp, 40.7, -74.0));
+        }
+
+        // both ways write the same response
+        if (!objectMapper.readTree(rawPassThrough()).equals(objectMapper.readTree(decodeAndSerialize()))) {
+            throw new IllegalStateException("The decoded vehicle info is not written as stored");
+        }
+    }
+
+    @Benchmark
+    public String rawPassThrough() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(vehicles);
+    }
+
+    @Benchmark
+    public String decodeAndSerialize() throws JsonProcessingException {
+        List<DecodedVehicle> decoded = new ArrayList<>(vehicles.size());
+        for (VehicleWithLocationDTO vehicle : vehicles) {
+            decoded.add(new DecodedVehicle(vehicle));
+        }
+        return objectMapper.writeValueAsString(decoded);
+    }
+
+    @Benchmark
+    public void vehicleInfoFieldRead(Blackhole blackhole) {
+        for (VehicleWithLocationDTO vehicle : vehicles) {
+            blackhole.consume(new VehicleInfo(vehicle.getVehicleInfo()).getSerialNumber());
+        }
+    }
+
+    @Benchmark
+    public void jsonObjectFieldRead(Blackhole blackhole) {
+        for (VehicleWithLocationDTO vehicle : vehicles) {
+            blackhole.consume(new JSONObject(vehicle.getVehicleInfo())
+                .getJSONObject(VehicleInfoDTO.PURCHASE_INFORMATION).getString(VehicleInfoDTO.SERIAL_NUMBER));
+        }
+    }
+
+    /**
+     * A vehicle as the responses used to carry it, with the vehicle info decoded into a Map.
+     */
+    private static class DecodedVehicle {
+
+        @JsonIgnore
+        private final VehicleWithLocationDTO vehicle;
+        @JsonProperty("vehicle_info")
+        private final Map<String, Object> vehicleInfo;
+
+        private DecodedVehicle(VehicleWithLocationDTO vehicle) {
+            this.vehicle = vehicle;
+            this.vehicleInfo = new JSONObject(vehicle.getVehicleInfo()).toMap();
+        }
+
+        public UUID getId() {
+            return vehicle.getId();
+        }
+
+        public int getBattery() {
+            return vehicle.getBattery();
+        }
+
+        public boolean isInUse() {
+            return vehicle.isInUse();
+        }
+
+        public int getSerialNumber() {
+            return vehicle.getSerialNumber();
+        }
+
+        @JsonProperty("last_latitude")
+        public double getLastLatitude() {
+            return vehicle.getLastLatitude();
+        }
+
+        @JsonProperty("last_longitude")
+        public double getLastLongitude() {
+            return vehicle.getLastLongitude();
+        }
+
+        @JsonProperty("timestamp")
+        @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd HH:mm:ss.SSS")
+        public Timestamp getTimestamp() {
+            return vehicle.getTimestamp();
+        }
+    }
+}
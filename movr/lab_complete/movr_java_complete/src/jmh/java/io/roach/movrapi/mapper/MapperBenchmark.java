@@ -0,0 +1,86 @@
+package io.roach.movrapi.mapper;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import io.roach.movrapi.dto.LocationDetailsDTO;
+import io.roach.movrapi.dto.RideDTO;
+import io.roach.movrapi.entity.LocationHistory;
+import io.roach.movrapi.entity.Ride;
+import io.roach.movrapi.entity.User;
+import io.roach.movrapi.entity.Vehicle;
+import org.modelmapper.ModelMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the generated MapStruct mappers with the reflective ModelMapper they replaced, on the two conversions
+ * ModelMapper used to do (a ride when it starts, its last position when it ends).
+ *
+ * Add -prof gc to the jmh.args to see what each mapping allocates.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapperBenchmark {
+
+    private final ModelMapper modelMapper = new ModelMapper();
+    private Ride ride;
+    private LocationHistory locationHistory;
+
+    @Setup
+    public void setup() {
+        Vehicle vehicle = new Vehicle();
+        vehicle.setId(UUID.randomUUID());
+        User user = new User();
+        user.setEmail("rider@test.com");
+        ride = new Ride();
+        ride.setId(UUID.randomUUID());
+        ride.setVehicle(vehicle);
+        ride.setUser(user);
+        ride.setStartTime(Timestamp.valueOf("2020-10-30 12:00:00"));
+        ride.setEndTime(Timestamp.valueOf("2020-10-30 12:30:00"));
+
+        locationHistory = new LocationHistory();
+        locationHistory.setTimestamp(Timestamp.valueOf("2020-10-30 12:30:00"));
+        locationHistory.setLatitude(40.123d);
+        locationHistory.setLongitude(-74.654d);
+
+        // ModelMapper works out (and caches) each type map on first use; do that before the warm-up starts
+        modelMapper.map(ride, RideDTO.class);
+        modelMapper.map(locationHistory, LocationDetailsDTO.class);
+    }
+
+    @Benchmark
+    public RideDTO rideMapStruct() {
+        return RideMapper.INSTANCE.toDto(ride);
+    }
+
+    @Benchmark
+    public RideDTO rideModelMapper() {
+        return modelMapper.map(ride, RideDTO.class);
+    }
+
+    @Benchmark
+    public LocationDetailsDTO locationMapStruct() {
+        return LocationHistoryMapper.INSTANCE.toDto(locationHistory);
+    }
+
+    @Benchmark
+    public LocationDetailsDTO locationModelMapper() {
+        return modelMapper.map(locationHistory, LocationDetailsDTO.class);
+    }
+}
@@ -0,0 +1,110 @@
+package io.roach.movrapi.util;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.gavaghan.geodesy.Ellipsoid;
+import org.gavaghan.geodesy.GeodeticCalculator;
+import org.gavaghan.geodesy.GlobalCoordinates;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the Geodesy distance methods with each other, and with the gavaghan GeodeticCalculator that Common used
+ * before, on pairs of points about a ride apart (up to ~10 km, around New York), and over a TRACK_POINTS point track.
+ *
+ * Each single-distance call takes the next of PAIRS pre-generated pairs, so the branch predictor and the JIT can't
+ * specialize on one input.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeodesyBenchmark {
+
+    private static final int PAIRS = 1024;
+    private static final int TRACK_POINTS = 4096;
+    private static final double CENTER_LATITUDE = 40.7;
+    private static final double CENTER_LONGITUDE = -74.0;
+    // about 5 km either way
+    private static final double SPREAD_DEGREES = 0.05;
+
+    private final GeodeticCalculator geodeticCalculator = new GeodeticCalculator();
+    private final double[] latitudes1 = new double[PAIRS];
+    private final double[] longitudes1 = new double[PAIRS];
+    private final double[] latitudes2 = new double[PAIRS];
+    private final double[] longitudes2 = new double[PAIRS];
+    private final double[] trackLatitudes = new double[TRACK_POINTS];
+    private final double[] trackLongitudes = new double[TRACK_POINTS];
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < PAIRS; i++) {
+            latitudes1[i] = CENTER_LATITUDE + (random.nextDouble() * 2 - 1) * SPREAD_DEGREES;
+            longitudes1[i] = CENTER_LONGITUDE + (random.nextDouble() * 2 - 1) * SPREAD_DEGREES;
+            latitudes2[i] = CENTER_LATITUDE + (random.nextDouble() * 2 - 1) * SPREAD_DEGREES;
+            longitudes2[i] = CENTER_LONGITUDE + (random.nextDouble() * 2 - 1) * SPREAD_DEGREES;
+        }
+        // a meandering ride, a few meters between points
+        trackLatitudes[0] = CENTER_LATITUDE;
+        trackLongitudes[0] = CENTER_LONGITUDE;
+        for (int i = 1; i < TRACK_POINTS; i++) {
+            trackLatitudes[i] = trackLatitudes[i - 1] + random.nextGaussian() * 5e-5;
+            trackLongitudes[i] = trackLongitudes[i - 1] + random.nextGaussian() * 5e-5;
+        }
+    }
+
+    @Benchmark
+    public double geodeticCalculator() {
+        int i = nextPair();
+        return geodeticCalculator.calculateGeodeticCurve(Ellipsoid.WGS84,
+            new GlobalCoordinates(latitudes1[i], longitudes1[i]),
+            new GlobalCoordinates(latitudes2[i], longitudes2[i])).getEllipsoidalDistance() / 1000d;
+    }
+
+    @Benchmark
+    public double vincenty() {
+        int i = nextPair();
+        return Geodesy.vincenty(latitudes1[i], longitudes1[i], latitudes2[i], longitudes2[i]);
+    }
+
+    @Benchmark
+    public double haversine() {
+        int i = nextPair();
+        return Geodesy.haversine(latitudes1[i], longitudes1[i], latitudes2[i], longitudes2[i]);
+    }
+
+    @Benchmark
+    public double spherical() {
+        int i = nextPair();
+        return Geodesy.spherical(latitudes1[i], longitudes1[i], latitudes2[i], longitudes2[i]);
+    }
+
+    @Benchmark
+    public double trackLengthVincenty() {
+        return Geodesy.trackLength(Geodesy.Method.VINCENTY, trackLatitudes, trackLongitudes);
+    }
+
+    @Benchmark
+    public double trackLengthHaversine() {
+        return Geodesy.trackLength(Geodesy.Method.HAVERSINE, trackLatitudes, trackLongitudes);
+    }
+
+    private int nextPair() {
+        next = (next + 1) & (PAIRS - 1);
+        return next;
+    }
+}
@@ -1,20 +1,181 @@
 package io.roach.movrapi;
 
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManagerFactory;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.roach.movrapi.dao.SavepointRetryTransactionManager;
+import io.roach.movrapi.dao.StatementAccounting;
+import io.roach.movrapi.entity.User;
+import io.roach.movrapi.entity.Vehicle;
+import io.roach.movrapi.mapper.EntityCopyMapper;
+import io.roach.movrapi.service.EntityCache;
+
 @SpringBootApplication
 @EnableTransactionManagement
+@EnableScheduling
 public class MovrApiApplication {
 
     private static final Logger logger = LoggerFactory.getLogger(MovrApiApplication.class);
 
+    private static final String HTTP_SERVER_REQUESTS = "http.server.requests";
+
     public static void main(String[] args) {
         SpringApplication.run(MovrApiApplication.class, args);
         logger.info("*** MovrApiApplication started ***");
     }
+
+    /**
+     * Registered by Spring Boot into the shared ObjectMapper: replaces reflective getter/setter/field access
+     * in (de)serializers with generated bytecode.
+     */
+    @Bean
+    public Module afterburnerModule() {
+        return new AfterburnerModule();
+    }
+
+    /**
+     * Replaces Spring Boot's JPA transaction manager, so that read-only transactions labelled as follower reads run
+     * AS OF SYSTEM TIME (when movr.follower-reads.enabled is set, as only CockroachDB supports it), and so that
+     * TransactionRetryAspect can retry a transaction from a savepoint.
+     */
+    @Bean
+    public SavepointRetryTransactionManager transactionManager(EntityManagerFactory entityManagerFactory,
+        @Value("${movr.follower-reads.enabled:false}") boolean followerReadsEnabled) {
+        return new SavepointRetryTransactionManager(entityManagerFactory, followerReadsEnabled);
+    }
+
+    /**
+     * Cache in front of UserService.getUser, which every login, logout and ride start/end goes through.
+     */
+    @Bean
+    public EntityCache<String, User> userCache(
+        @Value("${movr.cache.users.maximum-size:10000}") long maximumSize,
+        @Value("${movr.cache.users.expire-after-write-ms:60000}") long expireAfterWriteMillis) {
+        return new EntityCache<>("users", maximumSize, Duration.ofMillis(expireAfterWriteMillis),
+            EntityCopyMapper.INSTANCE::copy);
+    }
+
+    /**
+     * Cache in front of VehicleService.getVehicle.
+     */
+    @Bean
+    public EntityCache<UUID, Vehicle> vehicleCache(
+        @Value("${movr.cache.vehicles.maximum-size:10000}") long maximumSize,
+        @Value("${movr.cache.vehicles.expire-after-write-ms:60000}") long expireAfterWriteMillis) {
+        return new EntityCache<>("vehicles", maximumSize, Duration.ofMillis(expireAfterWriteMillis),
+            EntityCopyMapper.INSTANCE::copy);
+    }
+
+    /**
+     * Hibernate keeps the statistics (queries, entity loads, flushes, cache hits) that Spring Boot publishes as the
+     * hibernate.* metrics, unless movr.metrics.hibernate-statistics is turned off; the log line of each session's
+     * statistics that goes with them is turned off.
+     */
+    @Bean
+    public HibernatePropertiesCustomizer statisticsCustomizer(
+        @Value("${movr.metrics.hibernate-statistics:true}") boolean statisticsEnabled) {
+        return properties -> {
+            if (statisticsEnabled) {
+                properties.put(AvailableSettings.GENERATE_STATISTICS, true);
+                properties.put(AvailableSettings.LOG_SESSION_METRICS, false);
+            }
+        };
+    }
+
+    /**
+     * Publishes the latency of the HTTP requests (the http.server.requests timer, one per endpoint) as a histogram,
+     * so percentiles can be aggregated across instances. The buckets run from 1 ms to 10 s.
+     */
+    @Bean
+    public MeterFilter httpLatencyHistogram() {
+        return new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                if (!HTTP_SERVER_REQUESTS.equals(id.getName())) {
+                    return config;
+                }
+                return DistributionStatisticConfig.builder()
+                    .percentilesHistogram(true)
+                    .minimumExpectedValue((double) TimeUnit.MILLISECONDS.toNanos(1))
+                    .maximumExpectedValue((double) TimeUnit.SECONDS.toNanos(10))
+                    .build()
+                    .merge(config);
+            }
+        };
+    }
+
+    /**
+     * Write batching, part 1: with movr.write-batching.batch-size above 1, Hibernate sends up to that many inserts
+     * (or updates) of the same table as one JDBC batch, ordering the statements of a flush by table so that they
+     * batch up.
+     */
+    @Bean
+    public HibernatePropertiesCustomizer writeBatchingCustomizer(
+        @Value("${movr.write-batching.batch-size:1}") int batchSize) {
+        return properties -> {
+            if (batchSize > 1) {
+                properties.put(AvailableSettings.STATEMENT_BATCH_SIZE, batchSize);
+                properties.put(AvailableSettings.ORDER_INSERTS, true);
+                properties.put(AvailableSettings.ORDER_UPDATES, true);
+            }
+        };
+    }
+
+    /**
+     * Write batching, part 2: the PostgreSQL driver rewrites each batch of inserts into multi-row INSERT
+     * statements, so a batch is a few round trips rather than one per row.
+     */
+    @Bean
+    public static BeanPostProcessor writeBatchingDataSourcePostProcessor(
+        @Value("${movr.write-batching.batch-size:1}") int batchSize) {
+        return new BeanPostProcessor() {
+            // before initialization, so it sees the pool before statementAccountingDataSourcePostProcessor wraps it
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (batchSize > 1 && bean instanceof HikariDataSource) {
+                    ((HikariDataSource) bean).addDataSourceProperty("reWriteBatchedInserts", "true");
+                }
+                return bean;
+            }
+        };
+    }
+
+    /**
+     * Puts the proxy that counts each request's SQL statements (see StatementAccounting) around the connection pool,
+     * unless movr.sql-accounting.enabled is turned off. The pool metrics still find the pool behind it.
+     */
+    @Bean
+    public static BeanPostProcessor statementAccountingDataSourcePostProcessor(
+        @Value("${movr.sql-accounting.enabled:true}") boolean enabled) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (enabled && bean instanceof HikariDataSource) {
+                    return StatementAccounting.wrap((HikariDataSource) bean);
+                }
+                return bean;
+            }
+        };
+    }
 }
@@ -13,10 +13,14 @@ import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
 
 import io.roach.movrapi.dto.MessagesDTO;
+import io.roach.movrapi.exception.IngestQueueFullException;
+import io.roach.movrapi.exception.IngestTimeoutException;
+import io.roach.movrapi.exception.InvalidRequestException;
 import io.roach.movrapi.exception.InvalidUUIDException;
 import io.roach.movrapi.exception.InvalidValueException;
 import io.roach.movrapi.exception.InvalidVehicleStateException;
 import io.roach.movrapi.exception.NotFoundException;
+import io.roach.movrapi.exception.TransactionRetriesExhaustedException;
 import io.roach.movrapi.exception.UserAlreadyExistsException;
 import org.hibernate.exception.DataException;
 
@@ -28,6 +32,7 @@ import org.hibernate.exception.DataException;
 public class ControllerExceptionHandler extends ResponseEntityExceptionHandler {
 
     private static final String MESSAGE_KEY = "messages";
+    private static final String RETRY_AFTER_SECONDS = "1";
 
     // handles any Invalid Values, typically math errors
     @ExceptionHandler(InvalidValueException.class)
@@ -47,6 +52,12 @@ public class ControllerExceptionHandler extends ResponseEntityExceptionHandler {
         return new ResponseEntity<>(createResponseBody(e.getMessage()), HttpStatus.BAD_REQUEST);
     }
 
+    // handles a request that can't be handled as sent, whatever the data in it
+    @ExceptionHandler(InvalidRequestException.class)
+    public ResponseEntity<Object> handleInvalidRequest(InvalidRequestException e, WebRequest request) {
+        return new ResponseEntity<>(createResponseBody(e.getMessage()), HttpStatus.BAD_REQUEST);
+    }
+
     // handles when trying to get an entity that is not there (404)
     @ExceptionHandler(NotFoundException.class)
     public ResponseEntity<Object> handleNotFound(NotFoundException e, WebRequest request) {
@@ -65,6 +76,34 @@ public class ControllerExceptionHandler extends ResponseEntityExceptionHandler {
         return new ResponseEntity<>(createResponseBody(e.getMessage()), HttpStatus.CONFLICT);
     }
 
+    // handles a transaction that kept hitting serialization conflicts until it ran out of retries: the request can be
+    // retried as is once the contention dies down
+    @ExceptionHandler(TransactionRetriesExhaustedException.class)
+    public ResponseEntity<Object> handleTransactionRetriesExhausted(TransactionRetriesExhaustedException e,
+                                                                    WebRequest request) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS);
+        return new ResponseEntity<>(createResponseBody(e.getMessage()), headers, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    // handles vehicle positions that can't be queued for writing right now: the client should slow down and send
+    // them again
+    @ExceptionHandler(IngestQueueFullException.class)
+    public ResponseEntity<Object> handleIngestQueueFull(IngestQueueFullException e, WebRequest request) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS);
+        return new ResponseEntity<>(createResponseBody(e.getMessage()), headers, HttpStatus.TOO_MANY_REQUESTS);
+    }
+
+    // handles vehicle positions that were queued but not written in time: they may still be, and sending them again
+    // is harmless
+    @ExceptionHandler(IngestTimeoutException.class)
+    public ResponseEntity<Object> handleIngestTimeout(IngestTimeoutException e, WebRequest request) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS);
+        return new ResponseEntity<>(createResponseBody(e.getMessage()), headers, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
     // handles any generic integrity errors the database might throw
     @ExceptionHandler(DataIntegrityViolationException.class)
     public ResponseEntity<Object> handleDataIntegrityViolationException(DataIntegrityViolationException e, WebRequest request) {
@@ -4,7 +4,6 @@ import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.List;
-import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
@@ -13,16 +12,14 @@ import org.springframework.web.bind.annotation.*;
 
 import io.roach.movrapi.dto.*;
 import io.roach.movrapi.entity.Ride;
-import io.roach.movrapi.entity.Vehicle;
 import io.roach.movrapi.exception.InvalidUUIDException;
 import io.roach.movrapi.exception.InvalidValueException;
 import io.roach.movrapi.exception.InvalidVehicleStateException;
 import io.roach.movrapi.exception.NotFoundException;
+import io.roach.movrapi.mapper.RideMapper;
 import io.roach.movrapi.service.RideService;
 import static io.roach.movrapi.util.Common.*;
 import static io.roach.movrapi.util.Constants.*;
-import org.json.JSONObject;
-import org.modelmapper.ModelMapper;
 
 /**
  * REST Controller to manage ride activities
@@ -32,8 +29,6 @@ import org.modelmapper.ModelMapper;
 @RequestMapping("/api/rides")
 public class RideController {
 
-    private static final ModelMapper modelMapper = new ModelMapper();
-
     private RideService rideService;
 
     @Autowired
@@ -56,8 +51,9 @@ public class RideController {
                                                                 @RequestParam String email)
         throws NotFoundException, InvalidUUIDException {
 
-        Ride ride = rideService.getActiveRide(toUUID(vehicleId, ERR_INVALID_VEHICLE_ID), email);
-        return ResponseEntity.ok(VehicleHelper.toWithLocationDTO(ride.getVehicle()));
+        VehicleWithLocationDTO vehicleWithLocationDTO =
+            rideService.getActiveRideVehicle(toUUID(vehicleId, ERR_INVALID_VEHICLE_ID), email);
+        return ResponseEntity.ok(vehicleWithLocationDTO);
     }
 
     /**
@@ -77,7 +73,7 @@ public class RideController {
         Timestamp startTime = Timestamp.valueOf(LocalDateTime.now(ZoneOffset.UTC));
         Ride ride = rideService.startRide(toUUID(startRideRequestDTO.getVehicleId(), ERR_INVALID_VEHICLE_ID),
             startRideRequestDTO.getEmail(), startTime);
-        RideDTO rideDTO = toDto(ride);
+        RideDTO rideDTO = RideMapper.INSTANCE.toDto(ride);
         StartRideResponseDTO startRideResponseDTO = new StartRideResponseDTO();
         startRideResponseDTO.setRideDTO(rideDTO);
         startRideResponseDTO.setMessages(
@@ -112,12 +108,7 @@ public class RideController {
         double distance = calculateDistance(locationDetailsDTO.getLatitude(), locationDetailsDTO.getLongitude(),
             latitude, longitude);
         double minutes = calculateDurationMinutes(locationDetailsDTO.getTimestamp(), endTime);
-        double speed = calculateVelocity(locationDetailsDTO.getLatitude(),
-            locationDetailsDTO.getLongitude(),
-            locationDetailsDTO.getTimestamp(),
-            latitude,
-            longitude,
-            endTime);
+        double speed = calculateVelocity(distance, locationDetailsDTO.getTimestamp(), endTime);
         String[] messages = {String.format(MSG_RIDE_ENDED_1, endRideRequestDTO.getVehicleId()),
             String.format(MSG_RIDE_ENDED_2, distance, minutes, speed)};
 
@@ -134,36 +125,7 @@ public class RideController {
     @GetMapping
     public ResponseEntity<List<RideWithVehicleDTO>> getRides(@RequestParam String email) throws NotFoundException {
 
-        List<Ride> rideDTOList = rideService.getRidesForUser(email);
-        return ResponseEntity.ok(toRideWithVehicleDto(rideDTOList));
-    }
-
-    /**
-     * Converts the Ride entity object to a Data Transfer Object.
-     *
-     * @param ride  the Ride entity object
-     * @return      RideDTO
-     */
-    private RideDTO toDto(Ride ride) {
-        return  modelMapper.map(ride, RideDTO.class);
-    }
-
-    /**
-     * Converts a list of Ride entity objects to a list of RideWithVehicleDTOs
-     *
-     * @param rides  list of Ride objects
-     * @return       List of RideWithVehicleDTOs
-     */
-    private List<RideWithVehicleDTO> toRideWithVehicleDto(List<Ride> rides) {
-
-        return rides.stream().map(r -> {
-            RideWithVehicleDTO rideWithVehicleDTO =  modelMapper.map(r, RideWithVehicleDTO.class);
-            Vehicle vehicle = r.getVehicle();
-            modelMapper.map(vehicle, rideWithVehicleDTO);
-            rideWithVehicleDTO.setVehicleInfo(new JSONObject(vehicle.getVehicleInfo()).toMap());
-            return rideWithVehicleDTO;
-        })
-        .collect(Collectors.toList());
+        List<RideWithVehicleDTO> rideDTOList = rideService.getRidesForUser(email);
+        return ResponseEntity.ok(rideDTOList);
     }
 }
-
@@ -0,0 +1,76 @@
+package io.roach.movrapi.controller;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import io.roach.movrapi.dao.StatementAccounting;
+import io.roach.movrapi.dao.StatementStats;
+
+/**
+ * Counts the SQL statements each HTTP request runs, and the time spent in them (see StatementAccounting), and logs
+ * the requests that ran more than movr.sql-accounting.warn-statements statements, spent more than warn-ms in them,
+ * or ran the same statement more than warn-repeats times (likely an N+1 query), along with the most repeated
+ * statement. The others are logged at debug level. The counts can also be sent back to the caller in response
+ * headers (see StatementHeaderAdvice).
+ *
+ * Only the statements run on the request's thread are counted: positions posted to /api/vehicles/locations are
+ * written by the ingest flusher, so they aren't.
+ *
+ * Like the proxy that does the counting, the filter is left out when movr.sql-accounting.enabled is off.
+ */
+
+@ConditionalOnProperty(name = "movr.sql-accounting.enabled", havingValue = "true", matchIfMissing = true)
+@Component
+public class StatementAccountingFilter extends OncePerRequestFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(StatementAccountingFilter.class);
+
+    private final int warnStatements;
+    private final long warnNanos;
+    private final int warnRepeats;
+
+    @Autowired
+    public StatementAccountingFilter(@Value("${movr.sql-accounting.warn-statements:20}") int warnStatements,
+                                     @Value("${movr.sql-accounting.warn-ms:500}") long warnMillis,
+                                     @Value("${movr.sql-accounting.warn-repeats:5}") int warnRepeats) {
+        this.warnStatements = warnStatements;
+        this.warnNanos = TimeUnit.MILLISECONDS.toNanos(warnMillis);
+        this.warnRepeats = warnRepeats;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+        throws ServletException, IOException {
+
+        StatementAccounting.begin();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            log(request, response, StatementAccounting.end());
+        }
+    }
+
+    private void log(HttpServletRequest request, HttpServletResponse response, StatementStats stats) {
+        if (stats.getStatements() > warnStatements || stats.getNanos() > warnNanos
+            || stats.getMaxRepeats() > warnRepeats) {
+            logger.warn("{} {} ({}) ran {} SQL statements in {} ms; the most repeated, {} times: {}",
+                request.getMethod(), request.getRequestURI(), response.getStatus(), stats.getStatements(),
+                TimeUnit.NANOSECONDS.toMillis(stats.getNanos()), stats.getMaxRepeats(), stats.getMostRepeated());
+        } else if (logger.isDebugEnabled()) {
+            logger.debug("{} {} ({}) ran {} SQL statements in {} us", request.getMethod(), request.getRequestURI(),
+                response.getStatus(), stats.getStatements(), TimeUnit.NANOSECONDS.toMicros(stats.getNanos()));
+        }
+    }
+}
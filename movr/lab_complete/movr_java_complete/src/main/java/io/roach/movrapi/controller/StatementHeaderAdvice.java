@@ -0,0 +1,67 @@
+package io.roach.movrapi.controller;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import io.roach.movrapi.dao.StatementAccounting;
+import io.roach.movrapi.dao.StatementStats;
+
+/**
+ * Sends the SQL statements a request ran (see StatementAccountingFilter) back in response headers, when
+ * movr.sql-accounting.response-header is on; meant for debugging and for tests, as it tells the caller about the
+ * queries behind the API:
+ *
+ *   X-Movr-Sql-Statements      the number of statements
+ *   X-Movr-Sql-Micros          the time spent in them
+ *   X-Movr-Sql-Max-Repeats     the number of times the most repeated statement was run
+ *
+ * The headers have to be set before the body is written, so they count the statements run up to then, which is all
+ * of them: the controllers map entities to DTOs before returning, so writing the body doesn't load anything. With
+ * movr.sql-accounting.enabled off nothing is counted, so the advice is left out and there are no headers.
+ */
+
+@ConditionalOnProperty(name = "movr.sql-accounting.enabled", havingValue = "true", matchIfMissing = true)
+@ControllerAdvice
+public class StatementHeaderAdvice implements ResponseBodyAdvice<Object> {
+
+    public static final String STATEMENTS_HEADER = "X-Movr-Sql-Statements";
+    public static final String MICROS_HEADER = "X-Movr-Sql-Micros";
+    public static final String MAX_REPEATS_HEADER = "X-Movr-Sql-Max-Repeats";
+
+    private final boolean enabled;
+
+    @Autowired
+    public StatementHeaderAdvice(@Value("${movr.sql-accounting.response-header:false}") boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return enabled;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        StatementStats stats = StatementAccounting.current();
+        if (stats != null) {
+            HttpHeaders headers = response.getHeaders();
+            headers.set(STATEMENTS_HEADER, Integer.toString(stats.getStatements()));
+            headers.set(MICROS_HEADER, Long.toString(TimeUnit.NANOSECONDS.toMicros(stats.getNanos())));
+            headers.set(MAX_REPEATS_HEADER, Integer.toString(stats.getMaxRepeats()));
+        }
+        return body;
+    }
+}
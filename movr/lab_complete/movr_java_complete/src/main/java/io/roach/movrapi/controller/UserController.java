@@ -8,12 +8,10 @@ import org.springframework.web.bind.annotation.*;
 import io.roach.movrapi.dto.MessagesDTO;
 import io.roach.movrapi.dto.UserDTO;
 import io.roach.movrapi.dto.UserResponseDTO;
-import io.roach.movrapi.entity.User;
 import io.roach.movrapi.exception.NotFoundException;
 import io.roach.movrapi.exception.UserAlreadyExistsException;
 import io.roach.movrapi.service.UserService;
 import static io.roach.movrapi.util.Constants.MSG_DELETED_EMAIL;
-import org.modelmapper.ModelMapper;
 
 /**
  * REST Controller to manage user activities
@@ -23,8 +21,6 @@ import org.modelmapper.ModelMapper;
 @RequestMapping("/api")
 public class UserController {
 
-    private static final ModelMapper modelMapper = new ModelMapper();
-
     private UserService userService;
 
     @Autowired
@@ -57,8 +53,8 @@ public class UserController {
     @GetMapping("/users")
     public ResponseEntity<UserResponseDTO> getProfile(@RequestParam String email) throws NotFoundException {
 
-        User user = userService.getUser(email);
-        return ResponseEntity.ok(toDto(user));
+        UserDTO userDTO = userService.getUserProfile(email);
+        return ResponseEntity.ok(new UserResponseDTO(userDTO, null));
     }
 
     /**
@@ -74,16 +70,4 @@ public class UserController {
         userService.delete(email);
         return ResponseEntity.ok(new MessagesDTO(MSG_DELETED_EMAIL));
     }
-
-    /**
-     * Converts the User entity object to a Data Transfer Object.
-     *
-     * @param user  the User entity object
-     * @return      UserDTO
-     */
-    private UserResponseDTO toDto(User user) {
-        UserDTO userDTO = modelMapper.map(user, UserDTO.class);
-        return new UserResponseDTO(userDTO, null);
-    }
 }
-
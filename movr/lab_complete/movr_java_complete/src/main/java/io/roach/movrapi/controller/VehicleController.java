@@ -1,28 +1,50 @@
 package io.roach.movrapi.controller;
 
 import javax.validation.constraints.Min;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
+import io.roach.movrapi.dto.LocationDetailsDTO;
+import io.roach.movrapi.dto.LocationPingDTO;
 import io.roach.movrapi.dto.MessagesDTO;
+import io.roach.movrapi.dto.NearbyVehicleDTO;
 import io.roach.movrapi.dto.NewVehicleDTO;
 import io.roach.movrapi.dto.VehicleInfoDTO;
+import io.roach.movrapi.dto.VehicleLocationDTO;
 import io.roach.movrapi.dto.VehicleWithHistoryDTO;
 import io.roach.movrapi.dto.VehicleWithLocationDTO;
 import io.roach.movrapi.entity.Vehicle;
-import io.roach.movrapi.entity.VehicleWithLocation;
+import io.roach.movrapi.exception.IngestQueueFullException;
+import io.roach.movrapi.exception.IngestTimeoutException;
+import io.roach.movrapi.exception.InvalidRequestException;
 import io.roach.movrapi.exception.InvalidUUIDException;
 import io.roach.movrapi.exception.InvalidValueException;
 import io.roach.movrapi.exception.InvalidVehicleStateException;
 import io.roach.movrapi.exception.NotFoundException;
+import io.roach.movrapi.service.LocationIngestBuffer;
 import io.roach.movrapi.service.VehicleService;
 import static io.roach.movrapi.util.Common.*;
 import static io.roach.movrapi.util.Constants.ERR_INVALID_VEHICLE_ID;
+import static io.roach.movrapi.util.Constants.ERR_LOCATION_MISSING;
+import static io.roach.movrapi.util.Constants.ERR_TIMESTAMP_IN_FUTURE;
+import static io.roach.movrapi.util.Constants.ERR_TOO_MANY_LOCATIONS;
+import static io.roach.movrapi.util.Constants.HEADER_INDEX_STALENESS;
+import static io.roach.movrapi.util.Constants.HEADER_NEXT_CURSOR;
 import static io.roach.movrapi.util.Constants.MSG_DELETED_VEHICLE;
+import static io.roach.movrapi.util.Constants.MSG_LOCATIONS_ACCEPTED;
+import static io.roach.movrapi.util.Constants.MSG_LOCATIONS_SAVED;
 
 /**
  * REST Controller to manage basic vehicle activities
@@ -34,10 +56,15 @@ import static io.roach.movrapi.util.Constants.MSG_DELETED_VEHICLE;
 public class VehicleController {
 
     private VehicleService vehicleService;
+    private LocationIngestBuffer locationIngestBuffer;
+    private long maxClockSkewMillis;
 
     @Autowired
-    public VehicleController(VehicleService vehicleService) {
+    public VehicleController(VehicleService vehicleService, LocationIngestBuffer locationIngestBuffer,
+                             @Value("${movr.ingest.max-clock-skew-ms:60000}") long maxClockSkewMillis) {
         this.vehicleService = vehicleService;
+        this.locationIngestBuffer = locationIngestBuffer;
+        this.maxClockSkewMillis = maxClockSkewMillis;
     }
 
     /**
@@ -57,35 +84,207 @@ public class VehicleController {
     }
 
     /**
-     * Gets a list of vehicles with their location(limited by passed value).
+     * Adds positions reported by vehicles (any number of vehicles, in any order) to their location history.
      *
-     * @param maxVehicles              the maximum number of vehicle rows to return
+     * The positions are queued and written in bulk with those of other requests. Unless the request asks to be
+     * durable (or the server is configured that way), it returns 202 once they are queued; a durable request
+     * returns 200 once they are committed. Positions of unknown vehicles, and positions already recorded, are
+     * skipped. The whole batch is rejected if any position is invalid, including one timestamped further ahead of
+     * the server's clock (UTC) than movr.ingest.max-clock-skew-ms: a vehicle only moves to a position newer than the
+     * one it has, so a single future position would pin it in place.
+     *
+     * @param locations                 a json array of {vehicle_id, ts, lat, lon}
+     * @param durable                   whether to wait until the positions are committed (omit for the server's
+     *                                  default)
+     * @return                          a message with the number of positions accepted
+     * @throws InvalidUUIDException     if a vehicle id is not a valid UUID
+     * @throws InvalidValueException    if a timestamp, latitude or longitude is not valid, or a timestamp is in the
+     *                                  future
+     * @throws InvalidRequestException  if a position is null, or there are more than a request can carry (400)
+     * @throws IngestQueueFullException if the server has too many positions waiting to be written (429)
+     * @throws IngestTimeoutException   if a durable request's positions were not committed in time (503)
+     */
+    @PostMapping("/locations")
+    public ResponseEntity<MessagesDTO> addLocations(@RequestBody List<LocationPingDTO> locations,
+                                                    @RequestParam(value = "durable", required = false) Boolean durable)
+        throws InvalidUUIDException, InvalidValueException, InvalidRequestException, IngestQueueFullException,
+        IngestTimeoutException {
+
+        if (locations.size() > VehicleService.MAX_LOCATIONS_PER_REQUEST) {
+            throw new InvalidRequestException(
+                String.format(ERR_TOO_MANY_LOCATIONS, VehicleService.MAX_LOCATIONS_PER_REQUEST));
+        }
+        // positions are timestamped in UTC, like the ones the server records itself
+        Timestamp latest = new Timestamp(Timestamp.valueOf(LocalDateTime.now(ZoneOffset.UTC)).getTime() +
+            maxClockSkewMillis);
+        List<VehicleLocationDTO> vehicleLocations = new ArrayList<>(locations.size());
+        for (int i = 0; i < locations.size(); i++) {
+            LocationPingDTO location = locations.get(i);
+            if (location == null) {
+                throw new InvalidRequestException(String.format(ERR_LOCATION_MISSING, i));
+            }
+            Timestamp timestamp = toTimestamp(location.getTs());
+            if (timestamp.after(latest)) {
+                throw new InvalidValueException(
+                    String.format(ERR_TIMESTAMP_IN_FUTURE, location.getTs(), maxClockSkewMillis));
+            }
+            vehicleLocations.add(new VehicleLocationDTO(toUUID(location.getVehicleId(), ERR_INVALID_VEHICLE_ID),
+                timestamp, convertLatToDouble(location.getLat()), convertLonToDouble(location.getLon())));
+        }
+
+        if (locationIngestBuffer.submit(vehicleLocations, durable)) {
+            return ResponseEntity.ok(new MessagesDTO(String.format(MSG_LOCATIONS_SAVED, vehicleLocations.size())));
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+            .body(new MessagesDTO(String.format(MSG_LOCATIONS_ACCEPTED, vehicleLocations.size())));
+    }
+
+    /**
+     * Gets a page of vehicles with their location (limited by passed value), ordered by vehicle id.
+     *
+     * If there are more vehicles, the response carries an X-Next-Cursor header; pass its value back as
+     * `cursor` to get the next page.
+     *
+     * @param maxVehicles              the maximum number of vehicle rows to return (capped by the server)
+     * @param cursor                   the X-Next-Cursor value from the previous page (omit for the first page)
      * @return                         a json array containing the vehicle details
-     * @throws InvalidValueException   if you pass 0 or a negative value for the maximum rows to return
+     * @throws InvalidValueException   if the cursor is not one the server handed out
      */
     @GetMapping
     public ResponseEntity<List<VehicleWithLocationDTO>> getVehiclesWithLocation(
-            @RequestParam(value = "max_vehicles", required = false) @Min(1) Integer maxVehicles) {
+            @RequestParam(value = "max_vehicles", required = false) @Min(1) Integer maxVehicles,
+            @RequestParam(value = "cursor", required = false) String cursor) throws InvalidValueException {
+
+        UUID afterVehicleId = cursor == null ? null : decodeCursor(cursor);
+        Slice<VehicleWithLocationDTO> vehicleWithLocationSlice =
+            vehicleService.getVehiclesWithLocation(maxVehicles, afterVehicleId);
+        List<VehicleWithLocationDTO> vehicleWithLocationList = vehicleWithLocationSlice.getContent();
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (vehicleWithLocationSlice.hasNext()) {
+            UUID lastVehicleId = vehicleWithLocationList.get(vehicleWithLocationList.size() - 1).getId();
+            response.header(HEADER_NEXT_CURSOR, encodeCursor(lastVehicleId));
+        }
+        return response.body(vehicleWithLocationList);
+
+    }
+
+    /**
+     * Gets the vehicles closest to a point, nearest first.
+     *
+     * This is answered from an in-memory index of the vehicles' latest positions; the X-Index-Staleness-Ms
+     * response header says how long ago that index was last rebuilt from the database.
+     *
+     * @param latitude                 latitude of the point to search around
+     * @param longitude                longitude of the point to search around
+     * @param radiusMeters             the search radius in meters (capped by the server)
+     * @param availableOnly            true to leave out vehicles that are in use
+     * @param maxVehicles              the maximum number of vehicles to return (capped by the server)
+     * @return                         a json array of the vehicles with their distance from the point
+     * @throws InvalidValueException   if the latitude or longitude is not valid
+     */
+    @GetMapping("/nearby")
+    public ResponseEntity<List<NearbyVehicleDTO>> getNearbyVehicles(
+            @RequestParam(value = "lat") String latitude,
+            @RequestParam(value = "lon") String longitude,
+            @RequestParam(value = "radius_m", required = false) @Min(1) Integer radiusMeters,
+            @RequestParam(value = "available", required = false, defaultValue = "false") boolean availableOnly,
+            @RequestParam(value = "max_vehicles", required = false) @Min(1) Integer maxVehicles)
+        throws InvalidValueException {
 
-        List<VehicleWithLocation> vehicleWithLocationList = vehicleService.getVehiclesWithLocation(maxVehicles);
-        return ResponseEntity.ok(VehicleHelper.toVehicleWithLocationDTOList(vehicleWithLocationList));
+        List<NearbyVehicleDTO> nearbyVehicles = vehicleService.getNearbyVehicles(convertLatToDouble(latitude),
+            convertLonToDouble(longitude), radiusMeters, availableOnly, maxVehicles);
+        return ResponseEntity.ok()
+            .header(HEADER_INDEX_STALENESS, String.valueOf(vehicleService.getNearbyIndexStalenessMillis()))
+            .body(nearbyVehicles);
+    }
 
+    /**
+     * Gets the vehicles within a radius of a point, nearest first, with their full details.
+     *
+     * Unlike /nearby this is searched by the database, so it includes the vehicle info and battery level. It is a
+     * follower read, like the other map reads: it sees the vehicles as they were a few seconds ago (about 4.8 s on
+     * CockroachDB), so a change committed since then isn't in the answer yet.
+     *
+     * @param latitude                 latitude of the point to search around
+     * @param longitude                longitude of the point to search around
+     * @param radiusMeters             the search radius in meters (capped by the server)
+     * @param maxVehicles              the maximum number of vehicles to return (capped by the server)
+     * @return                         a json array containing the vehicle details
+     * @throws InvalidValueException   if the latitude or longitude is not valid
+     */
+    @GetMapping("/within")
+    public ResponseEntity<List<VehicleWithLocationDTO>> getVehiclesWithinRadius(
+            @RequestParam(value = "lat") String latitude,
+            @RequestParam(value = "lon") String longitude,
+            @RequestParam(value = "radius_m", required = false) @Min(1) Integer radiusMeters,
+            @RequestParam(value = "max_vehicles", required = false) @Min(1) Integer maxVehicles)
+        throws InvalidValueException {
+
+        return ResponseEntity.ok(vehicleService.getVehiclesWithinRadius(convertLatToDouble(latitude),
+            convertLonToDouble(longitude), radiusMeters, maxVehicles));
     }
 
     /**
-     * Gets a specific vehicle with its location history.
+     * Gets the vehicles inside a map viewport, with their full details.
+     *
+     * @param south                    latitude of the bottom edge of the viewport
+     * @param west                     longitude of the left edge of the viewport
+     * @param north                    latitude of the top edge of the viewport
+     * @param east                     longitude of the right edge of the viewport
+     * @param maxVehicles              the maximum number of vehicles to return (capped by the server)
+     * @return                         a json array containing the vehicle details
+     * @throws InvalidValueException   if an edge is not a valid latitude/longitude, or south is above north (west may
+     *                                 be east of east, for a viewport across the antimeridian)
+     */
+    @GetMapping("/viewport")
+    public ResponseEntity<List<VehicleWithLocationDTO>> getVehiclesInViewport(
+            @RequestParam(value = "south") String south,
+            @RequestParam(value = "west") String west,
+            @RequestParam(value = "north") String north,
+            @RequestParam(value = "east") String east,
+            @RequestParam(value = "max_vehicles", required = false) @Min(1) Integer maxVehicles)
+        throws InvalidValueException {
+
+        return ResponseEntity.ok(vehicleService.getVehiclesInViewport(convertLatToDouble(south),
+            convertLonToDouble(west), convertLatToDouble(north), convertLonToDouble(east), maxVehicles));
+    }
+
+    /**
+     * Gets a specific vehicle with a window of its location history, newest first.
+     *
+     * If there are older entries, the response carries an X-Next-Cursor header; pass its value back as
+     * `before_ts` to get the next window.
      *
      * @param vehicleId               the uuid of the vehicle to return location history for
-     * @return                        json with the vehicle details and a json array of all its past locations
+     * @param limit                   the maximum number of location history entries to return (capped by the server)
+     * @param beforeTs                only return entries older than this timestamp (omit to start from the latest)
+     * @return                        json with the vehicle details and a json array of its past locations
      * @throws InvalidUUIDException   if the passed vehicleId string is not a valid UUID
      * @throws NotFoundException      if the passed vehicleId is not in the database
+     * @throws InvalidValueException  if the passed before_ts is not a valid timestamp
      */
     @GetMapping("/{vehicleId}")
-    public ResponseEntity<VehicleWithHistoryDTO> getVehicleWithHistory(@PathVariable String vehicleId)
-        throws InvalidUUIDException, NotFoundException {
+    public ResponseEntity<VehicleWithHistoryDTO> getVehicleWithHistory(
+            @PathVariable String vehicleId,
+            @RequestParam(value = "limit", required = false) @Min(1) Integer limit,
+            @RequestParam(value = "before_ts", required = false) String beforeTs)
+        throws InvalidUUIDException, NotFoundException, InvalidValueException {
+
+        Timestamp before = beforeTs == null ? null : toTimestamp(beforeTs);
+        VehicleWithHistoryDTO vehicleWithHistoryDTO =
+            vehicleService.getVehicleDetails(toUUID(vehicleId, ERR_INVALID_VEHICLE_ID));
+        Slice<LocationDetailsDTO> locationHistorySlice =
+            vehicleService.getLocationHistory(vehicleWithHistoryDTO.getId(), before, limit);
+        List<LocationDetailsDTO> locationHistoryList = locationHistorySlice.getContent();
 
-        Vehicle vehicle = vehicleService.getVehicle(toUUID(vehicleId, ERR_INVALID_VEHICLE_ID));
-        return ResponseEntity.ok(VehicleHelper.toWithHistoryDTO(vehicle));
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (locationHistorySlice.hasNext()) {
+            Timestamp oldest = locationHistoryList.get(locationHistoryList.size() - 1).getTimestamp();
+            response.header(HEADER_NEXT_CURSOR, oldest.toString());
+        }
+        vehicleWithHistoryDTO.setLocationDetailsDTOList(locationHistoryList);
+        return response.body(vehicleWithHistoryDTO);
     }
 
     /**
@@ -0,0 +1,99 @@
+package io.roach.movrapi.dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.regex.Pattern;
+import javax.persistence.EntityManagerFactory;
+
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.interceptor.TransactionAttribute;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+
+/**
+ * JPA transaction manager that can run read-only transactions as historical (follower) reads.
+ *
+ * A read-only @Transactional method opts in with a label:
+ *
+ *   FOLLOWER_READ         AS OF SYSTEM TIME follower_read_timestamp(): the most recent time that any replica can
+ *                         serve, typically about 4.8 seconds ago
+ *   STALENESS + "10s"     AS OF SYSTEM TIME '-10s': exactly that long ago (units ms, s or m)
+ *
+ * Either way the reads can be served by the nearest replica instead of the leaseholder, and never wait on or
+ * conflict with writers, at the price of not seeing changes made in the meantime. (CockroachDB's bounded-staleness
+ * reads, with_max_staleness(), are only allowed in single-statement implicit transactions, so an exact staleness is
+ * as close as a @Transactional method can get.)
+ *
+ * The SET TRANSACTION statement has to be the first statement of the transaction, so it is sent right after the
+ * transaction begins, and only for a transaction the labelled method started: a labelled method called from within
+ * another transaction just joins it. Labels are ignored unless the manager is enabled, as only CockroachDB
+ * understands AS OF SYSTEM TIME.
+ */
+
+public class FollowerReadTransactionManager extends JpaTransactionManager {
+
+    public static final String FOLLOWER_READ = "follower-read";
+    public static final String STALENESS = "staleness=";
+
+    private static final Pattern STALENESS_INTERVAL = Pattern.compile("[0-9]+(ms|s|m)");
+
+    private final boolean enabled;
+
+    /**
+     * Creates the transaction manager.
+     *
+     * @param entityManagerFactory  the entity manager factory to manage transactions for
+     * @param enabled               whether to honour the FOLLOWER_READ and STALENESS labels
+     */
+    public FollowerReadTransactionManager(EntityManagerFactory entityManagerFactory, boolean enabled) {
+        super(entityManagerFactory);
+        this.enabled = enabled;
+    }
+
+    @Override
+    protected void doBegin(Object transaction, TransactionDefinition definition) {
+        // worked out first, so a bad label fails before a connection is bound to the thread
+        String asOfSystemTime = enabled ? asOfSystemTime(definition) : null;
+        super.doBegin(transaction, definition);
+        if (asOfSystemTime == null) {
+            return;
+        }
+        Connection connection = DataSourceUtils.getConnection(getDataSource());
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SET TRANSACTION AS OF SYSTEM TIME " + asOfSystemTime);
+        } catch (SQLException e) {
+            // undo the begin, as the caller never gets a transaction to roll back
+            doRollback(new DefaultTransactionStatus(transaction, true, false, definition.isReadOnly(), false, null));
+            doCleanupAfterCompletion(transaction);
+            throw new CannotCreateTransactionException("Could not set the transaction's AS OF SYSTEM TIME", e);
+        }
+    }
+
+    /**
+     * Works out the AS OF SYSTEM TIME expression a transaction asked for with its labels.
+     *
+     * @param definition    the definition of the transaction
+     * @return              the expression, or null for a normal (current) transaction
+     */
+    static String asOfSystemTime(TransactionDefinition definition) {
+        if (!definition.isReadOnly() || !(definition instanceof TransactionAttribute)) {
+            return null;
+        }
+        for (String label : ((TransactionAttribute) definition).getLabels()) {
+            if (FOLLOWER_READ.equals(label)) {
+                return "follower_read_timestamp()";
+            }
+            if (label.startsWith(STALENESS)) {
+                String interval = label.substring(STALENESS.length());
+                if (!STALENESS_INTERVAL.matcher(interval).matches()) {
+                    throw new IllegalArgumentException("Invalid staleness in transaction label: " + label);
+                }
+                return "'-" + interval + "'";
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,14 @@
+package io.roach.movrapi.dao;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import io.roach.movrapi.entity.JobWatermark;
+
+/**
+ * JPA Repository for the background jobs' watermarks, keyed by job name
+ */
+
+@Repository
+public interface JobWatermarkRepository extends JpaRepository<JobWatermark, String> {
+}
@@ -0,0 +1,475 @@
+package io.roach.movrapi.dao;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+
+import io.roach.movrapi.dto.LocationDetailsDTO;
+import io.roach.movrapi.util.Track;
+import io.roach.movrapi.util.TrackBlockCodec;
+import static io.roach.movrapi.dao.FollowerReadTransactionManager.FOLLOWER_READ;
+
+/**
+ * Location history that has been moved out of the database, kept as compressed CSV files on local disk.
+ *
+ * Each stretch of time is exported to one file, location_history-START-END.csv.gz (START and END as yyyyMMdd'T'HHmm),
+ * with a line "vehicle_id,ts,longitude,latitude" per row, by vehicle and then newest first. The file is a
+ * concatenation of gzip members, one per vehicle (after one for the header line), so gunzip or zcat read it as a
+ * whole, while the index file next to it (.csv.gz.idx, a line "vehicle_id,offset,length,rows,newest_ts,oldest_ts" per
+ * member) lets a single vehicle's rows be read by decompressing just its own member.
+ *
+ * A file is only written once, and is complete (and used) once its index exists: both are written to temporary files,
+ * synced to disk, and then renamed into place, the index last.
+ *
+ * The export reads the rows with a single query, streamed through a database cursor fetch-size rows at a time, so
+ * memory use doesn't depend on the size of the stretch (only a vehicle's rows are held at a time). Each vehicle's
+ * newest row is left out: it is the vehicle's current location, and stays in the database. The history packed into
+ * blocks (see LocationHistoryBlockStore) is exported along with the rows: the positions of the blocks that fall in the
+ * stretch are written as rows like any others.
+ */
+
+@Repository
+public class LocationHistoryArchive {
+
+    // the rows, and the packed blocks overlapping the stretch, by vehicle (a block's positions come in its data column)
+    private static final String EXPORT_LOCATIONS =
+        "SELECT lh.vehicle_id, lh.ts, lh.longitude, lh.latitude, CAST(NULL AS BYTEA) AS data " +
+        "FROM vehicles v JOIN location_history lh ON lh.vehicle_id = v.id " +
+        "WHERE lh.ts >= ? AND lh.ts < ? AND (v.last_checkin IS NULL OR lh.ts < v.last_checkin) " +
+        "UNION ALL " +
+        "SELECT b.vehicle_id, b.bucket, NULL, NULL, b.data " +
+        "FROM location_history_blocks b WHERE b.last_ts >= ? AND b.first_ts < ? " +
+        "ORDER BY vehicle_id";
+
+    private static final String FILE_PREFIX = "location_history-";
+    private static final String DATA_SUFFIX = ".csv.gz";
+    private static final String INDEX_SUFFIX = ".csv.gz.idx";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final String HEADER = "vehicle_id,ts,longitude,latitude\n";
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmm");
+    // how long a listing of the archive directory is used before it is listed again
+    private static final long LISTING_TTL_MILLIS = 10000;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final Path directory;
+    private final int fetchSize;
+    // the parsed index of each file, by file
+    private final Cache<Path, Map<UUID, Member>> indexes;
+
+    private volatile Listing listing;
+
+    @Autowired
+    public LocationHistoryArchive(@Value("${movr.archive.directory:archive}") String directory,
+                                  @Value("${movr.archive.fetch-size:1000}") int fetchSize,
+                                  @Value("${movr.archive.index-cache-size:100}") int indexCacheSize) {
+        this.directory = Paths.get(directory);
+        this.fetchSize = Math.max(1, fetchSize);
+        this.indexes = Caffeine.newBuilder().maximumSize(Math.max(1, indexCacheSize)).build();
+    }
+
+    /**
+     * Exports the location history recorded in a stretch of time to a new archive file (replacing any incomplete
+     * export of the same stretch).
+     *
+     * The rows are read as a follower read, so the export doesn't contend with the writes to the table; rows added to
+     * the stretch in the last few seconds are left for the caller to deal with (they aren't exported, so they aren't
+     * deleted either). The same goes for the packed blocks.
+     *
+     * @param from  the start of the stretch of time (inclusive)
+     * @param to    the end of the stretch of time (exclusive)
+     * @return      the number of rows exported (counting each packed position as a row)
+     */
+    @Transactional(isolation = Isolation.SERIALIZABLE, readOnly = true, label = FOLLOWER_READ)
+    public long export(Timestamp from, Timestamp to) {
+        Path data = directory.resolve(fileName(from, to) + DATA_SUFFIX);
+        Path index = directory.resolve(fileName(from, to) + INDEX_SUFFIX);
+        Path temporaryData = directory.resolve(data.getFileName() + TEMPORARY_SUFFIX);
+        Path temporaryIndex = directory.resolve(index.getFileName() + TEMPORARY_SUFFIX);
+        try {
+            Files.createDirectories(directory);
+            long rows;
+            StringBuilder indexLines = new StringBuilder();
+            try (FileChannel channel = FileChannel.open(temporaryData, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                rows = entityManager.unwrap(Session.class).doReturningWork(connection -> {
+                    try (PreparedStatement statement = connection.prepareStatement(EXPORT_LOCATIONS)) {
+                        statement.setTimestamp(1, from);
+                        statement.setTimestamp(2, to);
+                        statement.setTimestamp(3, from);
+                        statement.setTimestamp(4, to);
+                        // inside a transaction, the driver reads the results through a cursor, fetch-size rows at
+                        // a time, instead of all at once
+                        statement.setFetchSize(fetchSize);
+                        try (ResultSet resultSet = statement.executeQuery()) {
+                            return writeMembers(resultSet, from, to, channel, indexLines);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                });
+                channel.force(true);
+            }
+            write(temporaryIndex, indexLines.toString());
+            Files.move(temporaryData, data, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temporaryIndex, index, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            listing = null;
+            return rows;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Tells whether a stretch of time has been exported completely.
+     *
+     * @param from  the start of the stretch of time
+     * @param to    the end of the stretch of time
+     * @return      whether the archive file and its index exist
+     */
+    public boolean isArchived(Timestamp from, Timestamp to) {
+        return Files.exists(directory.resolve(fileName(from, to) + INDEX_SUFFIX));
+    }
+
+    /**
+     * Gets the vehicles with rows in an archived stretch of time, in the order they are stored.
+     *
+     * @param from  the start of the stretch of time
+     * @param to    the end of the stretch of time
+     * @return      the UUIDs of the vehicles (none if the stretch isn't archived)
+     */
+    public List<UUID> getVehicles(Timestamp from, Timestamp to) {
+        Path data = directory.resolve(fileName(from, to) + DATA_SUFFIX);
+        if (!isArchived(from, to)) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(index(data).keySet());
+    }
+
+    /**
+     * Reads a vehicle's archived rows of a stretch of time.
+     *
+     * @param vehicleId the UUID of the vehicle
+     * @param from      the start of the stretch of time
+     * @param to        the end of the stretch of time
+     * @return          the rows, newest first (none if the stretch isn't archived)
+     */
+    public List<LocationDetailsDTO> read(UUID vehicleId, Timestamp from, Timestamp to) {
+        Path data = directory.resolve(fileName(from, to) + DATA_SUFFIX);
+        if (!isArchived(from, to)) {
+            return Collections.emptyList();
+        }
+        Member member = index(data).get(vehicleId);
+        return member == null ? Collections.emptyList() : readMember(data, member);
+    }
+
+    /**
+     * Reads a vehicle's archived location history recorded before a timestamp, newest first, across all the
+     * archive files.
+     *
+     * @param vehicleId the UUID of the vehicle
+     * @param before    only rows strictly older than this timestamp are returned (null for all of them)
+     * @param limit     the maximum number of rows to return
+     * @return          the rows, newest first
+     */
+    public List<LocationDetailsDTO> findHistory(UUID vehicleId, Timestamp before, int limit) {
+        List<LocationDetailsDTO> history = new ArrayList<>();
+        for (ArchiveFile file : listing().files) {
+            if (history.size() >= limit) {
+                break;
+            }
+            if (before != null && !file.from.before(before)) {
+                continue;
+            }
+            Member member = index(file.data).get(vehicleId);
+            if (member == null || before != null && !member.oldest.before(before)) {
+                continue;
+            }
+            for (LocationDetailsDTO location : readMember(file.data, member)) {
+                if (before == null || location.getTimestamp().before(before)) {
+                    history.add(location);
+                    if (history.size() >= limit) {
+                        break;
+                    }
+                }
+            }
+        }
+        return history;
+    }
+
+    /**
+     * Gets the end of the newest archived stretch of time: only rows older than this can be in the archive.
+     *
+     * @return  the end of the newest stretch, or null if nothing has been archived
+     */
+    public Timestamp getArchivedBefore() {
+        List<ArchiveFile> files = listing().files;
+        return files.isEmpty() ? null : files.get(0).to;
+    }
+
+    private static String fileName(Timestamp from, Timestamp to) {
+        return FILE_PREFIX + from.toLocalDateTime().format(FILE_TIME) + "-" + to.toLocalDateTime().format(FILE_TIME);
+    }
+
+    /**
+     * Writes the rows (and packed blocks) of the result set, one gzip member per vehicle, and the index line of each
+     * member.
+     *
+     * @return  the number of rows written
+     */
+    private static long writeMembers(ResultSet resultSet, Timestamp from, Timestamp to, FileChannel channel,
+                                     StringBuilder indexLines) throws SQLException, IOException {
+
+        long fromMicros = Track.toMicros(from);
+        long toMicros = Track.toMicros(to);
+        OutputStream out = Channels.newOutputStream(channel);
+        out.write(compress(HEADER));
+        long rows = 0;
+        UUID vehicleId = null;
+        List<LocationDetailsDTO> locations = new ArrayList<>();
+        while (resultSet.next()) {
+            UUID rowVehicleId = resultSet.getObject(1, UUID.class);
+            if (!rowVehicleId.equals(vehicleId)) {
+                if (vehicleId != null) {
+                    rows += writeMember(out, channel, vehicleId, locations, indexLines);
+                }
+                vehicleId = rowVehicleId;
+                locations.clear();
+            }
+            byte[] block = resultSet.getBytes(5);
+            if (block == null) {
+                locations.add(new LocationDetailsDTO(resultSet.getTimestamp(2), resultSet.getDouble(3),
+                    resultSet.getDouble(4)));
+            } else {
+                // a block whose bucket straddles the edge of the stretch is exported a part at a time
+                Track track = TrackBlockCodec.decode(block);
+                long[] timestamps = track.getTimestamps();
+                for (int i = 0; i < track.size(); i++) {
+                    if (timestamps[i] >= fromMicros && timestamps[i] < toMicros) {
+                        locations.add(new LocationDetailsDTO(track.getTimestamp(i), track.getLongitudes()[i],
+                            track.getLatitudes()[i]));
+                    }
+                }
+            }
+        }
+        if (vehicleId != null) {
+            rows += writeMember(out, channel, vehicleId, locations, indexLines);
+        }
+        return rows;
+    }
+
+    /**
+     * Writes a vehicle's rows, newest first, as one gzip member.
+     *
+     * @return  the number of rows written
+     */
+    private static int writeMember(OutputStream out, FileChannel channel, UUID vehicleId,
+                                   List<LocationDetailsDTO> locations, StringBuilder indexLines) throws IOException {
+
+        if (locations.isEmpty()) {
+            return 0;
+        }
+        locations.sort(Comparator.comparing(LocationDetailsDTO::getTimestamp).reversed());
+        StringBuilder member = new StringBuilder();
+        int rows = 0;
+        Timestamp oldest = null;
+        for (LocationDetailsDTO location : locations) {
+            // a position sent again after it was packed is both a row and in a block
+            if (location.getTimestamp().equals(oldest)) {
+                continue;
+            }
+            oldest = location.getTimestamp();
+            member.append(vehicleId).append(',').append(oldest).append(',')
+                .append(location.getLongitude()).append(',').append(location.getLatitude()).append('\n');
+            rows++;
+        }
+
+        long offset = channel.position();
+        byte[] compressed = compress(member);
+        out.write(compressed);
+        indexLines.append(vehicleId).append(',').append(offset).append(',').append(compressed.length).append(',')
+            .append(rows).append(',').append(locations.get(0).getTimestamp()).append(',').append(oldest)
+            .append('\n');
+        return rows;
+    }
+
+    private static byte[] compress(CharSequence text) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(compressed), StandardCharsets.UTF_8)) {
+            writer.append(text);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static void write(Path path, String text) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+
+    private Map<UUID, Member> index(Path data) {
+        return indexes.get(data, file -> {
+            Map<UUID, Member> members = new LinkedHashMap<>();
+            try {
+                for (String line : Files.readAllLines(directory.resolve(file.getFileName().toString()
+                        .replace(DATA_SUFFIX, INDEX_SUFFIX)), StandardCharsets.UTF_8)) {
+                    String[] fields = line.split(",");
+                    members.put(UUID.fromString(fields[0]), new Member(Long.parseLong(fields[1]),
+                        Integer.parseInt(fields[2]), Timestamp.valueOf(fields[5])));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return members;
+        });
+    }
+
+    private static List<LocationDetailsDTO> readMember(Path data, Member member) {
+        List<LocationDetailsDTO> rows = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(data, StandardOpenOption.READ)) {
+            ByteBuffer compressed = ByteBuffer.allocate(member.length);
+            while (compressed.hasRemaining()) {
+                if (channel.read(compressed, member.offset + compressed.position()) < 0) {
+                    throw new EOFException(data + " is shorter than its index says");
+                }
+            }
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+                    new ByteArrayInputStream(compressed.array())), StandardCharsets.UTF_8))) {
+                for (String line; (line = reader.readLine()) != null; ) {
+                    String[] fields = line.split(",");
+                    rows.add(new LocationDetailsDTO(Timestamp.valueOf(fields[1]), Double.valueOf(fields[2]),
+                        Double.valueOf(fields[3])));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return rows;
+    }
+
+    /**
+     * Lists the complete archive files, newest first (listing the directory again once the last listing is more
+     * than LISTING_TTL_MILLIS old, so files archived by another instance sharing the directory show up).
+     */
+    private Listing listing() {
+        Listing current = listing;
+        long now = System.currentTimeMillis();
+        if (current != null && now - current.listedAt < LISTING_TTL_MILLIS) {
+            return current;
+        }
+        List<ArchiveFile> files = new ArrayList<>();
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> indexFiles = Files.newDirectoryStream(directory,
+                    FILE_PREFIX + "*" + INDEX_SUFFIX)) {
+                for (Path index : indexFiles) {
+                    String name = index.getFileName().toString();
+                    String[] times = name.substring(FILE_PREFIX.length(), name.length() - INDEX_SUFFIX.length())
+                        .split("-");
+                    try {
+                        files.add(new ArchiveFile(directory.resolve(name.replace(INDEX_SUFFIX, DATA_SUFFIX)),
+                            Timestamp.valueOf(LocalDateTime.parse(times[0], FILE_TIME)),
+                            Timestamp.valueOf(LocalDateTime.parse(times[1], FILE_TIME))));
+                    } catch (DateTimeParseException | ArrayIndexOutOfBoundsException e) {
+                        // not one of ours
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        files.sort((a, b) -> b.from.compareTo(a.from));
+        current = new Listing(files, now);
+        listing = current;
+        return current;
+    }
+
+    /**
+     * Where a vehicle's rows are in an archive file.
+     */
+    private static final class Member {
+
+        private final long offset;
+        private final int length;
+        private final Timestamp oldest;
+
+        private Member(long offset, int length, Timestamp oldest) {
+            this.offset = offset;
+            this.length = length;
+            this.oldest = oldest;
+        }
+    }
+
+    private static final class ArchiveFile {
+
+        private final Path data;
+        private final Timestamp from;
+        private final Timestamp to;
+
+        private ArchiveFile(Path data, Timestamp from, Timestamp to) {
+            this.data = data;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private static final class Listing {
+
+        private final List<ArchiveFile> files;
+        private final long listedAt;
+
+        private Listing(List<ArchiveFile> files, long listedAt) {
+            this.files = files;
+            this.listedAt = listedAt;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package io.roach.movrapi.dao;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.hibernate.Session;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import io.roach.movrapi.dto.NearbyVehicleDTO;
+import io.roach.movrapi.dto.VehicleLocationDTO;
+
+/**
+ * Writes location history in bulk.
+ *
+ * Positions don't need to become entities to be written, so these writes skip Hibernate altogether: each column is
+ * bound as one array parameter and unnested by the database, so any number of rows is a single statement, parsed and
+ * planned once, with no per-row parameters (insertLocations, updateLastLocations). Rows of a vehicle are deleted the
+ * same way (deleteLocations), as a set of primary keys. Runs in the caller's transaction.
+ */
+
+@Repository
+public class LocationHistoryBatchWriter {
+
+    // the positions, as a table
+    private static final String LOCATIONS =
+        "unnest(CAST(? AS UUID[]), CAST(? AS TIMESTAMP[]), CAST(? AS FLOAT8[]), CAST(? AS FLOAT8[])) " +
+        "AS p (vehicle_id, ts, longitude, latitude)";
+
+    private static final String INSERT_LOCATIONS =
+        "INSERT INTO location_history (vehicle_id, ts, longitude, latitude) " +
+        "SELECT p.vehicle_id, p.ts, p.longitude, p.latitude FROM " + LOCATIONS + " " +
+        "WHERE EXISTS (SELECT 1 FROM vehicles v WHERE v.id = p.vehicle_id) " +
+        "ON CONFLICT (vehicle_id, ts) DO NOTHING";
+
+    private static final String UPDATE_LAST_LOCATIONS =
+        "UPDATE vehicles SET last_latitude = p.latitude, last_longitude = p.longitude, last_checkin = p.ts " +
+        "FROM " + LOCATIONS + " " +
+        "WHERE vehicles.id = p.vehicle_id AND (vehicles.last_checkin IS NULL OR vehicles.last_checkin < p.ts) " +
+        "RETURNING vehicles.id, vehicles.in_use, vehicles.last_checkin, vehicles.last_latitude, vehicles.last_longitude";
+
+    private static final String DELETE_LOCATIONS =
+        "DELETE FROM location_history WHERE vehicle_id = ? AND ts = ANY (CAST(? AS TIMESTAMP[]))";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * Inserts vehicle positions into the location history, as one multi-row INSERT.
+     *
+     * Positions of vehicles that don't exist are skipped, as are positions already recorded (the same vehicle and
+     * timestamp), so a client can safely send a batch again if it never heard back.
+     *
+     * @param locations     the positions to insert
+     * @return              the number of rows inserted
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public int insertLocations(List<VehicleLocationDTO> locations) {
+        if (locations.isEmpty()) {
+            return 0;
+        }
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_LOCATIONS)) {
+                bindLocations(connection, statement, locations);
+                return statement.executeUpdate();
+            }
+        });
+    }
+
+    /**
+     * Moves vehicles to their latest reported position (the vehicles' last_latitude, last_longitude and last_checkin
+     * columns), as one UPDATE. A vehicle is only moved if the position is newer than the one it already has.
+     *
+     * @param locations     the latest position of each vehicle (at most one per vehicle)
+     * @return              the vehicles that were moved, with their new position and whether they are in use
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public List<NearbyVehicleDTO> updateLastLocations(List<VehicleLocationDTO> locations) {
+        List<NearbyVehicleDTO> moved = new ArrayList<>();
+        if (locations.isEmpty()) {
+            return moved;
+        }
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(UPDATE_LAST_LOCATIONS)) {
+                bindLocations(connection, statement, locations);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        moved.add(new NearbyVehicleDTO(resultSet.getObject(1, UUID.class), resultSet.getBoolean(2),
+                            resultSet.getTimestamp(3), resultSet.getDouble(4), resultSet.getDouble(5)));
+                    }
+                }
+            }
+            return moved;
+        });
+    }
+
+    /**
+     * Deletes location history rows of a vehicle, as one DELETE.
+     *
+     * @param vehicleId     the UUID of the vehicle whose rows to delete
+     * @param timestamps    the timestamps of the rows to delete
+     * @return              the number of rows deleted
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public int deleteLocations(UUID vehicleId, List<Timestamp> timestamps) {
+        if (timestamps.isEmpty()) {
+            return 0;
+        }
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(DELETE_LOCATIONS)) {
+                statement.setObject(1, vehicleId);
+                statement.setArray(2, connection.createArrayOf("timestamp", timestamps.toArray(new Timestamp[0])));
+                return statement.executeUpdate();
+            }
+        });
+    }
+
+    private static void bindLocations(Connection connection, PreparedStatement statement,
+                                      List<VehicleLocationDTO> locations) throws SQLException {
+        int size = locations.size();
+        UUID[] vehicleIds = new UUID[size];
+        Timestamp[] timestamps = new Timestamp[size];
+        Double[] longitudes = new Double[size];
+        Double[] latitudes = new Double[size];
+        for (int i = 0; i < size; i++) {
+            VehicleLocationDTO location = locations.get(i);
+            vehicleIds[i] = location.getVehicleId();
+            timestamps[i] = location.getTimestamp();
+            longitudes[i] = location.getLongitude();
+            latitudes[i] = location.getLatitude();
+        }
+        Array[] arrays = {
+            connection.createArrayOf("uuid", vehicleIds),
+            connection.createArrayOf("timestamp", timestamps),
+            connection.createArrayOf("float8", longitudes),
+            connection.createArrayOf("float8", latitudes)
+        };
+        for (int i = 0; i < arrays.length; i++) {
+            statement.setArray(i + 1, arrays[i]);
+        }
+    }
+}
@@ -0,0 +1,405 @@
+package io.roach.movrapi.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import io.roach.movrapi.dto.LocationDetailsDTO;
+import io.roach.movrapi.entity.JobWatermark;
+import io.roach.movrapi.util.Track;
+import io.roach.movrapi.util.TrackBlockCodec;
+
+/**
+ * Location history packed into blocks, one row of the location_history_blocks table per vehicle per bucket of
+ * movr.track-blocks.bucket-minutes (see TrackBlockCodec for the encoding).
+ *
+ * A bucket's rows are moved into its block by pack (see LocationHistoryPacker), which merges them into the block if
+ * there is one already. Reading a time range decodes only the blocks of the buckets it overlaps, straight into
+ * primitive arrays (findTrack); the history reads (findHistory) turn just the positions they return into DTOs.
+ *
+ * Packed history past the retention period is archived like the rows are (see LocationHistoryArchiver): removeArchived
+ * takes the archived positions out of their blocks, and deletes the blocks left empty.
+ *
+ * Buckets start at whole multiples of the bucket size, so bucket-minutes shouldn't be changed once there are blocks:
+ * a range read works out which blocks to read from it.
+ */
+
+@Repository
+public class LocationHistoryBlockStore {
+
+    // the watermark (in job_watermarks) of the packing job: the rows older than this have been packed
+    public static final String JOB = "location_history_packing";
+
+    private static final String SELECT_PACKABLE_LOCATIONS =
+        "SELECT lh.ts, lh.latitude, lh.longitude " +
+        "FROM vehicles v JOIN location_history lh ON lh.vehicle_id = v.id " +
+        "WHERE lh.vehicle_id = ? AND lh.ts >= ? AND lh.ts < ? AND (v.last_checkin IS NULL OR lh.ts < v.last_checkin) " +
+        "ORDER BY lh.ts";
+
+    private static final String SELECT_BLOCKS =
+        "SELECT bucket, data FROM location_history_blocks WHERE vehicle_id = ? AND bucket >= ? AND bucket < ? " +
+        "ORDER BY bucket";
+
+    private static final String SELECT_BLOCKS_BEFORE =
+        "SELECT data FROM location_history_blocks WHERE vehicle_id = ? AND bucket < ? ORDER BY bucket DESC";
+
+    private static final String SELECT_ALL_BLOCKS =
+        "SELECT data FROM location_history_blocks WHERE vehicle_id = ? ORDER BY bucket DESC";
+
+    private static final String SELECT_OVERLAPPING_BLOCKS =
+        "SELECT bucket, data FROM location_history_blocks WHERE vehicle_id = ? AND last_ts >= ? AND first_ts < ?";
+
+    private static final String SELECT_OLDEST =
+        "SELECT min(first_ts) FROM location_history_blocks";
+
+    private static final String DELETE_BLOCK =
+        "DELETE FROM location_history_blocks WHERE vehicle_id = ? AND bucket = ?";
+
+    private static final String UPSERT_BLOCK =
+        "INSERT INTO location_history_blocks (vehicle_id, bucket, first_ts, last_ts, points, data) " +
+        "VALUES (?, ?, ?, ?, ?, ?) " +
+        "ON CONFLICT (vehicle_id, bucket) DO UPDATE SET first_ts = excluded.first_ts, last_ts = excluded.last_ts, " +
+        "points = excluded.points, data = excluded.data";
+
+    // blocks read at a time by the history reads, which usually need only the newest one or two
+    private static final int HISTORY_FETCH_SIZE = 4;
+    // how long the packing job's watermark is used before it is read again
+    private static final long WATERMARK_TTL_MILLIS = 10000;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final JobWatermarkRepository jobWatermarkRepository;
+    private final long bucketMillis;
+
+    private volatile Timestamp packedBefore;
+    private volatile long packedBeforeReadAt;
+
+    @Autowired
+    public LocationHistoryBlockStore(JobWatermarkRepository jobWatermarkRepository,
+                                     @Value("${movr.track-blocks.bucket-minutes:60}") int bucketMinutes) {
+        this.jobWatermarkRepository = jobWatermarkRepository;
+        this.bucketMillis = TimeUnit.MINUTES.toMillis(Math.max(1, bucketMinutes));
+    }
+
+    /**
+     * Packs a vehicle's location history rows of a stretch of time into blocks, leaving out the vehicle's newest
+     * row (its current location, which stays in location_history). The caller deletes the rows packed, in the same
+     * transaction.
+     *
+     * @param vehicleId the UUID of the vehicle
+     * @param from      the start of the stretch of time (inclusive)
+     * @param to        the end of the stretch of time (exclusive)
+     * @return          the timestamps of the rows packed
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public List<Timestamp> pack(UUID vehicleId, Timestamp from, Timestamp to) {
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            List<Timestamp> packed = new ArrayList<>();
+            Map<Long, Track> tracks = new HashMap<>();
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_PACKABLE_LOCATIONS)) {
+                statement.setObject(1, vehicleId);
+                statement.setTimestamp(2, from);
+                statement.setTimestamp(3, to);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    TrackBuilder track = null;
+                    long bucket = 0;
+                    while (resultSet.next()) {
+                        Timestamp timestamp = resultSet.getTimestamp(1);
+                        long rowBucket = bucket(timestamp.getTime());
+                        if (track == null || rowBucket != bucket) {
+                            if (track != null) {
+                                tracks.put(bucket, track.build());
+                            }
+                            track = new TrackBuilder();
+                            bucket = rowBucket;
+                        }
+                        track.add(Track.toMicros(timestamp), resultSet.getDouble(2), resultSet.getDouble(3));
+                        packed.add(timestamp);
+                    }
+                    if (track != null) {
+                        tracks.put(bucket, track.build());
+                    }
+                }
+            }
+            if (tracks.isEmpty()) {
+                return packed;
+            }
+
+            // a bucket that straddles the end of the stretch packed before has a block already; the rows are merged
+            // into it
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_BLOCKS)) {
+                statement.setObject(1, vehicleId);
+                statement.setTimestamp(2, new Timestamp(bucket(from.getTime())));
+                statement.setTimestamp(3, to);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        long bucket = resultSet.getTimestamp(1).getTime();
+                        Track track = tracks.get(bucket);
+                        if (track != null) {
+                            tracks.put(bucket, merge(TrackBlockCodec.decode(resultSet.getBytes(2)), track));
+                        }
+                    }
+                }
+            }
+
+            upsert(connection, vehicleId, tracks);
+            return packed;
+        });
+    }
+
+    /**
+     * Takes archived positions out of a vehicle's blocks that overlap a stretch of time, deleting the blocks that are
+     * left empty. Only the positions listed are removed, so positions packed after the stretch was archived stay.
+     *
+     * @param vehicleId the UUID of the vehicle
+     * @param from      the start of the stretch of time (inclusive)
+     * @param to        the end of the stretch of time (exclusive)
+     * @param archived  the timestamps of the vehicle's archived positions in the stretch
+     * @return          the number of positions removed
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public int removeArchived(UUID vehicleId, Timestamp from, Timestamp to, List<Timestamp> archived) {
+        Set<Long> archivedMicros = new HashSet<>();
+        for (Timestamp timestamp : archived) {
+            archivedMicros.add(Track.toMicros(timestamp));
+        }
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            Map<Long, Track> kept = new HashMap<>();
+            List<Long> emptied = new ArrayList<>();
+            int removed = 0;
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_OVERLAPPING_BLOCKS)) {
+                statement.setObject(1, vehicleId);
+                statement.setTimestamp(2, from);
+                statement.setTimestamp(3, to);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        Track block = TrackBlockCodec.decode(resultSet.getBytes(2));
+                        long[] timestamps = block.getTimestamps();
+                        TrackBuilder track = new TrackBuilder();
+                        for (int i = 0; i < block.size(); i++) {
+                            if (!archivedMicros.contains(timestamps[i])) {
+                                track.add(timestamps[i], block.getLatitudes()[i], block.getLongitudes()[i]);
+                            }
+                        }
+                        if (track.size == block.size()) {
+                            continue;
+                        }
+                        removed += block.size() - track.size;
+                        long bucket = resultSet.getTimestamp(1).getTime();
+                        if (track.size == 0) {
+                            emptied.add(bucket);
+                        } else {
+                            kept.put(bucket, track.build());
+                        }
+                    }
+                }
+            }
+
+            if (!emptied.isEmpty()) {
+                try (PreparedStatement statement = connection.prepareStatement(DELETE_BLOCK)) {
+                    for (Long bucket : emptied) {
+                        statement.setObject(1, vehicleId);
+                        statement.setTimestamp(2, new Timestamp(bucket));
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                }
+            }
+            if (!kept.isEmpty()) {
+                upsert(connection, vehicleId, kept);
+            }
+            return removed;
+        });
+    }
+
+    /**
+     * Reads a vehicle's packed positions over a stretch of time.
+     *
+     * @param vehicleId the UUID of the vehicle
+     * @param from      the start of the stretch of time (inclusive)
+     * @param to        the end of the stretch of time (exclusive)
+     * @return          the positions, oldest first
+     */
+    public Track findTrack(UUID vehicleId, Timestamp from, Timestamp to) {
+        long fromMicros = Track.toMicros(from);
+        long toMicros = Track.toMicros(to);
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            TrackBuilder track = new TrackBuilder();
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_BLOCKS)) {
+                statement.setObject(1, vehicleId);
+                statement.setTimestamp(2, new Timestamp(bucket(from.getTime())));
+                statement.setTimestamp(3, to);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        Track block = TrackBlockCodec.decode(resultSet.getBytes(2));
+                        long[] timestamps = block.getTimestamps();
+                        for (int i = 0; i < block.size(); i++) {
+                            if (timestamps[i] >= fromMicros && timestamps[i] < toMicros) {
+                                track.add(timestamps[i], block.getLatitudes()[i], block.getLongitudes()[i]);
+                            }
+                        }
+                    }
+                }
+            }
+            return track.build();
+        });
+    }
+
+    /**
+     * Reads a vehicle's packed location history recorded before a timestamp, newest first.
+     *
+     * @param vehicleId the UUID of the vehicle
+     * @param before    only positions strictly older than this timestamp are returned (null for all of them)
+     * @param limit     the maximum number of positions to return
+     * @return          the positions, newest first
+     */
+    public List<LocationDetailsDTO> findHistory(UUID vehicleId, Timestamp before, int limit) {
+        long beforeMicros = before == null ? Long.MAX_VALUE : Track.toMicros(before);
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            List<LocationDetailsDTO> history = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement(before == null
+                    ? SELECT_ALL_BLOCKS : SELECT_BLOCKS_BEFORE)) {
+                statement.setObject(1, vehicleId);
+                if (before != null) {
+                    statement.setTimestamp(2, before);
+                }
+                // inside a transaction, the driver reads the blocks through a cursor, so only as many are read as
+                // it takes to fill the page
+                statement.setFetchSize(HISTORY_FETCH_SIZE);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (history.size() < limit && resultSet.next()) {
+                        Track block = TrackBlockCodec.decode(resultSet.getBytes(1));
+                        long[] timestamps = block.getTimestamps();
+                        for (int i = block.size() - 1; i >= 0 && history.size() < limit; i--) {
+                            if (timestamps[i] < beforeMicros) {
+                                history.add(new LocationDetailsDTO(block.getTimestamp(i), block.getLongitudes()[i],
+                                    block.getLatitudes()[i]));
+                            }
+                        }
+                    }
+                }
+            }
+            return history;
+        });
+    }
+
+    /**
+     * Returns the timestamp of the oldest packed position of any vehicle.
+     *
+     * @return  the oldest timestamp, or null if there are no blocks
+     */
+    public Timestamp findOldestTimestamp() {
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_OLDEST);
+                 ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getTimestamp(1) : null;
+            }
+        });
+    }
+
+    /**
+     * Gets the end of the history packed so far: only rows older than this can be in blocks.
+     *
+     * @return  the packing job's watermark, or null if nothing has been packed
+     */
+    public Timestamp getPackedBefore() {
+        long now = System.currentTimeMillis();
+        if (now - packedBeforeReadAt >= WATERMARK_TTL_MILLIS) {
+            packedBefore = jobWatermarkRepository.findById(JOB).map(JobWatermark::getProcessedBefore).orElse(null);
+            packedBeforeReadAt = now;
+        }
+        return packedBefore;
+    }
+
+    private static void upsert(Connection connection, UUID vehicleId, Map<Long, Track> tracks) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(UPSERT_BLOCK)) {
+            for (Map.Entry<Long, Track> entry : tracks.entrySet()) {
+                Track track = entry.getValue();
+                statement.setObject(1, vehicleId);
+                statement.setTimestamp(2, new Timestamp(entry.getKey()));
+                statement.setTimestamp(3, track.getTimestamp(0));
+                statement.setTimestamp(4, track.getTimestamp(track.size() - 1));
+                statement.setInt(5, track.size());
+                statement.setBytes(6, TrackBlockCodec.encode(track));
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    private long bucket(long millis) {
+        return millis - Math.floorMod(millis, bucketMillis);
+    }
+
+    /**
+     * Merges two tracks by timestamp; where both have a position at the same time, the first track's is kept.
+     */
+    private static Track merge(Track first, Track second) {
+        TrackBuilder merged = new TrackBuilder();
+        long[] a = first.getTimestamps();
+        long[] b = second.getTimestamps();
+        int i = 0;
+        int j = 0;
+        while (i < first.size() || j < second.size()) {
+            if (j == second.size() || i < first.size() && a[i] <= b[j]) {
+                if (j < second.size() && a[i] == b[j]) {
+                    j++;
+                }
+                merged.add(a[i], first.getLatitudes()[i], first.getLongitudes()[i]);
+                i++;
+            } else {
+                merged.add(b[j], second.getLatitudes()[j], second.getLongitudes()[j]);
+                j++;
+            }
+        }
+        return merged.build();
+    }
+
+    /**
+     * Collects positions into growing primitive arrays.
+     */
+    private static final class TrackBuilder {
+
+        private int size;
+        private long[] timestamps = new long[64];
+        private double[] latitudes = new double[64];
+        private double[] longitudes = new double[64];
+
+        private void add(long timestamp, double latitude, double longitude) {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                latitudes = Arrays.copyOf(latitudes, size * 2);
+                longitudes = Arrays.copyOf(longitudes, size * 2);
+            }
+            timestamps[size] = timestamp;
+            latitudes[size] = latitude;
+            longitudes[size] = longitude;
+            size++;
+        }
+
+        private Track build() {
+            return new Track(size, timestamps, latitudes, longitudes);
+        }
+    }
+}
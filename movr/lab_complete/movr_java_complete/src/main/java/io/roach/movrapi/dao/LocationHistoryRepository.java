@@ -1,29 +1,102 @@
 package io.roach.movrapi.dao;
 
+import java.sql.Timestamp;
+import java.util.List;
 import java.util.UUID;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import io.roach.movrapi.dto.LocationDetailsDTO;
 import io.roach.movrapi.entity.LocationHistory;
+import io.roach.movrapi.entity.LocationHistoryId;
 
 /**
- * JPA Repository for Location History
+ * JPA Repository for Location History (keyed by vehicle and timestamp, newest first)
+ *
+ * The queries here read the database only; findHistory (see LocationHistoryRepositoryCustom) also reads the history
+ * that has been archived.
  */
 
 @Repository
-public interface LocationHistoryRepository extends JpaRepository<LocationHistory, UUID> {
+public interface LocationHistoryRepository extends JpaRepository<LocationHistory, LocationHistoryId>,
+    LocationHistoryRepositoryCustom {
 
     /**
      * Returns the location history for a specific vehicle, with more recent entries first.
      *
-     * Spring JPA converts the name of this method into a SQL statement that does the work for us
-     * in this case, it creates a SQL query that fetches all location rows for the specified vehicle,
-     * orders them by timestamp descending (which puts newest ones first) and then returns the first
-     * one it finds.  This gives us the most recent location history record for the requested vehicle.
+     * The query fetches the location rows for the specified vehicle, orders them by timestamp descending
+     * (which puts newest ones first) and then returns the first one it finds.  This gives us the most recent
+     * location history record for the requested vehicle.  Because the table's primary key is
+     * (vehicle_id, ts DESC), this is a single-key seek.
+     *
+     * (The query is spelled out rather than derived from the method name because Spring JPA would join to
+     * the vehicles table to resolve "VehicleId" now that the vehicle is part of the primary key.)
      *
      * @param vehicleId The UUID of the vehicle to retrieve history for
      * @return          a single LocationHistory entity
      */
-    LocationHistory findFirstByVehicleIdOrderByTimestampDesc(UUID vehicleId);
+    @Query(value = "SELECT * FROM location_history WHERE vehicle_id = :vehicleId ORDER BY ts DESC LIMIT 1",
+        nativeQuery = true)
+    LocationHistory findFirstByVehicleIdOrderByTimestampDesc(@Param("vehicleId") UUID vehicleId);
+
+    /**
+     * Returns the most recent location history for a specific vehicle, newest first, limited to the size of
+     * the requested page.
+     *
+     * The rows are returned straight as LocationDetailsDTOs, so no LocationHistory entities are loaded.
+     *
+     * @param vehicleId The UUID of the vehicle to retrieve history for
+     * @param pageable  the page to return (only the size is used; the order is always newest first)
+     * @return          a list of LocationDetailsDTOs
+     */
+    @Query("select new io.roach.movrapi.dto.LocationDetailsDTO(lh.timestamp, lh.longitude, lh.latitude) " +
+        "from LocationHistory lh where lh.vehicle.id = :vehicleId order by lh.timestamp desc")
+    List<LocationDetailsDTO> findByVehicleIdOrderByTimestampDesc(@Param("vehicleId") UUID vehicleId, Pageable pageable);
+
+    /**
+     * Returns the location history for a specific vehicle recorded before the given timestamp, newest first,
+     * limited to the size of the requested page.  Passing the timestamp of the last entry from the previous
+     * call walks back through the history one window at a time.
+     *
+     * @param vehicleId The UUID of the vehicle to retrieve history for
+     * @param before    only entries strictly older than this timestamp are returned
+     * @param pageable  the page to return (only the size is used; the order is always newest first)
+     * @return          a list of LocationDetailsDTOs
+     */
+    @Query("select new io.roach.movrapi.dto.LocationDetailsDTO(lh.timestamp, lh.longitude, lh.latitude) " +
+        "from LocationHistory lh where lh.vehicle.id = :vehicleId and lh.timestamp < :before " +
+        "order by lh.timestamp desc")
+    List<LocationDetailsDTO> findByVehicleIdAndTimestampBeforeOrderByTimestampDesc(@Param("vehicleId") UUID vehicleId,
+                                                                                @Param("before") Timestamp before,
+                                                                                Pageable pageable);
+
+    /**
+     * Returns the location history for a specific vehicle recorded in a stretch of time, oldest first (the order
+     * the vehicle went along its track).
+     *
+     * @param vehicleId The UUID of the vehicle to retrieve history for
+     * @param from      only entries at or after this timestamp are returned
+     * @param to        only entries strictly before this timestamp are returned
+     * @return          a list of LocationDetailsDTOs
+     */
+    @Query("select new io.roach.movrapi.dto.LocationDetailsDTO(lh.timestamp, lh.longitude, lh.latitude) " +
+        "from LocationHistory lh where lh.vehicle.id = :vehicleId and lh.timestamp >= :from and lh.timestamp < :to " +
+        "order by lh.timestamp")
+    List<LocationDetailsDTO> findTrack(@Param("vehicleId") UUID vehicleId, @Param("from") Timestamp from,
+                                       @Param("to") Timestamp to);
+
+    /**
+     * Returns the timestamp of the oldest location history entry of any vehicle.
+     *
+     * This reads the whole table (it is keyed by vehicle first), so it is only meant for jobs that need to find
+     * where the history starts once.
+     *
+     * @return          the oldest timestamp, or null if there is no location history
+     */
+    @Query("select min(lh.timestamp) from LocationHistory lh")
+    Timestamp findOldestTimestamp();
 }
@@ -0,0 +1,25 @@
+package io.roach.movrapi.dao;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.UUID;
+
+import io.roach.movrapi.dto.LocationDetailsDTO;
+
+/**
+ * Location history queries that go beyond the database (implemented by LocationHistoryRepositoryImpl)
+ */
+
+public interface LocationHistoryRepositoryCustom {
+
+    /**
+     * Returns the location history for a specific vehicle, newest first, from the database and, once that runs out,
+     * from the archive (see LocationHistoryArchive).
+     *
+     * @param vehicleId The UUID of the vehicle to retrieve history for
+     * @param before    only entries strictly older than this timestamp are returned (null to start from the newest)
+     * @param limit     the maximum number of entries to return
+     * @return          a list of LocationDetailsDTOs
+     */
+    List<LocationDetailsDTO> findHistory(UUID vehicleId, Timestamp before, int limit);
+}
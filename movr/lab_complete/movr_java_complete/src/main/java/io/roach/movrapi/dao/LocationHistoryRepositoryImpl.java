@@ -0,0 +1,90 @@
+package io.roach.movrapi.dao;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.domain.PageRequest;
+
+import io.roach.movrapi.dto.LocationDetailsDTO;
+
+/**
+ * Implementation of the LocationHistoryRepositoryCustom queries, which Spring Data adds to LocationHistoryRepository.
+ *
+ * The packed blocks and the archive are each only read when what has been read so far doesn't fill the page, or when
+ * the page reaches back past the newest history packed (or archived), so requests for recent history never touch
+ * them. They are merged by timestamp (rather than simply following on from the database) because a row can be in
+ * the database and the archive for a while, between being exported and being deleted, and because rows recorded
+ * late can still be in the database after the stretch of time they belong to has been packed or archived.
+ */
+
+public class LocationHistoryRepositoryImpl implements LocationHistoryRepositoryCustom {
+
+    private final LocationHistoryRepository locationHistoryRepository;
+    private final LocationHistoryBlockStore locationHistoryBlockStore;
+    private final LocationHistoryArchive locationHistoryArchive;
+
+    @Autowired
+    public LocationHistoryRepositoryImpl(@Lazy LocationHistoryRepository locationHistoryRepository,
+                                         LocationHistoryBlockStore locationHistoryBlockStore,
+                                         LocationHistoryArchive locationHistoryArchive) {
+        this.locationHistoryRepository = locationHistoryRepository;
+        this.locationHistoryBlockStore = locationHistoryBlockStore;
+        this.locationHistoryArchive = locationHistoryArchive;
+    }
+
+    @Override
+    public List<LocationDetailsDTO> findHistory(UUID vehicleId, Timestamp before, int limit) {
+        PageRequest page = PageRequest.of(0, limit);
+        List<LocationDetailsDTO> history = before == null
+            ? locationHistoryRepository.findByVehicleIdOrderByTimestampDesc(vehicleId, page)
+            : locationHistoryRepository.findByVehicleIdAndTimestampBeforeOrderByTimestampDesc(vehicleId, before, page);
+
+        if (reachesBack(history, limit, locationHistoryBlockStore.getPackedBefore())) {
+            history = merge(history, locationHistoryBlockStore.findHistory(vehicleId, before, limit), limit);
+        }
+        if (reachesBack(history, limit, locationHistoryArchive.getArchivedBefore())) {
+            history = merge(history, locationHistoryArchive.findHistory(vehicleId, before, limit), limit);
+        }
+        return history;
+    }
+
+    /**
+     * Tells whether a page could go on into history older than a timestamp.
+     */
+    private static boolean reachesBack(List<LocationDetailsDTO> history, int limit, Timestamp olderThan) {
+        return olderThan != null && (history.size() < limit
+            || history.get(history.size() - 1).getTimestamp().before(olderThan));
+    }
+
+    /**
+     * Merges two lists of history, newest first; where both have an entry at the same time, the first list's is kept.
+     */
+    private static List<LocationDetailsDTO> merge(List<LocationDetailsDTO> current, List<LocationDetailsDTO> older,
+                                                  int limit) {
+        if (older.isEmpty()) {
+            return current;
+        }
+        List<LocationDetailsDTO> history = new ArrayList<>(Math.min(limit, current.size() + older.size()));
+        int i = 0;
+        int j = 0;
+        while (history.size() < limit && (i < current.size() || j < older.size())) {
+            if (j == older.size()) {
+                history.add(current.get(i++));
+            } else if (i == current.size()) {
+                history.add(older.get(j++));
+            } else {
+                int order = current.get(i).getTimestamp().compareTo(older.get(j).getTimestamp());
+                if (order == 0) {
+                    // exported but not deleted yet
+                    j++;
+                }
+                history.add(order >= 0 ? current.get(i++) : older.get(j++));
+            }
+        }
+        return history;
+    }
+}
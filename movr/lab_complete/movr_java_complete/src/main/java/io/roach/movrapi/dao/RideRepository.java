@@ -1,5 +1,6 @@
 package io.roach.movrapi.dao;
 
+import java.sql.Timestamp;
 import java.util.List;
 import java.util.UUID;
 
@@ -7,41 +8,109 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
+import io.roach.movrapi.dto.RideStatementResultDTO;
+import io.roach.movrapi.dto.RideWithVehicleDTO;
+import io.roach.movrapi.dto.VehicleWithLocationDTO;
 import io.roach.movrapi.entity.Ride;
 
 /**
- * JPA Repository for Location History
+ * JPA Repository for Rides
  */
 
 @Repository
 public interface RideRepository extends JpaRepository<Ride, UUID> {
 
     /**
-     * Query to return all rides for a current user, with most recent rides first.
+     * Query to return all rides for a current user, with most recent rides first, each with the details of
+     * the vehicle that was ridden.
      *
      * The @Query annotation asks JPA to build a SQL query using the database relationships
-     * described in the DAO entities (in this case Ride and User) for this vehicle/user
-     * combination and sort it by newest to oldest
+     * described in the DAO entities (in this case Ride, Vehicle and User) for this user and sort it by
+     * newest to oldest.  The vehicle is joined in the same statement and the rows are returned straight as
+     * RideWithVehicleDTOs, so no Ride or Vehicle entities are loaded.
      *
      * @param email the email address identifying the user to retrieve rides for
-     * @return      a list of Ride entities
+     * @return      a list of RideWithVehicleDTOs
      */
-    @Query("select r from Ride r where r.user.email = :email order by r.startTime desc")
-    List<Ride> findAllForUser(@Param("email") String email);
+    @Query("select new io.roach.movrapi.dto.RideWithVehicleDTO(v.id, v.battery, v.inUse, v.serialNumber, " +
+        "v.vehicleInfo, r.startTime, r.endTime) " +
+        "from Ride r join r.vehicle v where r.user.email = :email order by r.startTime desc")
+    List<RideWithVehicleDTO> findAllForUser(@Param("email") String email);
 
     /**
      * Query to get the most recent active ride for a specific user/vehicle combination.
      *
-     * The @Query annotation asks JPA to build a SQL query using the database relationships for this
+     * The @Query annotation asks JPA to build a SQL query using the database relationships
      * described in the DAO entities (in this case Ride, Vehicle and User) for this vehicle/user
-     * combination where the vehicle is still marked "in use"
+     * combination where the ride has not ended yet.  Only columns of the rides table are used, so
+     * the query does not join to vehicles and is answered by the partial index on open rides.
      *
      * @param uuid   the UUID vehicle that the user is riding
      * @param email  the email address that identifies the user
      * @return       a list of Ride entities
      */
-    @Query("select r from Ride r where r.user.email = :email and r.vehicle.id = :uuid and " +
-        "r.vehicle.inUse = true and r.endTime is null order by r.startTime desc")
+    @Query("select r from Ride r where r.vehicle.id = :uuid and r.user.email = :email and " +
+        "r.endTime is null order by r.startTime desc")
     List<Ride> getActiveRide(@Param("uuid") UUID uuid,  @Param("email") String email);
+
+    /**
+     * Query to get the vehicle (with its current location) of the most recent active ride for a specific
+     * user/vehicle combination.  Uses the same partial index as getActiveRide, and returns the row straight
+     * as a VehicleWithLocationDTO.
+     *
+     * @param uuid   the UUID vehicle that the user is riding
+     * @param email  the email address that identifies the user
+     * @return       a list of VehicleWithLocationDTOs (empty if there is no active ride)
+     */
+    @Query("select new io.roach.movrapi.dto.VehicleWithLocationDTO(v.id, v.battery, v.inUse, v.serialNumber, " +
+        "v.vehicleInfo, v.lastCheckin, v.lastLatitude, v.lastLongitude) " +
+        "from Ride r join r.vehicle v where r.vehicle.id = :uuid and r.user.email = :email and " +
+        "r.endTime is null order by r.startTime desc")
+    List<VehicleWithLocationDTO> getActiveRideVehicle(@Param("uuid") UUID uuid, @Param("email") String email);
+
+    /**
+     * Starts a ride in one statement: checks the vehicle out, records its location history and inserts the ride.
+     *
+     * This is the native query Ride.startRide. Nothing is changed unless the user exists and the vehicle exists,
+     * has a location and is not in use; the returned row says which (if any) of those didn't hold.
+     *
+     * The repository's query methods otherwise run in a read-only transaction of their own, so this one is
+     * declared as read-write, and runs in the caller's transaction if there is one (or as an implicit
+     * transaction if there isn't).
+     *
+     * @param rideId        the UUID to give the new ride
+     * @param vehicleId     the UUID of the vehicle to ride
+     * @param email         the email address that identifies the user
+     * @param startTime     the date/time the ride starts
+     * @return              the RideStatementResultDTO describing what the statement found and did
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    @Query(name = "Ride.startRide", nativeQuery = true)
+    RideStatementResultDTO startRide(@Param("rideId") UUID rideId, @Param("vehicleId") UUID vehicleId,
+                                     @Param("email") String email, @Param("startTime") Timestamp startTime);
+
+    /**
+     * Ends a ride in one statement: checks the vehicle in (with its new location and battery level), records its
+     * location history and sets the end time of the user's active ride on it.
+     *
+     * This is the native query Ride.endRide. Nothing is changed unless the user has an active ride on the vehicle
+     * and the vehicle is in use; the returned row says which (if any) of those didn't hold, and holds the
+     * ride's start location (from the location history) and start time.
+     *
+     * @param vehicleId     the UUID of the vehicle being ridden
+     * @param email         the email address that identifies the user
+     * @param battery       the battery level at the end of the ride
+     * @param latitude      the latitude of the vehicle at the end of the ride
+     * @param longitude     the longitude of the vehicle at the end of the ride
+     * @param endTime       the date/time the ride ends
+     * @return              the RideStatementResultDTO describing what the statement found and did
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    @Query(name = "Ride.endRide", nativeQuery = true)
+    RideStatementResultDTO endRide(@Param("vehicleId") UUID vehicleId, @Param("email") String email,
+                                   @Param("battery") int battery, @Param("latitude") double latitude,
+                                   @Param("longitude") double longitude, @Param("endTime") Timestamp endTime);
 }
@@ -0,0 +1,55 @@
+package io.roach.movrapi.dao;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Transaction manager that lets TransactionRetryAspect retry a transaction from a savepoint.
+ *
+ * When a method that joined a transaction fails, the transaction manager marks the whole transaction rollback-only,
+ * and Hibernate can't be talked out of it afterwards, so the transaction could never commit. A transaction being
+ * retried from a savepoint is marked with the SAVEPOINT_RETRY_SCOPE resource (see beginSavepointRetry), and while
+ * it is, the methods that join it don't mark it rollback-only when they fail: the retry loop rolls the failed
+ * attempt back to the savepoint and tries again, and it commits or rolls back the transaction itself.
+ *
+ * Otherwise it is a FollowerReadTransactionManager.
+ */
+
+public class SavepointRetryTransactionManager extends FollowerReadTransactionManager {
+
+    // bound (to any value) while a transaction is being retried from a savepoint
+    static final String SAVEPOINT_RETRY_SCOPE = SavepointRetryTransactionManager.class.getName() + ".scope";
+
+    /**
+     * Creates the transaction manager.
+     *
+     * @param entityManagerFactory  the entity manager factory to manage transactions for
+     * @param followerReads         whether to honour the FOLLOWER_READ and STALENESS labels
+     */
+    public SavepointRetryTransactionManager(EntityManagerFactory entityManagerFactory, boolean followerReads) {
+        super(entityManagerFactory, followerReads);
+    }
+
+    /**
+     * Marks the transaction the current thread is in as being retried from a savepoint, until endSavepointRetry.
+     */
+    public static void beginSavepointRetry() {
+        TransactionSynchronizationManager.bindResource(SAVEPOINT_RETRY_SCOPE, Boolean.TRUE);
+    }
+
+    /**
+     * Ends what beginSavepointRetry started, before the transaction is committed or rolled back.
+     */
+    public static void endSavepointRetry() {
+        TransactionSynchronizationManager.unbindResource(SAVEPOINT_RETRY_SCOPE);
+    }
+
+    @Override
+    protected void doSetRollbackOnly(DefaultTransactionStatus status) {
+        if (!TransactionSynchronizationManager.hasResource(SAVEPOINT_RETRY_SCOPE)) {
+            super.doSetRollbackOnly(status);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package io.roach.movrapi.dao;
+
+import java.util.List;
+import javax.sql.DataSource;
+
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+
+/**
+ * Counts the SQL statements a thread runs, and the time spent in them, between begin() and end(): every HTTP request
+ * is accounted for this way (see StatementAccountingFilter), and so can a test.
+ *
+ * The statements are seen through a proxy around the application's DataSource (see wrap()), so they are counted
+ * whether Hibernate or the application sent them. The time of a statement is the time its execute call took, which
+ * includes the round trip to the database but not reading the rows of a result set. Statements run on threads that
+ * aren't being accounted for (the background jobs, the ingest flusher) cost a thread-local lookup.
+ */
+
+public final class StatementAccounting {
+
+    private static final ThreadLocal<Stats> CURRENT = new ThreadLocal<>();
+
+    private static final QueryExecutionListener LISTENER = new QueryExecutionListener() {
+
+        @Override
+        public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+            Stats stats = CURRENT.get();
+            if (stats != null) {
+                stats.executionStart = System.nanoTime();
+            }
+        }
+
+        @Override
+        public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+            Stats stats = CURRENT.get();
+            if (stats != null) {
+                // a batch of different statements (not something Hibernate sends) is keyed by its first one
+                String sql = queryInfoList.isEmpty() ? "" : queryInfoList.get(0).getQuery();
+                stats.add(sql, System.nanoTime() - stats.executionStart);
+            }
+        }
+    };
+
+    private StatementAccounting() {
+    }
+
+    /**
+     * Puts a proxy around a data source that counts the statements run through it.
+     *
+     * @param dataSource    the data source
+     * @return              the data source to use instead
+     */
+    public static DataSource wrap(DataSource dataSource) {
+        return ProxyDataSourceBuilder.create(dataSource)
+            .name("movr")
+            .listener(LISTENER)
+            .build();
+    }
+
+    /**
+     * Starts counting the statements the current thread runs, from zero.
+     *
+     * @return  the statistics, kept up to date until end() is called
+     */
+    public static StatementStats begin() {
+        Stats stats = new Stats();
+        CURRENT.set(stats);
+        return stats;
+    }
+
+    /**
+     * Stops counting the statements the current thread runs.
+     *
+     * @return  the statistics since begin() (null if accounting wasn't on)
+     */
+    public static StatementStats end() {
+        Stats stats = CURRENT.get();
+        CURRENT.remove();
+        return stats;
+    }
+
+    /**
+     * Gets the statements counted on the current thread so far.
+     *
+     * @return  the statistics since begin() (null if accounting isn't on)
+     */
+    public static StatementStats current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * The statistics, and the start of the statement being run.
+     */
+    private static final class Stats extends StatementStats {
+
+        private long executionStart;
+    }
+}
@@ -0,0 +1,54 @@
+package io.roach.movrapi.dao;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The SQL statements run on one thread while accounting was on (see StatementAccounting): how many, how long they
+ * took, and which one was run the most often.
+ *
+ * A statement run over and over in one request, with different parameters, is usually a lazy-loaded association
+ * fetched one row at a time (an N+1 query), so the most repeated statement is kept along with its count. A batch
+ * counts as one statement, however many rows it carries.
+ */
+
+public class StatementStats {
+
+    private final Map<String, Integer> runs = new HashMap<>();
+    private int statements;
+    private long nanos;
+    private String mostRepeated;
+    private int maxRepeats;
+
+    void add(String sql, long elapsedNanos) {
+        statements++;
+        nanos += elapsedNanos;
+        int repeats = runs.merge(sql, 1, Integer::sum);
+        if (repeats > maxRepeats) {
+            maxRepeats = repeats;
+            mostRepeated = sql;
+        }
+    }
+
+    public int getStatements() {
+        return statements;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * @return  the number of times the most repeated statement was run (0 if no statements were)
+     */
+    public int getMaxRepeats() {
+        return maxRepeats;
+    }
+
+    /**
+     * @return  the SQL of the most repeated statement (null if no statements were run)
+     */
+    public String getMostRepeated() {
+        return mostRepeated;
+    }
+}
@@ -1,16 +1,28 @@
 package io.roach.movrapi.dao;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import io.roach.movrapi.dto.UserDTO;
 import io.roach.movrapi.entity.User;
 
 /**
- * JPA Repository for Users - we have no specific requirements for User other than the standard Create,
- * Update, Delete options we inherit from the JpaRepository interface we're sub-classing, so we don't need
- * any special logic here
+ * JPA Repository for Users - other than the standard Create, Update, Delete options we inherit from the
+ * JpaRepository interface we're sub-classing, we only need a read-only query for the user's profile
  */
 
 @Repository
 public interface UserRepository extends JpaRepository<User, String> {
+
+    /**
+     * Query to get a user's profile, returned straight as a UserDTO (no User entity is loaded).
+     *
+     * @param email the email address identifying the user
+     * @return      a UserDTO, or null if there is no such user
+     */
+    @Query("select new io.roach.movrapi.dto.UserDTO(u.email, u.lastName, u.firstName, u.phoneNumbers) " +
+        "from User u where u.email = :email")
+    UserDTO findProfile(@Param("email") String email);
 }
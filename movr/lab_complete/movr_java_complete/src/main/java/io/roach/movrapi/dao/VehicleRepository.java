@@ -1,19 +1,129 @@
 package io.roach.movrapi.dao;
 
+import java.util.List;
 import java.util.UUID;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import io.roach.movrapi.dto.NearbyVehicleDTO;
+import io.roach.movrapi.dto.VehicleWithHistoryDTO;
+import io.roach.movrapi.dto.VehicleWithLocationDTO;
 import io.roach.movrapi.entity.Vehicle;
 
 /**
- * JPA Repository for Vehicles - we have no specific requirements for Vehicle
- * other than the standard Create, Update, Delete options we inherit from the
- * JpaRepository interface we're sub-classing, so we don't need any special
- * logic here
+ * JPA Repository for Vehicles - on top of the standard Create, Update, Delete options we inherit from the
+ * JpaRepository interface we're sub-classing, this has the read-only queries behind the vehicle endpoints.
+ *
+ * Those queries use constructor expressions ("select new ...") to return the response DTOs directly,
+ * so no Vehicle entities are loaded into the persistence context just to be copied into a DTO.
  */
 
 @Repository
 public interface VehicleRepository extends JpaRepository<Vehicle, UUID> {
+
+    /**
+     * Query to get the first page of vehicles, ordered by id, with the current location for each.
+     *
+     * The current location is maintained on the vehicles table itself
+     * (last_longitude, last_latitude, last_checkin) whenever a location
+     * history record is written, so this reads at most a page of rows no matter
+     * how large location_history grows. Vehicles that have never reported a
+     * location are skipped.
+     *
+     * Ordering by id (the primary key) makes the result a stable first page
+     * that findVehiclesWithLocationAfter can continue from.
+     *
+     * @param pageable  the page to return (only the size is used)
+     * @return          a list of VehicleWithLocationDTOs
+     */
+    @Query("select new io.roach.movrapi.dto.VehicleWithLocationDTO(v.id, v.battery, v.inUse, v.serialNumber, " +
+        "v.vehicleInfo, v.lastCheckin, v.lastLatitude, v.lastLongitude) " +
+        "from Vehicle v where v.lastCheckin is not null order by v.id")
+    List<VehicleWithLocationDTO> findVehiclesWithLocation(Pageable pageable);
+
+    /**
+     * Query to get the next page of vehicles with an id greater than `afterId`, and the current location
+     * for each.
+     *
+     * This is keyset (cursor) pagination: the WHERE clause on the primary key
+     * lets the database seek straight to the start of the page, so a deep page
+     * costs the same as the first one (unlike an OFFSET, which has to read and
+     * discard every row before it).
+     *
+     * @param afterId   the id of the last vehicle on the previous page
+     * @param pageable  the page to return (only the size is used)
+     * @return          a list of VehicleWithLocationDTOs
+     */
+    @Query("select new io.roach.movrapi.dto.VehicleWithLocationDTO(v.id, v.battery, v.inUse, v.serialNumber, " +
+        "v.vehicleInfo, v.lastCheckin, v.lastLatitude, v.lastLongitude) " +
+        "from Vehicle v where v.id > :afterId and v.lastCheckin is not null order by v.id")
+    List<VehicleWithLocationDTO> findVehiclesWithLocationAfter(@Param("afterId") UUID afterId, Pageable pageable);
+
+    /**
+     * Query to get the details of a single vehicle (without its location history, which is read separately
+     * one window at a time).
+     *
+     * @param vehicleId the UUID of the vehicle
+     * @return          a VehicleWithHistoryDTO with no history yet, or null if there is no such vehicle
+     */
+    @Query("select new io.roach.movrapi.dto.VehicleWithHistoryDTO(v.id, v.battery, v.inUse, v.serialNumber, " +
+        "v.vehicleInfo) from Vehicle v where v.id = :vehicleId")
+    VehicleWithHistoryDTO findVehicleDetails(@Param("vehicleId") UUID vehicleId);
+
+    /**
+     * Query to read the latest position of a batch of vehicles with an id greater than `afterId`, used to
+     * (re)build the in-memory nearby-vehicle index one keyset page at a time.
+     *
+     * @param afterId   the id of the last vehicle of the previous batch (the nil UUID for the first batch)
+     * @param pageable  the batch to return (only the size is used)
+     * @return          a list of NearbyVehicleDTOs (with no distance)
+     */
+    @Query("select new io.roach.movrapi.dto.NearbyVehicleDTO(v.id, v.inUse, v.lastCheckin, v.lastLatitude, " +
+        "v.lastLongitude) from Vehicle v where v.id > :afterId and v.lastCheckin is not null order by v.id")
+    List<NearbyVehicleDTO> findVehiclePositionsAfter(@Param("afterId") UUID afterId, Pageable pageable);
+
+    /**
+     * Query to get the vehicles within a radius of a point, nearest first, with the current location for each.
+     *
+     * This is the native query Vehicle.findVehiclesWithinRadius: an ST_DWithin search on the last_location
+     * GEOGRAPHY column, which the vehicles_last_location_idx inverted index narrows down to the vehicles near
+     * the point.
+     *
+     * @param latitude      latitude of the center of the search
+     * @param longitude     longitude of the center of the search
+     * @param radiusMeters  the search radius, in meters
+     * @param maxVehicles   the maximum number of vehicles to return
+     * @return              a list of VehicleWithLocationDTOs
+     */
+    // nativeQuery makes Spring Data leave the mapping to the query's result set mapping, instead of reading tuples
+    @Query(name = "Vehicle.findVehiclesWithinRadius", nativeQuery = true)
+    List<VehicleWithLocationDTO> findVehiclesWithinRadius(@Param("latitude") double latitude,
+                                                          @Param("longitude") double longitude,
+                                                          @Param("radiusMeters") double radiusMeters,
+                                                          @Param("maxVehicles") int maxVehicles);
+
+    /**
+     * Query to get the vehicles inside a map viewport, ordered by id, with the current location for each.
+     *
+     * This is the native query Vehicle.findVehiclesInViewport: an ST_Intersects search of the last_location
+     * GEOGRAPHY column against the viewport rectangle (segmentized, so that its edges follow the parallels rather
+     * than geodesics), served by the vehicles_last_location_idx inverted index.
+     *
+     * @param south         latitude of the bottom edge of the viewport
+     * @param west          longitude of the left edge of the viewport
+     * @param north         latitude of the top edge of the viewport
+     * @param east          longitude of the right edge of the viewport
+     * @param maxVehicles   the maximum number of vehicles to return
+     * @return              a list of VehicleWithLocationDTOs
+     */
+    @Query(name = "Vehicle.findVehiclesInViewport", nativeQuery = true)
+    List<VehicleWithLocationDTO> findVehiclesInViewport(@Param("south") double south,
+                                                        @Param("west") double west,
+                                                        @Param("north") double north,
+                                                        @Param("east") double east,
+                                                        @Param("maxVehicles") int maxVehicles);
 }
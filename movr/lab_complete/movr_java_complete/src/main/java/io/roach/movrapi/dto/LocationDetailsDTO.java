@@ -1,9 +1,11 @@
 package io.roach.movrapi.dto;
 
 import java.sql.Timestamp;
+import java.util.Date;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import static io.roach.movrapi.util.Common.toTimestamp;
 
 /**
  * Data Transfer Object for Vehicle Location History
@@ -17,6 +19,18 @@ public class LocationDetailsDTO {
     Double longitude;
     Double latitude;
 
+    public LocationDetailsDTO() {
+    }
+
+    /**
+     * Constructor used by the repository projection queries.
+     */
+    public LocationDetailsDTO(Date timestamp, Double longitude, Double latitude) {
+        this.timestamp = toTimestamp(timestamp);
+        this.longitude = longitude;
+        this.latitude = latitude;
+    }
+
     public Timestamp getTimestamp() {
         return timestamp;
     }
@@ -0,0 +1,58 @@
+package io.roach.movrapi.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Data Transfer Object for one position reported by a vehicle, as posted to /api/vehicles/locations
+ */
+
+public class LocationPingDTO {
+
+    @JsonProperty(value = "vehicle_id")
+    private String vehicleId;
+    private String ts;
+    private String lat;
+    private String lon;
+
+    public LocationPingDTO() {
+    }
+
+    public LocationPingDTO(String vehicleId, String ts, String lat, String lon) {
+        this.vehicleId = vehicleId;
+        this.ts = ts;
+        this.lat = lat;
+        this.lon = lon;
+    }
+
+    public String getVehicleId() {
+        return vehicleId;
+    }
+
+    public void setVehicleId(String vehicleId) {
+        this.vehicleId = vehicleId;
+    }
+
+    public String getTs() {
+        return ts;
+    }
+
+    public void setTs(String ts) {
+        this.ts = ts;
+    }
+
+    public String getLat() {
+        return lat;
+    }
+
+    public void setLat(String lat) {
+        this.lat = lat;
+    }
+
+    public String getLon() {
+        return lon;
+    }
+
+    public void setLon(String lon) {
+        this.lon = lon;
+    }
+}
@@ -0,0 +1,101 @@
+package io.roach.movrapi.dto;
+
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.UUID;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import static io.roach.movrapi.util.Common.toTimestamp;
+
+/**
+ * Data Transfer Object for a vehicle's latest position, as held by the nearby-vehicle index
+ */
+
+public class NearbyVehicleDTO {
+
+    private UUID id;
+    private boolean inUse;
+    @JsonProperty(value = "last_latitude")
+    private double lastLatitude;
+    @JsonProperty(value = "last_longitude")
+    private double lastLongitude;
+    @JsonProperty(value = "timestamp")
+    @JsonFormat(shape=JsonFormat.Shape.STRING, pattern="yyyy-MM-dd HH:mm:ss.SSS")
+    private Timestamp timestamp;
+    // distance from the point that was searched around
+    @JsonProperty(value = "distance_m")
+    private double distanceMeters;
+
+    public NearbyVehicleDTO() {
+    }
+
+    public NearbyVehicleDTO(UUID id, boolean inUse, double lastLatitude, double lastLongitude, Timestamp timestamp,
+                            double distanceMeters) {
+        this.id = id;
+        this.inUse = inUse;
+        this.lastLatitude = lastLatitude;
+        this.lastLongitude = lastLongitude;
+        this.timestamp = timestamp;
+        this.distanceMeters = distanceMeters;
+    }
+
+    /**
+     * Constructor used by the repository projection query that rebuilds the index.
+     */
+    public NearbyVehicleDTO(UUID id, Boolean inUse, Date timestamp, Double lastLatitude, Double lastLongitude) {
+        this.id = id;
+        this.inUse = inUse != null && inUse;
+        this.timestamp = toTimestamp(timestamp);
+        this.lastLatitude = lastLatitude == null ? 0 : lastLatitude;
+        this.lastLongitude = lastLongitude == null ? 0 : lastLongitude;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public void setId(UUID id) {
+        this.id = id;
+    }
+
+    public boolean isInUse() {
+        return inUse;
+    }
+
+    public void setInUse(boolean inUse) {
+        this.inUse = inUse;
+    }
+
+    public double getLastLatitude() {
+        return lastLatitude;
+    }
+
+    public void setLastLatitude(double lastLatitude) {
+        this.lastLatitude = lastLatitude;
+    }
+
+    public double getLastLongitude() {
+        return lastLongitude;
+    }
+
+    public void setLastLongitude(double lastLongitude) {
+        this.lastLongitude = lastLongitude;
+    }
+
+    public Timestamp getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(Timestamp timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public double getDistanceMeters() {
+        return distanceMeters;
+    }
+
+    public void setDistanceMeters(double distanceMeters) {
+        this.distanceMeters = distanceMeters;
+    }
+}
@@ -0,0 +1,91 @@
+package io.roach.movrapi.dto;
+
+import java.sql.Timestamp;
+import java.util.Date;
+
+import static io.roach.movrapi.util.Common.toTimestamp;
+
+/**
+ * Data Transfer Object for the row returned by the compound ride start and ride end statements (see the
+ * Ride.startRide and Ride.endRide named queries).
+ *
+ * Besides whether the ride was started or ended, the row describes the user, vehicle and ride as the statement found
+ * them, so that the service can report why nothing was changed.
+ */
+
+public class RideStatementResultDTO {
+
+    private final boolean userFound;
+    private final boolean vehicleFound;
+    private final Boolean inUse;
+    private final Timestamp lastCheckin;
+    private final Double latitude;
+    private final Double longitude;
+    private final Timestamp rideStart;
+    private final boolean done;
+
+    /**
+     * Constructor used by the repository queries.
+     */
+    public RideStatementResultDTO(Boolean userFound, Boolean vehicleFound, Boolean inUse, Date lastCheckin,
+                                  Double latitude, Double longitude, Date rideStart, Boolean done) {
+        this.userFound = Boolean.TRUE.equals(userFound);
+        this.vehicleFound = Boolean.TRUE.equals(vehicleFound);
+        this.inUse = inUse;
+        this.lastCheckin = toTimestamp(lastCheckin);
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.rideStart = toTimestamp(rideStart);
+        this.done = Boolean.TRUE.equals(done);
+    }
+
+    public boolean isUserFound() {
+        return userFound;
+    }
+
+    public boolean isVehicleFound() {
+        return vehicleFound;
+    }
+
+    /**
+     * @return  whether the vehicle was in use before the statement (null if there is no such vehicle)
+     */
+    public Boolean getInUse() {
+        return inUse;
+    }
+
+    /**
+     * @return  when the vehicle was last checked in or out before the statement (null if it has no location yet)
+     */
+    public Timestamp getLastCheckin() {
+        return lastCheckin;
+    }
+
+    /**
+     * @return  the vehicle's latitude before the ride start, or where the ride that was ended started
+     */
+    public Double getLatitude() {
+        return latitude;
+    }
+
+    /**
+     * @return  the vehicle's longitude before the ride start, or where the ride that was ended started
+     */
+    public Double getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * @return  the start time of the ride that was started, or of the active ride that was to be ended
+     */
+    public Timestamp getRideStart() {
+        return rideStart;
+    }
+
+    /**
+     * @return  whether the ride was started (or ended)
+     */
+    public boolean isDone() {
+        return done;
+    }
+}
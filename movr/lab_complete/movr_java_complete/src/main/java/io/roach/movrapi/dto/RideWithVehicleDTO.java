@@ -1,8 +1,11 @@
 package io.roach.movrapi.dto;
 
 import java.sql.Timestamp;
+import java.util.Date;
+import java.util.UUID;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
+import static io.roach.movrapi.util.Common.toTimestamp;
 
 /**
  * Data Transfer Object for Ride Info with Vehicle Details
@@ -15,6 +18,19 @@ public class RideWithVehicleDTO extends VehicleDTO {
     @JsonFormat(shape=JsonFormat.Shape.STRING, pattern="yyyy-MM-dd HH:mm:ss.SSS")
     private Timestamp endTime;
 
+    public RideWithVehicleDTO() {
+    }
+
+    /**
+     * Constructor used by the repository projection queries.
+     */
+    public RideWithVehicleDTO(UUID vehicleId, Integer battery, Boolean inUse, String serialNumber,
+                              Object vehicleInfo, Date startTime, Date endTime) {
+        super(vehicleId, battery, inUse, serialNumber, vehicleInfo);
+        this.startTime = toTimestamp(startTime);
+        this.endTime = toTimestamp(endTime);
+    }
+
     public Timestamp getStartTime() {
         return startTime;
     }
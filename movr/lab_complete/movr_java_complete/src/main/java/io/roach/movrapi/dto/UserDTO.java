@@ -1,5 +1,6 @@
 package io.roach.movrapi.dto;
 
+import java.util.Arrays;
 import java.util.List;
 
 
@@ -14,6 +15,19 @@ public class UserDTO {
     private String firstName;
     private List<String> phoneNumbers;
 
+    public UserDTO() {
+    }
+
+    /**
+     * Constructor used by the repository projection queries.
+     */
+    public UserDTO(String email, String lastName, String firstName, String[] phoneNumbers) {
+        this.email = email;
+        this.lastName = lastName;
+        this.firstName = firstName;
+        this.phoneNumbers = phoneNumbers == null ? null : Arrays.asList(phoneNumbers);
+    }
+
     public String getEmail() {
         return email;
     }
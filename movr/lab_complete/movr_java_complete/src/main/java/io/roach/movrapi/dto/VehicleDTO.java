@@ -1,8 +1,10 @@
 package io.roach.movrapi.dto;
 
-import java.util.Map;
 import java.util.UUID;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonRawValue;
+
 /**
  * Base Data Transfer Object for Vehicle Entity (abstract)
  */
@@ -10,10 +12,31 @@ import java.util.UUID;
 public abstract class VehicleDTO {
 
     private UUID id;
-    private Map<String, Object> vehicleInfo;
+    // the vehicle info json exactly as read from the jsonb column; it is written into the response as is,
+    // without being parsed and re-serialized
+    @JsonRawValue
+    private String vehicleInfo;
     private int battery;
     private boolean inUse;
     private int serialNumber;
+    // typed view of vehicleInfo, only decoded if something asks for one of its fields
+    @JsonIgnore
+    private VehicleInfo vehicleInfoFields;
+
+    protected VehicleDTO() {
+    }
+
+    /**
+     * Constructor used by the repository projection queries (Hibernate types the jsonb column as Object,
+     * but the value it reads is the json String).
+     */
+    protected VehicleDTO(UUID id, Integer battery, Boolean inUse, String serialNumber, Object vehicleInfo) {
+        this.id = id;
+        this.battery = battery == null ? 0 : battery;
+        this.inUse = inUse != null && inUse;
+        this.serialNumber = serialNumber == null ? 0 : Integer.parseInt(serialNumber);
+        this.vehicleInfo = vehicleInfo == null ? null : vehicleInfo.toString();
+    }
 
     public UUID getId() {
         return id;
@@ -23,12 +46,21 @@ public abstract class VehicleDTO {
         this.id = id;
     }
 
-    public Map<String, Object> getVehicleInfo() {
+    public String getVehicleInfo() {
         return vehicleInfo;
     }
 
-    public void setVehicleInfo(Map<String, Object> vehicleInfo) {
+    public void setVehicleInfo(String vehicleInfo) {
         this.vehicleInfo = vehicleInfo;
+        this.vehicleInfoFields = null;
+    }
+
+    @JsonIgnore
+    public VehicleInfo getVehicleInfoFields() {
+        if (vehicleInfoFields == null && vehicleInfo != null) {
+            vehicleInfoFields = new VehicleInfo(vehicleInfo);
+        }
+        return vehicleInfoFields;
     }
 
     public int getBattery() {
@@ -0,0 +1,111 @@
+package io.roach.movrapi.dto;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import io.roach.movrapi.util.JsonCodec;
+import static io.roach.movrapi.dto.VehicleInfoDTO.*;
+
+/**
+ * Typed, read-only view of the vehicle info json (see VehicleInfoDTO for the format).
+ *
+ * The json is only decoded the first time one of the fields is asked for, so responses that just pass the
+ * vehicle info through never pay for it.
+ */
+
+public class VehicleInfo {
+
+    // ObjectReaders are immutable and thread-safe, so one is shared by all instances; it comes from the application's
+    // mapper (see JsonCodec), so is only created the first time it is needed
+    private static volatile ObjectReader reader;
+
+    private final String json;
+    private Fields fields;
+
+    public VehicleInfo(String json) {
+        this.json = json;
+    }
+
+    public String getJson() {
+        return json;
+    }
+
+    public String getColor() {
+        return fields().color;
+    }
+
+    public String getType() {
+        return fields().type;
+    }
+
+    public String getWear() {
+        return fields().wear;
+    }
+
+    public String getManufacturer() {
+        return purchaseInformation().manufacturer;
+    }
+
+    public String getPurchaseDate() {
+        return purchaseInformation().purchaseDate;
+    }
+
+    public String getSerialNumber() {
+        return purchaseInformation().serialNumber;
+    }
+
+    private PurchaseInformation purchaseInformation() {
+        PurchaseInformation purchaseInformation = fields().purchaseInformation;
+        return purchaseInformation == null ? PurchaseInformation.EMPTY : purchaseInformation;
+    }
+
+    private Fields fields() {
+        if (fields == null) {
+            try {
+                fields = reader().readValue(json);
+            } catch (IOException e) {
+                // the json comes from a jsonb column, so it can only be malformed if the database is
+                throw new UncheckedIOException(e);
+            }
+        }
+        return fields;
+    }
+
+    private static ObjectReader reader() {
+        ObjectReader current = reader;
+        if (current == null) {
+            // a race only builds the same reader twice
+            current = JsonCodec.readerFor(Fields.class);
+            reader = current;
+        }
+        return current;
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    private static class Fields {
+        @JsonProperty(COLOR)
+        String color;
+        @JsonProperty(VEHICLE_TYPE)
+        String type;
+        @JsonProperty(WEAR)
+        String wear;
+        @JsonProperty(PURCHASE_INFORMATION)
+        PurchaseInformation purchaseInformation;
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    private static class PurchaseInformation {
+        static final PurchaseInformation EMPTY = new PurchaseInformation();
+
+        @JsonProperty(MANUFACTURER)
+        String manufacturer;
+        @JsonProperty(PURCHASE_DATE)
+        String purchaseDate;
+        @JsonProperty(SERIAL_NUMBER)
+        String serialNumber;
+    }
+}
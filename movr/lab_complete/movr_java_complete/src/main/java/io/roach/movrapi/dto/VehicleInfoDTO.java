@@ -3,16 +3,12 @@ package io.roach.movrapi.dto;
 import java.util.HashMap;
 import java.util.Map;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
 /**
  * Map of vehicle info fields used to take flat map of fields on input and remap to nested JSON as stored in the database
  */
 
 public class VehicleInfoDTO {
 
-    ObjectMapper objectMapper = new ObjectMapper();
     /*
     format in database:
         {
@@ -60,11 +56,7 @@ public class VehicleInfoDTO {
         fields = vehicleInfo;
     }
 
-    public String getAsJsonString() {
-        try {
-            return objectMapper.writeValueAsString(fields);
-        } catch (JsonProcessingException e) {
-            return null;
-        }
+    public Map<String, Object> getFields() {
+        return fields;
     }
 }
@@ -0,0 +1,39 @@
+package io.roach.movrapi.dto;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * Data Transfer Object for a validated vehicle position, on its way to the location history
+ */
+
+public class VehicleLocationDTO {
+
+    private final UUID vehicleId;
+    private final Timestamp timestamp;
+    private final double latitude;
+    private final double longitude;
+
+    public VehicleLocationDTO(UUID vehicleId, Timestamp timestamp, double latitude, double longitude) {
+        this.vehicleId = vehicleId;
+        this.timestamp = timestamp;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    public UUID getVehicleId() {
+        return vehicleId;
+    }
+
+    public Timestamp getTimestamp() {
+        return timestamp;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+}
@@ -1,6 +1,7 @@
 package io.roach.movrapi.dto;
 
 import java.util.List;
+import java.util.UUID;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 
@@ -13,6 +14,17 @@ public class VehicleWithHistoryDTO extends VehicleDTO {
     @JsonProperty(value = "locationHistory")
     List<LocationDetailsDTO> locationDetailsDTOList;
 
+    public VehicleWithHistoryDTO() {
+    }
+
+    /**
+     * Constructor used by the repository projection queries (the history is added separately).
+     */
+    public VehicleWithHistoryDTO(UUID id, Integer battery, Boolean inUse, String serialNumber,
+                                 Object vehicleInfo) {
+        super(id, battery, inUse, serialNumber, vehicleInfo);
+    }
+
     public List<LocationDetailsDTO> getLocationDetailsDTOList() {
         return locationDetailsDTOList;
     }
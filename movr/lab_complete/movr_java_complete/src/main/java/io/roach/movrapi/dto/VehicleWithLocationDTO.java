@@ -1,9 +1,12 @@
 package io.roach.movrapi.dto;
 
 import java.sql.Timestamp;
+import java.util.Date;
+import java.util.UUID;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import static io.roach.movrapi.util.Common.toTimestamp;
 
 /**
  * Data Transfer Object for Vehicle with Location Information appended
@@ -19,6 +22,21 @@ public class VehicleWithLocationDTO extends VehicleDTO {
     @JsonFormat(shape=JsonFormat.Shape.STRING, pattern="yyyy-MM-dd HH:mm:ss.SSS")
     private Timestamp timestamp;
 
+    public VehicleWithLocationDTO() {
+    }
+
+    /**
+     * Constructor used by the repository projection queries.
+     */
+    public VehicleWithLocationDTO(UUID id, Integer battery, Boolean inUse, String serialNumber,
+                                  Object vehicleInfo, Date timestamp, Double lastLatitude,
+                                  Double lastLongitude) {
+        super(id, battery, inUse, serialNumber, vehicleInfo);
+        this.timestamp = toTimestamp(timestamp);
+        this.lastLatitude = lastLatitude == null ? 0 : lastLatitude;
+        this.lastLongitude = lastLongitude == null ? 0 : lastLongitude;
+    }
+
     public double getLastLatitude() {
         return lastLatitude;
     }
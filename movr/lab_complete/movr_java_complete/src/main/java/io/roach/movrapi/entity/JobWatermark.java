@@ -0,0 +1,43 @@
+package io.roach.movrapi.entity;
+
+import javax.persistence.*;
+import java.sql.Timestamp;
+
+/**
+ * Hibernate entity for the Job Watermarks Table
+ *
+ * How far a background job that works through the location history in time order has got.
+ */
+
+@Entity
+@Table(name = "job_watermarks")
+public class JobWatermark {
+
+    @Id
+    private String job;
+    private Timestamp processedBefore;
+
+    public JobWatermark() {
+    }
+
+    public JobWatermark(String job, Timestamp processedBefore) {
+        this.job = job;
+        this.processedBefore = processedBefore;
+    }
+
+    public String getJob() {
+        return job;
+    }
+
+    public void setJob(String job) {
+        this.job = job;
+    }
+
+    public Timestamp getProcessedBefore() {
+        return processedBefore;
+    }
+
+    public void setProcessedBefore(Timestamp processedBefore) {
+        this.processedBefore = processedBefore;
+    }
+}
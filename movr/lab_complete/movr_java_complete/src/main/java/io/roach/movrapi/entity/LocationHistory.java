@@ -2,33 +2,48 @@ package io.roach.movrapi.entity;
 
 import javax.persistence.*;
 import java.sql.Timestamp;
-import java.util.UUID;
+
+import org.springframework.data.domain.Persistable;
 
 /**
  * Hibernate entity for Vehicles' Location History Table
+ *
+ * The table is keyed (and so physically ordered) by vehicle and then by timestamp, newest first.
  */
 
 @Entity
 @Table(name = "location_history")
-public class LocationHistory {
+@IdClass(LocationHistoryId.class)
+public class LocationHistory implements Persistable<LocationHistoryId> {
 
     @Id
-    @GeneratedValue
-    private UUID id;
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "vehicle_id", nullable = false)
+    private Vehicle vehicle;
+    @Id
     @Column(name = "ts")
     private Timestamp timestamp;
     private Double longitude;
     private Double latitude;
-    @ManyToOne
-    @JoinColumn(name = "vehicle_id", nullable = false)
-    private Vehicle vehicle;
+    // The key is assigned by us rather than generated, so Spring Data can't tell new rows from existing ones
+    // by looking at it; track it here so that saving a new row is a plain insert without a select first.
+    @Transient
+    private boolean isNew = true;
+
+    @Override
+    public LocationHistoryId getId() {
+        return new LocationHistoryId(vehicle == null ? null : vehicle.getId(), timestamp);
+    }
 
-    public UUID getId() {
-        return id;
+    @Override
+    public boolean isNew() {
+        return isNew;
     }
 
-    public void setId(UUID id) {
-        this.id = id;
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
     }
 
     public Timestamp getTimestamp() {
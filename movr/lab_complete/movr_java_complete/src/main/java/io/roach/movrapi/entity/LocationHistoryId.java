@@ -0,0 +1,50 @@
+package io.roach.movrapi.entity;
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Composite primary key for the Location History Table (vehicle_id, ts)
+ */
+
+public class LocationHistoryId implements Serializable {
+
+    // named after the LocationHistory.vehicle association it is derived from
+    private UUID vehicle;
+    private Timestamp timestamp;
+
+    public LocationHistoryId() {
+    }
+
+    public LocationHistoryId(UUID vehicle, Timestamp timestamp) {
+        this.vehicle = vehicle;
+        this.timestamp = timestamp;
+    }
+
+    public UUID getVehicle() {
+        return vehicle;
+    }
+
+    public Timestamp getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        LocationHistoryId that = (LocationHistoryId) o;
+        return Objects.equals(vehicle, that.vehicle) && Objects.equals(timestamp, that.timestamp);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(vehicle, timestamp);
+    }
+}
@@ -4,12 +4,89 @@ import javax.persistence.*;
 import java.sql.Timestamp;
 import java.util.UUID;
 
+
+import io.roach.movrapi.dto.RideStatementResultDTO;
+
 /**
  * Hibernate entity for the Ride Table
+ *
+ * Starting and ending a ride each change a vehicle, a ride and the vehicle's location history. Rather than a select
+ * and a write per table, each is done by one native statement (Ride.startRide and Ride.endRide): a CTE whose
+ * conditional UPDATE of the vehicle gates the other writes, and whose final SELECT reports what it found, so the
+ * service can raise the same errors as before. See RideServiceImpl.
+ *
+ * Ending a ride reports where it started: the location history row the ride start left at the ride's start time,
+ * since the vehicle's own last location has been moved along by the positions it reported during the ride. Only if
+ * that row is gone (compacted, packed or archived) does it fall back to the vehicle's last location.
  */
 
 @Entity
 @Table(name = "rides")
+@SqlResultSetMapping(name = "RideStatementResult", classes = @ConstructorResult(
+    targetClass = RideStatementResultDTO.class,
+    columns = {
+        @ColumnResult(name = "user_found", type = Boolean.class),
+        @ColumnResult(name = "vehicle_found", type = Boolean.class),
+        @ColumnResult(name = "in_use", type = Boolean.class),
+        @ColumnResult(name = "last_checkin", type = Timestamp.class),
+        @ColumnResult(name = "last_latitude", type = Double.class),
+        @ColumnResult(name = "last_longitude", type = Double.class),
+        @ColumnResult(name = "ride_start", type = Timestamp.class),
+        @ColumnResult(name = "done", type = Boolean.class)}))
+@NamedNativeQuery(name = "Ride.startRide", resultSetMapping = "RideStatementResult",
+    query = "WITH rider AS (SELECT email FROM users WHERE email = :email), " +
+        "vehicle AS (SELECT in_use, last_checkin, last_latitude, last_longitude FROM vehicles WHERE id = :vehicleId), " +
+        "checkout AS (" +
+        "UPDATE vehicles SET in_use = true, last_checkin = :startTime " +
+        "WHERE id = :vehicleId AND NOT in_use AND last_checkin IS NOT NULL AND EXISTS (SELECT 1 FROM rider) " +
+        "RETURNING id, last_latitude, last_longitude), " +
+        "history AS (" +
+        "INSERT INTO location_history (vehicle_id, ts, longitude, latitude) " +
+        "SELECT id, :startTime, last_longitude, last_latitude FROM checkout " +
+        "RETURNING vehicle_id), " +
+        "ride AS (" +
+        "INSERT INTO rides (id, vehicle_id, user_email, start_ts) " +
+        "SELECT :rideId, id, :email, :startTime FROM checkout " +
+        "RETURNING id, start_ts) " +
+        "SELECT EXISTS (SELECT 1 FROM rider) AS user_found, " +
+        "EXISTS (SELECT 1 FROM vehicle) AS vehicle_found, " +
+        "(SELECT in_use FROM vehicle) AS in_use, " +
+        "(SELECT last_checkin FROM vehicle) AS last_checkin, " +
+        "(SELECT last_latitude FROM vehicle) AS last_latitude, " +
+        "(SELECT last_longitude FROM vehicle) AS last_longitude, " +
+        "(SELECT start_ts FROM ride) AS ride_start, " +
+        "EXISTS (SELECT 1 FROM ride) AND EXISTS (SELECT 1 FROM history) AS done")
+@NamedNativeQuery(name = "Ride.endRide", resultSetMapping = "RideStatementResult",
+    query = "WITH rider AS (SELECT email FROM users WHERE email = :email), " +
+        "vehicle AS (SELECT in_use, last_checkin, last_latitude, last_longitude FROM vehicles WHERE id = :vehicleId), " +
+        "active_ride AS (" +
+        "SELECT id, start_ts FROM rides " +
+        "WHERE vehicle_id = :vehicleId AND user_email = :email AND end_ts IS NULL " +
+        "ORDER BY start_ts DESC LIMIT 1), " +
+        "start_point AS (" +
+        "SELECT latitude, longitude FROM location_history " +
+        "WHERE vehicle_id = :vehicleId AND ts = (SELECT start_ts FROM active_ride)), " +
+        "checkin AS (" +
+        "UPDATE vehicles SET in_use = false, battery = :battery, last_latitude = :latitude, " +
+        "last_longitude = :longitude, last_checkin = :endTime " +
+        "WHERE id = :vehicleId AND in_use AND last_checkin IS NOT NULL AND EXISTS (SELECT 1 FROM active_ride) " +
+        "RETURNING id), " +
+        "history AS (" +
+        "INSERT INTO location_history (vehicle_id, ts, longitude, latitude) " +
+        "SELECT id, :endTime, :longitude, :latitude FROM checkin " +
+        "RETURNING vehicle_id), " +
+        "ride AS (" +
+        "UPDATE rides SET end_ts = :endTime " +
+        "WHERE id = (SELECT id FROM active_ride) AND EXISTS (SELECT 1 FROM checkin) " +
+        "RETURNING id) " +
+        "SELECT EXISTS (SELECT 1 FROM rider) AS user_found, " +
+        "EXISTS (SELECT 1 FROM vehicle) AS vehicle_found, " +
+        "(SELECT in_use FROM vehicle) AS in_use, " +
+        "(SELECT last_checkin FROM vehicle) AS last_checkin, " +
+        "COALESCE((SELECT latitude FROM start_point), (SELECT last_latitude FROM vehicle)) AS last_latitude, " +
+        "COALESCE((SELECT longitude FROM start_point), (SELECT last_longitude FROM vehicle)) AS last_longitude, " +
+        "(SELECT start_ts FROM active_ride) AS ride_start, " +
+        "EXISTS (SELECT 1 FROM ride) AND EXISTS (SELECT 1 FROM history) AS done")
 public class Ride {
 
     @Id
@@ -19,10 +96,12 @@ public class Ride {
     private Timestamp startTime;
     @Column(name = "end_ts")
     private Timestamp endTime;
-    @ManyToOne
+    // lazy, so loading a ride doesn't also select its vehicle and user (the ride endpoints only need their ids,
+    // which the proxies hold without going to the database)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "vehicle_id")
     private Vehicle vehicle;
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_email")
     private User user;
 
@@ -1,6 +1,7 @@
 package io.roach.movrapi.entity;
 
 import javax.persistence.*;
+import java.sql.Timestamp;
 import java.util.List;
 import java.util.UUID;
 
@@ -8,13 +9,47 @@ import com.vladmihalcea.hibernate.type.json.JsonBinaryType;
 import org.hibernate.annotations.Type;
 import org.hibernate.annotations.TypeDef;
 
+import io.roach.movrapi.dto.VehicleWithLocationDTO;
+
 /**
  * Hibernate entity for the Vehicles Table
+ *
+ * The spatial queries on the last_location GEOGRAPHY column (see migrations/004) can't be written in JPQL, so they
+ * are declared here as native queries, and their rows are mapped onto VehicleWithLocationDTO by the
+ * VehicleWithLocation result set mapping. VehicleRepository exposes them by name.
+ *
+ * A GEOGRAPHY polygon's edges are geodesics, so a viewport's north and south edges, cast as they are, would bow
+ * towards the pole across a wide map. The viewport rectangle is segmentized first (every 0.1 degrees of longitude
+ * or latitude), so that its edges follow the parallels to within about a meter.
  */
 
 @Entity
 @Table(name = "vehicles")
 @TypeDef(name = "jsonb", typeClass = JsonBinaryType.class)
+@SqlResultSetMapping(name = "VehicleWithLocation", classes = @ConstructorResult(
+    targetClass = VehicleWithLocationDTO.class,
+    columns = {
+        @ColumnResult(name = "id", type = UUID.class),
+        @ColumnResult(name = "battery", type = Integer.class),
+        @ColumnResult(name = "in_use", type = Boolean.class),
+        @ColumnResult(name = "serial_number", type = String.class),
+        @ColumnResult(name = "vehicle_info", type = String.class),
+        @ColumnResult(name = "last_checkin", type = Timestamp.class),
+        @ColumnResult(name = "last_latitude", type = Double.class),
+        @ColumnResult(name = "last_longitude", type = Double.class)}))
+@NamedNativeQuery(name = "Vehicle.findVehiclesWithinRadius", resultSetMapping = "VehicleWithLocation",
+    query = "SELECT id, battery, in_use, serial_number, vehicle_info, last_checkin, last_latitude, last_longitude " +
+        "FROM vehicles " +
+        "WHERE ST_DWithin(last_location, CAST(ST_MakePoint(:longitude, :latitude) AS GEOGRAPHY), :radiusMeters) " +
+        "ORDER BY ST_Distance(last_location, CAST(ST_MakePoint(:longitude, :latitude) AS GEOGRAPHY)), id " +
+        "LIMIT :maxVehicles")
+@NamedNativeQuery(name = "Vehicle.findVehiclesInViewport", resultSetMapping = "VehicleWithLocation",
+    query = "SELECT id, battery, in_use, serial_number, vehicle_info, last_checkin, last_latitude, last_longitude " +
+        "FROM vehicles " +
+        "WHERE ST_Intersects(last_location, " +
+        "CAST(ST_Segmentize(ST_MakeEnvelope(:west, :south, :east, :north, 4326), 0.1) AS GEOGRAPHY)) " +
+        "ORDER BY id " +
+        "LIMIT :maxVehicles")
 public class Vehicle {
 
     @Id
@@ -28,6 +63,12 @@ public class Vehicle {
     private String vehicleInfo;
     @Column(updatable = false, insertable = false)
     private String serialNumber;
+    // Most recent location of the vehicle, kept in sync with the newest location_history row
+    // so that listing vehicles doesn't need to aggregate the whole history table
+    private Double lastLongitude;
+    private Double lastLatitude;
+    @Column(name = "last_checkin")
+    private Timestamp lastCheckin;
     @OneToMany(fetch = FetchType.LAZY, mappedBy = "vehicle", cascade = CascadeType.ALL)
     @OrderBy("timestamp DESC")
     private List<LocationHistory> locationHistoryList;
@@ -74,6 +115,30 @@ public class Vehicle {
         this.serialNumber = serialNumber;
     }
 
+    public Double getLastLongitude() {
+        return lastLongitude;
+    }
+
+    public void setLastLongitude(Double lastLongitude) {
+        this.lastLongitude = lastLongitude;
+    }
+
+    public Double getLastLatitude() {
+        return lastLatitude;
+    }
+
+    public void setLastLatitude(Double lastLatitude) {
+        this.lastLatitude = lastLatitude;
+    }
+
+    public Timestamp getLastCheckin() {
+        return lastCheckin;
+    }
+
+    public void setLastCheckin(Timestamp lastCheckin) {
+        this.lastCheckin = lastCheckin;
+    }
+
     public List<LocationHistory> getLocationHistoryList() {
         return locationHistoryList;
     }
@@ -0,0 +1,16 @@
+package io.roach.movrapi.exception;
+
+/**
+ * Thrown when locations cannot be queued for writing because the queue is full (or no longer taking any), so the
+ * client should send them again later
+ */
+
+public class IngestQueueFullException extends Exception {
+
+    public IngestQueueFullException() {
+    }
+
+    public IngestQueueFullException(String message) {
+        super(message);
+    }
+}
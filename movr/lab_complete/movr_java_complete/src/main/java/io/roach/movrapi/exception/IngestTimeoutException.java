@@ -0,0 +1,13 @@
+package io.roach.movrapi.exception;
+
+/**
+ * Thrown when a request waiting for its locations to be committed gives up before they are: they stay queued and
+ * may still be written, and as locations already recorded are skipped, the client can safely send them again
+ */
+
+public class IngestTimeoutException extends Exception {
+
+    public IngestTimeoutException(String message) {
+        super(message);
+    }
+}
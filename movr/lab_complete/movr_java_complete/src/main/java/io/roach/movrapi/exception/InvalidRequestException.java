@@ -0,0 +1,11 @@
+package io.roach.movrapi.exception;
+
+/**
+ *     Thrown when a request can't be handled as sent (e.g., it is missing items, or is larger than the server takes)
+ */
+public class InvalidRequestException extends Exception {
+
+    public InvalidRequestException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,12 @@
+package io.roach.movrapi.exception;
+
+/**
+ *     Thrown when a transaction keeps failing with retryable (serialization) errors until it runs out of retries
+ *     (unchecked, as it can come out of any transactional service method)
+ */
+public class TransactionRetriesExhaustedException extends RuntimeException {
+
+    public TransactionRetriesExhaustedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,39 @@
+package io.roach.movrapi.mapper;
+
+import io.roach.movrapi.entity.User;
+import io.roach.movrapi.entity.Vehicle;
+import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
+import org.mapstruct.factory.Mappers;
+
+/**
+ * Makes detached copies of entities for the entity caches.
+ *
+ * Only the columns are copied: the lazy collections are left out, since reading them outside the transaction that
+ * loaded the entity would fail anyway.
+ */
+
+@Mapper
+public interface EntityCopyMapper {
+
+    EntityCopyMapper INSTANCE = Mappers.getMapper(EntityCopyMapper.class);
+
+    /**
+     * Copies a User entity, without its rides.
+     *
+     * @param user  the User entity object
+     * @return      a new, detached User
+     */
+    @Mapping(target = "rideList", ignore = true)
+    User copy(User user);
+
+    /**
+     * Copies a Vehicle entity, without its location history or rides.
+     *
+     * @param vehicle   the Vehicle entity object
+     * @return          a new, detached Vehicle
+     */
+    @Mapping(target = "locationHistoryList", ignore = true)
+    @Mapping(target = "rideList", ignore = true)
+    Vehicle copy(Vehicle vehicle);
+}
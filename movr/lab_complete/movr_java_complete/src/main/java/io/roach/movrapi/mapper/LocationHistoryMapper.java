@@ -0,0 +1,26 @@
+package io.roach.movrapi.mapper;
+
+import io.roach.movrapi.dto.LocationDetailsDTO;
+import io.roach.movrapi.entity.LocationHistory;
+import org.mapstruct.Mapper;
+import org.mapstruct.factory.Mappers;
+
+/**
+ * Maps LocationHistory entities to Data Transfer Objects.
+ *
+ * MapStruct generates the implementation (LocationHistoryMapperImpl) at compile time.
+ */
+
+@Mapper
+public interface LocationHistoryMapper {
+
+    LocationHistoryMapper INSTANCE = Mappers.getMapper(LocationHistoryMapper.class);
+
+    /**
+     * Converts the LocationHistory entity object to a Data Transfer Object.
+     *
+     * @param locationHistory   the LocationHistory entity object
+     * @return                  LocationDetailsDTO
+     */
+    LocationDetailsDTO toDto(LocationHistory locationHistory);
+}
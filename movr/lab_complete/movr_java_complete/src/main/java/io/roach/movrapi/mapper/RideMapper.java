@@ -0,0 +1,30 @@
+package io.roach.movrapi.mapper;
+
+import io.roach.movrapi.dto.RideDTO;
+import io.roach.movrapi.entity.Ride;
+import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
+import org.mapstruct.factory.Mappers;
+
+/**
+ * Maps Ride entities to Data Transfer Objects.
+ *
+ * MapStruct generates the implementation (RideMapperImpl) at compile time, so the mapping is plain
+ * getter/setter code rather than reflection at runtime.
+ */
+
+@Mapper
+public interface RideMapper {
+
+    RideMapper INSTANCE = Mappers.getMapper(RideMapper.class);
+
+    /**
+     * Converts the Ride entity object to a Data Transfer Object.
+     *
+     * @param ride  the Ride entity object
+     * @return      RideDTO
+     */
+    @Mapping(source = "vehicle.id", target = "vehicleId")
+    @Mapping(source = "user.email", target = "userEmail")
+    RideDTO toDto(Ride ride);
+}
@@ -0,0 +1,191 @@
+package io.roach.movrapi.service;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.UnaryOperator;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import io.roach.movrapi.exception.NotFoundException;
+
+/**
+ * Bounded cache of entities looked up by key, in front of the service methods that read a single entity.
+ * Entries are evicted once the cache holds maximumSize of them, and expire expireAfterWrite after they were loaded,
+ * which is also how long a change made by another instance of the application can go unseen. Hits and misses are
+ * recorded, see getStats().
+ *
+ * The cache only holds detached copies: a value is copied when it is stored and again every time it is handed out,
+ * so no caller can change what the next one sees, and nothing in the cache is attached to a persistence context.
+ * Code that goes on to modify an entity must read it from its repository, not from here.
+ *
+ * Writers call invalidateAfterCommit() inside their transaction, and the entry is dropped once that transaction
+ * commits (the same way VehicleLocationIndex applies its changes). Until then the writing transaction reads that key
+ * straight from the database, so it never sees, or stores, a copy of the entity from before its own change.
+ *
+ * A transaction reads the database as of when it started, so a value it loads can predate an invalidation that
+ * happened in the meantime. Every invalidation therefore takes a number from a counter, and a loaded value is only
+ * stored if no key in its stripe has been invalidated since the loading transaction first used the cache.
+ *
+ * @param <K>   the key (the entity's id)
+ * @param <V>   the entity
+ */
+
+public class EntityCache<K, V> {
+
+    private static final int INVALIDATION_STRIPES = 1024;
+
+    private final String name;
+    private final Cache<K, V> cache;
+    private final UnaryOperator<V> copier;
+    private final AtomicLong invalidations = new AtomicLong();
+    // the value of the invalidations counter at the last invalidation of any key in each stripe
+    private final AtomicLongArray lastInvalidation = new AtomicLongArray(INVALIDATION_STRIPES);
+
+    /**
+     * Reads an entity from the database.
+     */
+    @FunctionalInterface
+    public interface Loader<K, V> {
+        V load(K key) throws NotFoundException;
+    }
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param name              the name of the cache (used to identify its statistics)
+     * @param maximumSize       the maximum number of entries
+     * @param expireAfterWrite  how long an entry is kept after it was loaded
+     * @param copier            makes a detached copy of an entity
+     */
+    public EntityCache(String name, long maximumSize, Duration expireAfterWrite, UnaryOperator<V> copier) {
+        this.name = name;
+        this.cache = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(expireAfterWrite)
+            .recordStats()
+            .build();
+        this.copier = copier;
+    }
+
+    /**
+     * Gets the entity with this key, from the cache if it's there, otherwise from the loader (and then stores it).
+     *
+     * @param key                   the key of the entity
+     * @param loader                reads the entity from the database when it isn't cached
+     * @return                      a copy of the cached entity, or the entity the loader returned
+     * @throws NotFoundException    if the loader doesn't find the entity (which is not cached)
+     */
+    public V get(K key, Loader<K, V> loader) throws NotFoundException {
+        TransactionState transactionState = transactionState();
+        if (transactionState != null && transactionState.invalidatedKeys.contains(key)) {
+            return loader.load(key);
+        }
+        V cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return copier.apply(cached);
+        }
+
+        long readAsOf = transactionState != null ? transactionState.firstUse : invalidations.get();
+        V loaded = loader.load(key);
+        V copy = copier.apply(loaded);
+        int stripe = stripe(key);
+        // runs under the same lock as invalidate() for this key, so an invalidation can't slip in between the check
+        // and the store
+        cache.asMap().compute(key, (k, current) -> lastInvalidation.get(stripe) <= readAsOf ? copy : current);
+        return loaded;
+    }
+
+    /**
+     * Drops the entry for this key once the current transaction commits, or straight away if there is no
+     * transaction.
+     *
+     * @param key   the key of the entity that is being changed or deleted
+     */
+    public void invalidateAfterCommit(K key) {
+        TransactionState transactionState = transactionState();
+        if (transactionState != null) {
+            transactionState.invalidatedKeys.add(key);
+        } else {
+            invalidate(key);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the hit, miss, load and eviction counts since the cache was created.
+     *
+     * @return  a snapshot of the cache statistics
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    private void invalidate(K key) {
+        int stripe = stripe(key);
+        cache.asMap().compute(key, (k, current) -> {
+            lastInvalidation.set(stripe, invalidations.incrementAndGet());
+            return null;
+        });
+    }
+
+    private int stripe(K key) {
+        return Math.floorMod(key.hashCode(), INVALIDATION_STRIPES);
+    }
+
+    /**
+     * Gets this cache's state for the current transaction, registering it on first use.
+     *
+     * @return  the transaction state, or null if there is no transaction
+     */
+    @SuppressWarnings("unchecked")
+    private TransactionState transactionState() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        TransactionState transactionState = (TransactionState) TransactionSynchronizationManager.getResource(this);
+        if (transactionState == null) {
+            TransactionState newState = new TransactionState(invalidations.get());
+            TransactionSynchronizationManager.bindResource(this, newState);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    newState.invalidatedKeys.forEach(key -> invalidate((K) key));
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResource(EntityCache.this);
+                }
+            });
+            transactionState = newState;
+        }
+        return transactionState;
+    }
+
+    /**
+     * What the current transaction needs to remember about the cache.
+     */
+    private static final class TransactionState {
+        // the value of the invalidations counter when the transaction first used the cache
+        final long firstUse;
+        final Set<Object> invalidatedKeys = new HashSet<>();
+
+        TransactionState(long firstUse) {
+            this.firstUse = firstUse;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package io.roach.movrapi.service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.roach.movrapi.dao.JobWatermarkRepository;
+import io.roach.movrapi.dao.LocationHistoryArchive;
+import io.roach.movrapi.dao.LocationHistoryBlockStore;
+import io.roach.movrapi.dao.LocationHistoryRepository;
+import io.roach.movrapi.dto.LocationDetailsDTO;
+import io.roach.movrapi.entity.JobWatermark;
+import io.roach.movrapi.util.Pacer;
+import static io.roach.movrapi.service.LocationHistoryCompactor.ESTIMATED_ROW_BYTES;
+
+/**
+ * Background job that ages location history out of the database: once it is older than the retention period, it is
+ * exported to the archive (see LocationHistoryArchive) and then deleted.
+ *
+ * Every movr.archive.interval-ms, the history older than retention-days is worked through one window-hours stretch
+ * of time at a time, oldest first. Each stretch is exported to an archive file of its own, and then the rows that
+ * made it into the file are deleted, batch-size rows per transaction, read back from the file itself: a row is never
+ * deleted unless it is safely on disk, and rows recorded late (after the export) stay in the database, where the
+ * history reads still find them. A stretch that was exported before (by a run that was stopped while deleting) is not
+ * exported again, only deleted. The history packed into blocks (see LocationHistoryPacker) ages out the same way: its
+ * positions are exported with the rows, and then taken out of their blocks, the blocks left empty being deleted.
+ *
+ * The job paces itself to max-rows-per-second rows exported and deleted, and keeps its watermark in the
+ * job_watermarks table, like LocationHistoryCompactor. It only needs to run on one instance of the application; the
+ * others can read the archive if they share its directory. movr.archive.enabled turns it on.
+ */
+
+@Component
+public class LocationHistoryArchiver {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocationHistoryArchiver.class);
+
+    public static final String JOB = "location_history_archive";
+
+    private final VehicleService vehicleService;
+    private final LocationHistoryRepository locationHistoryRepository;
+    private final LocationHistoryArchive locationHistoryArchive;
+    private final LocationHistoryBlockStore locationHistoryBlockStore;
+    private final JobWatermarkRepository jobWatermarkRepository;
+    private final boolean enabled;
+    private final long retentionMillis;
+    private final long windowMillis;
+    private final int batchSize;
+    private final int maxRowsPerSecond;
+
+    private final Stats stats = new Stats();
+
+    @Autowired
+    public LocationHistoryArchiver(VehicleService vehicleService,
+                                   LocationHistoryRepository locationHistoryRepository,
+                                   LocationHistoryArchive locationHistoryArchive,
+                                   LocationHistoryBlockStore locationHistoryBlockStore,
+                                   JobWatermarkRepository jobWatermarkRepository,
+                                   @Value("${movr.archive.enabled:false}") boolean enabled,
+                                   @Value("${movr.archive.retention-days:90}") int retentionDays,
+                                   @Value("${movr.archive.window-hours:24}") int windowHours,
+                                   @Value("${movr.archive.batch-size:500}") int batchSize,
+                                   @Value("${movr.archive.max-rows-per-second:5000}") int maxRowsPerSecond) {
+        this.vehicleService = vehicleService;
+        this.locationHistoryRepository = locationHistoryRepository;
+        this.locationHistoryArchive = locationHistoryArchive;
+        this.locationHistoryBlockStore = locationHistoryBlockStore;
+        this.jobWatermarkRepository = jobWatermarkRepository;
+        this.enabled = enabled;
+        this.retentionMillis = TimeUnit.DAYS.toMillis(Math.max(0, retentionDays));
+        this.windowMillis = TimeUnit.HOURS.toMillis(Math.max(1, windowHours));
+        this.batchSize = Math.max(1, batchSize);
+        this.maxRowsPerSecond = maxRowsPerSecond;
+    }
+
+    @Scheduled(initialDelayString = "${movr.archive.interval-ms:3600000}",
+        fixedDelayString = "${movr.archive.interval-ms:3600000}")
+    public void scheduledArchive() {
+        if (enabled) {
+            archive(Timestamp.valueOf(LocalDateTime.now(ZoneOffset.UTC)));
+        }
+    }
+
+    /**
+     * Archives the location history that has passed the retention period since the last run.
+     *
+     * Stops early (leaving the rest for the next run) if the thread is interrupted, as it is when the application
+     * shuts down.
+     *
+     * @param now   the current time, which the retention period is counted back from
+     * @return      the number of location history rows deleted from the database, counting each position taken
+     *              out of a packed block as a row
+     */
+    public synchronized long archive(Timestamp now) {
+        long start = System.nanoTime();
+        long expiredBefore = now.getTime() - retentionMillis;
+
+        JobWatermark watermark = jobWatermarkRepository.findById(JOB).orElse(null);
+        if (watermark == null) {
+            Timestamp oldest = locationHistoryRepository.findOldestTimestamp();
+            Timestamp oldestPacked = locationHistoryBlockStore.findOldestTimestamp();
+            if (oldest == null || oldestPacked != null && oldestPacked.before(oldest)) {
+                oldest = oldestPacked;
+            }
+            if (oldest == null) {
+                return 0L;
+            }
+            watermark = new JobWatermark(JOB, new Timestamp(oldest.getTime() - Math.floorMod(oldest.getTime(),
+                windowMillis)));
+        }
+
+        Run run = new Run(new Pacer(maxRowsPerSecond));
+        long from = watermark.getProcessedBefore().getTime();
+        while (from + windowMillis <= expiredBefore) {
+            Timestamp windowStart = new Timestamp(from);
+            Timestamp windowEnd = new Timestamp(from + windowMillis);
+            if (!locationHistoryArchive.isArchived(windowStart, windowEnd)) {
+                long exported = locationHistoryArchive.export(windowStart, windowEnd);
+                run.rowsExported += exported;
+                if (!run.pacer.pace(exported)) {
+                    break;
+                }
+            }
+            if (!deleteArchived(windowStart, windowEnd, run)) {
+                break;
+            }
+            watermark.setProcessedBefore(windowEnd);
+            watermark = jobWatermarkRepository.save(watermark);
+            stats.archivedBefore = windowEnd;
+            run.windows++;
+            from += windowMillis;
+        }
+
+        long elapsedNanos = System.nanoTime() - start;
+        stats.ran(run, elapsedNanos);
+        if (run.windows > 0 || run.rowsDeleted > 0 || run.packedDeleted > 0) {
+            logger.info("Archived location history up to {}: {} rows exported, {} rows deleted, {} packed positions " +
+                    "deleted, about {} bytes reclaimed, in {} ms", watermark.getProcessedBefore(), run.rowsExported,
+                run.rowsDeleted, run.packedDeleted, run.rowsDeleted * ESTIMATED_ROW_BYTES,
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        }
+        return run.rowsDeleted + run.packedDeleted;
+    }
+
+    /**
+     * Gets the totals of all the runs so far.
+     *
+     * @return  the statistics, kept up to date as the job runs
+     */
+    public Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * Deletes the rows (and packed positions) of an archived stretch of time from the database, as listed in the
+     * archive file.
+     *
+     * @return  false if the run was interrupted before it was done
+     */
+    private boolean deleteArchived(Timestamp windowStart, Timestamp windowEnd, Run run) {
+        for (UUID vehicleId : locationHistoryArchive.getVehicles(windowStart, windowEnd)) {
+            List<Timestamp> timestamps = new ArrayList<>();
+            for (LocationDetailsDTO location : locationHistoryArchive.read(vehicleId, windowStart, windowEnd)) {
+                timestamps.add(location.getTimestamp());
+            }
+            for (int from = 0; from < timestamps.size(); from += batchSize) {
+                List<Timestamp> chunk = timestamps.subList(from, Math.min(from + batchSize, timestamps.size()));
+                run.rowsDeleted += vehicleService.removeLocations(vehicleId, chunk);
+                if (!run.pacer.pace(chunk.size())) {
+                    return false;
+                }
+            }
+            int packedDeleted = vehicleService.removePackedLocations(vehicleId, windowStart, windowEnd, timestamps);
+            run.packedDeleted += packedDeleted;
+            if (!run.pacer.pace(packedDeleted)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * What a single run has done so far.
+     */
+    private static final class Run {
+
+        private final Pacer pacer;
+        private long windows;
+        private long rowsExported;
+        private long rowsDeleted;
+        private long packedDeleted;
+
+        private Run(Pacer pacer) {
+            this.pacer = pacer;
+        }
+    }
+
+    /**
+     * Totals of the job's runs.
+     */
+    public static final class Stats {
+
+        private final LongAdder runs = new LongAdder();
+        private final LongAdder windows = new LongAdder();
+        private final LongAdder rowsExported = new LongAdder();
+        private final LongAdder rowsDeleted = new LongAdder();
+        private final LongAdder packedDeleted = new LongAdder();
+        private final AtomicLong runNanos = new AtomicLong();
+        private volatile long lastRunNanos;
+        private volatile Timestamp archivedBefore;
+
+        private void ran(Run run, long nanos) {
+            runs.increment();
+            windows.add(run.windows);
+            rowsExported.add(run.rowsExported);
+            rowsDeleted.add(run.rowsDeleted);
+            packedDeleted.add(run.packedDeleted);
+            runNanos.addAndGet(nanos);
+            lastRunNanos = nanos;
+        }
+
+        public long getRuns() {
+            return runs.sum();
+        }
+
+        /**
+         * @return  the window-hours stretches of history that have been archived
+         */
+        public long getWindows() {
+            return windows.sum();
+        }
+
+        public long getRowsExported() {
+            return rowsExported.sum();
+        }
+
+        public long getRowsDeleted() {
+            return rowsDeleted.sum();
+        }
+
+        /**
+         * @return  the positions taken out of packed blocks
+         */
+        public long getPackedDeleted() {
+            return packedDeleted.sum();
+        }
+
+        /**
+         * @return  an estimate of the database space freed by the rows deleted, see
+         *          LocationHistoryCompactor.ESTIMATED_ROW_BYTES
+         */
+        public long getBytesReclaimed() {
+            return getRowsDeleted() * ESTIMATED_ROW_BYTES;
+        }
+
+        public long getRunNanos() {
+            return runNanos.get();
+        }
+
+        public long getLastRunNanos() {
+            return lastRunNanos;
+        }
+
+        /**
+         * @return  the end of the history archived by this instance so far (null if it hasn't archived any)
+         */
+        public Timestamp getArchivedBefore() {
+            return archivedBefore;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package io.roach.movrapi.service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.roach.movrapi.dao.JobWatermarkRepository;
+import io.roach.movrapi.dao.LocationHistoryRepository;
+import io.roach.movrapi.dao.VehicleRepository;
+import io.roach.movrapi.dto.LocationDetailsDTO;
+import io.roach.movrapi.dto.NearbyVehicleDTO;
+import io.roach.movrapi.entity.JobWatermark;
+import io.roach.movrapi.util.Pacer;
+import io.roach.movrapi.util.TrackSimplifier;
+
+/**
+ * Background job that thins out the location history once it is older than a hot window, keeping the shape of each
+ * vehicle's track but not every point of it.
+ *
+ * Every movr.compaction.interval-ms, the history older than hot-window-days is worked through one window-hours
+ * stretch of time at a time, oldest first. For each vehicle, the points of the stretch are simplified with the
+ * Douglas-Peucker algorithm (see TrackSimplifier): a point is only kept if the track would move by more than
+ * tolerance-meters without it. The others are deleted batch-size rows at a time, each batch a transaction of its own,
+ * so the job never holds locks for long. A stretch's first and last points are always kept, so a vehicle's newest
+ * point (its current location) survives however long ago it was recorded.
+ *
+ * The job paces itself to max-rows-per-second rows read and deleted, sleeping between batches when it is ahead, so
+ * it doesn't compete with the foreground traffic for the database. Each stretch is simplified only once: the job's
+ * watermark (in the job_watermarks table) is moved past it when it is done, so the next run carries on from there.
+ * It only needs to run on one instance of the application; movr.compaction.enabled turns it on.
+ *
+ * Each run logs the rows it read and removed and an estimate of the space freed (see ESTIMATED_ROW_BYTES), and the
+ * totals are kept in getStats().
+ */
+
+@Component
+public class LocationHistoryCompactor {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocationHistoryCompactor.class);
+
+    public static final String JOB = "location_history_compaction";
+
+    // what a location history row takes up in CockroachDB before compression: its columns (40 bytes) in the primary
+    // index, its only index since migrations/002, and roughly a dozen bytes of key encoding and MVCC timestamp
+    public static final long ESTIMATED_ROW_BYTES = 52;
+
+    private static final int VEHICLE_BATCH_SIZE = 1000;
+    // sorts before every other UUID, so the first batch of vehicles starts at the beginning of the table
+    private static final UUID NIL_UUID = new UUID(0L, 0L);
+
+    private final VehicleService vehicleService;
+    private final VehicleRepository vehicleRepository;
+    private final LocationHistoryRepository locationHistoryRepository;
+    private final JobWatermarkRepository jobWatermarkRepository;
+    private final boolean enabled;
+    private final long hotWindowMillis;
+    private final long windowMillis;
+    private final double toleranceMeters;
+    private final int batchSize;
+    private final int maxRowsPerSecond;
+
+    private final Stats stats = new Stats();
+
+    @Autowired
+    public LocationHistoryCompactor(VehicleService vehicleService,
+                                    VehicleRepository vehicleRepository,
+                                    LocationHistoryRepository locationHistoryRepository,
+                                    JobWatermarkRepository jobWatermarkRepository,
+                                    @Value("${movr.compaction.enabled:false}") boolean enabled,
+                                    @Value("${movr.compaction.hot-window-days:7}") int hotWindowDays,
+                                    @Value("${movr.compaction.window-hours:24}") int windowHours,
+                                    @Value("${movr.compaction.tolerance-meters:10}") double toleranceMeters,
+                                    @Value("${movr.compaction.batch-size:500}") int batchSize,
+                                    @Value("${movr.compaction.max-rows-per-second:5000}") int maxRowsPerSecond) {
+        this.vehicleService = vehicleService;
+        this.vehicleRepository = vehicleRepository;
+        this.locationHistoryRepository = locationHistoryRepository;
+        this.jobWatermarkRepository = jobWatermarkRepository;
+        this.enabled = enabled;
+        this.hotWindowMillis = TimeUnit.DAYS.toMillis(Math.max(0, hotWindowDays));
+        this.windowMillis = TimeUnit.HOURS.toMillis(Math.max(1, windowHours));
+        this.toleranceMeters = toleranceMeters;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxRowsPerSecond = maxRowsPerSecond;
+    }
+
+    @Scheduled(initialDelayString = "${movr.compaction.interval-ms:3600000}",
+        fixedDelayString = "${movr.compaction.interval-ms:3600000}")
+    public void scheduledCompaction() {
+        if (enabled) {
+            compact(Timestamp.valueOf(LocalDateTime.now(ZoneOffset.UTC)));
+        }
+    }
+
+    /**
+     * Thins out the location history that has left the hot window since the last run.
+     *
+     * Stops early (leaving the rest for the next run) if the thread is interrupted, as it is when the application
+     * shuts down.
+     *
+     * @param now   the current time, which the hot window is counted back from
+     * @return      the number of location history rows removed
+     */
+    public synchronized long compact(Timestamp now) {
+        long start = System.nanoTime();
+        long coldBefore = now.getTime() - hotWindowMillis;
+
+        JobWatermark watermark = jobWatermarkRepository.findById(JOB).orElse(null);
+        if (watermark == null) {
+            Timestamp oldest = locationHistoryRepository.findOldestTimestamp();
+            if (oldest == null) {
+                return 0L;
+            }
+            watermark = new JobWatermark(JOB, new Timestamp(oldest.getTime() - Math.floorMod(oldest.getTime(),
+                windowMillis)));
+        }
+
+        Run run = new Run(new Pacer(maxRowsPerSecond));
+        long from = watermark.getProcessedBefore().getTime();
+        while (from + windowMillis <= coldBefore) {
+            Timestamp windowStart = new Timestamp(from);
+            Timestamp windowEnd = new Timestamp(from + windowMillis);
+            if (!compactWindow(windowStart, windowEnd, run)) {
+                break;
+            }
+            watermark.setProcessedBefore(windowEnd);
+            watermark = jobWatermarkRepository.save(watermark);
+            stats.compactedBefore = windowEnd;
+            run.windows++;
+            from += windowMillis;
+        }
+
+        long elapsedNanos = System.nanoTime() - start;
+        stats.ran(run, elapsedNanos);
+        if (run.windows > 0 || run.rowsRemoved > 0) {
+            logger.info("Compacted location history up to {}: {} of {} rows removed from {} vehicle tracks, about {} " +
+                    "bytes reclaimed, in {} ms", watermark.getProcessedBefore(), run.rowsRemoved, run.rowsScanned,
+                run.tracks, run.rowsRemoved * ESTIMATED_ROW_BYTES, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        }
+        return run.rowsRemoved;
+    }
+
+    /**
+     * Gets the totals of all the runs so far.
+     *
+     * @return  the statistics, kept up to date as the job runs
+     */
+    public Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * Thins out every vehicle's track over a stretch of time.
+     *
+     * @return  false if the run was interrupted before it was done
+     */
+    private boolean compactWindow(Timestamp windowStart, Timestamp windowEnd, Run run) {
+        UUID afterId = NIL_UUID;
+        List<NearbyVehicleDTO> batch;
+        do {
+            batch = vehicleRepository.findVehiclePositionsAfter(afterId, PageRequest.of(0, VEHICLE_BATCH_SIZE));
+            for (NearbyVehicleDTO vehicle : batch) {
+                // a vehicle's last checkin is its newest location history entry, so a vehicle last seen before the
+                // stretch has no entries in it
+                if (vehicle.getTimestamp().before(windowStart)) {
+                    continue;
+                }
+                if (!compactTrack(vehicle.getId(), windowStart, windowEnd, run)) {
+                    return false;
+                }
+            }
+            if (!batch.isEmpty()) {
+                afterId = batch.get(batch.size() - 1).getId();
+            }
+        } while (batch.size() == VEHICLE_BATCH_SIZE);
+        return true;
+    }
+
+    private boolean compactTrack(UUID vehicleId, Timestamp windowStart, Timestamp windowEnd, Run run) {
+        List<LocationDetailsDTO> track = vehicleService.getTrack(vehicleId, windowStart, windowEnd);
+        run.rowsScanned += track.size();
+        if (track.isEmpty()) {
+            return run.pacer.pace(1);
+        }
+        run.tracks++;
+
+        int size = track.size();
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        for (int i = 0; i < size; i++) {
+            latitudes[i] = track.get(i).getLatitude();
+            longitudes[i] = track.get(i).getLongitude();
+        }
+        boolean[] keep = TrackSimplifier.simplify(latitudes, longitudes, toleranceMeters);
+        List<Timestamp> removed = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            if (!keep[i]) {
+                removed.add(track.get(i).getTimestamp());
+            }
+        }
+        if (!run.pacer.pace(size)) {
+            return false;
+        }
+
+        for (int from = 0; from < removed.size(); from += batchSize) {
+            List<Timestamp> chunk = removed.subList(from, Math.min(from + batchSize, removed.size()));
+            run.rowsRemoved += vehicleService.removeLocations(vehicleId, chunk);
+            if (!run.pacer.pace(chunk.size())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * What a single run has done so far.
+     */
+    private static final class Run {
+
+        private final Pacer pacer;
+        private long windows;
+        private long tracks;
+        private long rowsScanned;
+        private long rowsRemoved;
+
+        private Run(Pacer pacer) {
+            this.pacer = pacer;
+        }
+    }
+
+    /**
+     * Totals of the job's runs.
+     */
+    public static final class Stats {
+
+        private final LongAdder runs = new LongAdder();
+        private final LongAdder windows = new LongAdder();
+        private final LongAdder rowsScanned = new LongAdder();
+        private final LongAdder rowsRemoved = new LongAdder();
+        private final AtomicLong runNanos = new AtomicLong();
+        private volatile long lastRunNanos;
+        private volatile Timestamp compactedBefore;
+
+        private void ran(Run run, long nanos) {
+            runs.increment();
+            windows.add(run.windows);
+            rowsScanned.add(run.rowsScanned);
+            rowsRemoved.add(run.rowsRemoved);
+            runNanos.addAndGet(nanos);
+            lastRunNanos = nanos;
+        }
+
+        public long getRuns() {
+            return runs.sum();
+        }
+
+        /**
+         * @return  the window-hours stretches of history that have been compacted
+         */
+        public long getWindows() {
+            return windows.sum();
+        }
+
+        public long getRowsScanned() {
+            return rowsScanned.sum();
+        }
+
+        public long getRowsRemoved() {
+            return rowsRemoved.sum();
+        }
+
+        /**
+         * @return  an estimate of the space freed by the rows removed, see ESTIMATED_ROW_BYTES (CockroachDB only
+         *          reclaims it once the rows are older than the table's gc.ttlseconds)
+         */
+        public long getBytesReclaimed() {
+            return getRowsRemoved() * ESTIMATED_ROW_BYTES;
+        }
+
+        public long getRunNanos() {
+            return runNanos.get();
+        }
+
+        public long getLastRunNanos() {
+            return lastRunNanos;
+        }
+
+        /**
+         * @return  the end of the history compacted by this instance so far (null if it hasn't compacted any)
+         */
+        public Timestamp getCompactedBefore() {
+            return compactedBefore;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package io.roach.movrapi.service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.roach.movrapi.dao.JobWatermarkRepository;
+import io.roach.movrapi.dao.LocationHistoryBlockStore;
+import io.roach.movrapi.dao.LocationHistoryRepository;
+import io.roach.movrapi.dao.VehicleRepository;
+import io.roach.movrapi.dto.NearbyVehicleDTO;
+import io.roach.movrapi.entity.JobWatermark;
+import io.roach.movrapi.util.Pacer;
+import static io.roach.movrapi.service.LocationHistoryCompactor.ESTIMATED_ROW_BYTES;
+
+/**
+ * Background job that moves location history out of one row per position and into packed blocks, one per vehicle
+ * per bucket of time (see LocationHistoryBlockStore), once no more positions are expected for it.
+ *
+ * Every movr.track-blocks.interval-ms, the history older than hot-hours is worked through one window-hours stretch
+ * of time at a time, oldest first: for each vehicle, the stretch's rows are packed and deleted in one transaction, so
+ * a position is always either a row or in a block. A vehicle's newest row (its current location) is left alone, and
+ * so are rows recorded late, after their stretch was packed; the history reads merge them in.
+ *
+ * Packed history is out of reach of LocationHistoryCompactor, which only works on rows: with hot-hours shorter than
+ * its hot window, the blocks take the place of thinning out. LocationHistoryArchiver archives packed history past the
+ * retention period along with the rows, taking the archived positions out of their blocks.
+ * The job paces itself to max-rows-per-second rows packed, and keeps its watermark in the job_watermarks table (its
+ * name is LocationHistoryBlockStore.JOB, since the history reads use it to tell whether there can be blocks). It only
+ * needs to run on one instance of the application; movr.track-blocks.enabled turns it on.
+ */
+
+@Component
+public class LocationHistoryPacker {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocationHistoryPacker.class);
+
+    public static final String JOB = LocationHistoryBlockStore.JOB;
+
+    private static final int VEHICLE_BATCH_SIZE = 1000;
+    // sorts before every other UUID, so the first batch of vehicles starts at the beginning of the table
+    private static final UUID NIL_UUID = new UUID(0L, 0L);
+
+    private final VehicleService vehicleService;
+    private final VehicleRepository vehicleRepository;
+    private final LocationHistoryRepository locationHistoryRepository;
+    private final JobWatermarkRepository jobWatermarkRepository;
+    private final boolean enabled;
+    private final long hotMillis;
+    private final long windowMillis;
+    private final int maxRowsPerSecond;
+
+    private final Stats stats = new Stats();
+
+    @Autowired
+    public LocationHistoryPacker(VehicleService vehicleService,
+                                 VehicleRepository vehicleRepository,
+                                 LocationHistoryRepository locationHistoryRepository,
+                                 JobWatermarkRepository jobWatermarkRepository,
+                                 @Value("${movr.track-blocks.enabled:false}") boolean enabled,
+                                 @Value("${movr.track-blocks.hot-hours:24}") int hotHours,
+                                 @Value("${movr.track-blocks.window-hours:24}") int windowHours,
+                                 @Value("${movr.track-blocks.max-rows-per-second:5000}") int maxRowsPerSecond) {
+        this.vehicleService = vehicleService;
+        this.vehicleRepository = vehicleRepository;
+        this.locationHistoryRepository = locationHistoryRepository;
+        this.jobWatermarkRepository = jobWatermarkRepository;
+        this.enabled = enabled;
+        this.hotMillis = TimeUnit.HOURS.toMillis(Math.max(0, hotHours));
+        this.windowMillis = TimeUnit.HOURS.toMillis(Math.max(1, windowHours));
+        this.maxRowsPerSecond = maxRowsPerSecond;
+    }
+
+    @Scheduled(initialDelayString = "${movr.track-blocks.interval-ms:3600000}",
+        fixedDelayString = "${movr.track-blocks.interval-ms:3600000}")
+    public void scheduledPacking() {
+        if (enabled) {
+            pack(Timestamp.valueOf(LocalDateTime.now(ZoneOffset.UTC)));
+        }
+    }
+
+    /**
+     * Packs the location history that has left the hot window since the last run.
+     *
+     * Stops early (leaving the rest for the next run) if the thread is interrupted, as it is when the application
+     * shuts down.
+     *
+     * @param now   the current time, which the hot window is counted back from
+     * @return      the number of location history rows packed
+     */
+    public synchronized long pack(Timestamp now) {
+        long start = System.nanoTime();
+        long coldBefore = now.getTime() - hotMillis;
+
+        JobWatermark watermark = jobWatermarkRepository.findById(JOB).orElse(null);
+        if (watermark == null) {
+            Timestamp oldest = locationHistoryRepository.findOldestTimestamp();
+            if (oldest == null) {
+                return 0L;
+            }
+            watermark = new JobWatermark(JOB, new Timestamp(oldest.getTime() - Math.floorMod(oldest.getTime(),
+                windowMillis)));
+        }
+
+        Run run = new Run(new Pacer(maxRowsPerSecond));
+        long from = watermark.getProcessedBefore().getTime();
+        while (from + windowMillis <= coldBefore) {
+            Timestamp windowStart = new Timestamp(from);
+            Timestamp windowEnd = new Timestamp(from + windowMillis);
+            if (!packWindow(windowStart, windowEnd, run)) {
+                break;
+            }
+            watermark.setProcessedBefore(windowEnd);
+            watermark = jobWatermarkRepository.save(watermark);
+            stats.packedBefore = windowEnd;
+            run.windows++;
+            from += windowMillis;
+        }
+
+        long elapsedNanos = System.nanoTime() - start;
+        stats.ran(run, elapsedNanos);
+        if (run.windows > 0 || run.rowsPacked > 0) {
+            logger.info("Packed location history up to {}: {} rows from {} vehicle tracks, about {} bytes of rows " +
+                    "reclaimed, in {} ms", watermark.getProcessedBefore(), run.rowsPacked, run.tracks,
+                run.rowsPacked * ESTIMATED_ROW_BYTES, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        }
+        return run.rowsPacked;
+    }
+
+    /**
+     * Gets the totals of all the runs so far.
+     *
+     * @return  the statistics, kept up to date as the job runs
+     */
+    public Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * Packs every vehicle's rows of a stretch of time.
+     *
+     * @return  false if the run was interrupted before it was done
+     */
+    private boolean packWindow(Timestamp windowStart, Timestamp windowEnd, Run run) {
+        UUID afterId = NIL_UUID;
+        List<NearbyVehicleDTO> batch;
+        do {
+            batch = vehicleRepository.findVehiclePositionsAfter(afterId, PageRequest.of(0, VEHICLE_BATCH_SIZE));
+            for (NearbyVehicleDTO vehicle : batch) {
+                // a vehicle's last checkin is its newest location history entry, so a vehicle last seen before the
+                // stretch has no entries in it
+                if (vehicle.getTimestamp().before(windowStart)) {
+                    continue;
+                }
+                int packed = vehicleService.packLocations(vehicle.getId(), windowStart, windowEnd);
+                if (packed > 0) {
+                    run.tracks++;
+                    run.rowsPacked += packed;
+                }
+                if (!run.pacer.pace(Math.max(1, packed))) {
+                    return false;
+                }
+            }
+            if (!batch.isEmpty()) {
+                afterId = batch.get(batch.size() - 1).getId();
+            }
+        } while (batch.size() == VEHICLE_BATCH_SIZE);
+        return true;
+    }
+
+    /**
+     * What a single run has done so far.
+     */
+    private static final class Run {
+
+        private final Pacer pacer;
+        private long windows;
+        private long tracks;
+        private long rowsPacked;
+
+        private Run(Pacer pacer) {
+            this.pacer = pacer;
+        }
+    }
+
+    /**
+     * Totals of the job's runs.
+     */
+    public static final class Stats {
+
+        private final LongAdder runs = new LongAdder();
+        private final LongAdder windows = new LongAdder();
+        private final LongAdder rowsPacked = new LongAdder();
+        private final AtomicLong runNanos = new AtomicLong();
+        private volatile long lastRunNanos;
+        private volatile Timestamp packedBefore;
+
+        private void ran(Run run, long nanos) {
+            runs.increment();
+            windows.add(run.windows);
+            rowsPacked.add(run.rowsPacked);
+            runNanos.addAndGet(nanos);
+            lastRunNanos = nanos;
+        }
+
+        public long getRuns() {
+            return runs.sum();
+        }
+
+        /**
+         * @return  the window-hours stretches of history that have been packed
+         */
+        public long getWindows() {
+            return windows.sum();
+        }
+
+        public long getRowsPacked() {
+            return rowsPacked.sum();
+        }
+
+        public long getRunNanos() {
+            return runNanos.get();
+        }
+
+        public long getLastRunNanos() {
+            return lastRunNanos;
+        }
+
+        /**
+         * @return  the end of the history packed by this instance so far (null if it hasn't packed any)
+         */
+        public Timestamp getPackedBefore() {
+            return packedBefore;
+        }
+    }
+}
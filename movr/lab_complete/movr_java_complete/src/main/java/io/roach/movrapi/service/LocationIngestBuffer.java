@@ -0,0 +1,421 @@
+package io.roach.movrapi.service;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import io.roach.movrapi.dto.VehicleLocationDTO;
+import io.roach.movrapi.exception.IngestQueueFullException;
+import io.roach.movrapi.exception.IngestTimeoutException;
+import io.roach.movrapi.exception.InvalidRequestException;
+import static io.roach.movrapi.util.Constants.ERR_INGEST_QUEUE_FULL;
+import static io.roach.movrapi.util.Constants.ERR_INGEST_STOPPED;
+import static io.roach.movrapi.util.Constants.ERR_INGEST_TIMEOUT;
+import static io.roach.movrapi.util.Constants.ERR_INGEST_TOO_LARGE;
+
+/**
+ * Write-behind buffer for the positions vehicles report, which group-commits them to the location history.
+ *
+ * Requests append their positions to a lock-free queue and return; a single flusher thread takes up to flush-rows
+ * positions off the queue at a time and writes them with VehicleService.addLocations, one transaction for the lot.
+ * It flushes as soon as flush-rows positions are waiting, or flush-interval-ms after the previous flush, whichever
+ * comes first, so thousands of vehicles each posting a position or two per request make a few large transactions
+ * a second rather than one small one per request.
+ *
+ * The queue is bounded: a position holds one of the capacity slots from the moment it is queued until its flush
+ * is over, and a request whose positions don't all fit is turned away whole with an IngestQueueFullException (which
+ * the controllers report as 429). The database then sets the pace, and memory use stays bounded however far behind
+ * it falls. A request with more positions than capacity could never fit, and is refused with an
+ * InvalidRequestException (400) instead.
+ *
+ * By default a request returns as soon as its positions are queued, so positions can be lost if the application
+ * stops abruptly, or if their flush fails (failures are logged and counted, see getStats()). In durable mode
+ * (movr.ingest.durable, or per request) the request waits until all of its positions are committed, and gets the
+ * flush's error if there is one; if they aren't committed within durable-timeout-ms it stops waiting, with an
+ * IngestTimeoutException (503), and they stay queued. A failed flush, whatever the error, only fails the requests
+ * waiting on it: the flusher goes on with the rest of the queue. Either way, a graceful shutdown stops taking
+ * positions and writes everything that was queued before the application goes on to close the database connections.
+ */
+
+@Component
+public class LocationIngestBuffer implements SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocationIngestBuffer.class);
+
+    private final VehicleService vehicleService;
+    private final int capacity;
+    private final int flushRows;
+    private final long flushIntervalNanos;
+    private final boolean durable;
+    private final long drainTimeoutMillis;
+    private final long durableTimeoutMillis;
+
+    private final ConcurrentLinkedQueue<QueuedLocation> queue = new ConcurrentLinkedQueue<>();
+    // positions queued or being flushed: reserved with a compare-and-set before they are queued, released after
+    // their flush
+    private final AtomicInteger depth = new AtomicInteger();
+    private final Stats stats = new Stats();
+
+    private volatile Thread flusher;
+    private volatile boolean accepting;
+
+    @Autowired
+    public LocationIngestBuffer(VehicleService vehicleService,
+                                @Value("${movr.ingest.capacity:100000}") int capacity,
+                                @Value("${movr.ingest.flush-rows:5000}") int flushRows,
+                                @Value("${movr.ingest.flush-interval-ms:100}") long flushIntervalMillis,
+                                @Value("${movr.ingest.durable:false}") boolean durable,
+                                @Value("${movr.ingest.drain-timeout-ms:30000}") long drainTimeoutMillis,
+                                @Value("${movr.ingest.durable-timeout-ms:10000}") long durableTimeoutMillis) {
+        this.vehicleService = vehicleService;
+        this.capacity = Math.max(1, capacity);
+        this.flushRows = Math.max(1, flushRows);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushIntervalMillis));
+        this.durable = durable;
+        this.drainTimeoutMillis = drainTimeoutMillis;
+        this.durableTimeoutMillis = Math.max(1, durableTimeoutMillis);
+    }
+
+    /**
+     * Queues positions to be written, waiting for them to be committed in durable mode.
+     *
+     * @param locations                 the positions to write
+     * @param durable                   whether to wait for the positions to be committed (null for the configured
+     *                                  mode)
+     * @return                          whether the positions were committed before returning
+     * @throws InvalidRequestException  if there are more positions than the queue can ever hold
+     * @throws IngestQueueFullException if the positions don't fit in the queue, or the buffer is shutting down
+     * @throws IngestTimeoutException   if the positions were not committed within durable-timeout-ms
+     */
+    public boolean submit(List<VehicleLocationDTO> locations, Boolean durable)
+        throws InvalidRequestException, IngestQueueFullException, IngestTimeoutException {
+
+        boolean wait = durable == null ? this.durable : durable;
+        if (locations.isEmpty()) {
+            return wait;
+        }
+        if (locations.size() > capacity) {
+            // would be turned away however empty the queue is
+            throw new InvalidRequestException(String.format(ERR_INGEST_TOO_LARGE, capacity));
+        }
+        reserve(locations.size());
+
+        Ticket ticket = wait ? new Ticket(locations.size()) : null;
+        for (VehicleLocationDTO location : locations) {
+            queue.offer(new QueuedLocation(location, ticket));
+        }
+        stats.accepted.add(locations.size());
+        if (depth.get() >= flushRows) {
+            LockSupport.unpark(flusher);
+        }
+        if (!wait) {
+            return false;
+        }
+        await(ticket.future);
+        return true;
+    }
+
+    /**
+     * Gets the number of positions waiting to be written (queued, or in the flush in progress).
+     *
+     * @return  the queue depth
+     */
+    public int getDepth() {
+        return depth.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the buffer's counters and flush timings.
+     *
+     * @return  the statistics, kept up to date as the buffer runs
+     */
+    public Stats getStats() {
+        return stats;
+    }
+
+    @Override
+    public void start() {
+        Thread thread = new Thread(this::runFlusher, "location-flusher");
+        thread.setDaemon(true);
+        accepting = true;
+        flusher = thread;
+        thread.start();
+    }
+
+    /**
+     * Stops taking positions, and waits (up to drain-timeout-ms) for the ones already queued to be written.
+     */
+    @Override
+    public void stop() {
+        Thread thread = flusher;
+        accepting = false;
+        if (thread == null) {
+            return;
+        }
+        LockSupport.unpark(thread);
+        try {
+            thread.join(drainTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            // whatever is still queued is lost; requests waiting for it are told so
+            logger.warn("Gave up waiting for {} queued locations to be written", depth.get());
+            IllegalStateException e = new IllegalStateException(ERR_INGEST_STOPPED);
+            for (QueuedLocation queued; (queued = queue.poll()) != null; ) {
+                stats.lost.increment();
+                if (queued.ticket != null) {
+                    queued.ticket.future.completeExceptionally(e);
+                }
+            }
+        }
+        flusher = null;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return flusher != null;
+    }
+
+    // stopped after the web server (which stops in phase DEFAULT_PHASE - 1), so no new requests arrive during the
+    // drain, and before the database connections are closed
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 2;
+    }
+
+    private void reserve(int count) throws IngestQueueFullException {
+        while (true) {
+            if (!accepting) {
+                stats.rejected.add(count);
+                throw new IngestQueueFullException(ERR_INGEST_STOPPED);
+            }
+            int current = depth.get();
+            if (current + count > capacity) {
+                stats.rejected.add(count);
+                throw new IngestQueueFullException(ERR_INGEST_QUEUE_FULL);
+            }
+            if (depth.compareAndSet(current, current + count)) {
+                // the buffer stopped taking positions between the check and the reservation (the flusher
+                // may already have seen the queue empty and finished)
+                if (!accepting) {
+                    depth.addAndGet(-count);
+                    continue;
+                }
+                return;
+            }
+        }
+    }
+
+    private void await(CompletableFuture<Void> future) throws IngestTimeoutException {
+        try {
+            future.get(durableTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IngestTimeoutException(String.format(ERR_INGEST_TIMEOUT, durableTimeoutMillis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for locations to be written", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException("Could not write locations", e.getCause());
+        }
+    }
+
+    private void runFlusher() {
+        long nextFlush = System.nanoTime() + flushIntervalNanos;
+        while (true) {
+            long wait = nextFlush - System.nanoTime();
+            if (accepting && wait > 0 && depth.get() < flushRows) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            if (!flush() && !accepting) {
+                if (depth.get() == 0) {
+                    // drained: nothing is queued, and nothing more can be
+                    return;
+                }
+                // a request reserved room before the buffer stopped taking positions, and is still queueing them
+                Thread.yield();
+            }
+            nextFlush = System.nanoTime() + flushIntervalNanos;
+        }
+    }
+
+    /**
+     * Writes up to flush-rows queued positions.
+     *
+     * @return  whether there was anything to write
+     */
+    private boolean flush() {
+        List<VehicleLocationDTO> locations = new ArrayList<>();
+        Map<Ticket, Integer> tickets = new IdentityHashMap<>();
+        for (QueuedLocation queued; locations.size() < flushRows && (queued = queue.poll()) != null; ) {
+            locations.add(queued.location);
+            if (queued.ticket != null) {
+                tickets.merge(queued.ticket, 1, Integer::sum);
+            }
+        }
+        if (locations.isEmpty()) {
+            return false;
+        }
+
+        long start = System.nanoTime();
+        try {
+            vehicleService.addLocations(locations);
+            stats.flushed(locations.size(), System.nanoTime() - start);
+            tickets.forEach(Ticket::written);
+        } catch (Throwable e) {
+            // Errors included: letting one end the flusher would leave the queue to fill up with nobody to empty it,
+            // and the requests waiting on this flush hanging
+            stats.failed(locations.size(), System.nanoTime() - start);
+            logger.error("Could not write {} locations", locations.size(), e);
+            tickets.keySet().forEach(ticket -> ticket.future.completeExceptionally(e));
+        } finally {
+            depth.addAndGet(-locations.size());
+        }
+        return true;
+    }
+
+    private static final class QueuedLocation {
+
+        private final VehicleLocationDTO location;
+        // null unless the request that queued the position is waiting for it to be committed
+        private final Ticket ticket;
+
+        private QueuedLocation(VehicleLocationDTO location, Ticket ticket) {
+            this.location = location;
+            this.ticket = ticket;
+        }
+    }
+
+    /**
+     * What a durable request waits on: completed once all of its positions are committed (they can be split over
+     * more than one flush), or as soon as one of its flushes fails.
+     */
+    private static final class Ticket {
+
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private final AtomicInteger remaining;
+
+        private Ticket(int count) {
+            remaining = new AtomicInteger(count);
+        }
+
+        private void written(int count) {
+            if (remaining.addAndGet(-count) == 0) {
+                future.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Counters for the positions that went through the buffer, and timings of the flushes.
+     */
+    public static final class Stats {
+
+        private final LongAdder accepted = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder written = new LongAdder();
+        private final LongAdder lost = new LongAdder();
+        private final LongAdder flushes = new LongAdder();
+        private final LongAdder failedFlushes = new LongAdder();
+        private final LongAdder flushNanos = new LongAdder();
+        private final AtomicLong maxFlushNanos = new AtomicLong();
+        private volatile long lastFlushNanos;
+
+        private void flushed(int count, long nanos) {
+            written.add(count);
+            flushes.increment();
+            timed(nanos);
+        }
+
+        private void failed(int count, long nanos) {
+            lost.add(count);
+            failedFlushes.increment();
+            timed(nanos);
+        }
+
+        private void timed(long nanos) {
+            flushNanos.add(nanos);
+            maxFlushNanos.accumulateAndGet(nanos, Math::max);
+            lastFlushNanos = nanos;
+        }
+
+        /**
+         * @return  the positions queued
+         */
+        public long getAccepted() {
+            return accepted.sum();
+        }
+
+        /**
+         * @return  the positions turned away because the queue was full or the buffer was shutting down
+         */
+        public long getRejected() {
+            return rejected.sum();
+        }
+
+        /**
+         * @return  the positions whose flush committed (including any skipped as duplicates or of unknown vehicles)
+         */
+        public long getWritten() {
+            return written.sum();
+        }
+
+        /**
+         * @return  the positions whose flush failed
+         */
+        public long getLost() {
+            return lost.sum();
+        }
+
+        public long getFlushes() {
+            return flushes.sum();
+        }
+
+        public long getFailedFlushes() {
+            return failedFlushes.sum();
+        }
+
+        /**
+         * @return  the total time spent in flushes, successful or not, in nanoseconds
+         */
+        public long getFlushNanos() {
+            return flushNanos.sum();
+        }
+
+        public long getMaxFlushNanos() {
+            return maxFlushNanos.get();
+        }
+
+        public long getLastFlushNanos() {
+            return lastFlushNanos;
+        }
+    }
+}
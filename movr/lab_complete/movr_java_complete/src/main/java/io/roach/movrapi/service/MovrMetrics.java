@@ -0,0 +1,205 @@
+package io.roach.movrapi.service;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes the statistics the application keeps about itself as metrics, next to the ones Spring Boot publishes
+ * (HTTP requests, the connection pool, Hibernate, the JVM) and the service timers (see ServiceMetricsAspect):
+ *
+ * - movr.cache.*: hits, misses, evictions and size of the user and vehicle caches (EntityCache)
+ * - movr.nearby.index.*: the age of the nearby-vehicle index (VehicleLocationIndex) and the vehicles in it
+ * - movr.ingest.*: the depth of the location ingest queue, the positions through it and its flushes
+ *   (LocationIngestBuffer)
+ * - movr.job.*: the runs of the location history jobs (LocationHistoryCompactor, LocationHistoryArchiver,
+ *   LocationHistoryPacker), the stretches of history they finished and the rows they worked on
+ * - movr.transaction.attempts: the transactional service calls that finished after each number of attempts
+ *   (TransactionRetryAspect's attempts histogram, all methods together)
+ *
+ * Transaction retries and give-ups of each method are counted by the service timers (the retry and
+ * TransactionRetriesExhaustedException outcomes).
+ */
+
+@Component
+public class MovrMetrics implements MeterBinder {
+
+    private final List<EntityCache<?, ?>> caches;
+    private final VehicleLocationIndex vehicleLocationIndex;
+    private final LocationIngestBuffer locationIngestBuffer;
+    private final LocationHistoryCompactor locationHistoryCompactor;
+    private final LocationHistoryArchiver locationHistoryArchiver;
+    private final LocationHistoryPacker locationHistoryPacker;
+    private final TransactionRetryAspect transactionRetryAspect;
+
+    @Autowired
+    public MovrMetrics(List<EntityCache<?, ?>> caches,
+                       VehicleLocationIndex vehicleLocationIndex,
+                       LocationIngestBuffer locationIngestBuffer,
+                       LocationHistoryCompactor locationHistoryCompactor,
+                       LocationHistoryArchiver locationHistoryArchiver,
+                       LocationHistoryPacker locationHistoryPacker,
+                       TransactionRetryAspect transactionRetryAspect) {
+        this.caches = caches;
+        this.vehicleLocationIndex = vehicleLocationIndex;
+        this.locationIngestBuffer = locationIngestBuffer;
+        this.locationHistoryCompactor = locationHistoryCompactor;
+        this.locationHistoryArchiver = locationHistoryArchiver;
+        this.locationHistoryPacker = locationHistoryPacker;
+        this.transactionRetryAspect = transactionRetryAspect;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (EntityCache<?, ?> cache : caches) {
+            bindCache(registry, cache);
+        }
+        bindNearbyIndex(registry);
+        bindIngestBuffer(registry);
+
+        LocationHistoryCompactor.Stats compaction = locationHistoryCompactor.getStats();
+        bindJob(registry, "compaction", compaction, LocationHistoryCompactor.Stats::getRuns,
+            LocationHistoryCompactor.Stats::getRunNanos, LocationHistoryCompactor.Stats::getWindows);
+        bindJobRows(registry, "compaction", "scanned", compaction, LocationHistoryCompactor.Stats::getRowsScanned);
+        bindJobRows(registry, "compaction", "removed", compaction, LocationHistoryCompactor.Stats::getRowsRemoved);
+        bindJobReclaimed(registry, "compaction", compaction, LocationHistoryCompactor.Stats::getBytesReclaimed);
+
+        LocationHistoryArchiver.Stats archive = locationHistoryArchiver.getStats();
+        bindJob(registry, "archive", archive, LocationHistoryArchiver.Stats::getRuns,
+            LocationHistoryArchiver.Stats::getRunNanos, LocationHistoryArchiver.Stats::getWindows);
+        bindJobRows(registry, "archive", "exported", archive, LocationHistoryArchiver.Stats::getRowsExported);
+        bindJobRows(registry, "archive", "deleted", archive, LocationHistoryArchiver.Stats::getRowsDeleted);
+        bindJobRows(registry, "archive", "unpacked", archive, LocationHistoryArchiver.Stats::getPackedDeleted);
+        bindJobReclaimed(registry, "archive", archive, LocationHistoryArchiver.Stats::getBytesReclaimed);
+
+        LocationHistoryPacker.Stats packing = locationHistoryPacker.getStats();
+        bindJob(registry, "packing", packing, LocationHistoryPacker.Stats::getRuns,
+            LocationHistoryPacker.Stats::getRunNanos, LocationHistoryPacker.Stats::getWindows);
+        bindJobRows(registry, "packing", "packed", packing, LocationHistoryPacker.Stats::getRowsPacked);
+
+        bindTransactionAttempts(registry);
+    }
+
+    private static void bindCache(MeterRegistry registry, EntityCache<?, ?> cache) {
+        FunctionCounter.builder("movr.cache.requests", cache, c -> c.getStats().hitCount())
+            .description("Cache lookups")
+            .tags("cache", cache.getName(), "result", "hit")
+            .register(registry);
+        FunctionCounter.builder("movr.cache.requests", cache, c -> c.getStats().missCount())
+            .description("Cache lookups")
+            .tags("cache", cache.getName(), "result", "miss")
+            .register(registry);
+        FunctionCounter.builder("movr.cache.evictions", cache, c -> c.getStats().evictionCount())
+            .description("Entries evicted from the cache, by size or by age")
+            .tag("cache", cache.getName())
+            .register(registry);
+        Gauge.builder("movr.cache.size", cache, EntityCache::size)
+            .description("Entries in the cache (an estimate)")
+            .tag("cache", cache.getName())
+            .baseUnit(BaseUnits.OBJECTS)
+            .register(registry);
+    }
+
+    private void bindNearbyIndex(MeterRegistry registry) {
+        TimeGauge.builder("movr.nearby.index.staleness", vehicleLocationIndex, TimeUnit.MILLISECONDS, index -> {
+                long staleness = index.getStalenessMillis();
+                // not built yet
+                return staleness < 0 ? Double.NaN : staleness;
+            })
+            .description("Time since the nearby-vehicle index was last rebuilt from the database")
+            .register(registry);
+        Gauge.builder("movr.nearby.index.vehicles", vehicleLocationIndex, VehicleLocationIndex::size)
+            .description("Vehicles in the nearby-vehicle index")
+            .baseUnit(BaseUnits.OBJECTS)
+            .register(registry);
+    }
+
+    private void bindIngestBuffer(MeterRegistry registry) {
+        LocationIngestBuffer.Stats stats = locationIngestBuffer.getStats();
+        Gauge.builder("movr.ingest.depth", locationIngestBuffer, LocationIngestBuffer::getDepth)
+            .description("Positions waiting in the ingest queue")
+            .baseUnit(BaseUnits.OBJECTS)
+            .register(registry);
+        Gauge.builder("movr.ingest.capacity", locationIngestBuffer, LocationIngestBuffer::getCapacity)
+            .description("Positions the ingest queue holds before turning new ones away")
+            .baseUnit(BaseUnits.OBJECTS)
+            .register(registry);
+        bindPositions(registry, "accepted", stats, LocationIngestBuffer.Stats::getAccepted);
+        bindPositions(registry, "rejected", stats, LocationIngestBuffer.Stats::getRejected);
+        bindPositions(registry, "written", stats, LocationIngestBuffer.Stats::getWritten);
+        bindPositions(registry, "lost", stats, LocationIngestBuffer.Stats::getLost);
+        FunctionTimer.builder("movr.ingest.flushes", stats, LocationIngestBuffer.Stats::getFlushes,
+                LocationIngestBuffer.Stats::getFlushNanos, TimeUnit.NANOSECONDS)
+            .description("Flushes of the ingest queue to the database, successful or not")
+            .register(registry);
+        FunctionCounter.builder("movr.ingest.flushes.failed", stats, LocationIngestBuffer.Stats::getFailedFlushes)
+            .description("Flushes of the ingest queue that failed")
+            .register(registry);
+        TimeGauge.builder("movr.ingest.flush.max", stats, TimeUnit.NANOSECONDS,
+                LocationIngestBuffer.Stats::getMaxFlushNanos)
+            .description("Longest flush of the ingest queue so far")
+            .register(registry);
+    }
+
+    private static void bindPositions(MeterRegistry registry, String result, LocationIngestBuffer.Stats stats,
+                                      ToDoubleFunction<LocationIngestBuffer.Stats> count) {
+        FunctionCounter.builder("movr.ingest.positions", stats, count)
+            .description("Positions through the ingest queue")
+            .tag("result", result)
+            .baseUnit(BaseUnits.OBJECTS)
+            .register(registry);
+    }
+
+    private void bindTransactionAttempts(MeterRegistry registry) {
+        int maxAttempts = transactionRetryAspect.getAttemptsHistogram().length;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            int index = attempt - 1;
+            FunctionCounter.builder("movr.transaction.attempts", transactionRetryAspect,
+                    aspect -> aspect.getAttemptsHistogram()[index])
+                .description("Transactional service calls that finished after this many attempts")
+                .tag("attempts", String.valueOf(attempt))
+                .register(registry);
+        }
+    }
+
+    private static <S> void bindJob(MeterRegistry registry, String job, S stats, ToLongFunction<S> runs,
+                                    ToDoubleFunction<S> runNanos, ToDoubleFunction<S> windows) {
+        FunctionTimer.builder("movr.job.runs", stats, runs, runNanos, TimeUnit.NANOSECONDS)
+            .description("Runs of a location history job")
+            .tag("job", job)
+            .register(registry);
+        FunctionCounter.builder("movr.job.windows", stats, windows)
+            .description("Stretches of location history a job has finished with")
+            .tag("job", job)
+            .register(registry);
+    }
+
+    private static <S> void bindJobRows(MeterRegistry registry, String job, String action, S stats,
+                                        ToDoubleFunction<S> rows) {
+        FunctionCounter.builder("movr.job.rows", stats, rows)
+            .description("Location history rows a job has worked on")
+            .tags("job", job, "action", action)
+            .baseUnit(BaseUnits.ROWS)
+            .register(registry);
+    }
+
+    private static <S> void bindJobReclaimed(MeterRegistry registry, String job, S stats,
+                                             ToDoubleFunction<S> bytes) {
+        FunctionCounter.builder("movr.job.reclaimed", stats, bytes)
+            .description("Estimate of the database space a job has freed")
+            .tag("job", job)
+            .baseUnit(BaseUnits.BYTES)
+            .register(registry);
+    }
+}
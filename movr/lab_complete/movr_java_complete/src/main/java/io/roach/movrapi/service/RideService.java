@@ -5,6 +5,8 @@ import java.util.List;
 import java.util.UUID;
 
 import io.roach.movrapi.dto.LocationDetailsDTO;
+import io.roach.movrapi.dto.RideWithVehicleDTO;
+import io.roach.movrapi.dto.VehicleWithLocationDTO;
 import io.roach.movrapi.entity.Ride;
 import io.roach.movrapi.exception.InvalidUUIDException;
 import io.roach.movrapi.exception.InvalidValueException;
@@ -18,7 +20,8 @@ public interface RideService {
     LocationDetailsDTO endRide(UUID vehicleId, String userEmail, int battery, double latitude,
                                double longitude, Timestamp endTime)
         throws InvalidUUIDException, NotFoundException, InvalidVehicleStateException, InvalidValueException;
-    List<Ride> getRidesForUser(String userEmail) throws NotFoundException;
+    List<RideWithVehicleDTO> getRidesForUser(String userEmail) throws NotFoundException;
     Ride getActiveRide(UUID vehicleId, String userEmail) throws InvalidUUIDException, NotFoundException;
+    VehicleWithLocationDTO getActiveRideVehicle(UUID vehicleId, String userEmail) throws NotFoundException;
 
 }
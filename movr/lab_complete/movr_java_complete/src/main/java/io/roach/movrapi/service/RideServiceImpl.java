@@ -7,12 +7,14 @@ import java.util.UUID;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
-import io.roach.movrapi.dao.LocationHistoryRepository;
 import io.roach.movrapi.dao.RideRepository;
 import io.roach.movrapi.dto.LocationDetailsDTO;
-import io.roach.movrapi.entity.LocationHistory;
+import io.roach.movrapi.dto.RideStatementResultDTO;
+import io.roach.movrapi.dto.RideWithVehicleDTO;
+import io.roach.movrapi.dto.VehicleWithLocationDTO;
 import io.roach.movrapi.entity.Ride;
 import io.roach.movrapi.entity.User;
 import io.roach.movrapi.entity.Vehicle;
@@ -20,30 +22,33 @@ import io.roach.movrapi.exception.InvalidValueException;
 import io.roach.movrapi.exception.InvalidVehicleStateException;
 import io.roach.movrapi.exception.NotFoundException;
 import static io.roach.movrapi.util.Constants.ERR_NO_ACTIVE_RIDE;
+import static io.roach.movrapi.util.Constants.ERR_USER_EMAIL_NOT_FOUND;
+import static io.roach.movrapi.util.Constants.ERR_VEHICLE_IN_USE;
 import static io.roach.movrapi.util.Constants.ERR_VEHICLE_LOCATION_MISSING;
-import org.modelmapper.ModelMapper;
+import static io.roach.movrapi.util.Constants.ERR_VEHICLE_NOT_FOUND;
+import static io.roach.movrapi.util.Constants.ERR_VEHICLE_NOT_IN_USE;
 
 /**
  * Implementation of the Ride Service Interface
+ *
+ * Starting and ending a ride are each a single statement (see RideRepository.startRide and endRide), which is sent
+ * without an explicit transaction: the database runs it as an implicit transaction that commits along with it, so
+ * the whole request is one round trip. A single statement is atomic and, on CockroachDB, serializable, and the
+ * database can retry it by itself if it conflicts with another transaction.
  */
 
 @Service
 public class RideServiceImpl implements RideService {
 
-    private static final ModelMapper mapper = new ModelMapper();
-
     private RideRepository rideRepository;
-    private LocationHistoryRepository locationHistoryRepository;
     private UserService userService;
     private VehicleService vehicleService;
 
     @Autowired
     public RideServiceImpl(RideRepository rideRepository,
-                           LocationHistoryRepository locationHistoryRepository,
                            UserService userService,
                            VehicleService vehicleService) {
         this.rideRepository = rideRepository;
-        this.locationHistoryRepository = locationHistoryRepository;
         this.userService = userService;
         this.vehicleService = vehicleService;
     }
@@ -55,31 +60,39 @@ public class RideServiceImpl implements RideService {
      * @param userEmail                         the email address that identifies the user
      * @param startTime                         the date/time that the user is starting their ride
      * @return                                  the Ride object representing the user's ride
-     * @throws NotFoundException                if the vehicle or user is not found
-     * @throws InvalidVehicleStateException     if the vehicle is already in-use
+     * @throws NotFoundException                if the user is not found
+     * @throws InvalidVehicleStateException     if the vehicle (or its location) is not found, or it is already in-use
      */
     @Override
-    @Transactional(isolation = Isolation.SERIALIZABLE)
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public Ride startRide(UUID vehicleId, String userEmail, Timestamp startTime)
         throws NotFoundException, InvalidVehicleStateException {
 
-        User user = userService.getUser(userEmail);
-
-        // get the location so we can calculate speed and distance travelled
-        LocationHistory locationHistory = locationHistoryRepository.findFirstByVehicleIdOrderByTimestampDesc(vehicleId);
-        if (locationHistory == null) {
-            throw new InvalidVehicleStateException(String.format(ERR_VEHICLE_LOCATION_MISSING, vehicleId.toString()));
+        // the ride's id is generated here, so the statement doesn't have to return it
+        UUID rideId = UUID.randomUUID();
+        RideStatementResultDTO result = rideRepository.startRide(rideId, vehicleId, userEmail, startTime);
+        if (!result.isDone()) {
+            if (!result.isUserFound()) {
+                throw new NotFoundException(String.format(ERR_USER_EMAIL_NOT_FOUND, userEmail));
+            }
+            if (!result.isVehicleFound() || result.getLastCheckin() == null) {
+                throw new InvalidVehicleStateException(
+                    String.format(ERR_VEHICLE_LOCATION_MISSING, vehicleId.toString()));
+            }
+            // the vehicle was in use, or was checked out by a concurrent ride start
+            throw new InvalidVehicleStateException(String.format(ERR_VEHICLE_IN_USE, vehicleId.toString()));
         }
+        vehicleService.vehicleUpdated(vehicleId, result.getLatitude(), result.getLongitude(), true, startTime);
 
-        Vehicle vehicle = vehicleService.checkoutVehicle(vehicleId, locationHistory.getLatitude(),
-            locationHistory.getLongitude(), startTime);
-
+        Vehicle vehicle = new Vehicle();
+        vehicle.setId(vehicleId);
+        User user = new User();
+        user.setEmail(userEmail);
         Ride ride = new Ride();
-        ride.setUser(user);
+        ride.setId(rideId);
         ride.setVehicle(vehicle);
-        ride.setStartTime(startTime);
-        rideRepository.save(ride);
-
+        ride.setUser(user);
+        ride.setStartTime(result.getRideStart());
         return ride;
     }
 
@@ -92,54 +105,55 @@ public class RideServiceImpl implements RideService {
      * @param latitude                      the latitude position of the vehicle at the end of the ride
      * @param longitude                     the longitude position of the vehicle at the end of the ride
      * @param endTime                       the date/time the ride ended
-     * @return                              A status message describing the distance travelled, speed, and duration
-     * @throws InvalidVehicleStateException if the vehicle is not marked in-use
-     * @throws NotFoundException            if the vehicle or user is not found
-     * @throws InvalidValueException        if an error occurs during the math calculations
+     * @return                              the vehicle's location at, and the time of, the start of the ride
+     * @throws InvalidVehicleStateException if the vehicle is not marked in-use, or its location is not found
+     * @throws NotFoundException            if the vehicle, user or active ride is not found
      */
     @Override
-    @Transactional(isolation = Isolation.SERIALIZABLE)
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public LocationDetailsDTO endRide(UUID vehicleId, String userEmail, int battery, double latitude,
                                       double longitude, Timestamp endTime)
         throws NotFoundException, InvalidVehicleStateException {
 
-        // get the active ride for this user/vehicle
-        Ride ride = getActiveRide(vehicleId, userEmail);
-
-        // get the location so we can calculate speed and distance travelled
-        LocationHistory locationHistory = locationHistoryRepository.findFirstByVehicleIdOrderByTimestampDesc(vehicleId);
-        if (locationHistory == null) {
-            throw new InvalidVehicleStateException(String.format(ERR_VEHICLE_LOCATION_MISSING, vehicleId.toString()));
+        RideStatementResultDTO result = rideRepository.endRide(vehicleId, userEmail, battery, latitude, longitude,
+            endTime);
+        if (!result.isDone()) {
+            if (!result.isUserFound()) {
+                throw new NotFoundException(String.format(ERR_USER_EMAIL_NOT_FOUND, userEmail));
+            }
+            if (!result.isVehicleFound()) {
+                throw new NotFoundException(String.format(ERR_VEHICLE_NOT_FOUND, vehicleId.toString()));
+            }
+            if (result.getRideStart() == null) {
+                throw new NotFoundException(String.format(ERR_NO_ACTIVE_RIDE, vehicleId, userEmail));
+            }
+            if (result.getLastCheckin() == null) {
+                throw new InvalidVehicleStateException(
+                    String.format(ERR_VEHICLE_LOCATION_MISSING, vehicleId.toString()));
+            }
+            // in a production application, we'd probably log this as an error and then try to handle it gracefully
+            // by hiding the error from the end-user. For now, we want to hard error so we can debug easier.
+            throw new InvalidVehicleStateException(String.format(ERR_VEHICLE_NOT_IN_USE, vehicleId));
         }
+        vehicleService.vehicleUpdated(vehicleId, latitude, longitude, false, endTime);
 
-        // mark the vehicle as "available" and update the battery status
-        vehicleService.checkinVehicle(vehicleId, latitude, longitude, battery, endTime);
-
-        // set the end time for the ride
-        ride.setEndTime(endTime);
-        rideRepository.save(ride);
-
-        LocationDetailsDTO locationDetailsDTO = mapper.map(locationHistory, LocationDetailsDTO.class);
-        // return ride start time, not last checkin, so we can calculate ride details later
-        locationDetailsDTO.setTimestamp(ride.getStartTime());
-        return locationDetailsDTO;
-
+        // return ride start time and location, so we can calculate ride details later
+        return new LocationDetailsDTO(result.getRideStart(), result.getLongitude(), result.getLatitude());
     }
 
     /**
      * Gets all rides for the specified user.
      *
      * @param userEmail           the email address that identifies the user
-     * @return                    List of ride objects for this user
+     * @return                    List of ride DTOs (with the vehicle details) for this user
      * @throws NotFoundException  if the user is not found
      */
     @Override
     @Transactional(isolation = Isolation.SERIALIZABLE, readOnly = true)
-    public List<Ride> getRidesForUser(String userEmail) throws NotFoundException {
+    public List<RideWithVehicleDTO> getRidesForUser(String userEmail) throws NotFoundException {
         // check that user is valid (will throw exception if not)
-        userService.getUser(userEmail);
-        List<Ride> rideList = rideRepository.findAllForUser(userEmail);
-        return rideList;
+        userService.getUserProfile(userEmail);
+        return rideRepository.findAllForUser(userEmail);
     }
 
     /**
@@ -164,4 +178,28 @@ public class RideServiceImpl implements RideService {
         return rideList.get(0);
         
     }
+
+    /**
+     * Gets the vehicle (with its current location) of a specific active ride (user/vehicle combination).
+     *
+     * @param vehicleId           the vehicle that the user is riding
+     * @param userEmail           the email address that identifies the user
+     * @return                    the vehicle DTO for the requested ride
+     * @throws NotFoundException  if the vehicle or user is not found, or there is no such active ride
+     */
+    @Override
+    @Transactional(isolation = Isolation.SERIALIZABLE, readOnly = true)
+    public VehicleWithLocationDTO getActiveRideVehicle(UUID vehicleId, String userEmail) throws NotFoundException {
+
+        // check that user is valid
+        userService.getUserProfile(userEmail);
+        // should only be one active, but get a list just in case
+        List<VehicleWithLocationDTO> vehicleList = rideRepository.getActiveRideVehicle(vehicleId, userEmail);
+        if (vehicleList.isEmpty()) {
+            // report an unknown vehicle the same way getActiveRide does
+            vehicleService.getVehicleDetails(vehicleId);
+            throw new NotFoundException(String.format(ERR_NO_ACTIVE_RIDE, vehicleId, userEmail));
+        }
+        return vehicleList.get(0);
+    }
 }
@@ -0,0 +1,85 @@
+package io.roach.movrapi.service;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Times every call of the VehicleService, RideService and UserService methods, as the movr.service timer tagged with
+ * the service, the method and the outcome: ok, retry if the transaction failed with a retryable error, or else the
+ * simple name of the exception thrown (NotFoundException, InvalidVehicleStateException, ...).
+ *
+ * This aspect sits between TransactionRetryAspect and the transaction interceptor, so each attempt at a transaction
+ * is timed on its own, including the commit: a call that was retried twice shows up as two retry outcomes and then
+ * the final one, and the time lost to the retries is the time of the retry outcomes. (The time spent backing off
+ * between attempts isn't in any of them, but it is in the HTTP request's timer.)
+ */
+
+@Aspect
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 1)
+public class ServiceMetricsAspect {
+
+    static final String TIMER = "movr.service";
+    static final String OUTCOME_OK = "ok";
+    static final String OUTCOME_RETRY = "retry";
+
+    private static final Class<?>[] SERVICES = { VehicleService.class, RideService.class, UserService.class };
+
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public ServiceMetricsAspect(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Runs a service method, timing it.
+     *
+     * @param joinPoint         the service method call
+     * @return                  what the method returned
+     * @throws Throwable        what the method threw
+     */
+    @Around("execution(public * io.roach.movrapi.service.VehicleService+.*(..)) || " +
+        "execution(public * io.roach.movrapi.service.RideService+.*(..)) || " +
+        "execution(public * io.roach.movrapi.service.UserService+.*(..))")
+    public Object time(ProceedingJoinPoint joinPoint) throws Throwable {
+        long start = System.nanoTime();
+        String outcome = OUTCOME_OK;
+        try {
+            return joinPoint.proceed();
+        } catch (Throwable e) {
+            outcome = TransactionRetryAspect.isRetryable(e) ? OUTCOME_RETRY : e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            Timer.builder(TIMER)
+                .description("Calls of the service methods")
+                .tag("service", service(joinPoint.getTarget()))
+                .tag("method", joinPoint.getSignature().getName())
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Names the service a bean implements (rather than the bean's class, which differs between the application and
+     * the tests' mocks).
+     */
+    private static String service(Object target) {
+        for (Class<?> service : SERVICES) {
+            if (service.isInstance(target)) {
+                return service.getSimpleName();
+            }
+        }
+        return target.getClass().getSimpleName();
+    }
+}
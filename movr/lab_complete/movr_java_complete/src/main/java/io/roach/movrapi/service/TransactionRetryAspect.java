@@ -0,0 +1,338 @@
+package io.roach.movrapi.service;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.annotation.AnnotationTransactionAttributeSource;
+import org.springframework.transaction.interceptor.TransactionAttribute;
+import org.springframework.transaction.interceptor.TransactionAttributeSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import io.roach.movrapi.dao.SavepointRetryTransactionManager;
+import io.roach.movrapi.exception.TransactionRetriesExhaustedException;
+import static io.roach.movrapi.util.Constants.ERR_TRANSACTION_RETRIES_EXHAUSTED;
+
+/**
+ * Re-runs a transactional service method when its transaction fails with a retryable error.
+ *
+ * Every service method runs at SERIALIZABLE isolation, and CockroachDB aborts one of two conflicting transactions
+ * with SQLSTATE 40001, asking the client to try it again. This aspect sits outside the transaction interceptor (it
+ * has a higher precedence, with only ServiceMetricsAspect in between), so each attempt is a whole new transaction
+ * with a fresh persistence context. It only retries the outermost transactional call: a method that joins a
+ * transaction someone else started lets the error go, and the method that started it retries the lot.
+ *
+ * Attempts are spaced out by exponential backoff with full jitter (a random wait of up to initial-backoff-ms * 2^n,
+ * capped at max-backoff-ms), so the transactions that collided don't just collide again. After max-attempts the
+ * error is rethrown as a TransactionRetriesExhaustedException, which the controllers report as 503.
+ *
+ * CockroachDB's client-side retry protocol (rolling back to SAVEPOINT cockroach_restart and re-running the statements
+ * in the same transaction) is only used for the methods labelled SAVEPOINT_RETRY, and only when
+ * movr.transaction-retry.savepoints is set. Rolling back to a savepoint doesn't roll back Hibernate's persistence
+ * context, so the label is meant for units of work that only run JDBC statements (the location history writes): for
+ * those, retrying in the same transaction saves the round trips of a new one (the ROLLBACK and BEGIN), and keeps the
+ * transaction's place in CockroachDB's contention queue. The aspect then starts the transaction itself, sets the
+ * savepoint, and runs each attempt inside it, clearing the persistence context after rolling back to the savepoint all
+ * the same; SavepointRetryTransactionManager keeps a failed attempt from marking the transaction rollback-only.
+ * Everything else gets a whole new transaction per attempt, which is always safe.
+ *
+ * Retries and give-ups are counted per method, see getStats(); the retried attempts are also timed, see
+ * ServiceMetricsAspect.
+ */
+
+@Aspect
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 2)
+public class TransactionRetryAspect {
+
+    // the SQLSTATE CockroachDB (and PostgreSQL) use for "restart transaction" / serialization failures
+    static final String RETRY_SQL_STATE = "40001";
+
+    // the @Transactional label of the JDBC-only methods that may be retried from a savepoint
+    public static final String SAVEPOINT_RETRY = "savepoint-retry";
+    // the savepoint name CockroachDB's retry protocol expects
+    static final String SAVEPOINT = "cockroach_restart";
+
+    private static final Logger logger = LoggerFactory.getLogger(TransactionRetryAspect.class);
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final boolean savepoints;
+    // looked up on first use, as the aspect is created before the transaction manager
+    private final ObjectProvider<SavepointRetryTransactionManager> transactionManager;
+    private final TransactionAttributeSource transactionAttributeSource = new AnnotationTransactionAttributeSource();
+    private final Map<String, RetryStats> stats = new ConcurrentHashMap<>();
+
+    @Autowired
+    public TransactionRetryAspect(@Value("${movr.transaction-retry.max-attempts:10}") int maxAttempts,
+                                  @Value("${movr.transaction-retry.initial-backoff-ms:10}") long initialBackoffMillis,
+                                  @Value("${movr.transaction-retry.max-backoff-ms:1000}") long maxBackoffMillis,
+                                  @Value("${movr.transaction-retry.savepoints:false}") boolean savepoints,
+                                  ObjectProvider<SavepointRetryTransactionManager> transactionManager) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.savepoints = savepoints;
+        this.transactionManager = transactionManager;
+    }
+
+    /**
+     * Runs a @Transactional service method, retrying it while it fails with a retryable error.
+     *
+     * @param joinPoint         the service method call
+     * @return                  what the method returned
+     * @throws Throwable        what the method threw, if it isn't retryable
+     */
+    @Around("execution(public * io.roach.movrapi.service..*(..)) && " +
+        "@annotation(org.springframework.transaction.annotation.Transactional)")
+    public Object retry(ProceedingJoinPoint joinPoint) throws Throwable {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return joinPoint.proceed();
+        }
+
+        RetryStats methodStats = stats.computeIfAbsent(joinPoint.getSignature().toShortString(),
+            method -> new RetryStats(maxAttempts));
+        TransactionAttribute savepointAttribute = savepoints ? savepointRetryAttribute(joinPoint) : null;
+        if (savepointAttribute != null) {
+            return retryFromSavepoint(joinPoint, savepointAttribute, methodStats);
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                Object result = joinPoint.proceed();
+                methodStats.completed(attempt);
+                return result;
+            } catch (Throwable e) {
+                if (!isRetryable(e)) {
+                    methodStats.completed(attempt);
+                    throw e;
+                }
+                if (attempt >= maxAttempts) {
+                    methodStats.gaveUp();
+                    throw new TransactionRetriesExhaustedException(
+                        String.format(ERR_TRANSACTION_RETRIES_EXHAUSTED, attempt), e);
+                }
+                methodStats.retried();
+                logger.debug("Retrying {} after attempt {}: {}", joinPoint.getSignature().toShortString(), attempt,
+                    e.getMessage());
+                backoff(attempt, e);
+            }
+        }
+    }
+
+    /**
+     * Runs a method labelled SAVEPOINT_RETRY in a transaction of its own, retrying it from a savepoint set at the start
+     * of the transaction.
+     *
+     * Like the transaction interceptor would, the transaction is committed if the method returns or throws a checked
+     * exception, and rolled back otherwise.
+     */
+    private Object retryFromSavepoint(ProceedingJoinPoint joinPoint, TransactionAttribute attribute,
+                                      RetryStats methodStats) throws Throwable {
+        SavepointRetryTransactionManager manager = transactionManager.getObject();
+        TransactionStatus status = manager.getTransaction(attribute);
+        SavepointRetryTransactionManager.beginSavepointRetry();
+        Object result;
+        try {
+            Connection connection = DataSourceUtils.getConnection(manager.getDataSource());
+            execute(connection, "SAVEPOINT " + SAVEPOINT);
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    result = joinPoint.proceed();
+                    // the commit itself can fail with a retryable error, when the savepoint is released
+                    EntityManagerFactoryUtils.getTransactionalEntityManager(manager.getEntityManagerFactory()).flush();
+                    execute(connection, "RELEASE SAVEPOINT " + SAVEPOINT);
+                    methodStats.completed(attempt);
+                    break;
+                } catch (Throwable e) {
+                    if (!isRetryable(e)) {
+                        methodStats.completed(attempt);
+                        throw e;
+                    }
+                    if (attempt >= maxAttempts) {
+                        methodStats.gaveUp();
+                        throw new TransactionRetriesExhaustedException(
+                            String.format(ERR_TRANSACTION_RETRIES_EXHAUSTED, attempt), e);
+                    }
+                    methodStats.retried();
+                    logger.debug("Retrying {} from the savepoint after attempt {}: {}",
+                        joinPoint.getSignature().toShortString(), attempt, e.getMessage());
+                    execute(connection, "ROLLBACK TO SAVEPOINT " + SAVEPOINT);
+                    EntityManagerFactoryUtils.getTransactionalEntityManager(manager.getEntityManagerFactory()).clear();
+                    backoff(attempt, e);
+                }
+            }
+        } catch (Throwable e) {
+            SavepointRetryTransactionManager.endSavepointRetry();
+            if (attribute.rollbackOn(e)) {
+                manager.rollback(status);
+            } else {
+                manager.commit(status);
+            }
+            throw e;
+        }
+        SavepointRetryTransactionManager.endSavepointRetry();
+        manager.commit(status);
+        return result;
+    }
+
+    /**
+     * Gets the transaction attribute of a method, if it is labelled SAVEPOINT_RETRY.
+     *
+     * @return  the attribute, or null if the method isn't labelled
+     */
+    private TransactionAttribute savepointRetryAttribute(ProceedingJoinPoint joinPoint) {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        TransactionAttribute attribute = transactionAttributeSource.getTransactionAttribute(method,
+            joinPoint.getTarget().getClass());
+        return attribute != null && attribute.getLabels().contains(SAVEPOINT_RETRY) ? attribute : null;
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    /**
+     * Gets the retry statistics of each transactional method that has been called.
+     *
+     * @return  the statistics, keyed and ordered by method
+     */
+    public Map<String, RetryStats> getStats() {
+        return new TreeMap<>(stats);
+    }
+
+    /**
+     * Gets the number of calls, of all the transactional methods together, that finished after each number of
+     * attempts (see RetryStats.getAttemptsHistogram).
+     *
+     * @return  element n - 1 is the number of calls that finished on attempt n
+     */
+    public long[] getAttemptsHistogram() {
+        long[] histogram = new long[maxAttempts];
+        for (RetryStats methodStats : stats.values()) {
+            long[] methodHistogram = methodStats.getAttemptsHistogram();
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] += methodHistogram[i];
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Whether the exception (or anything in its chain of causes) is a SQL error asking for the transaction to be
+     * retried.
+     *
+     * @param e     the exception thrown by the transaction
+     * @return      true if the transaction should be run again
+     */
+    static boolean isRetryable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                for (SQLException sqlException = (SQLException) cause; sqlException != null;
+                     sqlException = sqlException.getNextException()) {
+                    if (RETRY_SQL_STATE.equals(sqlException.getSQLState())) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private void backoff(int attempt, Throwable e) {
+        long ceiling = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt - 1, 30));
+        long millis = ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+        if (millis == 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new TransactionRetriesExhaustedException(
+                String.format(ERR_TRANSACTION_RETRIES_EXHAUSTED, attempt), e);
+        }
+    }
+
+    /**
+     * Retry counts for one method.
+     *
+     * The attempts histogram counts the calls that finished (returned, or threw an error that wasn't retryable)
+     * after each number of attempts; calls that ran out of attempts are counted in giveUps instead.
+     */
+    public static final class RetryStats {
+
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder giveUps = new LongAdder();
+        // index n - 1 holds the calls that finished on attempt n
+        private final AtomicLongArray attempts;
+
+        RetryStats(int maxAttempts) {
+            attempts = new AtomicLongArray(maxAttempts);
+        }
+
+        void completed(int attempt) {
+            calls.increment();
+            attempts.incrementAndGet(attempt - 1);
+        }
+
+        void retried() {
+            retries.increment();
+        }
+
+        void gaveUp() {
+            calls.increment();
+            giveUps.increment();
+        }
+
+        public long getCalls() {
+            return calls.sum();
+        }
+
+        public long getRetries() {
+            return retries.sum();
+        }
+
+        public long getGiveUps() {
+            return giveUps.sum();
+        }
+
+        /**
+         * Gets the number of calls that finished after each number of attempts.
+         *
+         * @return  element n - 1 is the number of calls that finished on attempt n
+         */
+        public long[] getAttemptsHistogram() {
+            long[] histogram = new long[attempts.length()];
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = attempts.get(i);
+            }
+            return histogram;
+        }
+    }
+}
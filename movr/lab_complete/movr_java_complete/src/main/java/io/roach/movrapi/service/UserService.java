@@ -1,5 +1,6 @@
 package io.roach.movrapi.service;
 
+import io.roach.movrapi.dto.UserDTO;
 import io.roach.movrapi.entity.User;
 import io.roach.movrapi.exception.NotFoundException;
 import io.roach.movrapi.exception.UserAlreadyExistsException;
@@ -11,6 +12,7 @@ import io.roach.movrapi.exception.UserAlreadyExistsException;
 public interface UserService {
 
     User getUser(String email) throws NotFoundException;
+    UserDTO getUserProfile(String email) throws NotFoundException;
     String addUser(String email, String firstName, String lastName, String[] phoneNumbers) throws UserAlreadyExistsException;
     void delete(String email) throws NotFoundException;
 }
@@ -8,31 +8,34 @@ import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
 
 import io.roach.movrapi.dao.UserRepository;
+import io.roach.movrapi.dto.UserDTO;
 import io.roach.movrapi.entity.User;
 import io.roach.movrapi.exception.NotFoundException;
 import io.roach.movrapi.exception.UserAlreadyExistsException;
 import static io.roach.movrapi.util.Constants.ERR_USER_ALREADY_EXISTS;
 import static io.roach.movrapi.util.Constants.ERR_USER_EMAIL_NOT_FOUND;
-import org.modelmapper.ModelMapper;
 
 /**
  * Implementation of the User Service Interface
+ *
+ * getUser is served from the user cache; addUser and delete invalidate the user's entry when they commit.
  */
 
 @Service
 public class UserServiceImpl implements UserService {
 
-    private final static ModelMapper modelMapper = new ModelMapper();
-
     private UserRepository userRepository;
+    private EntityCache<String, User> userCache;
 
     @Autowired
-    public UserServiceImpl(UserRepository userRepository) {
+    public UserServiceImpl(UserRepository userRepository, EntityCache<String, User> userCache) {
         this.userRepository = userRepository;
+        this.userCache = userCache;
     }
 
     /**
-     * Gets the specified user.
+     * Gets the specified user (from the user cache when it's there, in which case it is a detached copy that must
+     * not be modified).
      *
      * @param email                 the email address identifying the user to retrieve
      * @return                      The database entity object for the user
@@ -41,11 +44,24 @@ public class UserServiceImpl implements UserService {
     @Override
     @Transactional(isolation = Isolation.SERIALIZABLE, readOnly = true)
     public User getUser(String email) throws NotFoundException {
-        Optional<User> userOptional = userRepository.findById(email);
-        if (!userOptional.isPresent()) {
+        return userCache.get(email, this::findUser);
+    }
+
+    /**
+     * Gets the profile of the specified user (read straight into a DTO, without loading the User entity).
+     *
+     * @param email                 the email address identifying the user to retrieve
+     * @return                      a DTO holding the user's profile
+     * @throws NotFoundException    if the user is not found in the database
+     */
+    @Override
+    @Transactional(isolation = Isolation.SERIALIZABLE, readOnly = true)
+    public UserDTO getUserProfile(String email) throws NotFoundException {
+        UserDTO userDTO = userRepository.findProfile(email);
+        if (userDTO == null) {
             throw new NotFoundException(String.format(ERR_USER_EMAIL_NOT_FOUND, email));
         }
-        return userOptional.get();
+        return userDTO;
     }
 
     /**
@@ -73,6 +89,7 @@ public class UserServiceImpl implements UserService {
         user.setLastName(lastName);
         user.setPhoneNumbers(phoneNumbers);
         userRepository.save(user);
+        userCache.invalidateAfterCommit(email);
         return user.getEmail();
     }
 
@@ -85,9 +102,25 @@ public class UserServiceImpl implements UserService {
     @Override
     @Transactional(isolation = Isolation.SERIALIZABLE)
     public void delete(String email) throws NotFoundException {
-        // fetch it to make sure it's there
-        User user = getUser(email);
+        // fetch it to make sure it's there (from the database, since deleting needs the managed entity)
+        User user = findUser(email);
         userRepository.delete(user);
+        userCache.invalidateAfterCommit(email);
+    }
+
+    /**
+     * Reads the specified user from the database.
+     *
+     * @param email                 the email address identifying the user to retrieve
+     * @return                      The database entity object for the user
+     * @throws NotFoundException    if the user is not found in the database
+     */
+    private User findUser(String email) throws NotFoundException {
+        Optional<User> userOptional = userRepository.findById(email);
+        if (!userOptional.isPresent()) {
+            throw new NotFoundException(String.format(ERR_USER_EMAIL_NOT_FOUND, email));
+        }
+        return userOptional.get();
     }
 
 }
@@ -0,0 +1,492 @@
+package io.roach.movrapi.service;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import io.roach.movrapi.dao.VehicleRepository;
+import io.roach.movrapi.dto.NearbyVehicleDTO;
+import io.roach.movrapi.util.Geodesy;
+
+/**
+ * In-memory spatial index of every vehicle's latest position and availability, used to answer nearby-vehicle
+ * searches without going to the database.
+ *
+ * Positions live in primitive arrays, bucketed into a grid of CELL_DEGREES x CELL_DEGREES cells. A search walks
+ * outwards from the searched point's cell one ring of cells at a time, and stops once it has enough vehicles and
+ * no cell further out could hold a closer one (or the radius has been covered).
+ *
+ * The vehicle service reports every position change here once its transaction commits. Changes made by other
+ * instances of the application are only picked up by the full rebuild from the database, which runs at startup
+ * and then every movr.nearby-index.rebuild-interval-ms; getStalenessMillis() is the time since the last one.
+ */
+
+@Component
+public class VehicleLocationIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(VehicleLocationIndex.class);
+
+    // about 1.1 km north-south; a typical search radius covers only a handful of cells
+    static final double CELL_DEGREES = 0.01;
+    private static final int LAT_CELLS = (int) Math.round(180 / CELL_DEGREES);
+    private static final int LON_CELLS = (int) Math.round(360 / CELL_DEGREES);
+    private static final double EARTH_RADIUS_METERS = Geodesy.EARTH_RADIUS_KM * 1000d;
+    private static final double METERS_PER_DEGREE_LATITUDE = Math.toRadians(1d) * EARTH_RADIUS_METERS;
+    private static final int REBUILD_BATCH_SIZE = 10000;
+    // sorts before every other UUID, so the first rebuild batch starts at the beginning of the table
+    private static final UUID NIL_UUID = new UUID(0L, 0L);
+
+    private final VehicleRepository vehicleRepository;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object rebuildMonitor = new Object();
+
+    // guarded by lock
+    private Grid grid = new Grid();
+    // changes committed while a rebuild is reading the database, replayed onto the rebuilt grid (guarded by lock)
+    private List<Position> pendingChanges;
+    private volatile long lastRebuildMillis;
+
+    @Autowired
+    public VehicleLocationIndex(VehicleRepository vehicleRepository) {
+        this.vehicleRepository = vehicleRepository;
+    }
+
+    /**
+     * Finds the vehicles closest to a point, nearest first.
+     *
+     * @param latitude          latitude of the point to search around
+     * @param longitude         longitude of the point to search around
+     * @param radiusMeters      only vehicles within this distance of the point are returned
+     * @param availableOnly     whether to skip vehicles that are in use
+     * @param maxVehicles       the maximum number of vehicles to return
+     * @return                  the vehicles, with their distance from the point
+     */
+    public List<NearbyVehicleDTO> findNearby(double latitude, double longitude, double radiusMeters,
+                                             boolean availableOnly, int maxVehicles) {
+        int[] slots = new int[maxVehicles];
+        double[] distances = new double[maxVehicles];
+        List<NearbyVehicleDTO> nearby;
+        lock.readLock().lock();
+        try {
+            int found = grid.nearest(latitude, longitude, radiusMeters, availableOnly, maxVehicles, slots, distances);
+            nearby = new ArrayList<>(found);
+            for (int i = 0; i < found; i++) {
+                int slot = slots[i];
+                nearby.add(new NearbyVehicleDTO(grid.ids[slot], grid.inUse[slot], grid.latitudes[slot],
+                    grid.longitudes[slot], new Timestamp(grid.timestamps[slot]), distances[i]));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return nearby;
+    }
+
+    /**
+     * Records a vehicle's new position once the current transaction commits (or straight away outside one).
+     *
+     * A position older than the one already held for the vehicle is ignored.
+     *
+     * @param vehicleId     the UUID of the vehicle
+     * @param latitude      the latitude of the vehicle
+     * @param longitude     the longitude of the vehicle
+     * @param inUse         whether the vehicle is in use
+     * @param timestamp     the date/time the vehicle was at this position
+     */
+    public void update(UUID vehicleId, double latitude, double longitude, boolean inUse, Timestamp timestamp) {
+        afterCommit(new Position(vehicleId, latitude, longitude, inUse, timestamp.getTime(), false));
+    }
+
+    /**
+     * Drops a vehicle from the index once the current transaction commits (or straight away outside one).
+     *
+     * @param vehicleId     the UUID of the vehicle
+     */
+    public void remove(UUID vehicleId) {
+        afterCommit(new Position(vehicleId, 0d, 0d, false, 0L, true));
+    }
+
+    /**
+     * Replaces the index contents with the latest positions in the database.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${movr.nearby-index.rebuild-interval-ms:300000}",
+        fixedDelayString = "${movr.nearby-index.rebuild-interval-ms:300000}")
+    public void rebuild() {
+        synchronized (rebuildMonitor) {
+            long start = System.currentTimeMillis();
+            lock.writeLock().lock();
+            try {
+                pendingChanges = new ArrayList<>();
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            Grid rebuilt = new Grid();
+            try {
+                UUID afterId = NIL_UUID;
+                List<NearbyVehicleDTO> batch;
+                do {
+                    batch = vehicleRepository.findVehiclePositionsAfter(afterId, PageRequest.of(0, REBUILD_BATCH_SIZE));
+                    for (NearbyVehicleDTO vehicle : batch) {
+                        rebuilt.put(vehicle.getId(), vehicle.getLastLatitude(), vehicle.getLastLongitude(),
+                            vehicle.isInUse(), vehicle.getTimestamp().getTime());
+                    }
+                    if (!batch.isEmpty()) {
+                        afterId = batch.get(batch.size() - 1).getId();
+                    }
+                } while (batch.size() == REBUILD_BATCH_SIZE);
+            } catch (RuntimeException e) {
+                lock.writeLock().lock();
+                try {
+                    pendingChanges = null;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                throw e;
+            }
+
+            lock.writeLock().lock();
+            try {
+                // the batches may have been read before some of these committed; the timestamps sort out which wins
+                for (Position change : pendingChanges) {
+                    rebuilt.apply(change);
+                }
+                pendingChanges = null;
+                grid = rebuilt;
+                lastRebuildMillis = start;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            logger.info("Rebuilt nearby-vehicle index with {} vehicles in {} ms", rebuilt.size(),
+                System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * How out of date the index may be with respect to changes made by other application instances.
+     *
+     * @return  milliseconds since the last rebuild from the database started, or -1 if it has never been built
+     */
+    public long getStalenessMillis() {
+        long lastRebuild = lastRebuildMillis;
+        return lastRebuild == 0L ? -1L : System.currentTimeMillis() - lastRebuild;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return grid.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void afterCommit(Position change) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply(change);
+                }
+            });
+        } else {
+            apply(change);
+        }
+    }
+
+    private void apply(Position change) {
+        lock.writeLock().lock();
+        try {
+            grid.apply(change);
+            if (pendingChanges != null) {
+                pendingChanges.add(change);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * A change to one vehicle's entry.
+     */
+    private static final class Position {
+        final UUID vehicleId;
+        final double latitude;
+        final double longitude;
+        final boolean inUse;
+        final long timestamp;
+        final boolean removed;
+
+        Position(UUID vehicleId, double latitude, double longitude, boolean inUse, long timestamp, boolean removed) {
+            this.vehicleId = vehicleId;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.inUse = inUse;
+            this.timestamp = timestamp;
+            this.removed = removed;
+        }
+    }
+
+    /**
+     * The grid itself; not thread-safe (the index guards it with its lock).
+     *
+     * Each vehicle has a slot in the parallel arrays, and each non-empty cell lists the slots in it.
+     */
+    static final class Grid {
+
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private final Map<UUID, Integer> slotsById = new HashMap<>();
+        private final Map<Long, Cell> cells = new HashMap<>();
+
+        UUID[] ids = new UUID[INITIAL_CAPACITY];
+        double[] latitudes = new double[INITIAL_CAPACITY];
+        double[] longitudes = new double[INITIAL_CAPACITY];
+        boolean[] inUse = new boolean[INITIAL_CAPACITY];
+        long[] timestamps = new long[INITIAL_CAPACITY];
+        private long[] cellKeys = new long[INITIAL_CAPACITY];
+        // index of the slot within its cell's list
+        private int[] cellPositions = new int[INITIAL_CAPACITY];
+        private int usedSlots;
+        private int[] freeSlots = new int[16];
+        private int freeCount;
+
+        int size() {
+            return slotsById.size();
+        }
+
+        void apply(Position change) {
+            if (change.removed) {
+                remove(change.vehicleId);
+            } else {
+                put(change.vehicleId, change.latitude, change.longitude, change.inUse, change.timestamp);
+            }
+        }
+
+        void put(UUID vehicleId, double latitude, double longitude, boolean vehicleInUse, long timestamp) {
+            Integer existing = slotsById.get(vehicleId);
+            int slot;
+            if (existing == null) {
+                slot = allocateSlot();
+                ids[slot] = vehicleId;
+                slotsById.put(vehicleId, slot);
+            } else {
+                slot = existing;
+                if (timestamp < timestamps[slot]) {
+                    return;
+                }
+                unlink(slot);
+            }
+            latitudes[slot] = latitude;
+            longitudes[slot] = longitude;
+            inUse[slot] = vehicleInUse;
+            timestamps[slot] = timestamp;
+
+            long key = cellKey(latCell(latitude), lonCell(longitude));
+            Cell cell = cells.get(key);
+            if (cell == null) {
+                cell = new Cell();
+                cells.put(key, cell);
+            }
+            cellKeys[slot] = key;
+            cellPositions[slot] = cell.add(slot);
+        }
+
+        void remove(UUID vehicleId) {
+            Integer slot = slotsById.remove(vehicleId);
+            if (slot == null) {
+                return;
+            }
+            unlink(slot);
+            ids[slot] = null;
+            if (freeCount == freeSlots.length) {
+                freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+            }
+            freeSlots[freeCount++] = slot;
+        }
+
+        /**
+         * Finds up to k vehicles within the radius, nearest first.
+         *
+         * @return  the number found; their slots and distances (in meters) are in the first entries of
+         *          resultSlots and resultDistances
+         */
+        int nearest(double latitude, double longitude, double radiusMeters, boolean availableOnly, int k,
+                    int[] resultSlots, double[] resultDistances) {
+            if (k <= 0) {
+                return 0;
+            }
+            int centerLat = latCell(latitude);
+            int centerLon = lonCell(longitude);
+
+            // how many cells the radius can reach north/south and east/west of the center cell
+            double angularRadius = radiusMeters / EARTH_RADIUS_METERS;
+            int maxLatRing = Math.min(LAT_CELLS, (int) Math.ceil(Math.toDegrees(angularRadius) / CELL_DEGREES) + 1);
+            double sinLonReach = Math.sin(Math.min(angularRadius, Math.PI / 2)) / Math.cos(Math.toRadians(latitude));
+            int maxLonRing = (LON_CELLS - 1) / 2;
+            if (sinLonReach < 1d) {
+                maxLonRing = Math.min(maxLonRing,
+                    (int) Math.ceil(Math.toDegrees(Math.asin(sinLonReach)) / CELL_DEGREES) + 1);
+            }
+            int lastRing = Math.max(maxLatRing, maxLonRing);
+
+            int found = 0;
+            for (int ring = 0; ring <= lastRing; ring++) {
+                int latReach = Math.min(ring, maxLatRing);
+                for (int dLat = -latReach; dLat <= latReach; dLat++) {
+                    int latIndex = centerLat + dLat;
+                    if (latIndex < 0 || latIndex >= LAT_CELLS) {
+                        continue;
+                    }
+                    boolean edgeRow = Math.abs(dLat) == ring;
+                    int lonReach = Math.min(ring, maxLonRing);
+                    // on the ring's top and bottom rows every cell is new; in between only the two ends are
+                    int step = edgeRow ? 1 : 2 * ring;
+                    if (!edgeRow && ring > maxLonRing) {
+                        continue;
+                    }
+                    for (int dLon = edgeRow ? -lonReach : -ring; dLon <= lonReach; dLon += step) {
+                        Cell cell = cells.get(cellKey(latIndex, Math.floorMod(centerLon + dLon, LON_CELLS)));
+                        if (cell != null) {
+                            found = scan(cell, latitude, longitude, radiusMeters, availableOnly, k, found,
+                                resultSlots, resultDistances);
+                        }
+                    }
+                }
+                if (found == k && resultDistances[k - 1] <= coveredMeters(latitude, longitude, centerLat,
+                        centerLon, ring, ring >= maxLatRing, ring >= maxLonRing)) {
+                    break;
+                }
+            }
+            return found;
+        }
+
+        // checks every vehicle in the cell, keeping the k nearest seen so far sorted by distance
+        private int scan(Cell cell, double latitude, double longitude, double radiusMeters, boolean availableOnly,
+                         int k, int found, int[] resultSlots, double[] resultDistances) {
+            for (int i = 0; i < cell.size; i++) {
+                int slot = cell.slots[i];
+                if (availableOnly && inUse[slot]) {
+                    continue;
+                }
+                double limit = found == k ? resultDistances[k - 1] : radiusMeters;
+                // the north-south gap alone is a lower bound on the distance, and much cheaper to work out
+                if (Math.abs(latitudes[slot] - latitude) * METERS_PER_DEGREE_LATITUDE > limit) {
+                    continue;
+                }
+                double distance = Geodesy.haversine(latitude, longitude, latitudes[slot], longitudes[slot]) * 1000d;
+                if (distance > radiusMeters || (found == k && distance >= resultDistances[k - 1])) {
+                    continue;
+                }
+                int position = found == k ? k - 1 : found++;
+                while (position > 0 && resultDistances[position - 1] > distance) {
+                    resultSlots[position] = resultSlots[position - 1];
+                    resultDistances[position] = resultDistances[position - 1];
+                    position--;
+                }
+                resultSlots[position] = slot;
+                resultDistances[position] = distance;
+            }
+            return found;
+        }
+
+        /**
+         * A lower bound on the distance from the point to any vehicle outside the cells scanned so far
+         * (infinite in a direction the radius has been fully covered in).
+         */
+        private static double coveredMeters(double latitude, double longitude, int centerLat, int centerLon,
+                                            int ring, boolean latCovered, boolean lonCovered) {
+            double covered = Double.POSITIVE_INFINITY;
+            if (!latCovered) {
+                double south = (centerLat - ring) * CELL_DEGREES - 90d;
+                double north = (centerLat + ring + 1) * CELL_DEGREES - 90d;
+                double margin = Math.min(south <= -90d ? Double.POSITIVE_INFINITY : latitude - south,
+                    north >= 90d ? Double.POSITIVE_INFINITY : north - latitude);
+                covered = Math.toRadians(margin) * EARTH_RADIUS_METERS;
+            }
+            if (!lonCovered) {
+                double west = (centerLon - ring) * CELL_DEGREES - 180d;
+                double east = (centerLon + ring + 1) * CELL_DEGREES - 180d;
+                double margin = Math.toRadians(Math.min(longitude - west, east - longitude));
+                // distance to the nearest meridian bounding the scanned cells
+                double lonCoveredMeters = margin >= Math.PI / 2 ? Double.POSITIVE_INFINITY
+                    : Math.asin(Math.cos(Math.toRadians(latitude)) * Math.sin(margin)) * EARTH_RADIUS_METERS;
+                covered = Math.min(covered, lonCoveredMeters);
+            }
+            return covered;
+        }
+
+        private int allocateSlot() {
+            if (freeCount > 0) {
+                return freeSlots[--freeCount];
+            }
+            if (usedSlots == ids.length) {
+                int capacity = ids.length * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                latitudes = Arrays.copyOf(latitudes, capacity);
+                longitudes = Arrays.copyOf(longitudes, capacity);
+                inUse = Arrays.copyOf(inUse, capacity);
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                cellKeys = Arrays.copyOf(cellKeys, capacity);
+                cellPositions = Arrays.copyOf(cellPositions, capacity);
+            }
+            return usedSlots++;
+        }
+
+        // takes the slot out of its cell's list, moving the cell's last slot into the gap
+        private void unlink(int slot) {
+            Cell cell = cells.get(cellKeys[slot]);
+            int position = cellPositions[slot];
+            int last = cell.slots[--cell.size];
+            cell.slots[position] = last;
+            cellPositions[last] = position;
+            if (cell.size == 0) {
+                cells.remove(cellKeys[slot]);
+            }
+        }
+
+        private static int latCell(double latitude) {
+            return Math.min(LAT_CELLS - 1, Math.max(0, (int) Math.floor((latitude + 90d) / CELL_DEGREES)));
+        }
+
+        private static int lonCell(double longitude) {
+            return Math.floorMod((int) Math.floor((longitude + 180d) / CELL_DEGREES), LON_CELLS);
+        }
+
+        private static long cellKey(int latCell, int lonCell) {
+            return (long) latCell * LON_CELLS + lonCell;
+        }
+    }
+
+    /**
+     * The slots of the vehicles in one grid cell.
+     */
+    private static final class Cell {
+        int[] slots = new int[4];
+        int size;
+
+        int add(int slot) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size] = slot;
+            return size++;
+        }
+    }
+}
@@ -4,9 +4,16 @@ import java.sql.Timestamp;
 import java.util.List;
 import java.util.UUID;
 
+import org.springframework.data.domain.Slice;
+
+import io.roach.movrapi.dto.LocationDetailsDTO;
+import io.roach.movrapi.dto.NearbyVehicleDTO;
 import io.roach.movrapi.dto.VehicleInfoDTO;
+import io.roach.movrapi.dto.VehicleLocationDTO;
+import io.roach.movrapi.dto.VehicleWithHistoryDTO;
+import io.roach.movrapi.dto.VehicleWithLocationDTO;
 import io.roach.movrapi.entity.Vehicle;
-import io.roach.movrapi.entity.VehicleWithLocation;
+import io.roach.movrapi.exception.InvalidValueException;
 import io.roach.movrapi.exception.InvalidVehicleStateException;
 import io.roach.movrapi.exception.NotFoundException;
 
@@ -16,18 +23,34 @@ import io.roach.movrapi.exception.NotFoundException;
 public interface VehicleService {
 
     Integer MAX_VEHICLES_TO_RETURN = 20;  // default LIMIT when querying
+    Integer MAX_VEHICLES_PAGE_SIZE = 200; // upper bound on the LIMIT a caller can request
+    Integer MAX_HISTORY_TO_RETURN = 100;  // default LIMIT when querying location history
+    Integer MAX_HISTORY_PAGE_SIZE = 1000; // upper bound on the location history LIMIT a caller can request
+    Integer NEARBY_RADIUS_METERS = 1000;  // default radius of a nearby-vehicle search
+    Integer MAX_NEARBY_RADIUS_METERS = 50000; // upper bound on the radius a caller can request
+    Integer MAX_VIEWPORT_VEHICLES = 1000; // default and upper bound on the vehicles returned for a map viewport
+    Integer MAX_LOCATIONS_PER_REQUEST = 10000; // upper bound on the positions a vehicle client can post at once
 
     Vehicle addVehicle(double latitude, double longitude, int batteryLevel,
                        VehicleInfoDTO vehicleInfo);
     void removeVehicle(UUID vehicleId) throws
             NotFoundException,InvalidVehicleStateException;
     List<Vehicle> getVehicles(Integer maxRecords);
-    List<VehicleWithLocation> getVehiclesWithLocation(Integer maxRecords);
+    Slice<VehicleWithLocationDTO> getVehiclesWithLocation(Integer maxRecords, UUID afterVehicleId);
+    List<NearbyVehicleDTO> getNearbyVehicles(double latitude, double longitude, Integer radiusMeters,
+                                             boolean availableOnly, Integer maxRecords);
+    long getNearbyIndexStalenessMillis();
+    List<VehicleWithLocationDTO> getVehiclesWithinRadius(double latitude, double longitude, Integer radiusMeters,
+                                                         Integer maxRecords);
+    List<VehicleWithLocationDTO> getVehiclesInViewport(double south, double west, double north, double east,
+                                                       Integer maxRecords) throws InvalidValueException;
     Vehicle getVehicle(UUID vehicleId) throws NotFoundException;
-    Vehicle checkoutVehicle(UUID vehicleId, double latitude, double longitude,
-                    Timestamp timestamp) throws NotFoundException,
-            InvalidVehicleStateException;
-    void checkinVehicle(UUID vehicleId, double latitude, double longitude, int
-                    batteryLevel, Timestamp timestamp) throws
-            NotFoundException, InvalidVehicleStateException;
+    VehicleWithHistoryDTO getVehicleDetails(UUID vehicleId) throws NotFoundException;
+    Slice<LocationDetailsDTO> getLocationHistory(UUID vehicleId, Timestamp before, Integer maxRecords);
+    List<LocationDetailsDTO> getTrack(UUID vehicleId, Timestamp from, Timestamp to);
+    int addLocations(List<VehicleLocationDTO> locations);
+    int removeLocations(UUID vehicleId, List<Timestamp> timestamps);
+    int packLocations(UUID vehicleId, Timestamp from, Timestamp to);
+    int removePackedLocations(UUID vehicleId, Timestamp from, Timestamp to, List<Timestamp> timestamps);
+    void vehicleUpdated(UUID vehicleId, double latitude, double longitude, boolean inUse, Timestamp timestamp);
 }
@@ -2,49 +2,101 @@ package io.roach.movrapi.service;
 
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
 
+import io.roach.movrapi.dao.LocationHistoryBatchWriter;
+import io.roach.movrapi.dao.LocationHistoryBlockStore;
 import io.roach.movrapi.dao.LocationHistoryRepository;
 import io.roach.movrapi.dao.VehicleRepository;
-import io.roach.movrapi.dao.VehicleWithLocationRepository;
+import io.roach.movrapi.dto.LocationDetailsDTO;
+import io.roach.movrapi.dto.NearbyVehicleDTO;
 import io.roach.movrapi.dto.VehicleInfoDTO;
+import io.roach.movrapi.dto.VehicleLocationDTO;
+import io.roach.movrapi.dto.VehicleWithHistoryDTO;
+import io.roach.movrapi.dto.VehicleWithLocationDTO;
 import io.roach.movrapi.entity.LocationHistory;
 import io.roach.movrapi.entity.Vehicle;
-import io.roach.movrapi.entity.VehicleWithLocation;
+import io.roach.movrapi.exception.InvalidValueException;
 import io.roach.movrapi.exception.InvalidVehicleStateException;
 import io.roach.movrapi.exception.NotFoundException;
+import io.roach.movrapi.util.JsonCodec;
+import static io.roach.movrapi.dao.FollowerReadTransactionManager.FOLLOWER_READ;
+import static io.roach.movrapi.service.TransactionRetryAspect.SAVEPOINT_RETRY;
 import static io.roach.movrapi.util.Constants.ERR_VEHICLE_IN_USE;
 import static io.roach.movrapi.util.Constants.ERR_VEHICLE_NOT_FOUND;
-import static io.roach.movrapi.util.Constants.ERR_VEHICLE_NOT_IN_USE;
+import static io.roach.movrapi.util.Constants.ERR_VIEWPORT_INVALID;
 
 /**
  * Implementation of the Vehicle Service Interface
+ *
+ * getVehicle is served from the vehicle cache. The methods that change a vehicle read it from the database instead,
+ * and invalidate its cache entry when they commit.
+ *
+ * Checking a vehicle out or in doesn't read it first: a single conditional UPDATE (see VehicleRepository) changes
+ * it only if it is in the expected state, sent as an implicit transaction. Riders racing for the same vehicle then
+ * queue on its row, and all but the first find it already taken, rather than reading it concurrently and having all
+ * but one of their transactions aborted (and retried) when they try to write it.
+ *
+ * The vehicle lists behind the map (all vehicles, and the radius and viewport searches) are follower reads, see
+ * FollowerReadTransactionManager: a map a few seconds out of date is fine, and those reads then don't contend with
+ * the rides updating the same vehicles.
+ *
+ * The positions vehicles report while they are ridden arrive in bulk (see LocationIngestBuffer), and addLocations
+ * writes a whole batch of them in one transaction of two statements, however many vehicles it covers.
+ * The location history writes only run JDBC statements, so they are labelled SAVEPOINT_RETRY: on CockroachDB they
+ * can be retried inside their transaction (see TransactionRetryAspect).
  */
 
 @Service
 public class VehicleServiceImpl implements VehicleService {
 
+    // the order the database sorts UUIDs in: byte by byte, unsigned
+    private static final Comparator<UUID> DATABASE_UUID_ORDER = Comparator
+        .comparing(UUID::getMostSignificantBits, Long::compareUnsigned)
+        .thenComparing(UUID::getLeastSignificantBits, Long::compareUnsigned);
+
     private VehicleRepository vehicleRepository;
-    private VehicleWithLocationRepository vehicleWithLocationRepository;
     private LocationHistoryRepository locationHistoryRepository;
+    private LocationHistoryBatchWriter locationHistoryBatchWriter;
+    private LocationHistoryBlockStore locationHistoryBlockStore;
+    private JsonCodec jsonCodec;
+    private VehicleLocationIndex vehicleLocationIndex;
+    private EntityCache<UUID, Vehicle> vehicleCache;
 
     @Autowired
     public VehicleServiceImpl(VehicleRepository vehicleRepository,
-                    VehicleWithLocationRepository vehicleWithLocationRepository,
-                    LocationHistoryRepository locationHistoryRepository) {
+                    LocationHistoryRepository locationHistoryRepository,
+                    LocationHistoryBatchWriter locationHistoryBatchWriter,
+                    LocationHistoryBlockStore locationHistoryBlockStore,
+                    JsonCodec jsonCodec,
+                    VehicleLocationIndex vehicleLocationIndex,
+                    EntityCache<UUID, Vehicle> vehicleCache) {
         this.vehicleRepository = vehicleRepository;
-        this.vehicleWithLocationRepository = vehicleWithLocationRepository;
         this.locationHistoryRepository = locationHistoryRepository;
+        this.locationHistoryBatchWriter = locationHistoryBatchWriter;
+        this.locationHistoryBlockStore = locationHistoryBlockStore;
+        this.jsonCodec = jsonCodec;
+        this.vehicleLocationIndex = vehicleLocationIndex;
+        this.vehicleCache = vehicleCache;
     }
 
     /**
@@ -60,18 +112,19 @@ public class VehicleServiceImpl implements VehicleService {
     @Transactional(isolation = Isolation.SERIALIZABLE)
     public Vehicle addVehicle(double latitude, double longitude, int batteryLevel, VehicleInfoDTO vehicleInfoDTO)  {
 
+        // in UTC, like every other timestamp the server records
+        Timestamp timestamp = Timestamp.valueOf(LocalDateTime.now(ZoneOffset.UTC));
+
         Vehicle vehicle = new Vehicle();
         vehicle.setInUse(false);
         vehicle.setBattery(batteryLevel);
-        vehicle.setVehicleInfo(vehicleInfoDTO.getAsJsonString());
+        vehicle.setVehicleInfo(jsonCodec.writeVehicleInfo(vehicleInfoDTO));
+        // set the starting location before saving so it's part of the insert rather than a separate update
+        setLastLocation(vehicle, latitude, longitude, timestamp);
         vehicleRepository.save(vehicle);
 
-        LocationHistory locationHistory = new LocationHistory();
-        locationHistory.setVehicle(vehicle);
-        locationHistory.setLatitude(latitude);
-        locationHistory.setLongitude(longitude);
-        locationHistory.setTimestamp(Timestamp.valueOf(LocalDateTime.now()));
-        locationHistoryRepository.save(locationHistory);
+        addLocationHistory(vehicle, latitude, longitude, timestamp);
+        vehicleLocationIndex.update(vehicle.getId(), latitude, longitude, false, timestamp);
 
         return vehicle;
     }
@@ -86,44 +139,147 @@ public class VehicleServiceImpl implements VehicleService {
     @Override
     @Transactional(isolation = Isolation.SERIALIZABLE)
     public void removeVehicle(UUID vehicleId) throws NotFoundException,InvalidVehicleStateException {
-        Vehicle vehicle = getVehicle(vehicleId);
+        Vehicle vehicle = findVehicle(vehicleId);
         if (vehicle.getInUse()) {
             throw new InvalidVehicleStateException(String.format(ERR_VEHICLE_IN_USE, vehicleId.toString()));
         }
         else {
             vehicleRepository.delete(vehicle);
+            vehicleLocationIndex.remove(vehicleId);
+            vehicleCache.invalidateAfterCommit(vehicleId);
         }
     }
 
     /**
-     * Gets all vehicles w/ their current location (up to the limit requested).
+     * Gets a page of vehicles w/ their current location, ordered by vehicle id.
      *
-     * @param maxRecords    the maximum number of vehicles to return (null defaults to MAX_VEHICLES_TO_RETURN)
-     * @return              a list of vehicle entity objects
+     * @param maxRecords        the maximum number of vehicles to return (null defaults to MAX_VEHICLES_TO_RETURN,
+     *                          and it is capped at MAX_VEHICLES_PAGE_SIZE)
+     * @param afterVehicleId    the id of the last vehicle on the previous page (null for the first page)
+     * @return                  a slice of vehicle DTOs that knows whether there is a next page
      */
     @Override
-    @Transactional(isolation = Isolation.SERIALIZABLE, readOnly = true)
-    public List<VehicleWithLocation> getVehiclesWithLocation(Integer maxRecords) {
-        int max = maxRecords == null ? MAX_VEHICLES_TO_RETURN : maxRecords;
-        return vehicleWithLocationRepository.getVehiclesWithLocation(max);
+    @Transactional(isolation = Isolation.SERIALIZABLE, readOnly = true, label = FOLLOWER_READ)
+    public Slice<VehicleWithLocationDTO> getVehiclesWithLocation(Integer maxRecords, UUID afterVehicleId) {
+        int max = pageSize(maxRecords);
+        // fetch one extra row so we can tell whether there is another page without a separate count query
+        Pageable limit = PageRequest.of(0, max + 1);
+        List<VehicleWithLocationDTO> vehicles = afterVehicleId == null
+            ? vehicleRepository.findVehiclesWithLocation(limit)
+            : vehicleRepository.findVehiclesWithLocationAfter(afterVehicleId, limit);
+        boolean hasNext = vehicles.size() > max;
+        if (hasNext) {
+            vehicles = vehicles.subList(0, max);
+        }
+        return new SliceImpl<>(vehicles, PageRequest.of(0, max), hasNext);
     }
 
     /**
      * Gets all vehicles (up to the limit requested).
      *
-     * @param maxRecords    the maximum number of vehicles to return (null defaults to MAX_VEHICLES_TO_RETURN)
+     * @param maxRecords    the maximum number of vehicles to return (null defaults to MAX_VEHICLES_TO_RETURN,
+     *                      and it is capped at MAX_VEHICLES_PAGE_SIZE)
      * @return              a list of vehicle entity objects
      */
     @Override
-    @Transactional(isolation = Isolation.SERIALIZABLE, readOnly = true)
+    @Transactional(isolation = Isolation.SERIALIZABLE, readOnly = true, label = FOLLOWER_READ)
     public List<Vehicle> getVehicles(Integer maxRecords) {
-        int max = maxRecords == null ? MAX_VEHICLES_TO_RETURN : maxRecords;
-        Pageable limit = PageRequest.of(0, max, Sort.by("id"));
+        Pageable limit = PageRequest.of(0, pageSize(maxRecords), Sort.by("id"));
         return vehicleRepository.findAll(limit).toList();
     }
 
     /**
-     * Gets a specific vehicle.
+     * Gets the vehicles closest to a point, nearest first, from the in-memory index (no database access).
+     *
+     * @param latitude          latitude of the point to search around
+     * @param longitude         longitude of the point to search around
+     * @param radiusMeters      the search radius (null defaults to NEARBY_RADIUS_METERS, and it is capped at
+     *                          MAX_NEARBY_RADIUS_METERS)
+     * @param availableOnly     whether to leave out vehicles that are in use
+     * @param maxRecords        the maximum number of vehicles to return (null defaults to MAX_VEHICLES_TO_RETURN,
+     *                          and it is capped at MAX_VEHICLES_PAGE_SIZE)
+     * @return                  the vehicles with their distance from the point
+     */
+    @Override
+    public List<NearbyVehicleDTO> getNearbyVehicles(double latitude, double longitude, Integer radiusMeters,
+                                                    boolean availableOnly, Integer maxRecords) {
+        int radius = Math.min(radiusMeters == null ? NEARBY_RADIUS_METERS : radiusMeters, MAX_NEARBY_RADIUS_METERS);
+        return vehicleLocationIndex.findNearby(latitude, longitude, radius, availableOnly, pageSize(maxRecords));
+    }
+
+    /**
+     * Gets how long it has been since the nearby-vehicle index was last rebuilt from the database.
+     *
+     * @return  the staleness in milliseconds (-1 if the index has not been built yet)
+     */
+    @Override
+    public long getNearbyIndexStalenessMillis() {
+        return vehicleLocationIndex.getStalenessMillis();
+    }
+
+    /**
+     * Gets the vehicles within a radius of a point, nearest first, with their details and current location
+     * (searched by the database, using the spatial index on the vehicles' current location).
+     *
+     * @param latitude          latitude of the center of the search
+     * @param longitude         longitude of the center of the search
+     * @param radiusMeters      the search radius (null defaults to NEARBY_RADIUS_METERS, and it is capped at
+     *                          MAX_NEARBY_RADIUS_METERS)
+     * @param maxRecords        the maximum number of vehicles to return (null defaults to MAX_VEHICLES_TO_RETURN,
+     *                          and it is capped at MAX_VEHICLES_PAGE_SIZE)
+     * @return                  a list of vehicle DTOs
+     */
+    @Override
+    @Transactional(isolation = Isolation.SERIALIZABLE, readOnly = true, label = FOLLOWER_READ)
+    public List<VehicleWithLocationDTO> getVehiclesWithinRadius(double latitude, double longitude,
+                                                                Integer radiusMeters, Integer maxRecords) {
+        int radius = Math.min(radiusMeters == null ? NEARBY_RADIUS_METERS : radiusMeters, MAX_NEARBY_RADIUS_METERS);
+        return vehicleRepository.findVehiclesWithinRadius(latitude, longitude, radius, pageSize(maxRecords));
+    }
+
+    /**
+     * Gets the vehicles inside a map viewport, ordered by id, with their details and current location
+     * (searched by the database, using the spatial index on the vehicles' current location).
+     *
+     * A viewport whose west edge is east of its east edge crosses the antimeridian: it is searched as the two
+     * rectangles either side of it, and the two results merged.
+     *
+     * @param south                     latitude of the bottom edge of the viewport
+     * @param west                      longitude of the left edge of the viewport
+     * @param north                     latitude of the top edge of the viewport
+     * @param east                      longitude of the right edge of the viewport
+     * @param maxRecords                the maximum number of vehicles to return (null and anything larger mean
+     *                                  MAX_VIEWPORT_VEHICLES)
+     * @return                          a list of vehicle DTOs
+     * @throws InvalidValueException    if the south edge is above the north edge
+     */
+    @Override
+    @Transactional(isolation = Isolation.SERIALIZABLE, readOnly = true, label = FOLLOWER_READ)
+    public List<VehicleWithLocationDTO> getVehiclesInViewport(double south, double west, double north, double east,
+                                                              Integer maxRecords) throws InvalidValueException {
+        if (south > north) {
+            throw new InvalidValueException(ERR_VIEWPORT_INVALID);
+        }
+        int max = Math.min(maxRecords == null ? MAX_VIEWPORT_VEHICLES : maxRecords, MAX_VIEWPORT_VEHICLES);
+        if (west <= east) {
+            return vehicleRepository.findVehiclesInViewport(south, west, north, east, max);
+        }
+
+        // each side's first max vehicles by id include the first max of both; a vehicle on the antimeridian itself
+        // can be found on both sides
+        Map<UUID, VehicleWithLocationDTO> vehicles = new TreeMap<>(DATABASE_UUID_ORDER);
+        for (VehicleWithLocationDTO vehicle : vehicleRepository.findVehiclesInViewport(south, west, north, 180d, max)) {
+            vehicles.put(vehicle.getId(), vehicle);
+        }
+        for (VehicleWithLocationDTO vehicle : vehicleRepository.findVehiclesInViewport(south, -180d, north, east, max)) {
+            vehicles.putIfAbsent(vehicle.getId(), vehicle);
+        }
+        return vehicles.values().stream().limit(max).collect(Collectors.toList());
+    }
+
+    /**
+     * Gets a specific vehicle (from the vehicle cache when it's there, in which case it is a detached copy that must
+     * not be modified).
      *
      * @param vehicleId             the UUID of the vehicle to retrieve
      * @return                      entity object representing the vehicle
@@ -132,6 +288,17 @@ public class VehicleServiceImpl implements VehicleService {
     @Override
     @Transactional(isolation = Isolation.SERIALIZABLE, readOnly = true)
     public Vehicle getVehicle(UUID vehicleId) throws NotFoundException {
+        return vehicleCache.get(vehicleId, this::findVehicle);
+    }
+
+    /**
+     * Reads a specific vehicle from the database.
+     *
+     * @param vehicleId             the UUID of the vehicle to retrieve
+     * @return                      entity object representing the vehicle
+     * @throws NotFoundException    if the vehicle id does not exist in the database
+     */
+    private Vehicle findVehicle(UUID vehicleId) throws NotFoundException {
         Optional<Vehicle> vehicleOptional = vehicleRepository.findById(vehicleId);
         if (!vehicleOptional.isPresent()) {
             throw new NotFoundException(String.format(ERR_VEHICLE_NOT_FOUND, vehicleId.toString()));
@@ -140,69 +307,165 @@ public class VehicleServiceImpl implements VehicleService {
     }
 
     /**
-     * Marks a vehicle as "in use" (typically called at the beginning of a ride).
+     * Gets the details of a specific vehicle (read straight into a DTO, without loading the Vehicle entity).
      *
-     * @param vehicleId                     the UUID of the vehicle to mark as "in use"
-     * @param latitude                      the latitude of the new location of the vehicle
-     * @param longitude                     the latitude of the new location of the vehicle
-     * @param timestamp                     the date/time to check the vehicle out
-     * @return                              an entity object representing the vehicle
-     * @throws NotFoundException            if the vehicle id does not exist in the database
-     * @throws InvalidVehicleStateException if the vehicle is already marked "in use"
+     * @param vehicleId             the UUID of the vehicle to retrieve
+     * @return                      a DTO with the vehicle details and no location history yet
+     * @throws NotFoundException    if the vehicle id does not exist in the database
      */
     @Override
-    @Transactional(isolation = Isolation.SERIALIZABLE)
-    public Vehicle checkoutVehicle(UUID vehicleId, double latitude, double longitude, Timestamp timestamp)
-        throws NotFoundException, InvalidVehicleStateException {
-
-        Vehicle vehicle = getVehicle(vehicleId);
-        if (vehicle.getInUse()) {
-            throw new InvalidVehicleStateException(String.format(ERR_VEHICLE_IN_USE, vehicleId.toString()));
+    @Transactional(isolation = Isolation.SERIALIZABLE, readOnly = true)
+    public VehicleWithHistoryDTO getVehicleDetails(UUID vehicleId) throws NotFoundException {
+        VehicleWithHistoryDTO vehicleWithHistoryDTO = vehicleRepository.findVehicleDetails(vehicleId);
+        if (vehicleWithHistoryDTO == null) {
+            throw new NotFoundException(String.format(ERR_VEHICLE_NOT_FOUND, vehicleId.toString()));
         }
+        return vehicleWithHistoryDTO;
+    }
 
-        addLocationHistory(vehicle, latitude, longitude, timestamp);
+    /**
+     * Gets a window of a vehicle's location history, newest first (including history that has been archived, see
+     * LocationHistoryArchiver).
+     *
+     * @param vehicleId     the UUID of the vehicle to retrieve history for
+     * @param before        only return entries older than this (null starts from the most recent entry)
+     * @param maxRecords    the maximum number of entries to return (null defaults to MAX_HISTORY_TO_RETURN,
+     *                      and it is capped at MAX_HISTORY_PAGE_SIZE)
+     * @return              a slice of location DTOs that knows whether there are older entries
+     */
+    @Override
+    @Transactional(isolation = Isolation.SERIALIZABLE, readOnly = true)
+    public Slice<LocationDetailsDTO> getLocationHistory(UUID vehicleId, Timestamp before, Integer maxRecords) {
+        int max = Math.min(maxRecords == null ? MAX_HISTORY_TO_RETURN : maxRecords, MAX_HISTORY_PAGE_SIZE);
+        // fetch one extra row so we can tell whether there are older entries without a separate count query
+        List<LocationDetailsDTO> history = locationHistoryRepository.findHistory(vehicleId, before, max + 1);
+        boolean hasNext = history.size() > max;
+        if (hasNext) {
+            history = history.subList(0, max);
+        }
+        return new SliceImpl<>(history, PageRequest.of(0, max), hasNext);
+    }
 
-        vehicle.setInUse(true);
-        vehicleRepository.save(vehicle);
-        return vehicle;
+    /**
+     * Gets a vehicle's location history over a stretch of time, oldest first.
+     *
+     * @param vehicleId     the UUID of the vehicle to retrieve history for
+     * @param from          the start of the stretch of time (inclusive)
+     * @param to            the end of the stretch of time (exclusive)
+     * @return              the location DTOs, in the order the vehicle went along its track
+     */
+    @Override
+    @Transactional(isolation = Isolation.SERIALIZABLE, readOnly = true)
+    public List<LocationDetailsDTO> getTrack(UUID vehicleId, Timestamp from, Timestamp to) {
+        return locationHistoryRepository.findTrack(vehicleId, from, to);
     }
 
     /**
-     * Marks a vehicle as NOT "in use", and updates its new location and battery level
-     * (typically called after a ride is ended).
+     * Adds positions reported by vehicles to their location history, and moves each vehicle to the latest of its
+     * positions (unless it has already been somewhere since).
+     *
+     * Positions of vehicles that don't exist, and positions already recorded, are skipped.
      *
-     * @param vehicleId                     the UUID of the vehicle to mark as no longer "in use"
-     * @param latitude                      the latitude of the new location of the vehicle
-     * @param longitude                     the latitude of the new location of the vehicle
-     * @param batteryLevel                  the new battery level
-     * @param timestamp                     the date/time to check the vehicle in
-     * @throws NotFoundException            if the vehicle id does not exist in the database
-     * @throws InvalidVehicleStateException if the vehicle is not currently marked "in use"
+     * @param locations     the positions, for any number of vehicles, in any order
+     * @return              the number of positions added to the location history
      */
     @Override
-    @Transactional(isolation = Isolation.SERIALIZABLE)
-    public void checkinVehicle(UUID vehicleId, double latitude, double longitude, int batteryLevel, Timestamp timestamp)
-        throws NotFoundException, InvalidVehicleStateException {
-
-        Vehicle vehicle = getVehicle(vehicleId);
-        if (!vehicle.getInUse()) {
-            // in a production application, we'd probably log this as an error and then try to handle it gracefully
-            // by hiding the error from the end-user. For now, we want to hard error so we can debug easier.
-            throw new InvalidVehicleStateException(String.format(ERR_VEHICLE_NOT_IN_USE, vehicleId));
+    @Transactional(isolation = Isolation.SERIALIZABLE, label = SAVEPOINT_RETRY)
+    public int addLocations(List<VehicleLocationDTO> locations) {
+
+        int added = locationHistoryBatchWriter.insertLocations(locations);
+
+        Map<UUID, VehicleLocationDTO> latestLocations = new HashMap<>();
+        for (VehicleLocationDTO location : locations) {
+            latestLocations.merge(location.getVehicleId(), location,
+                (latest, other) -> other.getTimestamp().after(latest.getTimestamp()) ? other : latest);
+        }
+        for (NearbyVehicleDTO vehicle :
+                locationHistoryBatchWriter.updateLastLocations(new ArrayList<>(latestLocations.values()))) {
+            vehicleUpdated(vehicle.getId(), vehicle.getLastLatitude(), vehicle.getLastLongitude(), vehicle.isInUse(),
+                vehicle.getTimestamp());
         }
+        return added;
+    }
 
-        addLocationHistory(vehicle, latitude, longitude, timestamp);
+    /**
+     * Removes entries from a vehicle's location history (see LocationHistoryCompactor). The caller must leave the
+     * vehicle's latest entry alone, as it is the vehicle's current location.
+     *
+     * @param vehicleId     the UUID of the vehicle whose history to thin out
+     * @param timestamps    the timestamps of the entries to remove
+     * @return              the number of entries removed
+     */
+    @Override
+    @Transactional(isolation = Isolation.SERIALIZABLE, label = SAVEPOINT_RETRY)
+    public int removeLocations(UUID vehicleId, List<Timestamp> timestamps) {
+        return locationHistoryBatchWriter.deleteLocations(vehicleId, timestamps);
+    }
 
-        vehicle.setInUse(false);
-        vehicle.setBattery(batteryLevel);
-        vehicleRepository.save(vehicle);
+    /**
+     * Moves a vehicle's location history over a stretch of time into packed blocks (see LocationHistoryPacker),
+     * all but the vehicle's latest entry.
+     *
+     * @param vehicleId     the UUID of the vehicle whose history to pack
+     * @param from          the start of the stretch of time (inclusive)
+     * @param to            the end of the stretch of time (exclusive)
+     * @return              the number of entries packed
+     */
+    @Override
+    @Transactional(isolation = Isolation.SERIALIZABLE, label = SAVEPOINT_RETRY)
+    public int packLocations(UUID vehicleId, Timestamp from, Timestamp to) {
+        List<Timestamp> packed = locationHistoryBlockStore.pack(vehicleId, from, to);
+        return locationHistoryBatchWriter.deleteLocations(vehicleId, packed);
+    }
+
+    /**
+     * Removes archived positions from a vehicle's packed location history (see LocationHistoryArchiver).
+     *
+     * @param vehicleId     the UUID of the vehicle
+     * @param from          the start of the archived stretch of time (inclusive)
+     * @param to            the end of the archived stretch of time (exclusive)
+     * @param timestamps    the timestamps of the positions to remove
+     * @return              the number of positions removed
+     */
+    @Override
+    @Transactional(isolation = Isolation.SERIALIZABLE, label = SAVEPOINT_RETRY)
+    public int removePackedLocations(UUID vehicleId, Timestamp from, Timestamp to, List<Timestamp> timestamps) {
+        return locationHistoryBlockStore.removeArchived(vehicleId, from, to, timestamps);
+    }
+
+    /**
+     * Catches up with a change to a vehicle's location or availability that was written by a native statement
+     * (the compound ride start and end statements, and the bulk position updates): the nearby-vehicle index is
+     * updated and the cached vehicle is dropped once the current transaction commits.
+     *
+     * @param vehicleId     the UUID of the vehicle that was changed
+     * @param latitude      the latitude of the vehicle's location
+     * @param longitude     the longitude of the vehicle's location
+     * @param inUse         whether the vehicle is now in use
+     * @param timestamp     the date/time of the change
+     */
+    @Override
+    public void vehicleUpdated(UUID vehicleId, double latitude, double longitude, boolean inUse, Timestamp timestamp) {
+        vehicleLocationIndex.update(vehicleId, latitude, longitude, inUse, timestamp);
+        vehicleCache.invalidateAfterCommit(vehicleId);
+    }
 
+    /**
+     * Works out how many vehicles to return, applying the default and the server-side maximum.
+     *
+     * @param maxRecords    the number of vehicles requested (may be null)
+     * @return              the number of vehicles to return
+     */
+    private int pageSize(Integer maxRecords) {
+        int max = maxRecords == null ? MAX_VEHICLES_TO_RETURN : maxRecords;
+        return Math.min(max, MAX_VEHICLES_PAGE_SIZE);
     }
 
     /**
-     * Adds a new location history record for a vehicle
+     * Adds a new location history record for a vehicle, and records it as the vehicle's most recent location.
+     * The caller is responsible for saving the vehicle in the same transaction.
      *
-     * @param vehicle               the UUID of the vehicle
+     * @param vehicle               the vehicle entity
      * @param latitude              the latitude of the location of the vehicle
      * @param longitude             the latitude of the location of the vehicle
      * @param timestamp             the date/time the vehicle was at this location
@@ -216,5 +479,21 @@ public class VehicleServiceImpl implements VehicleService {
         locationHistory.setTimestamp(timestamp);
         locationHistoryRepository.save(locationHistory);
 
+        setLastLocation(vehicle, latitude, longitude, timestamp);
+    }
+
+    /**
+     * Records the vehicle's most recent location on the vehicle itself (read by getVehiclesWithLocation).
+     *
+     * @param vehicle               the vehicle entity
+     * @param latitude              the latitude of the location of the vehicle
+     * @param longitude             the longitude of the location of the vehicle
+     * @param timestamp             the date/time the vehicle was at this location
+     */
+    private void setLastLocation(Vehicle vehicle, double latitude, double longitude, Timestamp timestamp) {
+
+        vehicle.setLastLatitude(latitude);
+        vehicle.setLastLongitude(longitude);
+        vehicle.setLastCheckin(timestamp);
     }
 }
@@ -1,17 +1,16 @@
 package io.roach.movrapi.util;
 
+import java.nio.ByteBuffer;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.Date;
 import java.util.UUID;
 
 import io.roach.movrapi.exception.InvalidUUIDException;
 import io.roach.movrapi.exception.InvalidValueException;
 import static io.roach.movrapi.util.Constants.*;
-import org.gavaghan.geodesy.Ellipsoid;
-import org.gavaghan.geodesy.GeodeticCalculator;
-import org.gavaghan.geodesy.GeodeticCurve;
-import org.gavaghan.geodesy.GlobalCoordinates;
 
 /**
  * Utility class to handle common operations
@@ -21,25 +20,9 @@ public final class Common {
 
     private Common() {}
 
-    private static double distance(double lat1, double lon1, double lat2, double lon2) {
-
-        GeodeticCalculator geoCalc = new GeodeticCalculator();
-        // select a reference elllipsoid
-        Ellipsoid reference = Ellipsoid.WGS84;
-        // set first coordinates
-        GlobalCoordinates start = new GlobalCoordinates(lat1, lon1);
-        // set second coordinates
-        GlobalCoordinates end = new GlobalCoordinates(lat2, lon2);
-        // calculate the geodetic curve
-        GeodeticCurve geoCurve = geoCalc.calculateGeodeticCurve(
-            reference, start, end
-        );
-        return geoCurve.getEllipsoidalDistance() / 1000.0;
-    }
-
     // Finds the distance between two points, in kilometers, to a precision of 10 meters.
     public static double calculateDistance(double lat1, double lon1, double lat2, double lon2) {
-        return Math.round(distance(lat1, lon1, lat2, lon2) * 100d) / 100d;
+        return Math.round(Geodesy.vincenty(lat1, lon1, lat2, lon2) * 100d) / 100d;
     }
 
     // returns the time between two timestamps, in decimal minutes
@@ -58,8 +41,14 @@ public final class Common {
                                             double lat2, double lon2, Timestamp endTime)
         throws InvalidValueException {
 
+        return calculateVelocity(calculateDistance(lat1, lon1, lat2, lon2), startTime, endTime);
+    }
+
+    // Finds the magnitude of the velocity, in kilometers per hour, for a distance (in kilometers) already
+    // calculated with calculateDistance
+    public static double calculateVelocity(double distanceTravelled, Timestamp startTime, Timestamp endTime)
+        throws InvalidValueException {
 
-        double distanceTravelled = calculateDistance(lat1, lon1, lat2, lon2);
         if (distanceTravelled == 0d) {
             return 0d;
         }
@@ -74,6 +63,9 @@ public final class Common {
 
     // converts String to UUID and throws exception if string is not a valid UUID
     public static UUID toUUID(String id, String errMsg) throws InvalidUUIDException {
+        if (id == null) {
+            throw new InvalidUUIDException(String.format(errMsg, id, ERR_VALUE_MISSING));
+        }
         UUID uuid;
         try {
             uuid = UUID.fromString(id);
@@ -83,6 +75,46 @@ public final class Common {
         return uuid;
     }
 
+    // converts String to Timestamp and throws exception if string is not in JDBC timestamp escape format
+    public static Timestamp toTimestamp(String timestamp) throws InvalidValueException {
+        try {
+            return Timestamp.valueOf(timestamp);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidValueException(String.format(ERR_TIMESTAMP_INVALID, timestamp));
+        }
+    }
+
+    // narrows a Date read by Hibernate (which types TIMESTAMP columns as java.util.Date) back to a Timestamp
+    public static Timestamp toTimestamp(Date date) {
+        if (date == null || date instanceof Timestamp) {
+            return (Timestamp) date;
+        }
+        return new Timestamp(date.getTime());
+    }
+
+    // converts a vehicle id into an opaque cursor token for paginated lists
+    public static String encodeCursor(UUID id) {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.putLong(id.getMostSignificantBits());
+        buffer.putLong(id.getLeastSignificantBits());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    // converts a cursor token back into the vehicle id it was created from
+    public static UUID decodeCursor(String cursor) throws InvalidValueException {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidValueException(String.format(ERR_CURSOR_INVALID, cursor));
+        }
+        if (bytes.length != 16) {
+            throw new InvalidValueException(String.format(ERR_CURSOR_INVALID, cursor));
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
     public static Integer convertBatteryToInt(String batteryLevel) throws InvalidValueException {
 
         Integer battery;
@@ -99,6 +131,9 @@ public final class Common {
 
     public static Double convertLatToDouble(String latitude) throws InvalidValueException {
 
+        if (latitude == null) {
+            throw new InvalidValueException(ERR_LAT_INVALID);
+        }
         Double lat;
         try {
             lat = Double.parseDouble(latitude);
@@ -113,6 +148,9 @@ public final class Common {
 
     public static Double convertLonToDouble(String longitude) throws InvalidValueException {
 
+        if (longitude == null) {
+            throw new InvalidValueException(ERR_LON_INVALID);
+        }
         Double lon;
         try {
             lon = Double.parseDouble(longitude);
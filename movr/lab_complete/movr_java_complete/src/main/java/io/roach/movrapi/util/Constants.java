@@ -19,6 +19,22 @@ public class Constants {
     public static final String ERR_BATTERY_INVALID = "Battery (percent) must be between 0 and 100.";
     public static final String ERR_LAT_INVALID = "Latitude must be between -90 and 90.";
     public static final String ERR_LON_INVALID = "Longitude must be between -180 and 180.";
+    public static final String ERR_VIEWPORT_INVALID = "Viewport south must not be above north.";
+    public static final String ERR_CURSOR_INVALID = "Cursor <%s> is not valid.";
+    public static final String ERR_TIMESTAMP_INVALID = "Timestamp <%s> must be formatted as yyyy-mm-dd hh:mm:ss[.fffffffff].";
+    public static final String ERR_TIMESTAMP_IN_FUTURE =
+        "Timestamp <%s> is more than %d ms ahead of the server's clock (UTC).";
+    public static final String ERR_TRANSACTION_RETRIES_EXHAUSTED =
+        "Could not complete the request after %d attempts because of contention with other requests. Try again later.";
+    public static final String ERR_VALUE_MISSING = "no value given";
+    public static final String ERR_LOCATION_MISSING = "Location %d of the request is null.";
+    public static final String ERR_TOO_MANY_LOCATIONS = "At most %d locations can be sent in one request.";
+    public static final String ERR_INGEST_QUEUE_FULL =
+        "Too many locations are waiting to be written. Try again later.";
+    public static final String ERR_INGEST_STOPPED = "Locations are no longer being accepted: the server is shutting down.";
+    public static final String ERR_INGEST_TOO_LARGE = "At most %d locations can be queued at once.";
+    public static final String ERR_INGEST_TIMEOUT =
+        "Locations were queued but not written within %d ms. They may still be saved; send them again to make sure.";
 
     // success messages
     public static final String MSG_DELETED_EMAIL = "You have successfully deleted your account.";
@@ -26,6 +42,13 @@ public class Constants {
     public static final String MSG_RIDE_STARTED = "Ride started with vehicle %s";
     public static final String MSG_RIDE_ENDED_1 = "You have completed your ride on vehicle %s.";
     public static final String MSG_RIDE_ENDED_2 = "You traveled %.2f km in %.2f minutes, for an average velocity of %.2f km/hr";
+    public static final String MSG_LOCATIONS_ACCEPTED = "Accepted %d locations.";
+    public static final String MSG_LOCATIONS_SAVED = "Saved %d locations.";
+
+    // response header carrying the cursor for the next page of a paginated list
+    public static final String HEADER_NEXT_CURSOR = "X-Next-Cursor";
+    // response header carrying the milliseconds since the nearby-vehicle index was last rebuilt from the database
+    public static final String HEADER_INDEX_STALENESS = "X-Index-Staleness-Ms";
 
     private Constants() {
     }
@@ -0,0 +1,161 @@
+package io.roach.movrapi.util;
+
+/**
+ * Distances between points given as latitude/longitude in decimal degrees, in kilometers.
+ *
+ * Everything here works on primitives and allocates nothing, so it can be used in tight loops over
+ * location history (see the double[] batch methods).
+ */
+
+public final class Geodesy {
+
+    /**
+     * How a distance is calculated. HAVERSINE is the cheapest, VINCENTY the most accurate.
+     */
+    public enum Method {
+        // great circle on a sphere of the mean earth radius, well conditioned at short distances
+        HAVERSINE,
+        // great circle on a sphere using the spherical law of cosines; loses precision below a few meters
+        SPHERICAL,
+        // geodesic on the WGS84 ellipsoid, accurate to well under a millimeter
+        VINCENTY
+    }
+
+    // IUGG mean earth radius, used by the spherical methods
+    public static final double EARTH_RADIUS_KM = 6371.0088;
+
+    // WGS84 ellipsoid, in meters
+    private static final double WGS84_A = 6378137.0;
+    private static final double WGS84_F = 1 / 298.257223563;
+    private static final double WGS84_B = WGS84_A * (1 - WGS84_F);
+
+    private static final int VINCENTY_MAX_ITERATIONS = 200;
+    private static final double VINCENTY_CONVERGENCE = 1e-12;
+
+    private Geodesy() {}
+
+    public static double distance(Method method, double lat1, double lon1, double lat2, double lon2) {
+        switch (method) {
+            case HAVERSINE:
+                return haversine(lat1, lon1, lat2, lon2);
+            case SPHERICAL:
+                return spherical(lat1, lon1, lat2, lon2);
+            default:
+                return vincenty(lat1, lon1, lat2, lon2);
+        }
+    }
+
+    public static double haversine(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double sinHalfDeltaPhi = Math.sin((phi2 - phi1) / 2);
+        double sinHalfDeltaLambda = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+        double h = sinHalfDeltaPhi * sinHalfDeltaPhi
+            + Math.cos(phi1) * Math.cos(phi2) * sinHalfDeltaLambda * sinHalfDeltaLambda;
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.sqrt(Math.min(1d, h)));
+    }
+
+    public static double spherical(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double cosAngle = Math.sin(phi1) * Math.sin(phi2)
+            + Math.cos(phi1) * Math.cos(phi2) * Math.cos(Math.toRadians(lon2 - lon1));
+        // rounding can push the cosine just outside [-1, 1] for (nearly) equal or antipodal points
+        return EARTH_RADIUS_KM * Math.acos(Math.max(-1d, Math.min(1d, cosAngle)));
+    }
+
+    /**
+     * Vincenty's inverse formula on the WGS84 ellipsoid.
+     *
+     * For nearly antipodal points the iteration may not converge; the last estimate is returned, which is
+     * what the gavaghan GeodeticCalculator this replaces did as well.
+     */
+    public static double vincenty(double lat1, double lon1, double lat2, double lon2) {
+        double l = Math.toRadians(lon2 - lon1);
+        double u1 = Math.atan((1 - WGS84_F) * Math.tan(Math.toRadians(lat1)));
+        double u2 = Math.atan((1 - WGS84_F) * Math.tan(Math.toRadians(lat2)));
+        double sinU1 = Math.sin(u1);
+        double cosU1 = Math.cos(u1);
+        double sinU2 = Math.sin(u2);
+        double cosU2 = Math.cos(u2);
+
+        double lambda = l;
+        double previousLambda;
+        double sinSigma;
+        double cosSigma;
+        double sigma;
+        double cosSqAlpha;
+        double cos2SigmaM;
+        int iterations = 0;
+        do {
+            double sinLambda = Math.sin(lambda);
+            double cosLambda = Math.cos(lambda);
+            double x = cosU2 * sinLambda;
+            double y = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+            sinSigma = Math.sqrt(x * x + y * y);
+            if (sinSigma == 0d) {
+                // same point
+                return 0d;
+            }
+            cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+            sigma = Math.atan2(sinSigma, cosSigma);
+            double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+            cosSqAlpha = 1 - sinAlpha * sinAlpha;
+            // on the equator cosSqAlpha is 0 and the term drops out
+            cos2SigmaM = cosSqAlpha == 0d ? 0d : cosSigma - 2 * sinU1 * sinU2 / cosSqAlpha;
+            double c = WGS84_F / 16 * cosSqAlpha * (4 + WGS84_F * (4 - 3 * cosSqAlpha));
+            previousLambda = lambda;
+            lambda = l + (1 - c) * WGS84_F * sinAlpha
+                * (sigma + c * sinSigma * (cos2SigmaM + c * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+        } while (Math.abs(lambda - previousLambda) > VINCENTY_CONVERGENCE && ++iterations < VINCENTY_MAX_ITERATIONS);
+
+        double uSq = cosSqAlpha * (WGS84_A * WGS84_A - WGS84_B * WGS84_B) / (WGS84_B * WGS84_B);
+        double a = 1 + uSq / 16384 * (4096 + uSq * (-768 + uSq * (320 - 175 * uSq)));
+        double b = uSq / 1024 * (256 + uSq * (-128 + uSq * (74 - 47 * uSq)));
+        double deltaSigma = b * sinSigma * (cos2SigmaM + b / 4 * (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)
+            - b / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+        return WGS84_B * a * (sigma - deltaSigma) / 1000d;
+    }
+
+    /**
+     * Total length of the track through the points, in order.
+     *
+     * @param method        how each segment is measured
+     * @param latitudes     latitude of each point
+     * @param longitudes    longitude of each point (same length as latitudes)
+     * @return              the sum of the segment lengths, in kilometers (0 for fewer than two points)
+     */
+    public static double trackLength(Method method, double[] latitudes, double[] longitudes) {
+        checkSameLength(latitudes, longitudes);
+        double length = 0d;
+        for (int i = 1; i < latitudes.length; i++) {
+            length += distance(method, latitudes[i - 1], longitudes[i - 1], latitudes[i], longitudes[i]);
+        }
+        return length;
+    }
+
+    /**
+     * Length of each segment of the track through the points, in order.
+     *
+     * @param method        how each segment is measured
+     * @param latitudes     latitude of each point
+     * @param longitudes    longitude of each point (same length as latitudes)
+     * @param lengths       receives the distance from point i to point i + 1 at index i, in kilometers;
+     *                      must hold at least latitudes.length - 1 values
+     */
+    public static void segmentLengths(Method method, double[] latitudes, double[] longitudes, double[] lengths) {
+        checkSameLength(latitudes, longitudes);
+        if (latitudes.length > 1 && lengths.length < latitudes.length - 1) {
+            throw new IllegalArgumentException("lengths must hold " + (latitudes.length - 1) + " values");
+        }
+        for (int i = 1; i < latitudes.length; i++) {
+            lengths[i - 1] = distance(method, latitudes[i - 1], longitudes[i - 1], latitudes[i], longitudes[i]);
+        }
+    }
+
+    private static void checkSameLength(double[] latitudes, double[] longitudes) {
+        if (latitudes.length != longitudes.length) {
+            throw new IllegalArgumentException("latitudes and longitudes must have the same length");
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package io.roach.movrapi.util;
+
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.roach.movrapi.dto.VehicleInfoDTO;
+
+/**
+ * Json encoding shared by the whole application.
+ *
+ * Wraps the ObjectMapper Spring Boot configures for request/response bodies, so the jsonb columns are written
+ * with the same (Afterburner-enabled) mapper, and keeps pre-built writers for the types written on every
+ * request instead of resolving their serializers each time.
+ *
+ * Objects that aren't Spring beans (the DTOs Hibernate and the mappers create) get their readers from
+ * readerFor, which uses the same mapper once the codec has been created.
+ */
+
+@Component
+public class JsonCodec {
+
+    // the mapper of the codec created last (there is one per application context)
+    private static volatile ObjectMapper sharedMapper;
+
+    private final ObjectWriter vehicleInfoWriter;
+
+    @Autowired
+    public JsonCodec(ObjectMapper objectMapper) {
+        sharedMapper = objectMapper;
+        // the vehicle info keys are already snake case, and a Map's keys are not renamed by the naming strategy
+        this.vehicleInfoWriter = objectMapper.writerFor(new TypeReference<Map<String, Object>>() { });
+    }
+
+    /**
+     * Encodes the vehicle info as the json stored in the vehicles.vehicle_info column.
+     *
+     * @param vehicleInfoDTO    the vehicle info fields
+     * @return                  the json string
+     */
+    public String writeVehicleInfo(VehicleInfoDTO vehicleInfoDTO) {
+        try {
+            return vehicleInfoWriter.writeValueAsString(vehicleInfoDTO.getFields());
+        } catch (JsonProcessingException e) {
+            // a map of strings (and nested maps of strings) always encodes
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Gets a reader for a type from the application's mapper, for code that can't have the codec injected.
+     *
+     * @param type                      the type to read
+     * @return                          the reader (immutable and thread-safe, so worth keeping)
+     * @throws IllegalStateException    if no codec has been created yet
+     */
+    public static ObjectReader readerFor(Class<?> type) {
+        ObjectMapper objectMapper = sharedMapper;
+        if (objectMapper == null) {
+            throw new IllegalStateException("JsonCodec has not been created yet");
+        }
+        return objectMapper.readerFor(type);
+    }
+}
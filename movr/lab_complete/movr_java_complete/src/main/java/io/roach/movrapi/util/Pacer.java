@@ -0,0 +1,49 @@
+package io.roach.movrapi.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a background job to a steady rate of work (rows read or written, say), by sleeping whenever it is ahead of
+ * the rate counted from when the pacer was created. Not thread-safe: one pacer per run of a job.
+ */
+
+public final class Pacer {
+
+    private final int maxPerSecond;
+    private final long start = System.nanoTime();
+    // how long the work done so far should have taken at maxPerSecond
+    private long budgetNanos;
+
+    /**
+     * @param maxPerSecond  the most units of work a second (0 or less for no limit)
+     */
+    public Pacer(int maxPerSecond) {
+        this.maxPerSecond = maxPerSecond;
+    }
+
+    /**
+     * Counts work just done, and sleeps for as long as that puts the job ahead of the rate.
+     *
+     * @param units     the units of work done since the last call
+     * @return          false if the thread was interrupted (now or before), in which case the job should stop
+     */
+    public boolean pace(long units) {
+        if (Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+        if (maxPerSecond <= 0) {
+            return true;
+        }
+        budgetNanos += units * TimeUnit.SECONDS.toNanos(1) / maxPerSecond;
+        long ahead = start + budgetNanos - System.nanoTime();
+        if (ahead > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(ahead);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,67 @@
+package io.roach.movrapi.util;
+
+import java.sql.Timestamp;
+
+/**
+ * A vehicle's positions, oldest first, held as parallel primitive arrays rather than an object per position.
+ *
+ * Timestamps are microseconds since the epoch (the precision the database stores them at), see toMicros.
+ */
+
+public final class Track {
+
+    private static final long MICROS_PER_SECOND = 1_000_000L;
+
+    private final int size;
+    private final long[] timestamps;
+    private final double[] latitudes;
+    private final double[] longitudes;
+
+    /**
+     * Wraps the arrays (without copying them).
+     *
+     * @param size          the number of positions (the arrays may be longer)
+     * @param timestamps    the timestamp of each position, in microseconds since the epoch, ascending
+     * @param latitudes     the latitude of each position
+     * @param longitudes    the longitude of each position
+     */
+    public Track(int size, long[] timestamps, double[] latitudes, double[] longitudes) {
+        if (timestamps.length < size || latitudes.length < size || longitudes.length < size) {
+            throw new IllegalArgumentException("arrays shorter than the track");
+        }
+        this.size = size;
+        this.timestamps = timestamps;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    public double[] getLatitudes() {
+        return latitudes;
+    }
+
+    public double[] getLongitudes() {
+        return longitudes;
+    }
+
+    public Timestamp getTimestamp(int i) {
+        return fromMicros(timestamps[i]);
+    }
+
+    public static long toMicros(Timestamp timestamp) {
+        return Math.floorDiv(timestamp.getTime(), 1000L) * MICROS_PER_SECOND + timestamp.getNanos() / 1000;
+    }
+
+    public static Timestamp fromMicros(long micros) {
+        Timestamp timestamp = new Timestamp(Math.floorDiv(micros, MICROS_PER_SECOND) * 1000L);
+        timestamp.setNanos((int) Math.floorMod(micros, MICROS_PER_SECOND) * 1000);
+        return timestamp;
+    }
+}
@@ -0,0 +1,154 @@
+package io.roach.movrapi.util;
+
+import java.util.Arrays;
+
+/**
+ * Packs a track into a block of bytes, and back.
+ *
+ * A block is the number of positions followed by three runs of variable-length integers (7 bits a byte, zigzag
+ * encoded so small negative numbers are short too): the timestamps, the latitudes and then the longitudes. Each run
+ * starts with the first value as it is; the timestamps (in microseconds) then carry the change in the gap between
+ * one position and the next, which is 0 (a single byte) for a vehicle reporting at a steady rate, and the coordinates
+ * carry the change from one position to the next, in fixed point of COORDINATE_SCALE units a degree (about a
+ * centimeter), which is a byte or two for a vehicle a few meters further on. Coordinates are rounded to that
+ * precision; timestamps are kept exactly.
+ *
+ * Decoding reads each run straight into a primitive array.
+ */
+
+public final class TrackBlockCodec {
+
+    public static final double COORDINATE_SCALE = 1e7;
+
+    private TrackBlockCodec() {}
+
+    /**
+     * Packs a track.
+     *
+     * @param track the positions, oldest first
+     * @return      the block
+     */
+    public static byte[] encode(Track track) {
+        int size = track.size();
+        // enough for most tracks (a timestamp rarely takes more than 2 bytes, a coordinate more than 3); grows if not
+        Writer out = new Writer(5 + size * 8);
+        out.writeUnsigned(size);
+        long[] timestamps = track.getTimestamps();
+        long previous = 0;
+        long previousGap = 0;
+        for (int i = 0; i < size; i++) {
+            long gap = timestamps[i] - previous;
+            out.writeSigned(i == 0 ? timestamps[0] : gap - previousGap);
+            previousGap = i == 0 ? 0 : gap;
+            previous = timestamps[i];
+        }
+        writeCoordinates(out, track.getLatitudes(), size);
+        writeCoordinates(out, track.getLongitudes(), size);
+        return out.toByteArray();
+    }
+
+    /**
+     * Unpacks a block.
+     *
+     * @param block the block, as returned by encode
+     * @return      the positions, oldest first
+     * @throws IllegalArgumentException if the block is cut short
+     */
+    public static Track decode(byte[] block) {
+        Reader in = new Reader(block);
+        int size = (int) in.readUnsigned();
+        long[] timestamps = new long[size];
+        long previous = 0;
+        long gap = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0) {
+                previous = in.readSigned();
+            } else {
+                gap += in.readSigned();
+                previous += gap;
+            }
+            timestamps[i] = previous;
+        }
+        double[] latitudes = readCoordinates(in, size);
+        double[] longitudes = readCoordinates(in, size);
+        return new Track(size, timestamps, latitudes, longitudes);
+    }
+
+    private static void writeCoordinates(Writer out, double[] coordinates, int size) {
+        long previous = 0;
+        for (int i = 0; i < size; i++) {
+            long value = Math.round(coordinates[i] * COORDINATE_SCALE);
+            out.writeSigned(value - previous);
+            previous = value;
+        }
+    }
+
+    private static double[] readCoordinates(Reader in, int size) {
+        double[] coordinates = new double[size];
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value += in.readSigned();
+            coordinates[i] = value / COORDINATE_SCALE;
+        }
+        return coordinates;
+    }
+
+    private static final class Writer {
+
+        private byte[] bytes;
+        private int length;
+
+        private Writer(int capacity) {
+            bytes = new byte[Math.max(16, capacity)];
+        }
+
+        private void writeSigned(long value) {
+            writeUnsigned((value << 1) ^ (value >> 63));
+        }
+
+        private void writeUnsigned(long value) {
+            if (length + 10 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            while ((value & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+
+    private static final class Reader {
+
+        private final byte[] bytes;
+        private int position;
+
+        private Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private long readSigned() {
+            long value = readUnsigned();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private long readUnsigned() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position == bytes.length) {
+                    throw new IllegalArgumentException("track block is cut short");
+                }
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("track block has a malformed number");
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package io.roach.movrapi.util;
+
+/**
+ * Thins out a track (points given as latitude/longitude in decimal degrees, in order) with the Douglas-Peucker
+ * algorithm: the first and last points are kept, and a point in between is only kept if leaving it out would move
+ * the track by more than a tolerance.
+ *
+ * Distances from a point to a segment are measured on a local flat projection around the segment (equirectangular,
+ * scaled to meters), which is accurate to well under a percent over the few kilometers between the points of a
+ * vehicle's track. The work is done on primitive arrays with an explicit stack, so long tracks don't recurse.
+ * For a track of n points this takes time in proportion to about n log n, or n² if every point is a corner.
+ */
+
+public final class TrackSimplifier {
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(Geodesy.EARTH_RADIUS_KM * 1000d);
+
+    private TrackSimplifier() {}
+
+    /**
+     * Works out which points of a track to keep.
+     *
+     * @param latitudes         latitude of each point
+     * @param longitudes        longitude of each point (same length as latitudes)
+     * @param toleranceMeters   how far the simplified track may be from any of the points left out
+     * @return                  for each point, whether it is kept (always the first and the last)
+     */
+    public static boolean[] simplify(double[] latitudes, double[] longitudes, double toleranceMeters) {
+        if (latitudes.length != longitudes.length) {
+            throw new IllegalArgumentException("latitudes and longitudes must have the same length");
+        }
+        int size = latitudes.length;
+        boolean[] keep = new boolean[size];
+        if (size == 0) {
+            return keep;
+        }
+        keep[0] = true;
+        keep[size - 1] = true;
+
+        // pairs of (first, last) indexes of the stretches still to be looked at
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = size - 1;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            int farthest = -1;
+            double farthestDistance = toleranceMeters;
+            for (int i = first + 1; i < last; i++) {
+                double distance = distanceToSegment(latitudes[i], longitudes[i],
+                    latitudes[first], longitudes[first], latitudes[last], longitudes[last]);
+                if (distance > farthestDistance) {
+                    farthest = i;
+                    farthestDistance = distance;
+                }
+            }
+            if (farthest < 0) {
+                continue;
+            }
+            keep[farthest] = true;
+            if (top + 4 > stack.length) {
+                int[] grown = new int[stack.length * 2];
+                System.arraycopy(stack, 0, grown, 0, top);
+                stack = grown;
+            }
+            stack[top++] = first;
+            stack[top++] = farthest;
+            stack[top++] = farthest;
+            stack[top++] = last;
+        }
+        return keep;
+    }
+
+    /**
+     * Distance from a point to the segment between two others, in meters.
+     */
+    static double distanceToSegment(double lat, double lon, double lat1, double lon1, double lat2, double lon2) {
+        double metersPerDegreeLongitude = METERS_PER_DEGREE * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        // the segment runs from the origin to (x2, y2)
+        double x2 = (lon2 - lon1) * metersPerDegreeLongitude;
+        double y2 = (lat2 - lat1) * METERS_PER_DEGREE;
+        double x = (lon - lon1) * metersPerDegreeLongitude;
+        double y = (lat - lat1) * METERS_PER_DEGREE;
+        double lengthSquared = x2 * x2 + y2 * y2;
+        // where the point projects onto the segment, clamped to its ends (a segment can also be a single point,
+        // when a vehicle comes back to where it was)
+        double t = lengthSquared == 0d ? 0d : Math.max(0d, Math.min(1d, (x * x2 + y * y2) / lengthSquared));
+        double dx = x - t * x2;
+        double dy = y - t * y2;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+}
@@ -0,0 +1,208 @@
+package io.roach.movrapi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Load generator for POST /api/vehicles/locations: a number of client threads each post batches of positions, spread
+ * over a set of vehicles, as fast as the server takes them, backing off briefly when it answers 429.
+ *
+ * Used by VehicleLocationsIngestTest against the application under test, and can be run on its own against a
+ * running instance:
+ *
+ *   java -cp target/test-classes:target/classes:... io.roach.movrapi.LocationLoadGenerator \
+ *       [base url] [seconds] [threads] [batch size]
+ *
+ * which drives the first 200 vehicles the instance lists (defaults: http://localhost:36257, 30 s, 8 threads, 1000
+ * positions per request).
+ */
+
+public class LocationLoadGenerator {
+
+    private static final long FIRST_TIMESTAMP = Timestamp.valueOf("2020-11-01 00:00:00").getTime();
+    private static final long BACKOFF_MILLIS = 10;
+
+    private final String locationsUrl;
+    private final List<UUID> vehicleIds;
+    private final int threads;
+    private final int batchSize;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+
+    public LocationLoadGenerator(String baseUrl, List<UUID> vehicleIds, int threads, int batchSize) {
+        this.locationsUrl = baseUrl + "/api/vehicles/locations";
+        this.vehicleIds = vehicleIds;
+        this.threads = threads;
+        this.batchSize = batchSize;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:36257";
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int batchSize = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+
+        List<UUID> vehicleIds = new ArrayList<>();
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + "/api/vehicles?max_vehicles=200")
+            .openConnection();
+        try (InputStream in = connection.getInputStream()) {
+            for (JsonNode vehicle : new ObjectMapper().readTree(in)) {
+                vehicleIds.add(UUID.fromString(vehicle.get("id").asText()));
+            }
+        }
+        if (vehicleIds.isEmpty()) {
+            throw new IllegalStateException("No vehicles at " + baseUrl);
+        }
+
+        Result result = new LocationLoadGenerator(baseUrl, vehicleIds, threads, batchSize).run(seconds * 1000L);
+        System.out.println(result);
+    }
+
+    /**
+     * Posts positions for a while.
+     *
+     * Every position has its own (vehicle, timestamp), so each accepted position adds a location history row.
+     *
+     * @param durationMillis    how long to keep posting
+     * @return                  what was sent, and how fast
+     */
+    public Result run(long durationMillis) throws Exception {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> clients = new ArrayList<>();
+        for (int thread = 0; thread < threads; thread++) {
+            int client = thread;
+            clients.add(executor.submit(() -> {
+                postUntil(client, deadline);
+                return null;
+            }));
+        }
+        executor.shutdown();
+        for (Future<?> client : clients) {
+            client.get();
+        }
+        return new Result(accepted.sum(), rejected.sum(), requests.sum(), System.nanoTime() - start);
+    }
+
+    private void postUntil(int client, long deadline) throws IOException, InterruptedException {
+        // client threads interleave their timestamps, so no two positions of a vehicle share one
+        long sequence = 0;
+        StringBuilder error = new StringBuilder();
+        while (System.nanoTime() < deadline) {
+            StringBuilder body = new StringBuilder(batchSize * 110).append('[');
+            for (int i = 0; i < batchSize; i++, sequence++) {
+                long step = sequence * threads + client;
+                UUID vehicleId = vehicleIds.get((int) (step % vehicleIds.size()));
+                long millis = FIRST_TIMESTAMP + step / vehicleIds.size();
+                if (i > 0) {
+                    body.append(',');
+                }
+                body.append("{\"vehicle_id\":\"").append(vehicleId)
+                    .append("\",\"ts\":\"").append(new Timestamp(millis))
+                    .append("\",\"lat\":\"").append(40.7 + (step % 1000) * 1e-5)
+                    .append("\",\"lon\":\"").append(-74.0 + (step % 1000) * 1e-5)
+                    .append("\"}");
+            }
+            body.append(']');
+
+            int status = post(body.toString().getBytes(StandardCharsets.UTF_8), error);
+            requests.increment();
+            if (status == 429) {
+                rejected.add(batchSize);
+                // these positions are skipped rather than sent again, which is fine for a load test
+                Thread.sleep(BACKOFF_MILLIS);
+            } else if (status == 200 || status == 202) {
+                accepted.add(batchSize);
+            } else {
+                throw new IllegalStateException("POST " + locationsUrl + " returned " + status + ": " + error);
+            }
+        }
+    }
+
+    private int post(byte[] body, StringBuilder error) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(locationsUrl).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setRequestProperty("Content-Type", "application/json");
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+        int status = connection.getResponseCode();
+        // read the response to the end, so the connection goes back to the keep-alive pool
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (in != null) {
+                byte[] buffer = new byte[1024];
+                for (int read; (read = in.read(buffer)) >= 0; ) {
+                    if (status >= 400) {
+                        error.append(new String(buffer, 0, read, StandardCharsets.UTF_8));
+                    }
+                }
+            }
+        }
+        return status;
+    }
+
+    /**
+     * The totals of a run.
+     */
+    public static final class Result {
+
+        private final long accepted;
+        private final long rejected;
+        private final long requests;
+        private final long elapsedNanos;
+
+        Result(long accepted, long rejected, long requests, long elapsedNanos) {
+            this.accepted = accepted;
+            this.rejected = rejected;
+            this.requests = requests;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getAccepted() {
+            return accepted;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public long getAcceptedPerSecond() {
+            return accepted * 1_000_000_000L / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d positions accepted (%d/s) and %d rejected in %d requests over %d ms",
+                accepted, getAcceptedPerSecond(), rejected, requests, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        }
+    }
+}
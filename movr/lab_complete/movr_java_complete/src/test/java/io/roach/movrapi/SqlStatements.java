@@ -0,0 +1,60 @@
+package io.roach.movrapi;
+
+import io.roach.movrapi.dao.StatementAccounting;
+import io.roach.movrapi.dao.StatementStats;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Counts the SQL statements a piece of a test runs (see StatementAccounting), for tests that check how many
+ * statements a controller or service method costs and that it doesn't load anything one row at a time.
+ */
+
+public final class SqlStatements {
+
+    // this class just contains static methods so don't allow it to be created
+    private SqlStatements() {
+    }
+
+    /**
+     * Runs some work on the current thread, counting the statements it runs.
+     *
+     * @param work          the work
+     * @return              the statements it ran
+     * @throws Throwable    what the work threw
+     */
+    public static StatementStats count(Executable work) throws Throwable {
+        StatementStats stats = StatementAccounting.begin();
+        try {
+            work.execute();
+        } finally {
+            StatementAccounting.end();
+        }
+        return stats;
+    }
+
+    /**
+     * Runs some work on the current thread, checking that it runs a number of statements, none of them twice.
+     *
+     * @param expected      the number of statements the work should run
+     * @param work          the work
+     * @throws Throwable    what the work threw
+     */
+    public static void assertStatements(int expected, Executable work) throws Throwable {
+        StatementStats stats = count(work);
+        assertEquals(expected, stats.getStatements(), "SQL statements run");
+        assertNoRepeats(stats);
+    }
+
+    /**
+     * Checks that no statement was run more than once, as a statement run once per row of another's result (an
+     * N+1 query) would be.
+     *
+     * @param stats     the statements run
+     */
+    public static void assertNoRepeats(StatementStats stats) {
+        assertTrue(stats.getMaxRepeats() <= 1,
+            "ran " + stats.getMaxRepeats() + " times: " + stats.getMostRepeated());
+    }
+}
@@ -0,0 +1,54 @@
+package io.roach.movrapi;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+/**
+ * Starts (once per test run) an embedded PostgreSQL database with the movr schema loaded, for tests
+ * that need to look at the statements the repositories actually send to the database.
+ */
+
+public final class TestDatabase {
+
+    private static final String SCHEMA = "schema-test.sql";
+
+    private static EmbeddedPostgres postgres;
+
+    // this class just contains static methods so don't allow it to be created
+    private TestDatabase() {
+    }
+
+    /**
+     * Points the Spring datasource at the embedded database (call from a @DynamicPropertySource method).
+     *
+     * @param registry  the registry to add the datasource properties to
+     * @throws IOException   if the database cannot be started
+     * @throws SQLException  if the schema cannot be loaded
+     */
+    public static void register(DynamicPropertyRegistry registry) throws IOException, SQLException {
+        String url = jdbcUrl();
+        registry.add("spring.datasource.url", () -> url);
+        registry.add("spring.datasource.username", () -> "postgres");
+        registry.add("spring.datasource.password", () -> "postgres");
+        registry.add("spring.jpa.database-platform", () -> "org.hibernate.dialect.CockroachDB201Dialect");
+        registry.add("spring.jpa.properties.hibernate.generate_statistics", () -> "true");
+        registry.add("logging.level.org.hibernate.engine.internal.StatisticalLoggingSessionEventListener",
+            () -> "WARN");
+    }
+
+    private static synchronized String jdbcUrl() throws IOException, SQLException {
+        if (postgres == null) {
+            postgres = EmbeddedPostgres.builder().start();
+            try (Connection connection = postgres.getPostgresDatabase().getConnection()) {
+                ScriptUtils.executeSqlScript(connection, new ClassPathResource(SCHEMA));
+            }
+        }
+        return postgres.getJdbcUrl("postgres", "postgres");
+    }
+}
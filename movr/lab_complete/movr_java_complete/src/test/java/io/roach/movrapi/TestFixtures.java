@@ -0,0 +1,155 @@
+package io.roach.movrapi;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Adds users, vehicles and location history straight to the test database (see TestDatabase), for the tests that
+ * need rows in place before they call the code under test.
+ */
+
+public final class TestFixtures {
+
+    public static final String VEHICLE_INFO = "{\"type\": \"scooter\"}";
+    public static final double START_LATITUDE = 40.7;
+    public static final double START_LONGITUDE = -74.0;
+    // about 11 m north
+    public static final double TRACK_STEP_DEGREES = 1e-4;
+
+    // this class just contains static methods so don't allow it to be created
+    private TestFixtures() {
+    }
+
+    /**
+     * Adds a user.
+     *
+     * @param jdbcTemplate  the template to write with
+     * @return              the new user's (random) email
+     */
+    public static String addUser(JdbcTemplate jdbcTemplate) {
+        String email = UUID.randomUUID() + "@test.com";
+        jdbcTemplate.update("INSERT INTO users (email, last_name, first_name) VALUES (?, 'Test', 'Rider')", email);
+        return email;
+    }
+
+    /**
+     * Adds a vehicle that isn't in use and has never checked in, so has no location.
+     *
+     * @param jdbcTemplate  the template to write with
+     * @return              the new vehicle's id
+     */
+    public static UUID addVehicle(JdbcTemplate jdbcTemplate) {
+        return addVehicleWithoutLocation(jdbcTemplate, VEHICLE_INFO);
+    }
+
+    /**
+     * Adds a vehicle that isn't in use and has never checked in, so has no location.
+     *
+     * @param jdbcTemplate  the template to write with
+     * @param vehicleInfo   its vehicle_info, as JSON
+     * @return              the new vehicle's id
+     */
+    public static UUID addVehicleWithoutLocation(JdbcTemplate jdbcTemplate, String vehicleInfo) {
+        UUID vehicleId = UUID.randomUUID();
+        jdbcTemplate.update("INSERT INTO vehicles (id, battery, in_use, vehicle_info) VALUES (?, 90, false, ?::jsonb)",
+            vehicleId, vehicleInfo);
+        return vehicleId;
+    }
+
+    /**
+     * Adds a vehicle that isn't in use, last seen at START_LATITUDE, START_LONGITUDE with a 90% battery.
+     *
+     * @param jdbcTemplate  the template to write with
+     * @param lastCheckin   when it was last seen, as yyyy-mm-dd hh:mm:ss (null for never)
+     * @return              the new vehicle's id
+     */
+    public static UUID addVehicle(JdbcTemplate jdbcTemplate, String lastCheckin) {
+        return addVehicle(jdbcTemplate, lastCheckin, 90);
+    }
+
+    /**
+     * Adds a vehicle that isn't in use, last seen at START_LATITUDE, START_LONGITUDE.
+     *
+     * @param jdbcTemplate  the template to write with
+     * @param lastCheckin   when it was last seen, as yyyy-mm-dd hh:mm:ss (null for never)
+     * @param battery       its battery level (percent)
+     * @return              the new vehicle's id
+     */
+    public static UUID addVehicle(JdbcTemplate jdbcTemplate, String lastCheckin, int battery) {
+        return addVehicle(jdbcTemplate, VEHICLE_INFO, battery, false, START_LATITUDE, START_LONGITUDE,
+            lastCheckin == null ? null : Timestamp.valueOf(lastCheckin));
+    }
+
+    /**
+     * Adds a vehicle with a 90% battery, last seen at the given position.
+     *
+     * @param jdbcTemplate  the template to write with
+     * @param vehicleInfo   its vehicle_info, as JSON
+     * @param inUse         whether it is in use
+     * @param latitude      its last latitude
+     * @param longitude     its last longitude
+     * @param lastCheckin   when it was last seen
+     * @return              the new vehicle's id
+     */
+    public static UUID addVehicle(JdbcTemplate jdbcTemplate, String vehicleInfo, boolean inUse, double latitude,
+                                  double longitude, Timestamp lastCheckin) {
+        return addVehicle(jdbcTemplate, vehicleInfo, 90, inUse, latitude, longitude, lastCheckin);
+    }
+
+    private static UUID addVehicle(JdbcTemplate jdbcTemplate, String vehicleInfo, int battery, boolean inUse,
+                                   double latitude, double longitude, Timestamp lastCheckin) {
+        UUID vehicleId = UUID.randomUUID();
+        jdbcTemplate.update("INSERT INTO vehicles (id, battery, in_use, vehicle_info, last_latitude, last_longitude, " +
+                "last_checkin) VALUES (?, ?, ?, ?::jsonb, ?, ?, ?)",
+            vehicleId, battery, inUse, vehicleInfo, latitude, longitude, lastCheckin);
+        return vehicleId;
+    }
+
+    /**
+     * Adds a track to a vehicle's location history, heading north from START_LATITUDE, START_LONGITUDE,
+     * TRACK_STEP_DEGREES at a time.
+     *
+     * @param jdbcTemplate      the template to write with
+     * @param vehicleId         the vehicle
+     * @param start             the time of the first point, as yyyy-mm-dd hh:mm:ss
+     * @param points            the number of points
+     * @param intervalMillis    the time between points
+     */
+    public static void addTrack(JdbcTemplate jdbcTemplate, UUID vehicleId, String start, int points,
+                                long intervalMillis) {
+        long startMillis = Timestamp.valueOf(start).getTime();
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < points; i++) {
+            rows.add(new Object[] { vehicleId, new Timestamp(startMillis + i * intervalMillis), START_LONGITUDE,
+                START_LATITUDE + i * TRACK_STEP_DEGREES });
+        }
+        addLocations(jdbcTemplate, rows);
+    }
+
+    /**
+     * Adds rows to the location history.
+     *
+     * @param jdbcTemplate  the template to write with
+     * @param rows          the rows, each vehicle id, timestamp, longitude, latitude
+     */
+    public static void addLocations(JdbcTemplate jdbcTemplate, List<Object[]> rows) {
+        jdbcTemplate.batchUpdate("INSERT INTO location_history (vehicle_id, ts, longitude, latitude) " +
+            "VALUES (?, ?, ?, ?)", rows);
+    }
+
+    /**
+     * Counts a vehicle's location history rows (not the packed or archived history).
+     *
+     * @param jdbcTemplate  the template to read with
+     * @param vehicleId     the vehicle
+     * @return              the number of rows
+     */
+    public static int historyRows(JdbcTemplate jdbcTemplate, UUID vehicleId) {
+        return jdbcTemplate.queryForObject("SELECT count(*) FROM location_history WHERE vehicle_id = ?",
+            Integer.class, vehicleId);
+    }
+}
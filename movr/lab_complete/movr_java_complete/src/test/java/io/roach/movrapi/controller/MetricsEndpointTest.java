@@ -0,0 +1,73 @@
+package io.roach.movrapi.controller;
+
+import java.util.UUID;
+
+import io.roach.movrapi.MovrApiApplication;
+import io.roach.movrapi.TestDatabase;
+import io.roach.movrapi.TestFixtures;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * Scrapes /actuator/prometheus after a couple of requests, checking that the HTTP, connection pool, Hibernate,
+ * service and application metrics are all there.
+ */
+
+@SpringBootTest(classes = MovrApiApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    properties = "management.endpoints.web.exposure.include=prometheus")
+@AutoConfigureMetrics
+public class MetricsEndpointTest {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @DynamicPropertySource
+    static void databaseProperties(DynamicPropertyRegistry registry) throws Exception {
+        TestDatabase.register(registry);
+    }
+
+    @Test
+    public void testPrometheusScrape() {
+
+        UUID vehicleId = TestFixtures.addVehicle(jdbcTemplate, "2020-11-01 09:00:00");
+        assertEquals(HttpStatus.OK,
+            restTemplate.getForEntity("/api/vehicles/{vehicleId}", String.class, vehicleId).getStatusCode());
+        assertEquals(HttpStatus.NOT_FOUND,
+            restTemplate.getForEntity("/api/vehicles/{vehicleId}", String.class, UUID.randomUUID()).getStatusCode());
+
+        ResponseEntity<String> response = restTemplate.getForEntity("/actuator/prometheus", String.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        String scrape = response.getBody();
+        // the latency of the requests, as a histogram
+        assertContains(scrape, "http_server_requests_seconds_bucket{");
+        assertContains(scrape, "uri=\"/api/vehicles/{vehicleId}\"");
+        assertContains(scrape, "hikaricp_connections_active{");
+        assertContains(scrape, "hibernate_statements_total{");
+        assertContains(scrape, "movr_service_seconds_count{method=\"getVehicleDetails\",outcome=\"ok\"," +
+            "service=\"VehicleService\",}");
+        assertContains(scrape, "movr_service_seconds_count{method=\"getVehicleDetails\"," +
+            "outcome=\"NotFoundException\",service=\"VehicleService\",}");
+        assertContains(scrape, "movr_cache_requests_total{cache=\"vehicles\",");
+        assertContains(scrape, "movr_ingest_depth_objects ");
+        assertContains(scrape, "movr_job_rows_total{action=\"packed\",job=\"packing\",}");
+        assertContains(scrape, "movr_job_runs_seconds_count{job=\"compaction\",}");
+        assertContains(scrape, "movr_transaction_attempts_total{attempts=\"1\",}");
+    }
+
+    private static void assertContains(String scrape, String metric) {
+        assertTrue(scrape.contains(metric), metric + " not in the scrape");
+    }
+}
@@ -0,0 +1,237 @@
+package io.roach.movrapi.controller;
+
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import javax.persistence.EntityManagerFactory;
+
+import io.roach.movrapi.MovrApiApplication;
+import io.roach.movrapi.TestDatabase;
+import io.roach.movrapi.TestFixtures;
+import io.roach.movrapi.dto.EndRideRequestDTO;
+import io.roach.movrapi.dto.LocationDetailsDTO;
+import io.roach.movrapi.dto.RideWithVehicleDTO;
+import io.roach.movrapi.dto.StartRideRequestDTO;
+import io.roach.movrapi.exception.InvalidUUIDException;
+import io.roach.movrapi.exception.InvalidValueException;
+import io.roach.movrapi.exception.InvalidVehicleStateException;
+import io.roach.movrapi.exception.NotFoundException;
+import io.roach.movrapi.service.RideService;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * Checks that listing a user's rides costs the same number of statements however many rides they have, and that
+ * starting and ending a ride are one statement each (and what those statements report).
+ */
+
+@SpringBootTest(classes = MovrApiApplication.class)
+public class RideControllerQueryCountTest {
+
+    private static final Timestamp TEST_RIDE_START = Timestamp.valueOf("2020-10-30 12:00:00");
+    private static final String VEHICLE_INFO = "{\"type\": \"scooter\", \"color\": \"red\"}";
+
+    @Autowired
+    private RideController rideController;
+
+    @Autowired
+    private RideService rideService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+
+    @DynamicPropertySource
+    static void databaseProperties(DynamicPropertyRegistry registry) throws Exception {
+        TestDatabase.register(registry);
+    }
+
+    @BeforeEach
+    public void init() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @Test
+    public void testGetRidesStatementCountIsConstant() throws NotFoundException {
+
+        String oneRideEmail = addUserWithRides(1, 1);
+        String manyRidesEmail = addUserWithRides(50, 10);
+
+        long oneRideStatements = countStatements(oneRideEmail, 1);
+        long manyRidesStatements = countStatements(manyRidesEmail, 50);
+
+        // one statement for the user check and one for the rides with their vehicles
+        assertEquals(2, oneRideStatements);
+        assertEquals(oneRideStatements, manyRidesStatements);
+    }
+
+    @Test
+    public void testGetRidesPassesVehicleInfoThrough() throws NotFoundException, JsonProcessingException {
+
+        String email = addUserWithRides(4, 2);
+
+        List<RideWithVehicleDTO> rides = rideController.getRides(email).getBody();
+        assertEquals(4, rides.size());
+        assertEquals("scooter", rides.get(0).getVehicleInfoFields().getType());
+
+        // the vehicle info is written into the response as a json object, not as a string
+        ObjectMapper objectMapper = new ObjectMapper().setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE);
+        JsonNode response = objectMapper.readTree(objectMapper.writeValueAsString(rides));
+        assertEquals("red", response.get(0).get("vehicle_info").get("color").asText());
+    }
+
+    @Test
+    public void testRideStartAndEndAreOneStatementEach()
+        throws NotFoundException, InvalidUUIDException, InvalidVehicleStateException, InvalidValueException {
+
+        String email = addUserWithRides(0, 0);
+        UUID vehicleId = addVehicleWithLocation();
+
+        statistics.clear();
+        rideController.startRide(startRideRequest(email, vehicleId));
+        assertEquals(1, statistics.getPrepareStatementCount());
+        // sent as an implicit transaction, which commits with the statement
+        assertEquals(0, statistics.getTransactionCount());
+        assertEquals(Boolean.TRUE, jdbcTemplate.queryForObject(
+            "SELECT in_use FROM vehicles WHERE id = ?", Boolean.class, vehicleId));
+
+        statistics.clear();
+        rideController.endRide(endRideRequest(email, vehicleId));
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertEquals(0, statistics.getTransactionCount());
+
+        // the vehicle was checked in where the ride ended, the ride has ended, and each step left a location behind
+        assertEquals(Boolean.FALSE, jdbcTemplate.queryForObject(
+            "SELECT in_use FROM vehicles WHERE id = ?", Boolean.class, vehicleId));
+        assertEquals(40.71, jdbcTemplate.queryForObject(
+            "SELECT last_latitude FROM vehicles WHERE id = ?", Double.class, vehicleId));
+        assertNotNull(jdbcTemplate.queryForObject(
+            "SELECT end_ts FROM rides WHERE vehicle_id = ? AND user_email = ?", Timestamp.class, vehicleId, email));
+        assertEquals(3, jdbcTemplate.queryForObject(
+            "SELECT count(*) FROM location_history WHERE vehicle_id = ?", Integer.class, vehicleId));
+    }
+
+    @Test
+    public void testRideEndReportsWhereTheRideStarted()
+        throws NotFoundException, InvalidUUIDException, InvalidVehicleStateException, InvalidValueException {
+
+        String email = addUserWithRides(0, 0);
+        UUID vehicleId = addVehicleWithLocation();
+        Timestamp startTime = new Timestamp(TEST_RIDE_START.getTime() + 60_000L);
+        Timestamp pingTime = new Timestamp(startTime.getTime() + 30_000L);
+
+        rideService.startRide(vehicleId, email, startTime);
+        // a position the vehicle reported during the ride moves its last location along
+        jdbcTemplate.update("INSERT INTO location_history (vehicle_id, ts, longitude, latitude) " +
+            "VALUES (?, ?, -73.95, 40.75)", vehicleId, pingTime);
+        jdbcTemplate.update("UPDATE vehicles SET last_latitude = 40.75, last_longitude = -73.95, last_checkin = ? " +
+            "WHERE id = ?", pingTime, vehicleId);
+
+        LocationDetailsDTO start = rideService.endRide(vehicleId, email, 80, 40.71, -74.01,
+            new Timestamp(pingTime.getTime() + 30_000L));
+        assertEquals(startTime, start.getTimestamp());
+        assertEquals(40.7, start.getLatitude());
+        assertEquals(-74.0, start.getLongitude());
+    }
+
+    @Test
+    public void testRideStatementsReportWhyNothingChanged() throws NotFoundException, InvalidUUIDException,
+        InvalidVehicleStateException, InvalidValueException {
+
+        String email = addUserWithRides(0, 0);
+        String otherEmail = addUserWithRides(0, 0);
+        UUID vehicleId = addVehicleWithLocation();
+        UUID vehicleWithoutLocationId = addVehicleWithoutLocation();
+
+        assertThrows(NotFoundException.class,
+            () -> rideController.startRide(startRideRequest("nobody@test.com", vehicleId)));
+        assertThrows(InvalidVehicleStateException.class,
+            () -> rideController.startRide(startRideRequest(email, vehicleWithoutLocationId)));
+        assertThrows(NotFoundException.class,
+            () -> rideController.endRide(endRideRequest(email, vehicleId)));
+
+        rideController.startRide(startRideRequest(email, vehicleId));
+        assertThrows(InvalidVehicleStateException.class,
+            () -> rideController.startRide(startRideRequest(otherEmail, vehicleId)));
+        assertThrows(NotFoundException.class,
+            () -> rideController.endRide(endRideRequest(otherEmail, vehicleId)));
+
+        // nothing was written by the failed statements
+        assertEquals(1, jdbcTemplate.queryForObject(
+            "SELECT count(*) FROM rides WHERE vehicle_id IN (?, ?)", Integer.class, vehicleId, vehicleWithoutLocationId));
+        assertEquals(2, jdbcTemplate.queryForObject(
+            "SELECT count(*) FROM location_history WHERE vehicle_id IN (?, ?)", Integer.class, vehicleId,
+            vehicleWithoutLocationId));
+    }
+
+    private UUID addVehicleWithLocation() {
+        UUID vehicleId = TestFixtures.addVehicle(jdbcTemplate, VEHICLE_INFO, false, TestFixtures.START_LATITUDE,
+            TestFixtures.START_LONGITUDE, TEST_RIDE_START);
+        TestFixtures.addLocations(jdbcTemplate, Collections.singletonList(new Object[] { vehicleId, TEST_RIDE_START,
+            TestFixtures.START_LONGITUDE, TestFixtures.START_LATITUDE }));
+        return vehicleId;
+    }
+
+    private UUID addVehicleWithoutLocation() {
+        return TestFixtures.addVehicleWithoutLocation(jdbcTemplate, VEHICLE_INFO);
+    }
+
+    private StartRideRequestDTO startRideRequest(String email, UUID vehicleId) {
+        StartRideRequestDTO startRideRequestDTO = new StartRideRequestDTO();
+        startRideRequestDTO.setEmail(email);
+        startRideRequestDTO.setVehicleId(vehicleId.toString());
+        return startRideRequestDTO;
+    }
+
+    private EndRideRequestDTO endRideRequest(String email, UUID vehicleId) {
+        EndRideRequestDTO endRideRequestDTO = new EndRideRequestDTO();
+        endRideRequestDTO.setEmail(email);
+        endRideRequestDTO.setVehicleId(vehicleId.toString());
+        endRideRequestDTO.setBattery("80");
+        endRideRequestDTO.setLatitude("40.71");
+        endRideRequestDTO.setLongitude("-74.01");
+        return endRideRequestDTO;
+    }
+
+    private long countStatements(String email, int expectedRides) throws NotFoundException {
+        statistics.clear();
+        List<RideWithVehicleDTO> rides = rideController.getRides(email).getBody();
+        assertEquals(expectedRides, rides.size());
+        return statistics.getPrepareStatementCount();
+    }
+
+    private String addUserWithRides(int rideCount, int vehicleCount) {
+
+        String email = TestFixtures.addUser(jdbcTemplate);
+        UUID[] vehicleIds = new UUID[vehicleCount];
+        for (int i = 0; i < vehicleCount; i++) {
+            vehicleIds[i] = TestFixtures.addVehicleWithoutLocation(jdbcTemplate, VEHICLE_INFO);
+        }
+        for (int i = 0; i < rideCount; i++) {
+            jdbcTemplate.update("INSERT INTO rides (id, vehicle_id, user_email, start_ts, end_ts) VALUES (?, ?, ?, ?, ?)",
+                UUID.randomUUID(), vehicleIds[i % vehicleCount], email,
+                new Timestamp(TEST_RIDE_START.getTime() + i * 60_000L),
+                new Timestamp(TEST_RIDE_START.getTime() + i * 60_000L + 30_000L));
+        }
+        return email;
+    }
+}
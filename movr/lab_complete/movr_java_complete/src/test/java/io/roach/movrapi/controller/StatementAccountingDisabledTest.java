@@ -0,0 +1,58 @@
+package io.roach.movrapi.controller;
+
+import io.roach.movrapi.MovrApiApplication;
+import io.roach.movrapi.TestDatabase;
+import io.roach.movrapi.TestFixtures;
+import static io.roach.movrapi.controller.StatementHeaderAdvice.MAX_REPEATS_HEADER;
+import static io.roach.movrapi.controller.StatementHeaderAdvice.MICROS_HEADER;
+import static io.roach.movrapi.controller.StatementHeaderAdvice.STATEMENTS_HEADER;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.context.ApplicationContext;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * Checks that with SQL statement accounting turned off, the filter and the header advice aren't there, so responses
+ * don't claim to have run no statements.
+ */
+
+@SpringBootTest(classes = MovrApiApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    properties = { "movr.sql-accounting.enabled=false", "movr.sql-accounting.response-header=true" })
+public class StatementAccountingDisabledTest {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @DynamicPropertySource
+    static void databaseProperties(DynamicPropertyRegistry registry) throws Exception {
+        TestDatabase.register(registry);
+    }
+
+    @Test
+    public void testNoAccountingWhenDisabled() {
+
+        assertEquals(0, applicationContext.getBeanNamesForType(StatementAccountingFilter.class).length);
+        assertEquals(0, applicationContext.getBeanNamesForType(StatementHeaderAdvice.class).length);
+
+        ResponseEntity<String> response = restTemplate.getForEntity("/api/vehicles/{id}", String.class,
+            TestFixtures.addVehicle(jdbcTemplate));
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertFalse(response.getHeaders().containsKey(STATEMENTS_HEADER));
+        assertFalse(response.getHeaders().containsKey(MICROS_HEADER));
+        assertFalse(response.getHeaders().containsKey(MAX_REPEATS_HEADER));
+    }
+}
@@ -0,0 +1,136 @@
+package io.roach.movrapi.controller;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.UUID;
+
+import io.roach.movrapi.MovrApiApplication;
+import io.roach.movrapi.SqlStatements;
+import io.roach.movrapi.TestDatabase;
+import io.roach.movrapi.TestFixtures;
+import io.roach.movrapi.dao.StatementStats;
+import static io.roach.movrapi.controller.StatementHeaderAdvice.MAX_REPEATS_HEADER;
+import static io.roach.movrapi.controller.StatementHeaderAdvice.MICROS_HEADER;
+import static io.roach.movrapi.controller.StatementHeaderAdvice.STATEMENTS_HEADER;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * Reads the SQL statement counts of requests from the debug response headers, checking that listing a user's rides
+ * and reading a vehicle with its history cost the same however many rides or positions there are, and that the test
+ * helper spots a statement run once per row.
+ */
+
+@SpringBootTest(classes = MovrApiApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    properties = "movr.sql-accounting.response-header=true")
+public class StatementAccountingTest {
+
+    private static final Timestamp TEST_START = Timestamp.valueOf("2020-11-02 12:00:00");
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private RideController rideController;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @DynamicPropertySource
+    static void databaseProperties(DynamicPropertyRegistry registry) throws Exception {
+        TestDatabase.register(registry);
+    }
+
+    @Test
+    public void testGetRidesHasNoNPlusOne() {
+
+        String oneRideEmail = addUserWithRides(1);
+        String manyRidesEmail = addUserWithRides(30);
+
+        ResponseEntity<String> oneRide = restTemplate.getForEntity("/api/rides?email={email}", String.class,
+            oneRideEmail);
+        ResponseEntity<String> manyRides = restTemplate.getForEntity("/api/rides?email={email}", String.class,
+            manyRidesEmail);
+
+        assertEquals(HttpStatus.OK, manyRides.getStatusCode());
+        // one statement for the user check and one for the rides with their vehicles
+        assertEquals("2", oneRide.getHeaders().getFirst(STATEMENTS_HEADER));
+        assertEquals("2", manyRides.getHeaders().getFirst(STATEMENTS_HEADER));
+        assertEquals("1", manyRides.getHeaders().getFirst(MAX_REPEATS_HEADER));
+        assertNotNull(manyRides.getHeaders().getFirst(MICROS_HEADER));
+    }
+
+    @Test
+    public void testGetVehicleWithHistoryHasNoNPlusOne() {
+
+        // warms up what the history reads look up once in a while (the packed history watermark)
+        getVehicle(addVehicleWithHistory(1));
+        ResponseEntity<String> shortHistory = getVehicle(addVehicleWithHistory(1));
+        ResponseEntity<String> longHistory = getVehicle(addVehicleWithHistory(50));
+
+        assertEquals(HttpStatus.OK, longHistory.getStatusCode());
+        assertEquals(shortHistory.getHeaders().getFirst(STATEMENTS_HEADER),
+            longHistory.getHeaders().getFirst(STATEMENTS_HEADER));
+        assertEquals("1", longHistory.getHeaders().getFirst(MAX_REPEATS_HEADER));
+    }
+
+    @Test
+    public void testErrorResponsesAreCounted() {
+
+        ResponseEntity<String> response = restTemplate.getForEntity("/api/rides?email={email}", String.class,
+            "nobody@test.com");
+
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+        assertEquals("1", response.getHeaders().getFirst(STATEMENTS_HEADER));
+    }
+
+    @Test
+    public void testHelperSpotsRepeatedStatements() throws Throwable {
+
+        String email = addUserWithRides(3);
+        SqlStatements.assertStatements(2, () -> rideController.getRides(email));
+
+        // the rides' vehicles loaded one at a time, as a lazy association would
+        List<UUID> vehicleIds = jdbcTemplate.queryForList("SELECT vehicle_id FROM rides WHERE user_email = ?",
+            UUID.class, email);
+        StatementStats stats = SqlStatements.count(() -> {
+            for (UUID vehicleId : vehicleIds) {
+                jdbcTemplate.queryForObject("SELECT battery FROM vehicles WHERE id = ?", Integer.class, vehicleId);
+            }
+        });
+        assertEquals(3, stats.getStatements());
+        assertEquals(3, stats.getMaxRepeats());
+        assertEquals("SELECT battery FROM vehicles WHERE id = ?", stats.getMostRepeated());
+    }
+
+    private ResponseEntity<String> getVehicle(UUID vehicleId) {
+        return restTemplate.getForEntity("/api/vehicles/{vehicleId}", String.class, vehicleId);
+    }
+
+    private UUID addVehicleWithHistory(int positions) {
+        Timestamp lastCheckin = new Timestamp(TEST_START.getTime() + (positions - 1) * 1000L);
+        UUID vehicleId = TestFixtures.addVehicle(jdbcTemplate, lastCheckin.toString());
+        TestFixtures.addTrack(jdbcTemplate, vehicleId, TEST_START.toString(), positions, 1000);
+        return vehicleId;
+    }
+
+    private String addUserWithRides(int rideCount) {
+        String email = TestFixtures.addUser(jdbcTemplate);
+        for (int i = 0; i < rideCount; i++) {
+            jdbcTemplate.update("INSERT INTO rides (id, vehicle_id, user_email, start_ts, end_ts) VALUES (?, ?, ?, ?, ?)",
+                UUID.randomUUID(), TestFixtures.addVehicle(jdbcTemplate), email,
+                new Timestamp(TEST_START.getTime() + i * 60_000L),
+                new Timestamp(TEST_START.getTime() + i * 60_000L + 30_000L));
+        }
+        return email;
+    }
+}
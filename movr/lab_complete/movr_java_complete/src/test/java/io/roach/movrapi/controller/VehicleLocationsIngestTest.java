@@ -0,0 +1,158 @@
+package io.roach.movrapi.controller;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import io.roach.movrapi.LocationLoadGenerator;
+import io.roach.movrapi.MovrApiApplication;
+import io.roach.movrapi.TestDatabase;
+import io.roach.movrapi.TestFixtures;
+import io.roach.movrapi.dto.LocationPingDTO;
+import io.roach.movrapi.service.LocationIngestBuffer;
+import io.roach.movrapi.service.VehicleService;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * Posts vehicle positions to /api/vehicles/locations over HTTP, checking what ends up in the location history and
+ * on the vehicles, and runs the load generator against it for a few seconds, logging the throughput.
+ */
+
+@SpringBootTest(classes = MovrApiApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class VehicleLocationsIngestTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(VehicleLocationsIngestTest.class);
+
+    private static final int LOAD_VEHICLES = 1000;
+    private static final int LOAD_THREADS = 8;
+    private static final int LOAD_BATCH_SIZE = 1000;
+    private static final long LOAD_DURATION_MS = 5000;
+    private static final int LOAD_BATTERY = 50;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private LocationIngestBuffer locationIngestBuffer;
+
+    @Autowired
+    private VehicleService vehicleService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @DynamicPropertySource
+    static void databaseProperties(DynamicPropertyRegistry registry) throws Exception {
+        TestDatabase.register(registry);
+    }
+
+    @Test
+    public void testDurableLocationsAreWrittenAndMoveVehicles() {
+
+        UUID vehicleId = TestFixtures.addVehicle(jdbcTemplate, "2020-11-01 09:00:00");
+        UUID otherVehicleId = TestFixtures.addVehicle(jdbcTemplate, null);
+        List<LocationPingDTO> locations = Arrays.asList(
+            new LocationPingDTO(vehicleId.toString(), "2020-11-01 10:00:02", "40.72", "-74.02"),
+            new LocationPingDTO(vehicleId.toString(), "2020-11-01 10:00:01", "40.71", "-74.01"),
+            new LocationPingDTO(otherVehicleId.toString(), "2020-11-01 10:00:01", "41.5", "-73.5"),
+            // unknown vehicles are skipped
+            new LocationPingDTO(UUID.randomUUID().toString(), "2020-11-01 10:00:01", "41.5", "-73.5"));
+
+        ResponseEntity<String> response = post(locations, true);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(2, TestFixtures.historyRows(jdbcTemplate, vehicleId));
+        assertEquals(1, TestFixtures.historyRows(jdbcTemplate, otherVehicleId));
+        // each vehicle moved to its latest position, as far as the database and the nearby index are concerned
+        assertEquals(40.72, jdbcTemplate.queryForObject(
+            "SELECT last_latitude FROM vehicles WHERE id = ?", Double.class, vehicleId));
+        assertEquals(41.5, jdbcTemplate.queryForObject(
+            "SELECT last_latitude FROM vehicles WHERE id = ?", Double.class, otherVehicleId));
+        assertTrue(vehicleService.getNearbyVehicles(41.5, -73.5, 10, false, 10).stream()
+            .anyMatch(vehicle -> vehicle.getId().equals(otherVehicleId)));
+
+        // sending the same positions again changes nothing, and an older position doesn't move the vehicle back
+        assertEquals(HttpStatus.OK, post(locations, true).getStatusCode());
+        assertEquals(HttpStatus.OK, post(Arrays.asList(
+            new LocationPingDTO(vehicleId.toString(), "2020-11-01 09:30:00", "40.0", "-74.0")), true).getStatusCode());
+        assertEquals(3, TestFixtures.historyRows(jdbcTemplate, vehicleId));
+        assertEquals(40.72, jdbcTemplate.queryForObject(
+            "SELECT last_latitude FROM vehicles WHERE id = ?", Double.class, vehicleId));
+    }
+
+    @Test
+    public void testInvalidLocationRejectsBatch() {
+
+        UUID vehicleId = TestFixtures.addVehicle(jdbcTemplate, "2020-11-01 09:00:00");
+        List<String[]> invalid = Arrays.asList(
+            new String[] { "not-a-uuid", "2020-11-01 10:00:00", "40.7", "-74.0" },
+            new String[] { vehicleId.toString(), "yesterday", "40.7", "-74.0" },
+            new String[] { vehicleId.toString(), "2020-11-01 10:00:00", "91", "-74.0" },
+            new String[] { vehicleId.toString(), "2020-11-01 10:00:00", "40.7", null },
+            // a position from the future would stop the vehicle from ever moving again
+            new String[] { vehicleId.toString(), "2999-01-01 00:00:00", "40.7", "-74.0" });
+        for (String[] fields : invalid) {
+            ResponseEntity<String> response = post(Arrays.asList(
+                new LocationPingDTO(vehicleId.toString(), "2020-11-01 10:00:01", "40.7", "-74.0"),
+                new LocationPingDTO(fields[0], fields[1], fields[2], fields[3])), true);
+            assertTrue(response.getStatusCode().is4xxClientError(), () -> Arrays.toString(fields));
+            assertTrue(response.getBody().contains("messages"), response.getBody());
+        }
+
+        // as is a batch with a hole in it
+        ResponseEntity<String> response = post(Arrays.asList(
+            new LocationPingDTO(vehicleId.toString(), "2020-11-01 10:00:01", "40.7", "-74.0"), null), true);
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals(0, TestFixtures.historyRows(jdbcTemplate, vehicleId));
+    }
+
+    @Test
+    public void testLoadGenerator() throws Exception {
+
+        List<UUID> vehicleIds = new ArrayList<>();
+        for (int i = 0; i < LOAD_VEHICLES; i++) {
+            // the load test's vehicles are told apart from the others' by their battery level
+            vehicleIds.add(TestFixtures.addVehicle(jdbcTemplate, null, LOAD_BATTERY));
+        }
+        long writtenBefore = locationIngestBuffer.getStats().getWritten();
+
+        long start = System.nanoTime();
+        LocationLoadGenerator.Result result = new LocationLoadGenerator("http://localhost:" + port, vehicleIds,
+            LOAD_THREADS, LOAD_BATCH_SIZE).run(LOAD_DURATION_MS);
+        while (locationIngestBuffer.getDepth() > 0) {
+            Thread.sleep(10);
+        }
+        long elapsedNanos = System.nanoTime() - start;
+
+        // every position that was accepted was written, once
+        assertTrue(result.getAccepted() > 0);
+        assertEquals(result.getAccepted(), locationIngestBuffer.getStats().getWritten() - writtenBefore);
+        assertEquals(result.getAccepted(), (long) jdbcTemplate.queryForObject(
+            "SELECT count(*) FROM location_history WHERE vehicle_id IN (SELECT id FROM vehicles WHERE battery = ?)",
+            Long.class, LOAD_BATTERY));
+        LocationIngestBuffer.Stats stats = locationIngestBuffer.getStats();
+        logger.info("{}; all written in {} ms, {} positions/s; {} flushes, at most {} ms each", result,
+            elapsedNanos / 1_000_000, result.getAccepted() * 1_000_000_000L / elapsedNanos, stats.getFlushes(),
+            stats.getMaxFlushNanos() / 1_000_000);
+    }
+
+    private ResponseEntity<String> post(List<LocationPingDTO> locations, boolean durable) {
+        return restTemplate.postForEntity("/api/vehicles/locations?durable=" + durable, locations, String.class);
+    }
+}
@@ -0,0 +1,113 @@
+package io.roach.movrapi.dao;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.UUID;
+
+import io.roach.movrapi.MovrApiApplication;
+import io.roach.movrapi.TestDatabase;
+import io.roach.movrapi.TestFixtures;
+import io.roach.movrapi.exception.NotFoundException;
+import io.roach.movrapi.service.VehicleService;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.interceptor.RuleBasedTransactionAttribute;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Checks which transactions FollowerReadTransactionManager runs AS OF SYSTEM TIME.
+ *
+ * The test database is PostgreSQL, which rejects AS OF SYSTEM TIME, so a follower read shows up here as a syntax
+ * error when its transaction begins.
+ */
+
+@SpringBootTest(classes = MovrApiApplication.class)
+public class FollowerReadTransactionManagerTest {
+
+    @Autowired
+    private VehicleService vehicleService;
+
+    @Autowired
+    private FollowerReadTransactionManager transactionManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @DynamicPropertySource
+    static void databaseProperties(DynamicPropertyRegistry registry) throws Exception {
+        TestDatabase.register(registry);
+        registry.add("movr.follower-reads.enabled", () -> "true");
+    }
+
+    @Test
+    public void testLabels() {
+
+        assertEquals("follower_read_timestamp()",
+            FollowerReadTransactionManager.asOfSystemTime(readOnly(FollowerReadTransactionManager.FOLLOWER_READ)));
+        assertEquals("'-10s'",
+            FollowerReadTransactionManager.asOfSystemTime(readOnly(FollowerReadTransactionManager.STALENESS + "10s")));
+        assertNull(FollowerReadTransactionManager.asOfSystemTime(readOnly()));
+
+        // writes always read the current data
+        RuleBasedTransactionAttribute readWrite = readOnly(FollowerReadTransactionManager.FOLLOWER_READ);
+        readWrite.setReadOnly(false);
+        assertNull(FollowerReadTransactionManager.asOfSystemTime(readWrite));
+
+        assertThrows(IllegalArgumentException.class, () -> FollowerReadTransactionManager.asOfSystemTime(
+            readOnly(FollowerReadTransactionManager.STALENESS + "10s'; DROP TABLE vehicles; --")));
+    }
+
+    @Test
+    public void testLabelledTransactionStartsAsOfSystemTime() throws NotFoundException {
+
+        CannotCreateTransactionException e = assertThrows(CannotCreateTransactionException.class,
+            () -> vehicleService.getVehicles(10));
+        assertTrue(e.getCause() instanceof SQLException);
+        assertTrue(e.getCause().getMessage().contains("syntax error"), e.getCause().getMessage());
+
+        // the failed transaction was cleaned up, and other transactions run normally
+        assertTrue(TransactionSynchronizationManager.getResourceMap().isEmpty());
+        UUID vehicleId = TestFixtures.addVehicle(jdbcTemplate);
+        assertEquals(vehicleId, vehicleService.getVehicleDetails(vehicleId).getId());
+    }
+
+    @Test
+    public void testBadLabelDoesNotLeaveATransactionBehind() throws NotFoundException {
+
+        assertThrows(IllegalArgumentException.class,
+            () -> transactionManager.getTransaction(readOnly(FollowerReadTransactionManager.STALENESS + "soon")));
+
+        // no connection was bound to the thread, and other transactions run normally
+        assertTrue(TransactionSynchronizationManager.getResourceMap().isEmpty());
+        assertFalse(TransactionSynchronizationManager.isActualTransactionActive());
+        UUID vehicleId = TestFixtures.addVehicle(jdbcTemplate);
+        assertEquals(vehicleId, vehicleService.getVehicleDetails(vehicleId).getId());
+    }
+
+    @Test
+    public void testLabelIsIgnoredInsideAnotherTransaction() {
+
+        // a follower read can only start a transaction, so here the vehicles are read in the caller's transaction
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        assertTrue(transactionTemplate.execute(status -> vehicleService.getVehicles(10)).size() <= 10);
+    }
+
+    private RuleBasedTransactionAttribute readOnly(String... labels) {
+        RuleBasedTransactionAttribute attribute = new RuleBasedTransactionAttribute();
+        attribute.setReadOnly(true);
+        attribute.setLabels(Arrays.asList(labels));
+        return attribute;
+    }
+}
@@ -0,0 +1,111 @@
+package io.roach.movrapi.dao;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import io.roach.movrapi.MovrApiApplication;
+import io.roach.movrapi.TestDatabase;
+import io.roach.movrapi.TestFixtures;
+import io.roach.movrapi.dto.NearbyVehicleDTO;
+import io.roach.movrapi.dto.VehicleLocationDTO;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Writes a bulk of location history as a single statement of arrays (insertLocations), logging the throughput, and
+ * moves the vehicles to their latest positions (updateLastLocations).
+ */
+
+@SpringBootTest(classes = MovrApiApplication.class)
+public class LocationHistoryBatchWriterTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocationHistoryBatchWriterTest.class);
+
+    private static final int VEHICLES = 10;
+    private static final int POINTS = 5000;
+    private static final long FIRST_TIMESTAMP = Timestamp.valueOf("2020-10-30 12:00:00").getTime();
+
+    @Autowired
+    private LocationHistoryBatchWriter locationHistoryBatchWriter;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @DynamicPropertySource
+    static void databaseProperties(DynamicPropertyRegistry registry) throws Exception {
+        TestDatabase.register(registry);
+    }
+
+    @Test
+    public void testInsertLocations() {
+
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        // warm up
+        UUID[] warmUpVehicleIds = addVehicles();
+        transactionTemplate.executeWithoutResult(status ->
+            locationHistoryBatchWriter.insertLocations(vehicleLocations(warmUpVehicleIds)));
+
+        UUID[] vehicleIds = addVehicles();
+        List<VehicleLocationDTO> locations = vehicleLocations(vehicleIds);
+        // a position of a vehicle that doesn't exist is skipped, as is one that is already recorded
+        locations.add(new VehicleLocationDTO(UUID.randomUUID(), new Timestamp(FIRST_TIMESTAMP), 40.7, -74.0));
+        locations.add(locations.get(0));
+        long start = System.nanoTime();
+        int inserted = transactionTemplate.execute(status -> locationHistoryBatchWriter.insertLocations(locations));
+        long elapsedNanos = System.nanoTime() - start;
+
+        assertEquals(POINTS, inserted);
+        int rows = 0;
+        for (UUID vehicleId : vehicleIds) {
+            rows += jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM location_history WHERE vehicle_id = ?", Integer.class, vehicleId);
+        }
+        assertEquals(POINTS, rows);
+        logger.info("As arrays: {} rows in {} ms, {} rows/s", POINTS, elapsedNanos / 1_000_000,
+            POINTS * 1_000_000_000L / elapsedNanos);
+
+        // only the vehicles whose position is newer than the one they have are moved
+        List<VehicleLocationDTO> latest = new ArrayList<>();
+        latest.add(new VehicleLocationDTO(vehicleIds[0], new Timestamp(FIRST_TIMESTAMP), 41.0, -73.0));
+        latest.add(new VehicleLocationDTO(vehicleIds[1], new Timestamp(FIRST_TIMESTAMP), 41.0, -73.0));
+        jdbcTemplate.update("UPDATE vehicles SET last_checkin = ? WHERE id = ?",
+            new Timestamp(FIRST_TIMESTAMP + 1000), vehicleIds[1]);
+        List<NearbyVehicleDTO> moved = transactionTemplate.execute(status ->
+            locationHistoryBatchWriter.updateLastLocations(latest));
+        assertEquals(1, moved.size());
+        assertEquals(vehicleIds[0], moved.get(0).getId());
+        assertEquals(41.0, moved.get(0).getLastLatitude());
+        assertEquals(new Timestamp(FIRST_TIMESTAMP), moved.get(0).getTimestamp());
+    }
+
+    private UUID[] addVehicles() {
+        UUID[] vehicleIds = new UUID[VEHICLES];
+        for (int i = 0; i < VEHICLES; i++) {
+            vehicleIds[i] = TestFixtures.addVehicle(jdbcTemplate);
+        }
+        return vehicleIds;
+    }
+
+    private List<VehicleLocationDTO> vehicleLocations(UUID[] vehicleIds) {
+        List<VehicleLocationDTO> locations = new ArrayList<>();
+        for (int i = 0; i < POINTS; i++) {
+            locations.add(new VehicleLocationDTO(vehicleIds[i % VEHICLES], new Timestamp(FIRST_TIMESTAMP + i * 1000L),
+                40.7 + i * 1e-5, -74.0 + i * 1e-5));
+        }
+        return locations;
+    }
+}
@@ -0,0 +1,124 @@
+package io.roach.movrapi.dao;
+
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import javax.persistence.EntityManagerFactory;
+
+import io.roach.movrapi.MovrApiApplication;
+import io.roach.movrapi.TestDatabase;
+import io.roach.movrapi.TestFixtures;
+import io.roach.movrapi.controller.RideController;
+import io.roach.movrapi.controller.UserController;
+import io.roach.movrapi.controller.VehicleController;
+import io.roach.movrapi.dto.UserDTO;
+import io.roach.movrapi.dto.VehicleWithHistoryDTO;
+import io.roach.movrapi.dto.VehicleWithLocationDTO;
+import io.roach.movrapi.exception.InvalidUUIDException;
+import io.roach.movrapi.exception.InvalidValueException;
+import io.roach.movrapi.exception.NotFoundException;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * Checks that the read endpoints are answered by the projection queries, without loading any entities.
+ */
+
+@SpringBootTest(classes = MovrApiApplication.class)
+public class ProjectionQueryTest {
+
+    private static final Timestamp TEST_CHECKIN = Timestamp.valueOf("2020-10-30 12:00:00");
+    private static final String VEHICLE_INFO =
+        "{\"type\": \"scooter\", \"purchase_information\": {\"serial_number\": 4242}}";
+    private static final double TEST_LAT = 40.123d;
+    private static final double TEST_LON = -74.654d;
+
+    @Autowired
+    private VehicleController vehicleController;
+
+    @Autowired
+    private RideController rideController;
+
+    @Autowired
+    private UserController userController;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+
+    @DynamicPropertySource
+    static void databaseProperties(DynamicPropertyRegistry registry) throws Exception {
+        TestDatabase.register(registry);
+    }
+
+    @BeforeEach
+    public void init() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @Test
+    public void testVehicleEndpoints() throws InvalidValueException, InvalidUUIDException, NotFoundException {
+
+        UUID vehicleId = addVehicle();
+
+        statistics.clear();
+        List<VehicleWithLocationDTO> vehicles = vehicleController.getVehiclesWithLocation(200, null).getBody();
+        VehicleWithLocationDTO vehicle = vehicles.stream().filter(v -> v.getId().equals(vehicleId)).findFirst().get();
+        assertEquals(4242, vehicle.getSerialNumber());
+        assertEquals("4242", vehicle.getVehicleInfoFields().getSerialNumber());
+        assertEquals("scooter", vehicle.getVehicleInfoFields().getType());
+        assertEquals(TEST_LAT, vehicle.getLastLatitude());
+        assertEquals(TEST_CHECKIN, vehicle.getTimestamp());
+
+        VehicleWithHistoryDTO vehicleWithHistory =
+            vehicleController.getVehicleWithHistory(vehicleId.toString(), null, null).getBody();
+        assertEquals(vehicleId, vehicleWithHistory.getId());
+        assertEquals(1, vehicleWithHistory.getLocationDetailsDTOList().size());
+        assertEquals(TEST_LON, vehicleWithHistory.getLocationDetailsDTOList().get(0).getLongitude());
+
+        assertEquals(0, statistics.getEntityLoadCount());
+    }
+
+    @Test
+    public void testUserAndRideEndpoints() throws InvalidUUIDException, NotFoundException {
+
+        UUID vehicleId = addVehicle();
+        String email = UUID.randomUUID() + "@test.com";
+        jdbcTemplate.update("INSERT INTO users (email, last_name, first_name, phone_numbers) " +
+            "VALUES (?, 'Test', 'Rider', ARRAY['404-555-1212'])", email);
+        jdbcTemplate.update("INSERT INTO rides (id, vehicle_id, user_email, start_ts) VALUES (?, ?, ?, ?)",
+            UUID.randomUUID(), vehicleId, email, TEST_CHECKIN);
+
+        statistics.clear();
+        UserDTO userDTO = userController.getProfile(email).getBody().getUserDTO();
+        assertEquals("Rider", userDTO.getFirstName());
+        assertEquals("404-555-1212", userDTO.getPhoneNumbers().get(0));
+
+        VehicleWithLocationDTO vehicle = rideController.getActiveRide(vehicleId.toString(), email).getBody();
+        assertEquals(vehicleId, vehicle.getId());
+        assertTrue(vehicle.isInUse());
+
+        assertEquals(0, statistics.getEntityLoadCount());
+    }
+
+    private UUID addVehicle() {
+        UUID vehicleId = TestFixtures.addVehicle(jdbcTemplate, VEHICLE_INFO, true, TEST_LAT, TEST_LON, TEST_CHECKIN);
+        TestFixtures.addLocations(jdbcTemplate,
+            Collections.singletonList(new Object[] { vehicleId, TEST_CHECKIN, TEST_LON, TEST_LAT }));
+        return vehicleId;
+    }
+}
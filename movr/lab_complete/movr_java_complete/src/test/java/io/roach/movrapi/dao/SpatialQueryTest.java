@@ -0,0 +1,182 @@
+package io.roach.movrapi.dao;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import javax.persistence.EntityManagerFactory;
+
+import io.roach.movrapi.MovrApiApplication;
+import io.roach.movrapi.TestDatabase;
+import io.roach.movrapi.TestFixtures;
+import io.roach.movrapi.controller.VehicleController;
+import io.roach.movrapi.dto.VehicleWithLocationDTO;
+import io.roach.movrapi.exception.InvalidValueException;
+import io.roach.movrapi.util.Geodesy;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * Checks the radius and viewport queries on the vehicles' current location.
+ *
+ * The embedded database stands in for the spatial functions (see schema-test.sql), so this covers the queries and
+ * their result mapping, not CockroachDB's spatial index.
+ */
+
+@SpringBootTest(classes = MovrApiApplication.class)
+public class SpatialQueryTest {
+
+    private static final Timestamp TEST_CHECKIN = Timestamp.valueOf("2020-10-30 12:00:00");
+    private static final String VEHICLE_INFO = "{\"type\": \"scooter\", \"color\": \"red\"}";
+    // a grid of vehicles 0.01 degrees apart, away from where the other tests put theirs
+    private static final double GRID_SOUTH = 10d;
+    private static final double GRID_WEST = 20d;
+    private static final int GRID_SIZE = 10;
+    private static final double GRID_STEP = 0.01d;
+
+    @Autowired
+    private VehicleController vehicleController;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+
+    @DynamicPropertySource
+    static void databaseProperties(DynamicPropertyRegistry registry) throws Exception {
+        TestDatabase.register(registry);
+    }
+
+    @BeforeEach
+    public void init() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        jdbcTemplate.update("DELETE FROM vehicles WHERE last_latitude BETWEEN ? AND ? AND last_longitude BETWEEN ? AND ?",
+            GRID_SOUTH - 1, GRID_SOUTH + 1, GRID_WEST - 1, GRID_WEST + 1);
+        for (int i = 0; i < GRID_SIZE; i++) {
+            for (int j = 0; j < GRID_SIZE; j++) {
+                TestFixtures.addVehicle(jdbcTemplate, VEHICLE_INFO, false, GRID_SOUTH + i * GRID_STEP,
+                    GRID_WEST + j * GRID_STEP, TEST_CHECKIN);
+            }
+        }
+    }
+
+    @Test
+    public void testVehiclesWithinRadius() throws InvalidValueException {
+
+        double latitude = GRID_SOUTH + 4.5 * GRID_STEP;
+        double longitude = GRID_WEST + 4.5 * GRID_STEP;
+
+        statistics.clear();
+        // the 4 x 4 vehicles around the center are at most about 2.35 km away, the next ones out about 2.8 km
+        List<VehicleWithLocationDTO> vehicles = vehicleController.getVehiclesWithinRadius(
+            String.valueOf(latitude), String.valueOf(longitude), 2500, 200).getBody();
+        assertEquals(0, statistics.getEntityLoadCount());
+
+        assertEquals(16, vehicles.size());
+        double previousDistance = 0d;
+        for (VehicleWithLocationDTO vehicle : vehicles) {
+            double distance = Geodesy.haversine(latitude, longitude, vehicle.getLastLatitude(),
+                vehicle.getLastLongitude());
+            assertTrue(distance <= 2.5d);
+            assertTrue(distance >= previousDistance);
+            previousDistance = distance;
+            assertEquals(TEST_CHECKIN, vehicle.getTimestamp());
+            assertEquals("red", vehicle.getVehicleInfoFields().getColor());
+        }
+
+        // nearest first, so a smaller limit keeps the closest ones
+        List<VehicleWithLocationDTO> nearest = vehicleController.getVehiclesWithinRadius(
+            String.valueOf(latitude), String.valueOf(longitude), 2500, 4).getBody();
+        assertEquals(vehicles.subList(0, 4).stream().map(VehicleWithLocationDTO::getId).collect(Collectors.toSet()),
+            nearest.stream().map(VehicleWithLocationDTO::getId).collect(Collectors.toSet()));
+    }
+
+    @Test
+    public void testVehiclesInViewport() throws InvalidValueException {
+
+        double south = GRID_SOUTH + 1.5 * GRID_STEP;
+        double north = GRID_SOUTH + 4.5 * GRID_STEP;
+        double west = GRID_WEST + 2.5 * GRID_STEP;
+        double east = GRID_WEST + 7.5 * GRID_STEP;
+
+        statistics.clear();
+        List<VehicleWithLocationDTO> vehicles = vehicleController.getVehiclesInViewport(String.valueOf(south),
+            String.valueOf(west), String.valueOf(north), String.valueOf(east), null).getBody();
+        assertEquals(0, statistics.getEntityLoadCount());
+
+        // rows 2-4, columns 3-7
+        assertEquals(15, vehicles.size());
+        for (VehicleWithLocationDTO vehicle : vehicles) {
+            assertTrue(vehicle.getLastLatitude() >= south && vehicle.getLastLatitude() <= north);
+            assertTrue(vehicle.getLastLongitude() >= west && vehicle.getLastLongitude() <= east);
+        }
+
+        assertEquals(5, vehicleController.getVehiclesInViewport(String.valueOf(south), String.valueOf(west),
+            String.valueOf(north), String.valueOf(east), 5).getBody().size());
+
+        assertThrows(InvalidValueException.class, () -> vehicleController.getVehiclesInViewport(
+            String.valueOf(north), String.valueOf(west), String.valueOf(south), String.valueOf(east), null));
+    }
+
+    @Test
+    public void testWideViewportFollowsTheParallels() throws InvalidValueException {
+
+        jdbcTemplate.update("DELETE FROM vehicles WHERE last_latitude BETWEEN 45 AND 70 AND abs(last_longitude) < 65");
+        // a map from Labrador to the Urals: geodesics between its corners would bow north to about 67 (south edge)
+        // and 74 (north edge) degrees at its middle, leaving out the first two vehicles
+        double[][] positions = { { 55, 0 }, { 59.99, 0.05 }, { 50.01, -59.99 }, { 49.9, 0 }, { 65, 0 } };
+        List<UUID> vehicleIds = new ArrayList<>();
+        for (double[] position : positions) {
+            vehicleIds.add(TestFixtures.addVehicle(jdbcTemplate, VEHICLE_INFO, false, position[0], position[1],
+                TEST_CHECKIN));
+        }
+
+        List<VehicleWithLocationDTO> vehicles = vehicleController.getVehiclesInViewport("50", "-60", "60", "60", null)
+            .getBody();
+        assertEquals(new HashSet<>(vehicleIds.subList(0, 3)),
+            vehicles.stream().map(VehicleWithLocationDTO::getId).collect(Collectors.toSet()));
+    }
+
+    @Test
+    public void testViewportAcrossTheAntimeridian() throws InvalidValueException {
+
+        jdbcTemplate.update("DELETE FROM vehicles WHERE last_latitude BETWEEN ? AND ? AND abs(last_longitude) > 179",
+            GRID_SOUTH - 1, GRID_SOUTH + 1);
+        List<UUID> vehicleIds = new ArrayList<>();
+        for (double longitude : new double[] { 179.99, 179.995, -179.995, -179.99, 179.9, -179.9 }) {
+            UUID vehicleId = TestFixtures.addVehicle(jdbcTemplate, VEHICLE_INFO, false, GRID_SOUTH, longitude,
+                TEST_CHECKIN);
+            if (Math.abs(longitude) > 179.95) {
+                vehicleIds.add(vehicleId);
+            }
+        }
+        // ordered by id as the database orders them
+        List<UUID> expected = jdbcTemplate.queryForList("SELECT id FROM vehicles WHERE id IN (?, ?, ?, ?) ORDER BY id",
+            UUID.class, vehicleIds.toArray());
+
+        List<VehicleWithLocationDTO> vehicles = vehicleController.getVehiclesInViewport(
+            String.valueOf(GRID_SOUTH - 0.5), "179.95", String.valueOf(GRID_SOUTH + 0.5), "-179.95", null).getBody();
+        assertEquals(expected, vehicles.stream().map(VehicleWithLocationDTO::getId).collect(Collectors.toList()));
+
+        // the limit applies to the two sides together
+        vehicles = vehicleController.getVehiclesInViewport(
+            String.valueOf(GRID_SOUTH - 0.5), "179.95", String.valueOf(GRID_SOUTH + 0.5), "-179.95", 3).getBody();
+        assertEquals(expected.subList(0, 3),
+            vehicles.stream().map(VehicleWithLocationDTO::getId).collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,74 @@
+package io.roach.movrapi.dto;
+
+import java.util.UUID;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import io.roach.movrapi.util.JsonCodec;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit Tests for the raw and typed vehicle info
+ */
+
+public class VehicleInfoTest {
+
+    private static final UUID TEST_VEHICLE_UUID = UUID.fromString("4d8c8d73-c503-47e6-a6c9-f8bbe4614d81");
+    private static final String TEST_VEHICLE_INFO = "{\"color\": \"red\", \"purchase_information\": " +
+        "{\"manufacturer\": \"Scoot Life\", \"purchase_date\": \"2019-10-31 01:45:18\", \"serial_number\": \"11847\"}, " +
+        "\"type\": \"scooter\", \"wear\": \"mint\"}";
+
+    @BeforeAll
+    public static void init() {
+        // stands in for the codec Spring creates, which the vehicle info is decoded with
+        new JsonCodec(new ObjectMapper().setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE));
+    }
+
+    @Test
+    public void testTypedFields() {
+
+        VehicleInfo vehicleInfo = new VehicleInfo(TEST_VEHICLE_INFO);
+        assertEquals("red", vehicleInfo.getColor());
+        assertEquals("scooter", vehicleInfo.getType());
+        assertEquals("mint", vehicleInfo.getWear());
+        assertEquals("Scoot Life", vehicleInfo.getManufacturer());
+        assertEquals("2019-10-31 01:45:18", vehicleInfo.getPurchaseDate());
+        assertEquals("11847", vehicleInfo.getSerialNumber());
+
+        // missing fields (and a missing purchase_information object) come back as null
+        VehicleInfo sparse = new VehicleInfo("{\"type\": \"bike\", \"serial\": 1}");
+        assertEquals("bike", sparse.getType());
+        assertNull(sparse.getColor());
+        assertNull(sparse.getSerialNumber());
+    }
+
+    @Test
+    public void testDecodedLazily() {
+
+        // nothing is parsed until a field is asked for
+        VehicleInfo vehicleInfo = new VehicleInfo("not json");
+        assertEquals("not json", vehicleInfo.getJson());
+        assertThrows(RuntimeException.class, vehicleInfo::getType);
+    }
+
+    @Test
+    public void testRawSerialization() throws JsonProcessingException {
+
+        VehicleWithLocationDTO vehicleWithLocationDTO = new VehicleWithLocationDTO(TEST_VEHICLE_UUID, 80, false,
+            "11847", TEST_VEHICLE_INFO, null, null, null);
+        ObjectMapper objectMapper = new ObjectMapper().setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE);
+        String json = objectMapper.writeValueAsString(vehicleWithLocationDTO);
+
+        // the stored json is copied into the response untouched
+        assertTrue(json.contains("\"vehicle_info\":" + TEST_VEHICLE_INFO), json);
+        assertEquals("Scoot Life", objectMapper.readTree(json).get("vehicle_info")
+            .get("purchase_information").get("manufacturer").asText());
+        assertEquals("scooter", vehicleWithLocationDTO.getVehicleInfoFields().getType());
+    }
+}
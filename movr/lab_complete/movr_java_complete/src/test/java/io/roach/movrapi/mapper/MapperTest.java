@@ -0,0 +1,70 @@
+package io.roach.movrapi.mapper;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+
+import io.roach.movrapi.dto.LocationDetailsDTO;
+import io.roach.movrapi.dto.RideDTO;
+import io.roach.movrapi.entity.LocationHistory;
+import io.roach.movrapi.entity.Ride;
+import io.roach.movrapi.entity.User;
+import io.roach.movrapi.entity.Vehicle;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit Tests for the generated entity to DTO mappers
+ */
+
+public class MapperTest {
+
+    private static final UUID TEST_VEHICLE_UUID = UUID.fromString("4d8c8d73-c503-47e6-a6c9-f8bbe4614d81");
+    private static final UUID TEST_RIDE_UUID = UUID.fromString("f097eaa6-dd11-4e35-bceb-1b93073d1ec7");
+    private static final String TEST_EMAIL = "test@test.com";
+    private static final Timestamp TEST_RIDE_START = Timestamp.valueOf("2020-10-30 12:00:00");
+    private static final Timestamp TEST_RIDE_END = Timestamp.valueOf("2020-10-30 12:30:00");
+    private static final double TEST_LAT = 40.123d;
+    private static final double TEST_LON = -74.654d;
+
+    @Test
+    public void testRideToDto() {
+
+        Vehicle vehicle = new Vehicle();
+        vehicle.setId(TEST_VEHICLE_UUID);
+        User user = new User();
+        user.setEmail(TEST_EMAIL);
+        Ride ride = new Ride();
+        ride.setId(TEST_RIDE_UUID);
+        ride.setVehicle(vehicle);
+        ride.setUser(user);
+        ride.setStartTime(TEST_RIDE_START);
+        ride.setEndTime(TEST_RIDE_END);
+
+        RideDTO rideDTO = RideMapper.INSTANCE.toDto(ride);
+        assertEquals(TEST_RIDE_UUID, rideDTO.getId());
+        assertEquals(TEST_VEHICLE_UUID, rideDTO.getVehicleId());
+        assertEquals(TEST_EMAIL, rideDTO.getUserEmail());
+        assertEquals(TEST_RIDE_START, rideDTO.getStartTime());
+        assertEquals(TEST_RIDE_END, rideDTO.getEndTime());
+
+        // a ride that hasn't been linked to a vehicle or user yet maps to null ids
+        RideDTO newRideDTO = RideMapper.INSTANCE.toDto(new Ride());
+        assertNull(newRideDTO.getVehicleId());
+        assertNull(newRideDTO.getUserEmail());
+    }
+
+    @Test
+    public void testLocationHistoryToDto() {
+
+        LocationHistory locationHistory = new LocationHistory();
+        locationHistory.setTimestamp(TEST_RIDE_START);
+        locationHistory.setLatitude(TEST_LAT);
+        locationHistory.setLongitude(TEST_LON);
+
+        LocationDetailsDTO locationDetailsDTO = LocationHistoryMapper.INSTANCE.toDto(locationHistory);
+        assertEquals(TEST_RIDE_START, locationDetailsDTO.getTimestamp());
+        assertEquals(TEST_LAT, locationDetailsDTO.getLatitude());
+        assertEquals(TEST_LON, locationDetailsDTO.getLongitude());
+    }
+}
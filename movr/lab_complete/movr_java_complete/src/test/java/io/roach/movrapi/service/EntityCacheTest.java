@@ -0,0 +1,182 @@
+package io.roach.movrapi.service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.roach.movrapi.entity.User;
+import io.roach.movrapi.exception.NotFoundException;
+import io.roach.movrapi.mapper.EntityCopyMapper;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Unit Tests for EntityCache.class
+ *
+ * Transactions are simulated by driving TransactionSynchronizationManager directly, the way the transaction manager
+ * does around a commit or rollback.
+ */
+
+public class EntityCacheTest {
+
+    private static final String TEST_EMAIL = "test@test.com";
+    private static final String TEST_EMAIL_MISSING = "missing@test.com";
+
+    private EntityCache<String, User> userCache;
+    private AtomicInteger loads;
+    private String lastName;
+
+    @BeforeEach
+    public void init() {
+        userCache = new EntityCache<>("users", 100, Duration.ofMinutes(1), EntityCopyMapper.INSTANCE::copy);
+        loads = new AtomicInteger();
+        lastName = "Smith";
+    }
+
+    @AfterEach
+    public void cleanup() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void testHitReturnsCopy() throws NotFoundException {
+
+        User loaded = userCache.get(TEST_EMAIL, this::load);
+        User first = userCache.get(TEST_EMAIL, this::load);
+        User second = userCache.get(TEST_EMAIL, this::load);
+
+        assertEquals(1, loads.get());
+        assertNotSame(loaded, first);
+        assertNotSame(first, second);
+
+        // changing a copy doesn't change the cache
+        first.setLastName("Jones");
+        assertEquals("Smith", userCache.get(TEST_EMAIL, this::load).getLastName());
+
+        assertEquals(3, userCache.getStats().hitCount());
+        assertEquals(1, userCache.getStats().missCount());
+    }
+
+    @Test
+    public void testNotFoundIsNotCached() {
+
+        assertThrows(NotFoundException.class, () -> userCache.get(TEST_EMAIL_MISSING, this::load));
+        assertThrows(NotFoundException.class, () -> userCache.get(TEST_EMAIL_MISSING, this::load));
+        assertEquals(2, loads.get());
+        assertEquals(0, userCache.size());
+    }
+
+    @Test
+    public void testInvalidateWithoutTransaction() throws NotFoundException {
+
+        userCache.get(TEST_EMAIL, this::load);
+        lastName = "Jones";
+        userCache.invalidateAfterCommit(TEST_EMAIL);
+
+        assertEquals("Jones", userCache.get(TEST_EMAIL, this::load).getLastName());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testInvalidateAfterCommit() throws NotFoundException {
+
+        userCache.get(TEST_EMAIL, this::load);
+
+        TransactionSynchronizationManager.initSynchronization();
+        userCache.invalidateAfterCommit(TEST_EMAIL);
+        lastName = "Jones";
+        // the writing transaction reads its own change from the database...
+        assertEquals("Jones", userCache.get(TEST_EMAIL, this::load).getLastName());
+        // ...while everyone else still gets the committed value
+        assertEquals("Smith", getOutsideTransaction().getLastName());
+        commit();
+
+        assertEquals("Jones", userCache.get(TEST_EMAIL, this::load).getLastName());
+    }
+
+    @Test
+    public void testRollbackKeepsEntry() throws NotFoundException {
+
+        userCache.get(TEST_EMAIL, this::load);
+
+        TransactionSynchronizationManager.initSynchronization();
+        userCache.invalidateAfterCommit(TEST_EMAIL);
+        lastName = "Jones";
+        userCache.get(TEST_EMAIL, this::load);
+        rollback();
+        lastName = "Smith";
+
+        assertEquals("Smith", userCache.get(TEST_EMAIL, this::load).getLastName());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testLoadFromBeforeAnInvalidationIsNotStored() throws NotFoundException {
+
+        // a reader's transaction starts...
+        TransactionSynchronizationManager.initSynchronization();
+        assertThrows(NotFoundException.class, () -> userCache.get(TEST_EMAIL_MISSING, this::load));
+
+        // ...a writer commits a change to the user (so the reader's snapshot is now out of date)...
+        List<TransactionSynchronization> readerSynchronizations = TransactionSynchronizationManager.getSynchronizations();
+        Object readerState = TransactionSynchronizationManager.unbindResource(userCache);
+        TransactionSynchronizationManager.clearSynchronization();
+        TransactionSynchronizationManager.initSynchronization();
+        userCache.invalidateAfterCommit(TEST_EMAIL);
+        commit();
+
+        // ...and then the reader loads the old version, which must not end up in the cache
+        TransactionSynchronizationManager.initSynchronization();
+        readerSynchronizations.forEach(TransactionSynchronizationManager::registerSynchronization);
+        TransactionSynchronizationManager.bindResource(userCache, readerState);
+        userCache.get(TEST_EMAIL, this::load);
+        commit();
+
+        assertEquals(0, userCache.size());
+    }
+
+    private User getOutsideTransaction() throws NotFoundException {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        Object state = TransactionSynchronizationManager.unbindResource(userCache);
+        TransactionSynchronizationManager.clearSynchronization();
+        try {
+            return userCache.get(TEST_EMAIL, this::load);
+        } finally {
+            TransactionSynchronizationManager.initSynchronization();
+            synchronizations.forEach(TransactionSynchronizationManager::registerSynchronization);
+            TransactionSynchronizationManager.bindResource(userCache, state);
+        }
+    }
+
+    private void commit() {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        synchronizations.forEach(TransactionSynchronization::afterCommit);
+        synchronizations.forEach(s -> s.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    private void rollback() {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        synchronizations.forEach(s -> s.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    private User load(String email) throws NotFoundException {
+        loads.incrementAndGet();
+        if (!TEST_EMAIL.equals(email)) {
+            throw new NotFoundException(email);
+        }
+        User user = new User();
+        user.setEmail(email);
+        user.setLastName(lastName);
+        return user;
+    }
+}
@@ -0,0 +1,211 @@
+package io.roach.movrapi.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import io.roach.movrapi.MovrApiApplication;
+import io.roach.movrapi.TestDatabase;
+import io.roach.movrapi.TestFixtures;
+import io.roach.movrapi.dao.JobWatermarkRepository;
+import io.roach.movrapi.dao.LocationHistoryArchive;
+import io.roach.movrapi.dao.LocationHistoryBlockStore;
+import io.roach.movrapi.dao.LocationHistoryRepository;
+import io.roach.movrapi.dto.LocationDetailsDTO;
+import io.roach.movrapi.entity.JobWatermark;
+import static io.roach.movrapi.service.LocationHistoryArchiver.JOB;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Slice;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * Archives location history to a temporary directory, on tracks recorded far enough in the future that no other
+ * test's vehicles have history in the stretches archived, and reads it back through the vehicle service.
+ */
+
+@SpringBootTest(classes = MovrApiApplication.class)
+public class LocationHistoryArchiverTest {
+
+    private static final int RETENTION_DAYS = 90;
+    private static final int WINDOW_HOURS = 24;
+    private static final int BATCH_SIZE = 20;
+    private static final int PAGE_SIZE = 30;
+
+    private static Path archiveDirectory;
+
+    @Autowired
+    private VehicleService vehicleService;
+
+    @Autowired
+    private LocationHistoryRepository locationHistoryRepository;
+
+    @Autowired
+    private LocationHistoryArchive locationHistoryArchive;
+
+    @Autowired
+    private LocationHistoryBlockStore locationHistoryBlockStore;
+
+    @Autowired
+    private JobWatermarkRepository jobWatermarkRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @DynamicPropertySource
+    static void databaseProperties(DynamicPropertyRegistry registry) throws Exception {
+        TestDatabase.register(registry);
+        archiveDirectory = Files.createTempDirectory("movr-archive");
+        registry.add("movr.archive.directory", () -> archiveDirectory.toString());
+    }
+
+    @Test
+    public void testArchivesExpiredHistory() throws IOException {
+
+        jobWatermarkRepository.save(new JobWatermark(JOB, Timestamp.valueOf("2043-01-10 00:00:00")));
+        UUID vehicleId = TestFixtures.addVehicle(jdbcTemplate, "2043-06-01 10:00:00");
+        TestFixtures.addTrack(jdbcTemplate, vehicleId, "2043-01-10 08:00:00", 100, 1000);
+        TestFixtures.addTrack(jdbcTemplate, vehicleId, "2043-01-11 08:00:00", 100, 1000);
+        TestFixtures.addTrack(jdbcTemplate, vehicleId, "2043-06-01 10:00:00", 1, 1000);
+        // a vehicle last seen before the retention period keeps its last position in the database
+        UUID parkedVehicleId = TestFixtures.addVehicle(jdbcTemplate, "2043-01-11 09:00:49");
+        TestFixtures.addTrack(jdbcTemplate, parkedVehicleId, "2043-01-11 09:00:00", 50, 1000);
+        List<String> history = history(vehicleId);
+        List<String> parkedHistory = history(parkedVehicleId);
+
+        LocationHistoryArchiver archiver = archiver();
+        assertEquals(249, archiver.archive(Timestamp.valueOf("2043-04-15 12:00:00")));
+
+        assertEquals(1, TestFixtures.historyRows(jdbcTemplate, vehicleId));
+        assertEquals(1, TestFixtures.historyRows(jdbcTemplate, parkedVehicleId));
+        assertEquals(249, archiver.getStats().getRowsExported());
+        assertEquals(5, archiver.getStats().getWindows());
+        assertEquals(Timestamp.valueOf("2043-01-15 00:00:00"),
+            jobWatermarkRepository.findById(JOB).get().getProcessedBefore());
+
+        // the archive files are plain gzipped CSV
+        List<String> lines = readArchiveFile("location_history-20430111T0000-20430112T0000.csv.gz");
+        assertEquals("vehicle_id,ts,longitude,latitude", lines.get(0));
+        assertEquals(1 + 100 + 49, lines.size());
+        assertTrue(lines.stream().anyMatch(line -> line.startsWith(vehicleId + ",2043-01-11 08:01:39.0,-74.0,40.7")));
+
+        // and the history reads the same as before, all at once and a page at a time
+        assertEquals(history, history(vehicleId));
+        assertEquals(parkedHistory, history(parkedVehicleId));
+        List<String> paged = new ArrayList<>();
+        Timestamp before = null;
+        Slice<LocationDetailsDTO> page;
+        do {
+            page = vehicleService.getLocationHistory(vehicleId, before, PAGE_SIZE);
+            paged.addAll(format(page.getContent()));
+            before = page.getContent().get(page.getContent().size() - 1).getTimestamp();
+        } while (page.hasNext());
+        assertEquals(history, paged);
+
+        // a row recorded late, in a stretch that has already been archived, is read from the database
+        TestFixtures.addTrack(jdbcTemplate, vehicleId, "2043-01-10 12:00:00", 1, 1000);
+        List<String> withLateRow = history(vehicleId);
+        assertEquals(history.size() + 1, withLateRow.size());
+        assertEquals("2043-01-10 12:00:00.0,-74.0,40.7", withLateRow.get(101));
+
+        assertEquals(0, archiver.archive(Timestamp.valueOf("2043-04-15 13:00:00")));
+    }
+
+    @Test
+    public void testOnlyDeletesWhatWasArchived() {
+
+        jobWatermarkRepository.save(new JobWatermark(JOB, Timestamp.valueOf("2044-01-10 00:00:00")));
+        UUID vehicleId = TestFixtures.addVehicle(jdbcTemplate, "2044-06-01 10:00:00");
+        TestFixtures.addTrack(jdbcTemplate, vehicleId, "2044-06-01 10:00:00", 1, 1000);
+        TestFixtures.addTrack(jdbcTemplate, vehicleId, "2044-01-10 08:00:00", 10, 1000);
+        // exported by an earlier run that stopped before deleting the rows
+        locationHistoryArchive.export(Timestamp.valueOf("2044-01-10 00:00:00"),
+            Timestamp.valueOf("2044-01-11 00:00:00"));
+        TestFixtures.addTrack(jdbcTemplate, vehicleId, "2044-01-10 12:00:00", 1, 1000);
+
+        assertEquals(10, archiver().archive(Timestamp.valueOf("2044-04-10 12:00:00")));
+        assertEquals(2, TestFixtures.historyRows(jdbcTemplate, vehicleId));
+        assertEquals(12, history(vehicleId).size());
+    }
+
+    @Test
+    public void testArchivesPackedHistory() throws IOException {
+
+        jobWatermarkRepository.save(new JobWatermark(JOB, Timestamp.valueOf("2047-01-10 00:00:00")));
+        UUID vehicleId = TestFixtures.addVehicle(jdbcTemplate, "2047-06-01 10:00:00");
+        TestFixtures.addTrack(jdbcTemplate, vehicleId, "2047-01-10 08:00:00", 100, 1000);
+        TestFixtures.addTrack(jdbcTemplate, vehicleId, "2047-06-01 10:00:00", 1, 1000);
+        List<String> history = history(vehicleId);
+        Timestamp windowStart = Timestamp.valueOf("2047-01-10 00:00:00");
+        Timestamp windowEnd = Timestamp.valueOf("2047-01-11 00:00:00");
+        assertEquals(100, vehicleService.packLocations(vehicleId, windowStart, windowEnd));
+        // a row that isn't packed yet
+        TestFixtures.addTrack(jdbcTemplate, vehicleId, "2047-01-10 12:00:00", 1, 1000);
+        // exported by an earlier run that stopped before deleting, and then a position packed late, into the same
+        // block as archived ones
+        locationHistoryArchive.export(windowStart, windowEnd);
+        TestFixtures.addTrack(jdbcTemplate, vehicleId, "2047-01-10 08:30:00", 1, 1000);
+        assertEquals(2, vehicleService.packLocations(vehicleId, windowStart, windowEnd));
+
+        LocationHistoryArchiver archiver = archiver();
+        assertEquals(101, archiver.archive(Timestamp.valueOf("2047-04-15 12:00:00")));
+        assertEquals(101, archiver.getStats().getPackedDeleted());
+
+        // only the late position is left in the blocks, and only the newest row in the database
+        assertEquals(1, (int) jdbcTemplate.queryForObject(
+            "SELECT count(*) FROM location_history_blocks WHERE vehicle_id = ?", Integer.class, vehicleId));
+        assertEquals(Timestamp.valueOf("2047-01-10 08:30:00"), jdbcTemplate.queryForObject(
+            "SELECT first_ts FROM location_history_blocks WHERE vehicle_id = ? AND points = 1", Timestamp.class,
+            vehicleId));
+        assertEquals(1, TestFixtures.historyRows(jdbcTemplate, vehicleId));
+
+        List<String> lines = readArchiveFile("location_history-20470110T0000-20470111T0000.csv.gz");
+        assertEquals(1 + 101, lines.size());
+        // packed positions are archived as they were packed, to 7 decimal places
+        assertTrue(lines.contains(vehicleId + ",2047-01-10 08:01:39.0,-74.0,40.7099"));
+        assertTrue(lines.contains(vehicleId + ",2047-01-10 12:00:00.0,-74.0,40.7"));
+        assertTrue(timestamps(history(vehicleId)).containsAll(timestamps(history)));
+    }
+
+    private LocationHistoryArchiver archiver() {
+        return new LocationHistoryArchiver(vehicleService, locationHistoryRepository, locationHistoryArchive,
+            locationHistoryBlockStore, jobWatermarkRepository, true, RETENTION_DAYS, WINDOW_HOURS, BATCH_SIZE, 0);
+    }
+
+    private List<String> history(UUID vehicleId) {
+        return format(vehicleService.getLocationHistory(vehicleId, null, VehicleService.MAX_HISTORY_PAGE_SIZE)
+            .getContent());
+    }
+
+    private static List<String> format(List<LocationDetailsDTO> history) {
+        return history.stream()
+            .map(location -> location.getTimestamp() + "," + location.getLongitude() + "," + location.getLatitude())
+            .collect(Collectors.toList());
+    }
+
+    private static List<String> timestamps(List<String> history) {
+        return history.stream().map(location -> location.substring(0, location.indexOf(',')))
+            .collect(Collectors.toList());
+    }
+
+    private static List<String> readArchiveFile(String name) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(archiveDirectory.resolve(name))), StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.toList());
+        }
+    }
+}
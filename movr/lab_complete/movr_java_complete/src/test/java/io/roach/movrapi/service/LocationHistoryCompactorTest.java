@@ -0,0 +1,146 @@
+package io.roach.movrapi.service;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import io.roach.movrapi.MovrApiApplication;
+import io.roach.movrapi.TestDatabase;
+import io.roach.movrapi.TestFixtures;
+import io.roach.movrapi.dao.JobWatermarkRepository;
+import io.roach.movrapi.dao.LocationHistoryRepository;
+import io.roach.movrapi.dao.VehicleRepository;
+import io.roach.movrapi.entity.JobWatermark;
+import static io.roach.movrapi.service.LocationHistoryCompactor.ESTIMATED_ROW_BYTES;
+import static io.roach.movrapi.service.LocationHistoryCompactor.JOB;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * Runs the location history compaction against the embedded database, on tracks recorded far enough in the future
+ * that no other test's vehicles have history in the stretches compacted.
+ */
+
+@SpringBootTest(classes = MovrApiApplication.class)
+public class LocationHistoryCompactorTest {
+
+    private static final int HOT_WINDOW_DAYS = 7;
+    private static final int WINDOW_HOURS = 24;
+    private static final double TOLERANCE_METERS = 10;
+    private static final int BATCH_SIZE = 20;
+    private static final int POINTS = 101;
+    // about 11 m north-south between points, and a detour of about 84 m east
+    private static final double STEP_DEGREES = 1e-4;
+    private static final double DETOUR_DEGREES = 1e-3;
+
+    @Autowired
+    private VehicleService vehicleService;
+
+    @Autowired
+    private VehicleRepository vehicleRepository;
+
+    @Autowired
+    private LocationHistoryRepository locationHistoryRepository;
+
+    @Autowired
+    private JobWatermarkRepository jobWatermarkRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @DynamicPropertySource
+    static void databaseProperties(DynamicPropertyRegistry registry) throws Exception {
+        TestDatabase.register(registry);
+    }
+
+    @Test
+    public void testCompactsColdHistory() {
+
+        jobWatermarkRepository.save(new JobWatermark(JOB, Timestamp.valueOf("2040-01-10 00:00:00")));
+        UUID vehicleId = TestFixtures.addVehicle(jdbcTemplate, "2040-01-18 00:01:40");
+        // cold: a straight track (wobbling by a couple of meters), and one with a detour
+        addTrack(vehicleId, "2040-01-10 08:00:00", POINTS, false);
+        addTrack(vehicleId, "2040-01-11 08:00:00", POINTS, true);
+        // hot
+        addTrack(vehicleId, "2040-01-18 00:00:00", POINTS, false);
+        // a vehicle last seen long ago keeps its last position
+        UUID parkedVehicleId = TestFixtures.addVehicle(jdbcTemplate, "2040-01-12 08:00:49");
+        addTrack(parkedVehicleId, "2040-01-12 08:00:00", 50, false);
+
+        LocationHistoryCompactor compactor = compactor(0);
+        long removed = compactor.compact(Timestamp.valueOf("2040-01-20 12:00:00"));
+
+        assertEquals(2, rows(vehicleId, "2040-01-10 00:00:00", "2040-01-11 00:00:00"));
+        // the ends, and the corners of the detour
+        assertEquals(6, rows(vehicleId, "2040-01-11 00:00:00", "2040-01-12 00:00:00"));
+        assertEquals(POINTS, rows(vehicleId, "2040-01-13 00:00:00", "2040-01-19 00:00:00"));
+        assertEquals(2, rows(parkedVehicleId, "2040-01-12 00:00:00", "2040-01-13 00:00:00"));
+        assertEquals(Timestamp.valueOf("2040-01-12 08:00:49"), jdbcTemplate.queryForObject(
+            "SELECT max(ts) FROM location_history WHERE vehicle_id = ?", Timestamp.class, parkedVehicleId));
+
+        long expectedRemoved = (POINTS - 2) + (POINTS - 6) + (50 - 2);
+        assertEquals(expectedRemoved, removed);
+        LocationHistoryCompactor.Stats stats = compactor.getStats();
+        assertEquals(expectedRemoved, stats.getRowsRemoved());
+        assertEquals(3 * POINTS + 50 - POINTS, stats.getRowsScanned());
+        assertEquals(expectedRemoved * ESTIMATED_ROW_BYTES, stats.getBytesReclaimed());
+        assertEquals(3, stats.getWindows());
+        // the history up to the start of the last whole day outside the hot window is done with
+        assertEquals(Timestamp.valueOf("2040-01-13 00:00:00"),
+            jobWatermarkRepository.findById(JOB).get().getProcessedBefore());
+
+        // and isn't looked at again
+        assertEquals(0, compactor.compact(Timestamp.valueOf("2040-01-20 13:00:00")));
+        assertEquals(3 * POINTS + 50 - POINTS, stats.getRowsScanned());
+    }
+
+    @Test
+    public void testPacesItself() {
+
+        jobWatermarkRepository.save(new JobWatermark(JOB, Timestamp.valueOf("2041-01-10 00:00:00")));
+        UUID vehicleId = TestFixtures.addVehicle(jdbcTemplate, "2041-01-10 08:03:19");
+        addTrack(vehicleId, "2041-01-10 08:00:00", 200, false);
+
+        // 200 rows read and 198 deleted, at 1000 a second
+        long start = System.nanoTime();
+        assertEquals(198, compactor(1000).compact(Timestamp.valueOf("2041-01-20 12:00:00")));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsedMillis >= 350, elapsedMillis + " ms");
+    }
+
+    private LocationHistoryCompactor compactor(int maxRowsPerSecond) {
+        return new LocationHistoryCompactor(vehicleService, vehicleRepository, locationHistoryRepository,
+            jobWatermarkRepository, true, HOT_WINDOW_DAYS, WINDOW_HOURS, TOLERANCE_METERS, BATCH_SIZE,
+            maxRowsPerSecond);
+    }
+
+    /**
+     * Adds a track heading north, a point a second, that either wobbles by a couple of meters or takes a detour
+     * east half way along.
+     */
+    private void addTrack(UUID vehicleId, String start, int points, boolean detour) {
+        long startMillis = Timestamp.valueOf(start).getTime();
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < points; i++) {
+            double longitude = detour
+                ? -74.0 + (i >= 40 && i <= 60 ? DETOUR_DEGREES : 0d)
+                : -74.0 + (i % 2) * 2e-5;
+            rows.add(new Object[] { vehicleId, new Timestamp(startMillis + i * 1000L), longitude,
+                40.7 + i * STEP_DEGREES });
+        }
+        TestFixtures.addLocations(jdbcTemplate, rows);
+    }
+
+    private int rows(UUID vehicleId, String from, String to) {
+        return jdbcTemplate.queryForObject("SELECT count(*) FROM location_history WHERE vehicle_id = ? AND " +
+            "ts >= ?::timestamp AND ts < ?::timestamp", Integer.class, vehicleId, from, to);
+    }
+}
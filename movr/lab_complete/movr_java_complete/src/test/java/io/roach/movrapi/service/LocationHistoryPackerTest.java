@@ -0,0 +1,223 @@
+package io.roach.movrapi.service;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import io.roach.movrapi.MovrApiApplication;
+import io.roach.movrapi.TestDatabase;
+import io.roach.movrapi.TestFixtures;
+import io.roach.movrapi.dao.JobWatermarkRepository;
+import io.roach.movrapi.dao.LocationHistoryBlockStore;
+import io.roach.movrapi.dao.LocationHistoryRepository;
+import io.roach.movrapi.dao.VehicleRepository;
+import io.roach.movrapi.dto.LocationDetailsDTO;
+import io.roach.movrapi.entity.JobWatermark;
+import io.roach.movrapi.util.Track;
+import static io.roach.movrapi.service.LocationHistoryPacker.JOB;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Slice;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Packs location history into blocks against the embedded database, on tracks recorded far enough in the future
+ * that no other test's vehicles have history in the stretches packed, and reads it back through the vehicle service;
+ * and compares the space taken and the time to read an hour of a vehicle's track, as rows and as blocks.
+ */
+
+@SpringBootTest(classes = MovrApiApplication.class)
+public class LocationHistoryPackerTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocationHistoryPackerTest.class);
+
+    private static final int HOT_HOURS = 24;
+    private static final int WINDOW_HOURS = 24;
+    private static final int PAGE_SIZE = 40;
+    // a day of a vehicle reporting every 5 seconds, read an hour at a time
+    private static final int DAY_POINTS = 17280;
+    private static final long INTERVAL_MILLIS = 5000;
+    private static final int READS = 50;
+
+    @Autowired
+    private VehicleService vehicleService;
+
+    @Autowired
+    private VehicleRepository vehicleRepository;
+
+    @Autowired
+    private LocationHistoryRepository locationHistoryRepository;
+
+    @Autowired
+    private LocationHistoryBlockStore locationHistoryBlockStore;
+
+    @Autowired
+    private JobWatermarkRepository jobWatermarkRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @DynamicPropertySource
+    static void databaseProperties(DynamicPropertyRegistry registry) throws Exception {
+        TestDatabase.register(registry);
+    }
+
+    @Test
+    public void testPacksColdHistory() {
+
+        jobWatermarkRepository.save(new JobWatermark(JOB, Timestamp.valueOf("2045-01-10 00:00:00")));
+        UUID vehicleId = TestFixtures.addVehicle(jdbcTemplate, "2045-01-20 10:00:00");
+        TestFixtures.addTrack(jdbcTemplate, vehicleId, "2045-01-10 08:00:00", 100, 1000);
+        // across the end of an hour, so into two blocks
+        TestFixtures.addTrack(jdbcTemplate, vehicleId, "2045-01-10 08:59:30", 60, 1000);
+        TestFixtures.addTrack(jdbcTemplate, vehicleId, "2045-01-11 12:00:00", 50, 1000);
+        // hot
+        TestFixtures.addTrack(jdbcTemplate, vehicleId, "2045-01-20 10:00:00", 1, 1000);
+        List<String> history = history(vehicleId);
+
+        LocationHistoryPacker packer = packer();
+        assertEquals(210, packer.pack(Timestamp.valueOf("2045-01-15 00:00:00")));
+
+        assertEquals(1, TestFixtures.historyRows(jdbcTemplate, vehicleId));
+        assertEquals(3, (int) jdbcTemplate.queryForObject(
+            "SELECT count(*) FROM location_history_blocks WHERE vehicle_id = ?", Integer.class, vehicleId));
+        assertEquals(210, (int) jdbcTemplate.queryForObject(
+            "SELECT sum(points) FROM location_history_blocks WHERE vehicle_id = ?", Integer.class, vehicleId));
+        assertEquals(4, packer.getStats().getWindows());
+        assertEquals(Timestamp.valueOf("2045-01-14 00:00:00"),
+            jobWatermarkRepository.findById(JOB).get().getProcessedBefore());
+
+        // the history reads the same as before, all at once and a page at a time
+        assertEquals(history, history(vehicleId));
+        List<String> paged = new ArrayList<>();
+        Timestamp before = null;
+        Slice<LocationDetailsDTO> page;
+        do {
+            page = vehicleService.getLocationHistory(vehicleId, before, PAGE_SIZE);
+            paged.addAll(format(page.getContent()));
+            before = page.getContent().get(page.getContent().size() - 1).getTimestamp();
+        } while (page.hasNext());
+        assertEquals(history, paged);
+
+        // a stretch of the track, across the two blocks
+        Track track = new TransactionTemplate(transactionManager).execute(status ->
+            locationHistoryBlockStore.findTrack(vehicleId, Timestamp.valueOf("2045-01-10 08:30:00"),
+                Timestamp.valueOf("2045-01-10 09:00:10")));
+        assertEquals(40, track.size());
+        assertEquals(Timestamp.valueOf("2045-01-10 08:59:30"), track.getTimestamp(0));
+        assertEquals(Timestamp.valueOf("2045-01-10 09:00:09"), track.getTimestamp(39));
+        assertEquals(40.7039, track.getLatitudes()[39], 1e-9);
+
+        // a row recorded late, in a stretch that has already been packed, is read from the database
+        TestFixtures.addTrack(jdbcTemplate, vehicleId, "2045-01-10 08:30:00", 1, 1000);
+        List<String> withLateRow = history(vehicleId);
+        assertEquals(history.size() + 1, withLateRow.size());
+        assertEquals("2045-01-10 08:30:00.0,-74.0000000,40.7000000", withLateRow.get(111));
+
+        assertEquals(0, packer.pack(Timestamp.valueOf("2045-01-15 01:00:00")));
+    }
+
+    @Test
+    public void testBlocksAgainstRows() {
+
+        jobWatermarkRepository.save(new JobWatermark(JOB, Timestamp.valueOf("2046-01-10 00:00:00")));
+        UUID vehicleId = TestFixtures.addVehicle(jdbcTemplate, "2046-01-20 10:00:00");
+        addWalk(vehicleId, Timestamp.valueOf("2046-01-10 00:00:00").getTime());
+        TestFixtures.addTrack(jdbcTemplate, vehicleId, "2046-01-20 10:00:00", 1, 1000);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        Timestamp from = Timestamp.valueOf("2046-01-10 12:00:00");
+        Timestamp to = Timestamp.valueOf("2046-01-10 13:00:00");
+
+        long rowBytes = jdbcTemplate.queryForObject("SELECT sum(pg_column_size(lh.*)) FROM location_history lh " +
+            "WHERE vehicle_id = ? AND ts < ?", Long.class, vehicleId, Timestamp.valueOf("2046-01-11 00:00:00"));
+        List<LocationDetailsDTO> rows = null;
+        long start = 0;
+        // the first half of the reads warm up
+        for (int i = 0; i < READS * 2; i++) {
+            if (i == READS) {
+                start = System.nanoTime();
+            }
+            rows = transactionTemplate.execute(status -> locationHistoryRepository.findTrack(vehicleId, from, to));
+        }
+        long rowReadNanos = (System.nanoTime() - start) / READS;
+
+        assertEquals(DAY_POINTS, packer().pack(Timestamp.valueOf("2046-01-12 00:00:00")));
+
+        long blockBytes = jdbcTemplate.queryForObject("SELECT sum(pg_column_size(b.*)) " +
+            "FROM location_history_blocks b WHERE vehicle_id = ?", Long.class, vehicleId);
+        Track track = null;
+        for (int i = 0; i < READS * 2; i++) {
+            if (i == READS) {
+                start = System.nanoTime();
+            }
+            track = transactionTemplate.execute(status -> locationHistoryBlockStore.findTrack(vehicleId, from, to));
+        }
+        long blockReadNanos = (System.nanoTime() - start) / READS;
+
+        assertEquals(rows.size(), track.size());
+        for (int i = 0; i < track.size(); i++) {
+            assertEquals(rows.get(i).getTimestamp(), track.getTimestamp(i));
+            assertEquals(rows.get(i).getLatitude(), track.getLatitudes()[i], 1e-7);
+            assertEquals(rows.get(i).getLongitude(), track.getLongitudes()[i], 1e-7);
+        }
+        logger.info("A day of positions every {} s: {} bytes as rows ({} a position), {} bytes as blocks ({} a " +
+                "position); an hour read in {} us from rows, {} us from blocks", INTERVAL_MILLIS / 1000, rowBytes,
+            rowBytes / DAY_POINTS, blockBytes, blockBytes / DAY_POINTS, rowReadNanos / 1000, blockReadNanos / 1000);
+        assertTrue(blockBytes * 5 < rowBytes, blockBytes + " bytes as blocks, " + rowBytes + " as rows");
+    }
+
+    private LocationHistoryPacker packer() {
+        return new LocationHistoryPacker(vehicleService, vehicleRepository, locationHistoryRepository,
+            jobWatermarkRepository, true, HOT_HOURS, WINDOW_HOURS, 0);
+    }
+
+    /**
+     * Adds a day of a vehicle wandering about town, a few meters every 5 seconds.
+     */
+    private void addWalk(UUID vehicleId, long startMillis) {
+        // fixed seed so a failure can be reproduced
+        Random random = new Random(42);
+        List<Object[]> rows = new ArrayList<>();
+        double latitude = 40.7;
+        double longitude = -74.0;
+        for (int i = 0; i < DAY_POINTS; i++) {
+            latitude += (random.nextDouble() - 0.5) * 1e-4;
+            longitude += (random.nextDouble() - 0.5) * 1e-4;
+            rows.add(new Object[] { vehicleId, new Timestamp(startMillis + i * INTERVAL_MILLIS), longitude,
+                latitude });
+        }
+        TestFixtures.addLocations(jdbcTemplate, rows);
+    }
+
+    private List<String> history(UUID vehicleId) {
+        return format(vehicleService.getLocationHistory(vehicleId, null, VehicleService.MAX_HISTORY_PAGE_SIZE)
+            .getContent());
+    }
+
+    /**
+     * Formats the history to the precision blocks keep coordinates at.
+     */
+    private static List<String> format(List<LocationDetailsDTO> history) {
+        return history.stream()
+            .map(location -> String.format(Locale.ROOT, "%s,%.7f,%.7f", location.getTimestamp(),
+                location.getLongitude(), location.getLatitude()))
+            .collect(Collectors.toList());
+    }
+}
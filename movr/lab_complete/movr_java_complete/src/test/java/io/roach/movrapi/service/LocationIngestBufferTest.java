@@ -0,0 +1,220 @@
+package io.roach.movrapi.service;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.roach.movrapi.dto.VehicleLocationDTO;
+import io.roach.movrapi.exception.IngestQueueFullException;
+import io.roach.movrapi.exception.IngestTimeoutException;
+import io.roach.movrapi.exception.InvalidRequestException;
+import static io.roach.movrapi.util.Constants.ERR_INGEST_QUEUE_FULL;
+import static io.roach.movrapi.util.Constants.ERR_INGEST_STOPPED;
+import static io.roach.movrapi.util.Constants.ERR_INGEST_TIMEOUT;
+import static io.roach.movrapi.util.Constants.ERR_INGEST_TOO_LARGE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit Tests for LocationIngestBuffer.class
+ *
+ * The vehicle service is mocked, and hands every batch it is asked to write to the test.
+ */
+
+public class LocationIngestBufferTest {
+
+    private static final long NEVER_MS = TimeUnit.HOURS.toMillis(1);
+    private static final long WAIT_SECONDS = 5;
+
+    @Mock
+    private VehicleService vehicleService;
+
+    private final BlockingQueue<List<VehicleLocationDTO>> flushes = new LinkedBlockingQueue<>();
+    private volatile Throwable flushError;
+    private volatile CountDownLatch flushGate;
+    private LocationIngestBuffer buffer;
+    private long clock = Timestamp.valueOf("2020-11-01 10:00:00").getTime();
+
+    @BeforeEach
+    public void init() {
+
+        MockitoAnnotations.initMocks(this);
+        when(vehicleService.addLocations(anyList())).thenAnswer(invocation -> {
+            if (flushGate != null) {
+                flushGate.await();
+            }
+            if (flushError != null) {
+                throw flushError;
+            }
+            @SuppressWarnings("unchecked")
+            List<VehicleLocationDTO> locations = (List<VehicleLocationDTO>) invocation.getArguments()[0];
+            flushes.add(new ArrayList<>(locations));
+            return locations.size();
+        });
+    }
+
+    @AfterEach
+    public void cleanup() {
+        if (buffer != null) {
+            buffer.stop();
+        }
+    }
+
+    @Test
+    public void testFlushesOnceFlushRowsAreWaiting() throws Exception {
+
+        start(100, 10, NEVER_MS, false);
+        assertFalse(buffer.submit(locations(4), null));
+        assertFalse(buffer.submit(locations(6), null));
+
+        assertEquals(10, flushes.poll(WAIT_SECONDS, TimeUnit.SECONDS).size());
+        waitForDepth(0);
+        assertEquals(1, buffer.getStats().getFlushes());
+        assertEquals(10, buffer.getStats().getWritten());
+    }
+
+    @Test
+    public void testFlushesAfterInterval() throws Exception {
+
+        start(100, 1000, 20, false);
+        buffer.submit(locations(3), null);
+
+        assertEquals(3, flushes.poll(WAIT_SECONDS, TimeUnit.SECONDS).size());
+    }
+
+    @Test
+    public void testRejectsWhatDoesNotFit() throws Exception {
+
+        start(10, 1000, NEVER_MS, false);
+        buffer.submit(locations(6), null);
+
+        IngestQueueFullException e = assertThrows(IngestQueueFullException.class,
+            () -> buffer.submit(locations(5), null));
+        assertEquals(ERR_INGEST_QUEUE_FULL, e.getMessage());
+        buffer.submit(locations(4), null);
+        assertEquals(10, buffer.getDepth());
+        assertEquals(10, buffer.getStats().getAccepted());
+        assertEquals(5, buffer.getStats().getRejected());
+    }
+
+    @Test
+    public void testRefusesMoreThanCapacity() throws Exception {
+
+        start(10, 1000, NEVER_MS, false);
+
+        // however empty the queue is
+        InvalidRequestException e = assertThrows(InvalidRequestException.class,
+            () -> buffer.submit(locations(11), null));
+        assertEquals(String.format(ERR_INGEST_TOO_LARGE, 10), e.getMessage());
+        assertEquals(0, buffer.getDepth());
+        buffer.submit(locations(10), null);
+        assertEquals(10, buffer.getDepth());
+    }
+
+    @Test
+    public void testDurableSubmitWaitsForFlush() throws Exception {
+
+        start(100, 1000, 20, false);
+        List<VehicleLocationDTO> locations = locations(3);
+        assertTrue(buffer.submit(locations, true));
+        assertSame(locations.get(0), flushes.poll().get(0));
+
+        // and gets the error if the flush fails
+        flushError = new IllegalStateException("flush failed");
+        assertSame(flushError, assertThrows(IllegalStateException.class, () -> buffer.submit(locations(2), true)));
+        assertEquals(2, buffer.getStats().getLost());
+        assertEquals(1, buffer.getStats().getFailedFlushes());
+        waitForDepth(0);
+    }
+
+    @Test
+    public void testDurableSubmitGivesUpAfterTimeout() throws Exception {
+
+        start(100, 1000, 20, false, 50);
+        flushGate = new CountDownLatch(1);
+        IngestTimeoutException e = assertThrows(IngestTimeoutException.class,
+            () -> buffer.submit(locations(3), true));
+        assertEquals(String.format(ERR_INGEST_TIMEOUT, 50), e.getMessage());
+
+        // the positions are still written
+        flushGate.countDown();
+        assertEquals(3, flushes.poll(WAIT_SECONDS, TimeUnit.SECONDS).size());
+        waitForDepth(0);
+    }
+
+    @Test
+    public void testFlusherOutlivesErrors() throws Exception {
+
+        start(100, 1000, 20, false);
+        flushError = new StackOverflowError();
+        assertSame(flushError, assertThrows(StackOverflowError.class, () -> buffer.submit(locations(2), true)));
+        assertEquals(1, buffer.getStats().getFailedFlushes());
+
+        // the next positions are written as usual
+        flushError = null;
+        assertTrue(buffer.submit(locations(4), true));
+        assertEquals(4, flushes.poll().size());
+        waitForDepth(0);
+    }
+
+    @Test
+    public void testStopDrainsQueue() throws Exception {
+
+        start(100, 1000, NEVER_MS, false);
+        buffer.submit(locations(7), null);
+        buffer.submit(locations(5), null);
+        assertNull(flushes.poll());
+
+        buffer.stop();
+        assertEquals(12, flushes.poll().size());
+        assertEquals(0, buffer.getDepth());
+        assertFalse(buffer.isRunning());
+
+        IngestQueueFullException e = assertThrows(IngestQueueFullException.class,
+            () -> buffer.submit(locations(1), null));
+        assertEquals(ERR_INGEST_STOPPED, e.getMessage());
+    }
+
+    private void start(int capacity, int flushRows, long flushIntervalMillis, boolean durable) {
+        start(capacity, flushRows, flushIntervalMillis, durable, TimeUnit.SECONDS.toMillis(WAIT_SECONDS));
+    }
+
+    private void start(int capacity, int flushRows, long flushIntervalMillis, boolean durable,
+                       long durableTimeoutMillis) {
+        buffer = new LocationIngestBuffer(vehicleService, capacity, flushRows, flushIntervalMillis, durable,
+            TimeUnit.SECONDS.toMillis(WAIT_SECONDS), durableTimeoutMillis);
+        buffer.start();
+    }
+
+    private List<VehicleLocationDTO> locations(int count) {
+        List<VehicleLocationDTO> locations = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            locations.add(new VehicleLocationDTO(UUID.randomUUID(), new Timestamp(clock += 1000), 40.7, -74.0));
+        }
+        return locations;
+    }
+
+    private void waitForDepth(int depth) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_SECONDS);
+        while (buffer.getDepth() != depth && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(depth, buffer.getDepth());
+    }
+}
@@ -4,23 +4,28 @@ import java.sql.Timestamp;
 import java.util.Collections;
 import java.util.UUID;
 
-import io.roach.movrapi.dao.LocationHistoryRepository;
 import io.roach.movrapi.dao.RideRepository;
 import io.roach.movrapi.dto.LocationDetailsDTO;
-import io.roach.movrapi.entity.LocationHistory;
+import io.roach.movrapi.dto.RideStatementResultDTO;
+import io.roach.movrapi.dto.UserDTO;
+import io.roach.movrapi.dto.VehicleWithHistoryDTO;
+import io.roach.movrapi.dto.VehicleWithLocationDTO;
 import io.roach.movrapi.entity.Ride;
-import io.roach.movrapi.entity.User;
-import io.roach.movrapi.entity.Vehicle;
 import io.roach.movrapi.exception.InvalidUUIDException;
 import io.roach.movrapi.exception.InvalidValueException;
 import io.roach.movrapi.exception.InvalidVehicleStateException;
 import io.roach.movrapi.exception.NotFoundException;
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import org.mockito.MockitoAnnotations;
@@ -45,9 +50,6 @@ public class RideServiceImplTest {
     @Mock
     private RideRepository rideRepository;
 
-    @Mock
-    private LocationHistoryRepository locationHistoryRepository;
-
     @Mock
     private UserService userService;
 
@@ -57,87 +59,102 @@ public class RideServiceImplTest {
     private RideService rideService;
 
     @BeforeEach
-    public void init() throws NotFoundException, InvalidVehicleStateException {
+    public void init() throws NotFoundException {
 
         MockitoAnnotations.initMocks(this);
-        rideService = new RideServiceImpl(rideRepository, locationHistoryRepository, userService, vehicleService);
-        when(userService.getUser(TEST_EMAIL)).thenReturn(dummyUser());
-        when(vehicleService.getVehicle(TEST_VEHICLE_UUID)).thenReturn(dummyVehicle());
-        when(rideRepository.getActiveRide(TEST_VEHICLE_UUID, TEST_EMAIL))
-            .thenReturn(Collections.singletonList(dummyRide()));
-        when(vehicleService.checkoutVehicle(TEST_VEHICLE_UUID, START_LAT, START_LON, TEST_RIDE_START)).thenReturn(dummyVehicle());
-        when(locationHistoryRepository.findFirstByVehicleIdOrderByTimestampDesc(TEST_VEHICLE_UUID))
-            .thenReturn(dummyLocationHistory());
-
-//        when(vehicleService.checkinVehicle(TEST_VEHICLE_UUID, TEST_LAT, TEST_LON, TEST_BATTERY)).thenReturn(dummyVehicle());
+        rideService = new RideServiceImpl(rideRepository, userService, vehicleService);
+        when(userService.getUserProfile(TEST_EMAIL)).thenReturn(new UserDTO(TEST_EMAIL, null, null, null));
     }
 
-    
     @Test
     public void testStartRide() throws InvalidVehicleStateException, NotFoundException {
 
-        ArgumentCaptor<Ride> rideArgumentCaptor =
-            ArgumentCaptor.forClass(Ride.class);
+        ArgumentCaptor<UUID> rideIdCaptor = ArgumentCaptor.forClass(UUID.class);
+        when(rideRepository.startRide(rideIdCaptor.capture(), eq(TEST_VEHICLE_UUID), eq(TEST_EMAIL), eq(TEST_RIDE_START)))
+            .thenReturn(result(true, true, false, TEST_RIDE_END, TEST_RIDE_START, true));
 
-        rideService.startRide(TEST_VEHICLE_UUID, TEST_EMAIL, TEST_RIDE_START);
-        verify(rideRepository).save(rideArgumentCaptor.capture());
-        Ride ride = rideArgumentCaptor.getValue();
+        Ride ride = rideService.startRide(TEST_VEHICLE_UUID, TEST_EMAIL, TEST_RIDE_START);
+        assertEquals(rideIdCaptor.getValue(), ride.getId());
         assertEquals(TEST_EMAIL, ride.getUser().getEmail());
         assertEquals(TEST_VEHICLE_UUID, ride.getVehicle().getId());
         assertEquals(TEST_RIDE_START, ride.getStartTime());
-        verify(vehicleService).checkoutVehicle(TEST_VEHICLE_UUID, START_LAT, START_LON, TEST_RIDE_START);
+        // the vehicle is checked out where it was last checked in
+        verify(vehicleService).vehicleUpdated(TEST_VEHICLE_UUID, START_LAT, START_LON, true, TEST_RIDE_START);
+    }
+
+    @Test
+    public void testStartRideErrors() {
+
+        // the user, then the vehicle's location, then the vehicle's state is checked
+        assertStartRideThrows(NotFoundException.class, result(false, true, false, TEST_RIDE_END, null, false));
+        assertStartRideThrows(InvalidVehicleStateException.class, result(true, false, null, null, null, false));
+        assertStartRideThrows(InvalidVehicleStateException.class, result(true, true, false, null, null, false));
+        assertStartRideThrows(InvalidVehicleStateException.class, result(true, true, true, TEST_RIDE_END, null, false));
+        verify(vehicleService, never()).vehicleUpdated(any(), anyDouble(), anyDouble(), anyBoolean(), any());
     }
 
     @Test
     public void testEndRide() throws InvalidUUIDException, InvalidVehicleStateException,
         NotFoundException, InvalidValueException {
 
-        ArgumentCaptor<Ride> rideArgumentCaptor =
-            ArgumentCaptor.forClass(Ride.class);
+        when(rideRepository.endRide(TEST_VEHICLE_UUID, TEST_EMAIL, TEST_BATTERY, END_LAT, END_LON, TEST_RIDE_END))
+            .thenReturn(result(true, true, true, TEST_RIDE_START, TEST_RIDE_START, true));
 
         LocationDetailsDTO locationDetailsDTO = rideService.endRide(
             TEST_VEHICLE_UUID, TEST_EMAIL, TEST_BATTERY, END_LAT, END_LON, TEST_RIDE_END);
-        verify(rideRepository).save(rideArgumentCaptor.capture());
-        Ride ride = rideArgumentCaptor.getValue();
-        assertEquals(TEST_EMAIL, ride.getUser().getEmail());
-        assertEquals(TEST_VEHICLE_UUID, ride.getVehicle().getId());
-        assertNotNull(ride.getStartTime());
-        verify(vehicleService).checkinVehicle(TEST_VEHICLE_UUID, END_LAT, END_LON, TEST_BATTERY, TEST_RIDE_END);
+        verify(vehicleService).vehicleUpdated(TEST_VEHICLE_UUID, END_LAT, END_LON, false, TEST_RIDE_END);
 
         assertEquals(START_LAT, locationDetailsDTO.getLatitude(), "end lat doesn't match");
         assertEquals(START_LON, locationDetailsDTO.getLongitude(), "end lon doesn't match");
         assertEquals(TEST_RIDE_START, locationDetailsDTO.getTimestamp(), "end timestamp doesn't match");
     }
 
-
-    private User dummyUser() {
-        User user = new User();
-        user.setEmail(TEST_EMAIL);
-        return user;
+    @Test
+    public void testEndRideErrors() {
+
+        // the user, the vehicle, the active ride, the vehicle's location and then the vehicle's state is checked
+        assertEndRideThrows(NotFoundException.class, result(false, true, true, TEST_RIDE_START, TEST_RIDE_START, false));
+        assertEndRideThrows(NotFoundException.class, result(true, false, null, null, null, false));
+        assertEndRideThrows(NotFoundException.class, result(true, true, true, TEST_RIDE_START, null, false));
+        assertEndRideThrows(InvalidVehicleStateException.class, result(true, true, true, null, TEST_RIDE_START, false));
+        assertEndRideThrows(InvalidVehicleStateException.class,
+            result(true, true, false, TEST_RIDE_START, TEST_RIDE_START, false));
+        verify(vehicleService, never()).vehicleUpdated(any(), anyDouble(), anyDouble(), anyBoolean(), any());
     }
 
-    private Vehicle dummyVehicle() {
-        Vehicle vehicle = new Vehicle();
-        vehicle.setId(TEST_VEHICLE_UUID);
-        return vehicle;
+    @Test
+    public void testGetActiveRideVehicle() throws NotFoundException {
+
+        when(rideRepository.getActiveRideVehicle(TEST_VEHICLE_UUID, TEST_EMAIL)).thenReturn(Collections.singletonList(
+            new VehicleWithLocationDTO(TEST_VEHICLE_UUID, TEST_BATTERY, true, null, "{}", TEST_RIDE_START,
+                START_LAT, START_LON)));
+        VehicleWithLocationDTO vehicleWithLocationDTO = rideService.getActiveRideVehicle(TEST_VEHICLE_UUID, TEST_EMAIL);
+        assertEquals(TEST_VEHICLE_UUID, vehicleWithLocationDTO.getId());
+        assertEquals(START_LAT, vehicleWithLocationDTO.getLastLatitude());
+
+        // a known vehicle without an active ride for this user
+        when(rideRepository.getActiveRideVehicle(TEST_VEHICLE_UUID, TEST_EMAIL)).thenReturn(Collections.emptyList());
+        when(vehicleService.getVehicleDetails(TEST_VEHICLE_UUID)).thenReturn(new VehicleWithHistoryDTO());
+        assertThrows(NotFoundException.class, () -> rideService.getActiveRideVehicle(TEST_VEHICLE_UUID, TEST_EMAIL));
+        verify(vehicleService).getVehicleDetails(TEST_VEHICLE_UUID);
     }
 
-    private Ride dummyRide() {
-        Ride ride = new Ride();
-        ride.setId(UUID.randomUUID());
-        ride.setStartTime(TEST_RIDE_START);
-        ride.setVehicle(dummyVehicle());
-        ride.setUser(dummyUser());
-        return ride;
+    private void assertStartRideThrows(Class<? extends Exception> expected, RideStatementResultDTO result) {
+        when(rideRepository.startRide(any(), eq(TEST_VEHICLE_UUID), eq(TEST_EMAIL), eq(TEST_RIDE_START)))
+            .thenReturn(result);
+        assertThrows(expected, () -> rideService.startRide(TEST_VEHICLE_UUID, TEST_EMAIL, TEST_RIDE_START));
     }
 
-    private LocationHistory dummyLocationHistory() {
-        LocationHistory locationHistory = new LocationHistory();
-        locationHistory.setLongitude(START_LON);
-        locationHistory.setLatitude(START_LAT);
-        locationHistory.setVehicle(dummyVehicle());
-        locationHistory.setId(UUID.randomUUID());
-        return locationHistory;
+    private void assertEndRideThrows(Class<? extends Exception> expected, RideStatementResultDTO result) {
+        when(rideRepository.endRide(TEST_VEHICLE_UUID, TEST_EMAIL, TEST_BATTERY, END_LAT, END_LON, TEST_RIDE_END))
+            .thenReturn(result);
+        assertThrows(expected,
+            () -> rideService.endRide(TEST_VEHICLE_UUID, TEST_EMAIL, TEST_BATTERY, END_LAT, END_LON, TEST_RIDE_END));
     }
 
+    private RideStatementResultDTO result(boolean userFound, boolean vehicleFound, Boolean inUse,
+                                          Timestamp lastCheckin, Timestamp rideStart, boolean done) {
+        return new RideStatementResultDTO(userFound, vehicleFound, inUse, lastCheckin,
+            vehicleFound ? START_LAT : null, vehicleFound ? START_LON : null, rideStart, done);
+    }
 }
@@ -0,0 +1,97 @@
+package io.roach.movrapi.service;
+
+import java.sql.SQLException;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.roach.movrapi.exception.NotFoundException;
+import static io.roach.movrapi.service.ServiceMetricsAspect.OUTCOME_OK;
+import static io.roach.movrapi.service.ServiceMetricsAspect.OUTCOME_RETRY;
+import static io.roach.movrapi.service.ServiceMetricsAspect.TIMER;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import static org.mockito.Mockito.when;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.CannotAcquireLockException;
+
+/**
+ * Unit Tests for ServiceMetricsAspect.class
+ */
+
+public class ServiceMetricsAspectTest {
+
+    private static final String TEST_METHOD = "addLocations";
+
+    @Mock
+    private ProceedingJoinPoint joinPoint;
+
+    @Mock
+    private Signature signature;
+
+    @Mock
+    private VehicleService vehicleService;
+
+    private SimpleMeterRegistry meterRegistry;
+    private ServiceMetricsAspect serviceMetricsAspect;
+
+    @BeforeEach
+    public void init() {
+
+        MockitoAnnotations.initMocks(this);
+        meterRegistry = new SimpleMeterRegistry();
+        serviceMetricsAspect = new ServiceMetricsAspect(meterRegistry);
+        when(joinPoint.getSignature()).thenReturn(signature);
+        when(joinPoint.getTarget()).thenReturn(vehicleService);
+        when(signature.getName()).thenReturn(TEST_METHOD);
+    }
+
+    @Test
+    public void testTimesSuccessfulCalls() throws Throwable {
+
+        when(joinPoint.proceed()).thenReturn("done");
+
+        assertEquals("done", serviceMetricsAspect.time(joinPoint));
+        assertEquals("done", serviceMetricsAspect.time(joinPoint));
+
+        assertEquals(2, timer(OUTCOME_OK).count());
+    }
+
+    @Test
+    public void testTagsFailuresWithTheException() throws Throwable {
+
+        NotFoundException error = new NotFoundException("not found");
+        when(joinPoint.proceed()).thenThrow(error);
+
+        assertSame(error, assertThrows(NotFoundException.class, () -> serviceMetricsAspect.time(joinPoint)));
+
+        assertEquals(1, timer("NotFoundException").count());
+        assertNull(meterRegistry.find(TIMER).tag("outcome", OUTCOME_OK).timer());
+    }
+
+    @Test
+    public void testTagsRetryableFailuresAsRetries() throws Throwable {
+
+        CannotAcquireLockException error = new CannotAcquireLockException("restart transaction",
+            new SQLException("restart transaction", "40001"));
+        when(joinPoint.proceed()).thenThrow(error).thenReturn("done");
+
+        assertThrows(CannotAcquireLockException.class, () -> serviceMetricsAspect.time(joinPoint));
+        assertEquals("done", serviceMetricsAspect.time(joinPoint));
+
+        assertEquals(1, timer(OUTCOME_RETRY).count());
+        assertEquals(1, timer(OUTCOME_OK).count());
+    }
+
+    private Timer timer(String outcome) {
+        return meterRegistry.get(TIMER)
+            .tags("service", "VehicleService", "method", TEST_METHOD, "outcome", outcome)
+            .timer();
+    }
+}
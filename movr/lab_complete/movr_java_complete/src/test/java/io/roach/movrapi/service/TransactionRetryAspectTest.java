@@ -0,0 +1,136 @@
+package io.roach.movrapi.service;
+
+import java.sql.SQLException;
+
+import io.roach.movrapi.exception.NotFoundException;
+import io.roach.movrapi.exception.TransactionRetriesExhaustedException;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Unit Tests for TransactionRetryAspect.class
+ */
+
+public class TransactionRetryAspectTest {
+
+    private static final String TEST_METHOD = "VehicleServiceImpl.addLocations(..)";
+    private static final int MAX_ATTEMPTS = 3;
+
+    @Mock
+    private ProceedingJoinPoint joinPoint;
+
+    @Mock
+    private Signature signature;
+
+    private TransactionRetryAspect transactionRetryAspect;
+
+    @BeforeEach
+    public void init() {
+
+        MockitoAnnotations.initMocks(this);
+        // no backoff, so the tests don't sleep
+        transactionRetryAspect = new TransactionRetryAspect(MAX_ATTEMPTS, 0, 0, false, null);
+        when(joinPoint.getSignature()).thenReturn(signature);
+        when(signature.toShortString()).thenReturn(TEST_METHOD);
+    }
+
+    @AfterEach
+    public void cleanup() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        TransactionSynchronizationManager.setActualTransactionActive(false);
+    }
+
+    @Test
+    public void testRetriesUntilSuccess() throws Throwable {
+
+        when(joinPoint.proceed()).thenThrow(retryableError()).thenThrow(retryableError()).thenReturn("done");
+
+        assertEquals("done", transactionRetryAspect.retry(joinPoint));
+        verify(joinPoint, times(3)).proceed();
+
+        TransactionRetryAspect.RetryStats stats = transactionRetryAspect.getStats().get(TEST_METHOD);
+        assertEquals(1, stats.getCalls());
+        assertEquals(2, stats.getRetries());
+        assertEquals(0, stats.getGiveUps());
+        assertArrayEquals(new long[] { 0, 0, 1 }, stats.getAttemptsHistogram());
+        // and all the methods together, as published by MovrMetrics
+        assertArrayEquals(new long[] { 0, 0, 1 }, transactionRetryAspect.getAttemptsHistogram());
+    }
+
+    @Test
+    public void testGivesUpAfterMaxAttempts() throws Throwable {
+
+        CannotAcquireLockException error = retryableError();
+        when(joinPoint.proceed()).thenThrow(error);
+
+        TransactionRetriesExhaustedException e = assertThrows(TransactionRetriesExhaustedException.class,
+            () -> transactionRetryAspect.retry(joinPoint));
+        assertSame(error, e.getCause());
+        verify(joinPoint, times(MAX_ATTEMPTS)).proceed();
+
+        TransactionRetryAspect.RetryStats stats = transactionRetryAspect.getStats().get(TEST_METHOD);
+        assertEquals(1, stats.getCalls());
+        assertEquals(MAX_ATTEMPTS - 1, stats.getRetries());
+        assertEquals(1, stats.getGiveUps());
+    }
+
+    @Test
+    public void testDoesNotRetryOtherErrors() throws Throwable {
+
+        when(joinPoint.proceed()).thenThrow(new NotFoundException("not found"));
+
+        assertThrows(NotFoundException.class, () -> transactionRetryAspect.retry(joinPoint));
+        verify(joinPoint, times(1)).proceed();
+        assertEquals(0, transactionRetryAspect.getStats().get(TEST_METHOD).getRetries());
+    }
+
+    @Test
+    public void testDoesNotRetryInsideAnotherTransaction() throws Throwable {
+
+        CannotAcquireLockException error = retryableError();
+        when(joinPoint.proceed()).thenThrow(error);
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+
+        // the error goes back to the method that started the transaction, which retries the whole thing
+        assertSame(error, assertThrows(CannotAcquireLockException.class, () -> transactionRetryAspect.retry(joinPoint)));
+        verify(joinPoint, times(1)).proceed();
+        assertTrue(transactionRetryAspect.getStats().isEmpty());
+    }
+
+    @Test
+    public void testIsRetryable() {
+
+        assertTrue(TransactionRetryAspect.isRetryable(retryableError()));
+        assertFalse(TransactionRetryAspect.isRetryable(
+            new CannotAcquireLockException("lock timeout", new SQLException("lock timeout", "55P03"))));
+        assertFalse(TransactionRetryAspect.isRetryable(new IllegalStateException()));
+
+        // the SQLSTATE can also be on a chained SQLException (e.g. the failed statement of a batch)
+        SQLException batchError = new SQLException("batch entry 0 failed", "XX000");
+        batchError.setNextException(new SQLException("restart transaction", TransactionRetryAspect.RETRY_SQL_STATE));
+        assertTrue(TransactionRetryAspect.isRetryable(new RuntimeException(batchError)));
+    }
+
+    private CannotAcquireLockException retryableError() {
+        return new CannotAcquireLockException("could not serialize access",
+            new SQLException("restart transaction", TransactionRetryAspect.RETRY_SQL_STATE));
+    }
+}
@@ -0,0 +1,145 @@
+package io.roach.movrapi.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.roach.movrapi.MovrApiApplication;
+import io.roach.movrapi.TestDatabase;
+import io.roach.movrapi.TestFixtures;
+import io.roach.movrapi.exception.NotFoundException;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * Has several threads at a time remove the same vehicle, and delete the same user, so that the SERIALIZABLE
+ * read-then-delete transactions keep conflicting, and checks that the conflicts are retried rather than reported:
+ * each removal is done by one thread, and the others end up finding nothing left to remove.
+ */
+
+@SpringBootTest(classes = MovrApiApplication.class)
+public class TransactionRetryContentionTest {
+
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 25;
+
+    @Autowired
+    private VehicleService vehicleService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private TransactionRetryAspect transactionRetryAspect;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @DynamicPropertySource
+    static void databaseProperties(DynamicPropertyRegistry registry) throws Exception {
+        TestDatabase.register(registry);
+        registry.add("movr.transaction-retry.max-attempts", () -> "50");
+        registry.add("movr.transaction-retry.initial-backoff-ms", () -> "1");
+        registry.add("movr.transaction-retry.max-backoff-ms", () -> "50");
+    }
+
+    @Test
+    public void testConflictingVehicleRemovalsAreRetried() throws InterruptedException {
+
+        List<UUID> vehicleIds = new ArrayList<>();
+        for (int i = 0; i < ROUNDS; i++) {
+            vehicleIds.add(TestFixtures.addVehicle(jdbcTemplate));
+        }
+        long retriesBefore = retries("removeVehicle");
+
+        race(vehicleIds, vehicleService::removeVehicle);
+
+        // the database did abort conflicting transactions, and they were run again
+        assertTrue(retries("removeVehicle") > retriesBefore);
+        for (UUID vehicleId : vehicleIds) {
+            assertEquals(0, jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM vehicles WHERE id = ?", Integer.class, vehicleId));
+        }
+    }
+
+    @Test
+    public void testConflictingUserDeletesAreRetried() throws InterruptedException {
+
+        List<String> emails = new ArrayList<>();
+        for (int i = 0; i < ROUNDS; i++) {
+            emails.add(TestFixtures.addUser(jdbcTemplate));
+        }
+        long retriesBefore = retries("UserServiceImpl.delete");
+
+        race(emails, userService::delete);
+
+        assertTrue(retries("UserServiceImpl.delete") > retriesBefore);
+        for (String email : emails) {
+            assertEquals(0, jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM users WHERE email = ?", Integer.class, email));
+        }
+    }
+
+    /**
+     * Has all the threads remove each of the targets at the same time, and checks that each was removed exactly
+     * once, with no errors other than NotFoundException reaching the callers.
+     */
+    private <T> void race(List<T> targets, Removal<T> removal) throws InterruptedException {
+        AtomicInteger removed = new AtomicInteger();
+        AtomicInteger notFound = new AtomicInteger();
+        ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        for (int thread = 0; thread < THREADS; thread++) {
+            executor.execute(() -> {
+                try {
+                    for (T target : targets) {
+                        barrier.await();
+                        try {
+                            removal.remove(target);
+                            removed.incrementAndGet();
+                        } catch (NotFoundException e) {
+                            // somebody else removed it first
+                            notFound.incrementAndGet();
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                    barrier.reset();
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(2, TimeUnit.MINUTES));
+
+        List<Throwable> unexpected = new ArrayList<>(errors);
+        assertTrue(unexpected.isEmpty(), () -> "unexpected errors: " + unexpected);
+        assertEquals(targets.size(), removed.get());
+        assertEquals(targets.size() * (THREADS - 1), notFound.get());
+    }
+
+    private long retries(String method) {
+        return transactionRetryAspect.getStats().entrySet().stream()
+            .filter(entry -> entry.getKey().contains(method))
+            .mapToLong(entry -> entry.getValue().getRetries())
+            .sum();
+    }
+
+    @FunctionalInterface
+    private interface Removal<T> {
+
+        void remove(T target) throws Exception;
+    }
+}
@@ -0,0 +1,90 @@
+package io.roach.movrapi.service;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.UUID;
+
+import io.roach.movrapi.MovrApiApplication;
+import io.roach.movrapi.TestDatabase;
+import io.roach.movrapi.TestFixtures;
+import io.roach.movrapi.dto.VehicleLocationDTO;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * Retries a location history write from its savepoint: a trigger fails the first insert for the test's vehicle with
+ * SQLSTATE 40001 (as CockroachDB would on a conflict), and fails any later one that isn't in the same transaction.
+ */
+
+@SpringBootTest(classes = MovrApiApplication.class)
+public class TransactionRetrySavepointTest {
+
+    @Autowired
+    private VehicleService vehicleService;
+
+    @Autowired
+    private TransactionRetryAspect transactionRetryAspect;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @DynamicPropertySource
+    static void databaseProperties(DynamicPropertyRegistry registry) throws Exception {
+        TestDatabase.register(registry);
+        registry.add("movr.transaction-retry.savepoints", () -> "true");
+        registry.add("movr.transaction-retry.initial-backoff-ms", () -> "0");
+    }
+
+    @AfterEach
+    public void cleanup() {
+        jdbcTemplate.execute("DROP TRIGGER IF EXISTS savepoint_retry_test ON location_history");
+        jdbcTemplate.execute("DROP FUNCTION IF EXISTS savepoint_retry_test()");
+        jdbcTemplate.execute("DROP SEQUENCE IF EXISTS savepoint_retry_test_attempts");
+        jdbcTemplate.execute("DROP SEQUENCE IF EXISTS savepoint_retry_test_txid");
+    }
+
+    @Test
+    public void testRetriesInTheSameTransaction() {
+
+        UUID vehicleId = TestFixtures.addVehicle(jdbcTemplate, "2020-11-01 09:00:00");
+        // sequences aren't rolled back, so they count the attempts across the rollbacks to the savepoint
+        jdbcTemplate.execute("CREATE SEQUENCE savepoint_retry_test_attempts");
+        jdbcTemplate.execute("CREATE SEQUENCE savepoint_retry_test_txid");
+        jdbcTemplate.execute("CREATE FUNCTION savepoint_retry_test() RETURNS trigger AS $$ BEGIN " +
+            "IF NEW.vehicle_id = '" + vehicleId + "' THEN " +
+            "  IF nextval('savepoint_retry_test_attempts') = 1 THEN " +
+            "    PERFORM setval('savepoint_retry_test_txid', txid_current()); " +
+            "    RAISE EXCEPTION 'restart transaction' USING ERRCODE = '40001'; " +
+            "  ELSIF (SELECT last_value FROM savepoint_retry_test_txid) <> txid_current() THEN " +
+            "    RAISE EXCEPTION 'retried in a new transaction'; " +
+            "  END IF; " +
+            "END IF; " +
+            "RETURN NEW; END $$ LANGUAGE plpgsql");
+        jdbcTemplate.execute("CREATE TRIGGER savepoint_retry_test BEFORE INSERT ON location_history " +
+            "FOR EACH ROW EXECUTE PROCEDURE savepoint_retry_test()");
+        long retriesBefore = retries();
+
+        assertEquals(1, vehicleService.addLocations(Arrays.asList(new VehicleLocationDTO(vehicleId,
+            Timestamp.valueOf("2020-11-01 10:00:00"), 40.71, -74.01))));
+
+        assertEquals(1, retries() - retriesBefore);
+        assertEquals(2, (long) jdbcTemplate.queryForObject(
+            "SELECT last_value FROM savepoint_retry_test_attempts", Long.class));
+        assertEquals(1, TestFixtures.historyRows(jdbcTemplate, vehicleId));
+        assertEquals(40.71, jdbcTemplate.queryForObject(
+            "SELECT last_latitude FROM vehicles WHERE id = ?", Double.class, vehicleId));
+    }
+
+    private long retries() {
+        return transactionRetryAspect.getStats().entrySet().stream()
+            .filter(entry -> entry.getKey().contains("addLocations"))
+            .mapToLong(entry -> entry.getValue().getRetries())
+            .sum();
+    }
+}
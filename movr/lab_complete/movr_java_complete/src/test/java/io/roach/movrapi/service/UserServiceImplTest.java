@@ -1,13 +1,17 @@
 package io.roach.movrapi.service;
 
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.Optional;
 
 import io.roach.movrapi.dao.UserRepository;
+import io.roach.movrapi.dto.UserDTO;
 import io.roach.movrapi.entity.User;
 import io.roach.movrapi.exception.NotFoundException;
 import io.roach.movrapi.exception.UserAlreadyExistsException;
+import io.roach.movrapi.mapper.EntityCopyMapper;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeEach;
@@ -15,10 +19,10 @@ import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import static org.mockito.ArgumentMatchers.any;
 import org.mockito.Mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import org.mockito.MockitoAnnotations;
-import org.modelmapper.ModelMapper;
 
 /**
  * Unit Tests for UserServiceImpl.class
@@ -36,17 +40,18 @@ public class UserServiceImplTest {
     @Mock
     private UserRepository userRepository;
 
-    private ModelMapper modelMapper = new ModelMapper();
-
     private UserService userService;
 
     @BeforeEach
     public void init() {
 
         MockitoAnnotations.initMocks(this);
-        userService = new UserServiceImpl(userRepository);
+        userService = new UserServiceImpl(userRepository,
+            new EntityCache<>("users", 100, Duration.ofMinutes(1), EntityCopyMapper.INSTANCE::copy));
         when(userRepository.findById(TEST_EMAIL_EXISTING)).thenReturn(Optional.of(dummyUser(TEST_EMAIL_EXISTING)));
         when(userRepository.save(any(User.class))).thenReturn(dummyUser(TEST_EMAIL));
+        when(userRepository.findProfile(TEST_EMAIL_EXISTING))
+            .thenReturn(new UserDTO(TEST_EMAIL_EXISTING, TEST_LNAME, TEST_FNAME, PHONE_ARRAY));
     }
 
     @Test()
@@ -83,6 +88,35 @@ public class UserServiceImplTest {
         assertEquals(TEST_EMAIL_EXISTING, user.getEmail());
     }
 
+    @Test
+    public void testGetIsCached() throws NotFoundException {
+        User first = userService.getUser(TEST_EMAIL_EXISTING);
+        User second = userService.getUser(TEST_EMAIL_EXISTING);
+        assertEquals(TEST_EMAIL_EXISTING, second.getEmail());
+        // each caller gets its own copy
+        assertNotSame(first, second);
+        verify(userRepository, times(1)).findById(TEST_EMAIL_EXISTING);
+    }
+
+    @Test
+    public void testRemoveInvalidatesCache() throws NotFoundException {
+        userService.getUser(TEST_EMAIL_EXISTING);
+        userService.delete(TEST_EMAIL_EXISTING);
+        userService.getUser(TEST_EMAIL_EXISTING);
+        // the first get, the delete, and the get after the delete
+        verify(userRepository, times(3)).findById(TEST_EMAIL_EXISTING);
+    }
+
+    @Test
+    public void testGetProfile() throws NotFoundException {
+        assertThrows(NotFoundException.class, () -> {
+            userService.getUserProfile(TEST_EMAIL);
+        });
+        UserDTO userDTO = userService.getUserProfile(TEST_EMAIL_EXISTING);
+        assertEquals(TEST_EMAIL_EXISTING, userDTO.getEmail());
+        assertEquals(Arrays.asList(PHONE_ARRAY), userDTO.getPhoneNumbers());
+    }
+
     @Test
     public void testRemove() throws NotFoundException {
 
@@ -0,0 +1,179 @@
+package io.roach.movrapi.service;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.roach.movrapi.MovrApiApplication;
+import io.roach.movrapi.TestDatabase;
+import io.roach.movrapi.TestFixtures;
+import io.roach.movrapi.exception.InvalidVehicleStateException;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * Runs concurrent ride starts and ends on the same vehicles, and checks that no vehicle is ever checked out twice,
+ * and that the conditional updates settle who gets a vehicle without any transaction having to be retried.
+ */
+
+@SpringBootTest(classes = MovrApiApplication.class)
+public class VehicleCheckoutContentionTest {
+
+    private static final int RACING_RIDERS = 100;
+    private static final int THREADS = 16;
+    private static final int RIDES_PER_THREAD = 25;
+    private static final int VEHICLES = 4;
+    private static final String LAST_CHECKIN = "2020-10-30 11:00:00";
+    private static final long FIRST_TIMESTAMP = Timestamp.valueOf("2020-10-30 12:00:00").getTime();
+
+    @Autowired
+    private RideService rideService;
+
+    @Autowired
+    private TransactionRetryAspect transactionRetryAspect;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @DynamicPropertySource
+    static void databaseProperties(DynamicPropertyRegistry registry) throws Exception {
+        TestDatabase.register(registry);
+    }
+
+    @Test
+    public void testOneWinnerWhenRidersRaceForOneVehicle() throws InterruptedException {
+
+        UUID vehicleId = TestFixtures.addVehicle(jdbcTemplate, LAST_CHECKIN);
+        String[] emails = new String[RACING_RIDERS];
+        for (int rider = 0; rider < RACING_RIDERS; rider++) {
+            emails[rider] = TestFixtures.addUser(jdbcTemplate);
+        }
+        long retriesBefore = rideRetries();
+
+        AtomicLong clock = new AtomicLong(FIRST_TIMESTAMP);
+        AtomicInteger winners = new AtomicInteger();
+        AtomicInteger losers = new AtomicInteger();
+        ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(RACING_RIDERS);
+        for (int rider = 0; rider < RACING_RIDERS; rider++) {
+            String email = emails[rider];
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    rideService.startRide(vehicleId, email, new Timestamp(clock.incrementAndGet()));
+                    winners.incrementAndGet();
+                } catch (InvalidVehicleStateException e) {
+                    losers.incrementAndGet();
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(2, TimeUnit.MINUTES));
+
+        List<Throwable> unexpected = new ArrayList<>(errors);
+        assertTrue(unexpected.isEmpty(), () -> "unexpected errors: " + unexpected);
+        assertEquals(1, winners.get());
+        assertEquals(RACING_RIDERS - 1, losers.get());
+        assertEquals(retriesBefore, rideRetries());
+
+        // only the winner changed the vehicle, and left a ride and a location history row behind
+        assertEquals(Boolean.TRUE, jdbcTemplate.queryForObject(
+            "SELECT in_use FROM vehicles WHERE id = ?", Boolean.class, vehicleId));
+        assertEquals(1, TestFixtures.historyRows(jdbcTemplate, vehicleId));
+        assertEquals(1, jdbcTemplate.queryForObject(
+            "SELECT count(*) FROM rides WHERE vehicle_id = ?", Integer.class, vehicleId));
+    }
+
+    @Test
+    public void testConcurrentCheckoutsAndCheckins() throws InterruptedException {
+
+        UUID[] vehicleIds = new UUID[VEHICLES];
+        for (int i = 0; i < VEHICLES; i++) {
+            vehicleIds[i] = TestFixtures.addVehicle(jdbcTemplate, LAST_CHECKIN);
+        }
+        String[] emails = new String[THREADS];
+        for (int thread = 0; thread < THREADS; thread++) {
+            emails[thread] = TestFixtures.addUser(jdbcTemplate);
+        }
+        long retriesBefore = rideRetries();
+
+        // every location history row needs its own timestamp, as they are keyed by (vehicle, timestamp)
+        AtomicLong clock = new AtomicLong(FIRST_TIMESTAMP);
+        AtomicInteger rides = new AtomicInteger();
+        // who is riding each vehicle, as far as the threads know
+        ConcurrentHashMap<UUID, Integer> riders = new ConcurrentHashMap<>();
+        ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        for (int thread = 0; thread < THREADS; thread++) {
+            int rider = thread;
+            String email = emails[thread];
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    for (int ride = 0; ride < RIDES_PER_THREAD; ride++) {
+                        UUID vehicleId = vehicleIds[(rider + ride) % VEHICLES];
+                        try {
+                            rideService.startRide(vehicleId, email, new Timestamp(clock.incrementAndGet()));
+                        } catch (InvalidVehicleStateException e) {
+                            // somebody else is riding it
+                            continue;
+                        }
+                        Integer otherRider = riders.putIfAbsent(vehicleId, rider);
+                        if (otherRider != null) {
+                            errors.add(new AssertionError(vehicleId + " checked out by " + rider + " and " + otherRider));
+                        }
+                        riders.remove(vehicleId, rider);
+                        rideService.endRide(vehicleId, email, 80, 40.71, -74.01, new Timestamp(clock.incrementAndGet()));
+                        rides.incrementAndGet();
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(2, TimeUnit.MINUTES));
+
+        List<Throwable> unexpected = new ArrayList<>(errors);
+        assertTrue(unexpected.isEmpty(), () -> "unexpected errors: " + unexpected);
+        assertTrue(rides.get() > 0);
+        assertEquals(retriesBefore, rideRetries());
+
+        // every ride that got its vehicle left exactly two location history rows behind, and all vehicles are back
+        int historyRows = 0;
+        for (UUID vehicleId : vehicleIds) {
+            historyRows += TestFixtures.historyRows(jdbcTemplate, vehicleId);
+            assertEquals(Boolean.FALSE, jdbcTemplate.queryForObject(
+                "SELECT in_use FROM vehicles WHERE id = ?", Boolean.class, vehicleId));
+        }
+        assertEquals(2 * rides.get(), historyRows);
+    }
+
+    private long rideRetries() {
+        return transactionRetryAspect.getStats().entrySet().stream()
+            .filter(entry -> entry.getKey().contains("startRide") || entry.getKey().contains("endRide"))
+            .mapToLong(entry -> entry.getValue().getRetries() + entry.getValue().getGiveUps())
+            .sum();
+    }
+}
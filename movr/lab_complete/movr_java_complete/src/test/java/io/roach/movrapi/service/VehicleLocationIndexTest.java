@@ -0,0 +1,186 @@
+package io.roach.movrapi.service;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import io.roach.movrapi.dao.VehicleRepository;
+import io.roach.movrapi.dto.NearbyVehicleDTO;
+import io.roach.movrapi.util.Geodesy;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.domain.Pageable;
+
+/**
+ * Unit Tests for the VehicleLocationIndex.class
+ */
+
+public class VehicleLocationIndexTest {
+
+    private static final double TEST_LAT = 40.7128;
+    private static final double TEST_LON = -74.0060;
+    private static final Timestamp TEST_TIME = Timestamp.valueOf("2020-10-30 12:00:00");
+    private static final Timestamp TEST_LATER_TIME = Timestamp.valueOf("2020-10-30 12:30:00");
+
+    @Mock
+    private VehicleRepository vehicleRepository;
+
+    private VehicleLocationIndex vehicleLocationIndex;
+
+    @BeforeEach
+    public void init() {
+
+        MockitoAnnotations.initMocks(this);
+        vehicleLocationIndex = new VehicleLocationIndex(vehicleRepository);
+    }
+
+    @Test
+    public void testFindNearbyMatchesFullScan() {
+
+        // fixed seed so a failure can be reproduced
+        Random random = new Random(7);
+        List<NearbyVehicleDTO> vehicles = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            NearbyVehicleDTO vehicle = new NearbyVehicleDTO(UUID.randomUUID(), random.nextInt(10) < 3,
+                TEST_LAT + (random.nextDouble() - 0.5) * 0.4, TEST_LON + (random.nextDouble() - 0.5) * 0.4,
+                TEST_TIME, 0d);
+            vehicles.add(vehicle);
+            vehicleLocationIndex.update(vehicle.getId(), vehicle.getLastLatitude(), vehicle.getLastLongitude(),
+                vehicle.isInUse(), TEST_TIME);
+        }
+        assertEquals(vehicles.size(), vehicleLocationIndex.size());
+
+        for (int i = 0; i < 300; i++) {
+            double latitude = TEST_LAT + (random.nextDouble() - 0.5) * 0.5;
+            double longitude = TEST_LON + (random.nextDouble() - 0.5) * 0.5;
+            double radiusMeters = 50 + random.nextDouble() * 20000;
+            boolean availableOnly = random.nextBoolean();
+            int maxVehicles = 1 + random.nextInt(50);
+
+            List<NearbyVehicleDTO> expected = fullScan(vehicles, latitude, longitude, radiusMeters, availableOnly,
+                maxVehicles);
+            List<NearbyVehicleDTO> nearby = vehicleLocationIndex.findNearby(latitude, longitude, radiusMeters,
+                availableOnly, maxVehicles);
+
+            assertEquals(expected.size(), nearby.size());
+            for (int j = 0; j < expected.size(); j++) {
+                assertEquals(expected.get(j).getId(), nearby.get(j).getId());
+                assertEquals(expected.get(j).getDistanceMeters(), nearby.get(j).getDistanceMeters(), 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void testUpdateMovesVehicle() {
+
+        UUID vehicleId = UUID.randomUUID();
+        vehicleLocationIndex.update(vehicleId, TEST_LAT, TEST_LON, false, TEST_TIME);
+        assertEquals(1, vehicleLocationIndex.findNearby(TEST_LAT, TEST_LON, 100, true, 10).size());
+
+        // checked out and ridden about 5 km north
+        vehicleLocationIndex.update(vehicleId, TEST_LAT + 0.045, TEST_LON, true, TEST_LATER_TIME);
+        assertTrue(vehicleLocationIndex.findNearby(TEST_LAT, TEST_LON, 1000, false, 10).isEmpty());
+        assertTrue(vehicleLocationIndex.findNearby(TEST_LAT + 0.045, TEST_LON, 100, true, 10).isEmpty());
+
+        List<NearbyVehicleDTO> nearby = vehicleLocationIndex.findNearby(TEST_LAT + 0.045, TEST_LON, 100, false, 10);
+        assertEquals(1, nearby.size());
+        assertTrue(nearby.get(0).isInUse());
+        assertEquals(TEST_LATER_TIME, nearby.get(0).getTimestamp());
+        assertEquals(1, vehicleLocationIndex.size());
+    }
+
+    @Test
+    public void testOlderPositionIgnored() {
+
+        UUID vehicleId = UUID.randomUUID();
+        vehicleLocationIndex.update(vehicleId, TEST_LAT, TEST_LON, false, TEST_LATER_TIME);
+        vehicleLocationIndex.update(vehicleId, TEST_LAT + 0.045, TEST_LON, true, TEST_TIME);
+
+        List<NearbyVehicleDTO> nearby = vehicleLocationIndex.findNearby(TEST_LAT, TEST_LON, 100, true, 10);
+        assertEquals(1, nearby.size());
+        assertEquals(TEST_LATER_TIME, nearby.get(0).getTimestamp());
+    }
+
+    @Test
+    public void testRemove() {
+
+        UUID removedId = UUID.randomUUID();
+        UUID keptId = UUID.randomUUID();
+        vehicleLocationIndex.update(removedId, TEST_LAT, TEST_LON, false, TEST_TIME);
+        vehicleLocationIndex.update(keptId, TEST_LAT, TEST_LON + 0.0001, false, TEST_TIME);
+
+        vehicleLocationIndex.remove(removedId);
+        vehicleLocationIndex.remove(UUID.randomUUID());
+
+        List<NearbyVehicleDTO> nearby = vehicleLocationIndex.findNearby(TEST_LAT, TEST_LON, 100, false, 10);
+        assertEquals(1, nearby.size());
+        assertEquals(keptId, nearby.get(0).getId());
+
+        // the freed slot is reused
+        vehicleLocationIndex.update(UUID.randomUUID(), TEST_LAT, TEST_LON, false, TEST_TIME);
+        assertEquals(2, vehicleLocationIndex.findNearby(TEST_LAT, TEST_LON, 100, false, 10).size());
+    }
+
+    @Test
+    public void testFindNearbyAcrossAntimeridian() {
+
+        UUID vehicleId = UUID.randomUUID();
+        vehicleLocationIndex.update(vehicleId, -16.5, 179.9995, false, TEST_TIME);
+
+        List<NearbyVehicleDTO> nearby = vehicleLocationIndex.findNearby(-16.5, -179.9995, 500, true, 10);
+        assertEquals(1, nearby.size());
+        assertEquals(vehicleId, nearby.get(0).getId());
+    }
+
+    @Test
+    public void testRebuild() {
+
+        List<NearbyVehicleDTO> firstBatch = Arrays.asList(
+            new NearbyVehicleDTO(UUID.randomUUID(), false, TEST_TIME, TEST_LAT, TEST_LON),
+            new NearbyVehicleDTO(UUID.randomUUID(), true, TEST_TIME, TEST_LAT, TEST_LON + 0.001));
+        when(vehicleRepository.findVehiclePositionsAfter(eq(new UUID(0L, 0L)), any(Pageable.class)))
+            .thenReturn(firstBatch);
+        when(vehicleRepository.findVehiclePositionsAfter(eq(firstBatch.get(1).getId()), any(Pageable.class)))
+            .thenReturn(Collections.emptyList());
+
+        // a vehicle that is no longer in the database goes away
+        vehicleLocationIndex.update(UUID.randomUUID(), TEST_LAT, TEST_LON, false, TEST_TIME);
+        assertEquals(-1L, vehicleLocationIndex.getStalenessMillis());
+
+        vehicleLocationIndex.rebuild();
+
+        assertEquals(2, vehicleLocationIndex.size());
+        assertTrue(vehicleLocationIndex.getStalenessMillis() >= 0L);
+        List<NearbyVehicleDTO> nearby = vehicleLocationIndex.findNearby(TEST_LAT, TEST_LON, 1000, true, 10);
+        assertEquals(1, nearby.size());
+        assertEquals(firstBatch.get(0).getId(), nearby.get(0).getId());
+    }
+
+    private static List<NearbyVehicleDTO> fullScan(List<NearbyVehicleDTO> vehicles, double latitude,
+                                                   double longitude, double radiusMeters, boolean availableOnly,
+                                                   int maxVehicles) {
+        List<NearbyVehicleDTO> matches = new ArrayList<>();
+        for (NearbyVehicleDTO vehicle : vehicles) {
+            double distance = Geodesy.haversine(latitude, longitude, vehicle.getLastLatitude(),
+                vehicle.getLastLongitude()) * 1000d;
+            if (distance <= radiusMeters && !(availableOnly && vehicle.isInUse())) {
+                matches.add(new NearbyVehicleDTO(vehicle.getId(), vehicle.isInUse(), vehicle.getLastLatitude(),
+                    vehicle.getLastLongitude(), vehicle.getTimestamp(), distance));
+            }
+        }
+        matches.sort(Comparator.comparingDouble(NearbyVehicleDTO::getDistanceMeters));
+        return matches.subList(0, Math.min(maxVehicles, matches.size()));
+    }
+}
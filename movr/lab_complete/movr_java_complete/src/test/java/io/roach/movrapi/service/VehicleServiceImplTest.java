@@ -1,30 +1,47 @@
 package io.roach.movrapi.service;
 
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
+import io.roach.movrapi.dao.LocationHistoryBatchWriter;
+import io.roach.movrapi.dao.LocationHistoryBlockStore;
 import io.roach.movrapi.dao.LocationHistoryRepository;
 import io.roach.movrapi.dao.VehicleRepository;
-import io.roach.movrapi.dao.VehicleWithLocationRepository;
+import io.roach.movrapi.dto.LocationDetailsDTO;
+import io.roach.movrapi.dto.NearbyVehicleDTO;
 import io.roach.movrapi.dto.VehicleInfoDTO;
+import io.roach.movrapi.dto.VehicleLocationDTO;
+import io.roach.movrapi.dto.VehicleWithHistoryDTO;
+import io.roach.movrapi.dto.VehicleWithLocationDTO;
 import io.roach.movrapi.entity.LocationHistory;
 import io.roach.movrapi.entity.Vehicle;
-import io.roach.movrapi.exception.InvalidUUIDException;
 import io.roach.movrapi.exception.InvalidVehicleStateException;
 import io.roach.movrapi.exception.NotFoundException;
+import io.roach.movrapi.mapper.EntityCopyMapper;
+import io.roach.movrapi.util.JsonCodec;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.json.JSONObject;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.mockito.ArgumentCaptor;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import org.mockito.Mock;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.verify;
@@ -55,10 +72,15 @@ public class VehicleServiceImplTest {
     private VehicleRepository vehicleRepository;
 
     @Mock
-    private VehicleWithLocationRepository vehicleWithLocationRepository;
+    private LocationHistoryRepository locationHistoryRepository;
 
     @Mock
-    private LocationHistoryRepository locationHistoryRepository;
+    private LocationHistoryBatchWriter locationHistoryBatchWriter;
+
+    @Mock
+    private LocationHistoryBlockStore locationHistoryBlockStore;
+
+    private VehicleLocationIndex vehicleLocationIndex;
 
     private VehicleService vehicleService;
 
@@ -66,7 +88,10 @@ public class VehicleServiceImplTest {
     public void init() {
 
         MockitoAnnotations.initMocks(this);
-        vehicleService = new VehicleServiceImpl(vehicleRepository, vehicleWithLocationRepository, locationHistoryRepository);
+        vehicleLocationIndex = new VehicleLocationIndex(vehicleRepository);
+        vehicleService = new VehicleServiceImpl(vehicleRepository, locationHistoryRepository,
+            locationHistoryBatchWriter, locationHistoryBlockStore, new JsonCodec(new ObjectMapper()),
+            vehicleLocationIndex, new EntityCache<>("vehicles", 100, Duration.ofMinutes(1), EntityCopyMapper.INSTANCE::copy));
         when(vehicleRepository.findById(TEST_EXISTING_VEHICLE_UUID))
             .thenReturn(Optional.of(dummyVehicle(TEST_EXISTING_VEHICLE_UUID, false)));
         when(locationHistoryRepository.save(any(LocationHistory.class))).thenReturn(dummyLocationHistory(NON_EXISTING_VEHICLE_UUID));
@@ -104,6 +129,11 @@ public class VehicleServiceImplTest {
         assertEquals(TEST_NEW_LON, locationHistory.getLongitude());
         assertEquals(NON_EXISTING_VEHICLE_UUID, locationHistory.getVehicle().getId());
         assertNotNull(locationHistory.getTimestamp());
+
+        // the starting location is recorded on the vehicle itself
+        assertEquals(TEST_NEW_LAT, vehicle.getLastLatitude());
+        assertEquals(TEST_NEW_LON, vehicle.getLastLongitude());
+        assertEquals(locationHistory.getTimestamp(), vehicle.getLastCheckin());
     }
 
     @Test
@@ -121,112 +151,148 @@ public class VehicleServiceImplTest {
 
 
     @Test
-    public void testRemove() throws NotFoundException,InvalidVehicleStateException {
-
-        ArgumentCaptor<Vehicle> vehicleArgumentCaptor =
-            ArgumentCaptor.forClass(Vehicle.class);
-
-        assertThrows(NotFoundException.class, () -> {
-            vehicleService.removeVehicle(NON_EXISTING_VEHICLE_UUID);
-        });
-        vehicleService.removeVehicle(TEST_EXISTING_VEHICLE_UUID);
-        // TBD Add test for InvalidVehicleStateException (in use)
-        verify(vehicleRepository).delete(vehicleArgumentCaptor.capture());
-
-        assertEquals(TEST_EXISTING_VEHICLE_UUID, vehicleArgumentCaptor.getValue().getId());
+    public void testGetVehiclesWithLocationPaging() {
+
+        // one more row than requested means there is another page
+        when(vehicleRepository.findVehiclesWithLocation(PageRequest.of(0, 3)))
+            .thenReturn(dummyVehiclesWithLocation(3));
+        Slice<VehicleWithLocationDTO> firstPage = vehicleService.getVehiclesWithLocation(2, null);
+        assertEquals(2, firstPage.getContent().size());
+        assertTrue(firstPage.hasNext());
+
+        UUID lastId = firstPage.getContent().get(1).getId();
+        when(vehicleRepository.findVehiclesWithLocationAfter(lastId, PageRequest.of(0, 3)))
+            .thenReturn(dummyVehiclesWithLocation(1));
+        Slice<VehicleWithLocationDTO> lastPage = vehicleService.getVehiclesWithLocation(2, lastId);
+        assertEquals(1, lastPage.getContent().size());
+        assertFalse(lastPage.hasNext());
     }
 
     @Test
-    public void testCheckoutVehicle() throws NotFoundException, InvalidVehicleStateException {
+    public void testGetVehiclesWithLocationPageSize() {
 
-        configureVehicleSaveAsUpdate(false);
+        when(vehicleRepository.findVehiclesWithLocation(any())).thenReturn(new ArrayList<>());
 
-        ArgumentCaptor<Vehicle> vehicleArgumentCaptor =
-            ArgumentCaptor.forClass(Vehicle.class);
-        ArgumentCaptor<LocationHistory> locationHistoryArgumentCaptor =
-            ArgumentCaptor.forClass(LocationHistory.class);
-        assertThrows(NotFoundException.class, () -> {
-            vehicleService.checkoutVehicle(NON_EXISTING_VEHICLE_UUID, TEST_OLD_LAT, TEST_OLD_LON, TEST_START_TIME);
-        });
-
-        vehicleService.checkoutVehicle(TEST_EXISTING_VEHICLE_UUID, TEST_OLD_LAT, TEST_OLD_LON, TEST_START_TIME);
-        verify(vehicleRepository).save(vehicleArgumentCaptor.capture());
+        vehicleService.getVehiclesWithLocation(null, null);
+        verify(vehicleRepository).findVehiclesWithLocation(PageRequest.of(0, VehicleService.MAX_VEHICLES_TO_RETURN + 1));
 
-        Vehicle vehicle = vehicleArgumentCaptor.getValue();
-        assertEquals(TEST_EXISTING_VEHICLE_UUID, vehicle.getId());
-        assertEquals(true, vehicle.getInUse());
-        
-        verify(locationHistoryRepository).save(locationHistoryArgumentCaptor.capture());
-        LocationHistory locationHistory = locationHistoryArgumentCaptor.getValue();
-        assertEquals(TEST_OLD_LAT, locationHistory.getLatitude());
-        assertEquals(TEST_OLD_LON, locationHistory.getLongitude());
-        assertEquals(TEST_START_TIME, locationHistory.getTimestamp());
-        assertEquals(TEST_EXISTING_VEHICLE_UUID, locationHistory.getVehicle().getId());
+        // requests for more than the maximum page size are capped
+        vehicleService.getVehiclesWithLocation(VehicleService.MAX_VEHICLES_PAGE_SIZE * 10, null);
+        verify(vehicleRepository).findVehiclesWithLocation(PageRequest.of(0, VehicleService.MAX_VEHICLES_PAGE_SIZE + 1));
     }
 
     @Test
-    public void testCheckoutInUseVehicle() {
+    public void testGetVehicleDetails() throws NotFoundException {
 
-        when(vehicleRepository.findById(TEST_EXISTING_VEHICLE_UUID))
-            .thenReturn(Optional.of(dummyVehicle(TEST_EXISTING_VEHICLE_UUID, true)));
+        when(vehicleRepository.findVehicleDetails(TEST_EXISTING_VEHICLE_UUID)).thenReturn(
+            new VehicleWithHistoryDTO(TEST_EXISTING_VEHICLE_UUID, TEST_BATTERY, false, "12345", "{}"));
+        VehicleWithHistoryDTO vehicleWithHistoryDTO = vehicleService.getVehicleDetails(TEST_EXISTING_VEHICLE_UUID);
+        assertEquals(TEST_EXISTING_VEHICLE_UUID, vehicleWithHistoryDTO.getId());
+        assertEquals(TEST_BATTERY, vehicleWithHistoryDTO.getBattery());
+        assertEquals(12345, vehicleWithHistoryDTO.getSerialNumber());
 
-        assertThrows(InvalidVehicleStateException.class, () -> {
-            vehicleService.checkoutVehicle(TEST_EXISTING_VEHICLE_UUID, TEST_OLD_LAT, TEST_OLD_LON, TEST_START_TIME);
-        });
+        assertThrows(NotFoundException.class, () -> vehicleService.getVehicleDetails(NON_EXISTING_VEHICLE_UUID));
+    }
+
+    @Test
+    public void testGetLocationHistory() {
+
+        when(locationHistoryRepository.findHistory(TEST_EXISTING_VEHICLE_UUID, null, 3))
+            .thenReturn(dummyLocationHistoryList(3));
+        Slice<LocationDetailsDTO> newest = vehicleService.getLocationHistory(TEST_EXISTING_VEHICLE_UUID, null, 2);
+        assertEquals(2, newest.getContent().size());
+        assertTrue(newest.hasNext());
+
+        Timestamp before = newest.getContent().get(1).getTimestamp();
+        when(locationHistoryRepository.findHistory(TEST_EXISTING_VEHICLE_UUID, before, 3))
+            .thenReturn(dummyLocationHistoryList(2));
+        Slice<LocationDetailsDTO> older = vehicleService.getLocationHistory(TEST_EXISTING_VEHICLE_UUID, before, 2);
+        assertEquals(2, older.getContent().size());
+        assertFalse(older.hasNext());
+
+        // requests for more than the maximum page size are capped
+        vehicleService.getLocationHistory(TEST_EXISTING_VEHICLE_UUID, null, VehicleService.MAX_HISTORY_PAGE_SIZE * 10);
+        verify(locationHistoryRepository).findHistory(TEST_EXISTING_VEHICLE_UUID, null,
+            VehicleService.MAX_HISTORY_PAGE_SIZE + 1);
+    }
 
+    @Test
+    public void testAddLocations() {
+
+        Timestamp earlier = Timestamp.valueOf("2020-11-01 10:00:01");
+        Timestamp later = Timestamp.valueOf("2020-11-01 10:00:02");
+        List<VehicleLocationDTO> locations = new ArrayList<>();
+        locations.add(new VehicleLocationDTO(TEST_EXISTING_VEHICLE_UUID, later, TEST_NEW_LAT, TEST_NEW_LON));
+        locations.add(new VehicleLocationDTO(TEST_EXISTING_VEHICLE_UUID, earlier, TEST_OLD_LAT, TEST_OLD_LON));
+        locations.add(new VehicleLocationDTO(NON_EXISTING_VEHICLE_UUID, earlier, TEST_OLD_LAT, TEST_OLD_LON));
+        when(locationHistoryBatchWriter.insertLocations(locations)).thenReturn(2);
+        when(locationHistoryBatchWriter.updateLastLocations(anyList())).thenReturn(Collections.singletonList(
+            new NearbyVehicleDTO(TEST_EXISTING_VEHICLE_UUID, true, TEST_NEW_LAT, TEST_NEW_LON, later, 0)));
+
+        assertEquals(2, vehicleService.addLocations(locations));
+
+        // each vehicle is moved to its latest position only
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<VehicleLocationDTO>> latestCaptor = ArgumentCaptor.forClass(List.class);
+        verify(locationHistoryBatchWriter).updateLastLocations(latestCaptor.capture());
+        List<VehicleLocationDTO> latest = latestCaptor.getValue();
+        assertEquals(2, latest.size());
+        assertTrue(latest.stream().anyMatch(location ->
+            location.getVehicleId().equals(TEST_EXISTING_VEHICLE_UUID) && location.getTimestamp().equals(later)));
+        assertTrue(latest.stream().anyMatch(location -> location.getVehicleId().equals(NON_EXISTING_VEHICLE_UUID)));
+
+        // and the nearby index follows the vehicles the database moved
+        List<NearbyVehicleDTO> nearby = vehicleLocationIndex.findNearby(TEST_NEW_LAT, TEST_NEW_LON, 10, false, 10);
+        assertEquals(1, nearby.size());
+        assertEquals(TEST_EXISTING_VEHICLE_UUID, nearby.get(0).getId());
+        assertTrue(nearby.get(0).isInUse());
     }
 
     @Test
-    public void testCheckinVehicle() throws NotFoundException, InvalidVehicleStateException, InvalidUUIDException {
+    public void testRemove() throws NotFoundException,InvalidVehicleStateException {
 
-        configureVehicleSaveAsUpdate(false);
         ArgumentCaptor<Vehicle> vehicleArgumentCaptor =
             ArgumentCaptor.forClass(Vehicle.class);
-        ArgumentCaptor<LocationHistory> locationHistoryArgumentCaptor =
-            ArgumentCaptor.forClass(LocationHistory.class);
 
-        // set it to "in use" so we can check it in
-        when(vehicleRepository.findById(TEST_EXISTING_VEHICLE_UUID))
-            .thenReturn(Optional.of(dummyVehicle(TEST_EXISTING_VEHICLE_UUID, true)));
-
-        vehicleService.checkinVehicle(TEST_EXISTING_VEHICLE_UUID, TEST_NEW_LAT, TEST_NEW_LON, TEST_BATTERY, TEST_END_TIME);
-        verify(vehicleRepository).save(vehicleArgumentCaptor.capture());
-
-        Vehicle vehicle = vehicleArgumentCaptor.getValue();
-        assertEquals(TEST_EXISTING_VEHICLE_UUID, vehicle.getId());
-        assertEquals(false, vehicle.getInUse());
-        assertEquals(TEST_BATTERY, vehicle.getBattery());
-
-        verify(locationHistoryRepository).save(locationHistoryArgumentCaptor.capture());
-        LocationHistory locationHistory = locationHistoryArgumentCaptor.getValue();
-        assertEquals(TEST_NEW_LAT, locationHistory.getLatitude());
-        assertEquals(TEST_NEW_LON, locationHistory.getLongitude());
-        assertEquals(TEST_EXISTING_VEHICLE_UUID, locationHistory.getVehicle().getId());
-        assertNotNull(locationHistory.getTimestamp());
+        assertThrows(NotFoundException.class, () -> {
+            vehicleService.removeVehicle(NON_EXISTING_VEHICLE_UUID);
+        });
+        vehicleService.removeVehicle(TEST_EXISTING_VEHICLE_UUID);
+        // TBD Add test for InvalidVehicleStateException (in use)
+        verify(vehicleRepository).delete(vehicleArgumentCaptor.capture());
 
+        assertEquals(TEST_EXISTING_VEHICLE_UUID, vehicleArgumentCaptor.getValue().getId());
     }
 
     @Test
-    public void testCheckInNotInUseVehicle() {
+    public void testVehicleUpdated() throws NotFoundException {
 
+        // put the available vehicle in the cache
+        assertFalse(vehicleService.getVehicle(TEST_EXISTING_VEHICLE_UUID).getInUse());
         when(vehicleRepository.findById(TEST_EXISTING_VEHICLE_UUID))
-            .thenReturn(Optional.of(dummyVehicle(TEST_EXISTING_VEHICLE_UUID, false)));
+            .thenReturn(Optional.of(dummyVehicle(TEST_EXISTING_VEHICLE_UUID, true)));
 
-        assertThrows(InvalidVehicleStateException.class, () -> {
-            vehicleService.checkinVehicle(TEST_EXISTING_VEHICLE_UUID, TEST_NEW_LAT, TEST_NEW_LON, TEST_BATTERY, TEST_END_TIME);
-        });
+        // as a ride start reports it
+        vehicleService.vehicleUpdated(TEST_EXISTING_VEHICLE_UUID, TEST_OLD_LAT, TEST_OLD_LON, true, TEST_START_TIME);
 
-    }
+        // the nearby-vehicle index has the new position, and no longer offers the vehicle as available
+        assertEquals(TEST_EXISTING_VEHICLE_UUID,
+            vehicleService.getNearbyVehicles(TEST_OLD_LAT, TEST_OLD_LON, null, false, null).get(0).getId());
+        assertTrue(vehicleService.getNearbyVehicles(TEST_OLD_LAT, TEST_OLD_LON, null, true, null).isEmpty());
 
-    @Test
-    public void testCheckInNotFoundVehicle() {
+        // and the cached copy from before the change is gone
+        assertTrue(vehicleService.getVehicle(TEST_EXISTING_VEHICLE_UUID).getInUse());
 
-        assertThrows(NotFoundException.class, () -> {
-            vehicleService.checkinVehicle(NON_EXISTING_VEHICLE_UUID, TEST_NEW_LAT, TEST_NEW_LON, TEST_BATTERY, TEST_END_TIME);
-        });
+        // as a ride end reports it
+        vehicleService.vehicleUpdated(TEST_EXISTING_VEHICLE_UUID, TEST_NEW_LAT, TEST_NEW_LON, false, TEST_END_TIME);
 
+        // the nearby-vehicle index has the new position, and offers the vehicle as available again
+        List<NearbyVehicleDTO> nearbyVehicles = vehicleService.getNearbyVehicles(TEST_NEW_LAT, TEST_NEW_LON, null, true, null);
+        assertEquals(1, nearbyVehicles.size());
+        assertEquals(TEST_EXISTING_VEHICLE_UUID, nearbyVehicles.get(0).getId());
+        assertEquals(0d, nearbyVehicles.get(0).getDistanceMeters());
     }
-    
+
     private Vehicle dummyVehicle(UUID vehicleId, boolean inUse) {
         Vehicle vehicle = new Vehicle();
         vehicle.setId(vehicleId);
@@ -243,16 +309,27 @@ public class VehicleServiceImplTest {
         locationHistory.setLongitude(TEST_OLD_LON);
         locationHistory.setLatitude(TEST_OLD_LAT);
         locationHistory.setVehicle(dummyVehicle(vehicleId, false));
-        locationHistory.setId(UUID.randomUUID());
+        locationHistory.setTimestamp(TEST_START_TIME);
         return locationHistory;
     }
 
-    private void configureVehicleSaveAsUpdate(boolean inUse) {
-
-        // this setup mocks an update -- the returned vehicle will have an existing key
-        when(vehicleRepository.save(any(Vehicle.class)))
-            .thenReturn(dummyVehicle(TEST_EXISTING_VEHICLE_UUID, inUse));
+    private List<LocationDetailsDTO> dummyLocationHistoryList(int count) {
+        List<LocationDetailsDTO> history = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            history.add(new LocationDetailsDTO(Timestamp.valueOf(TEST_START_TIME.toLocalDateTime().minusMinutes(i)),
+                TEST_OLD_LON, TEST_OLD_LAT));
+        }
+        return history;
+    }
 
+    private List<VehicleWithLocationDTO> dummyVehiclesWithLocation(int count) {
+        List<VehicleWithLocationDTO> vehicles = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            VehicleWithLocationDTO vehicle = new VehicleWithLocationDTO();
+            vehicle.setId(UUID.randomUUID());
+            vehicles.add(vehicle);
+        }
+        return vehicles;
     }
 
     private void configureVehicleSaveAsAdd() {
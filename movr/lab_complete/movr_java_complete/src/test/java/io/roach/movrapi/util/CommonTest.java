@@ -3,7 +3,9 @@ package io.roach.movrapi.util;
 
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.util.UUID;
 
+import io.roach.movrapi.exception.InvalidUUIDException;
 import io.roach.movrapi.exception.InvalidValueException;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -61,6 +63,28 @@ public class CommonTest {
         assertEquals(speed, calculatedVelocity);
     }
 
+    @Test
+    public void TimestampValuesTest() throws InvalidValueException {
+
+        String timestampStr = "2020-10-30 12:00:00.123456";
+        assertEquals(Timestamp.valueOf(TEST_START_DATE_TIME), Common.toTimestamp("2020-10-30 12:00:00"));
+        assertEquals(timestampStr, Common.toTimestamp(timestampStr).toString());
+
+        assertThrows(InvalidValueException.class, () -> Common.toTimestamp("garbage"));
+        assertThrows(InvalidValueException.class, () -> Common.toTimestamp("2020-10-30"));
+    }
+
+    @Test
+    public void CursorTest() throws InvalidValueException {
+
+        UUID vehicleId = UUID.fromString("f097eaa6-dd11-4e35-bceb-1b93073d1ec7");
+        String cursor = Common.encodeCursor(vehicleId);
+        assertEquals(vehicleId, Common.decodeCursor(cursor));
+
+        assertThrows(InvalidValueException.class, () -> Common.decodeCursor("not a cursor!"));
+        assertThrows(InvalidValueException.class, () -> Common.decodeCursor("c2hvcnQ"));
+    }
+
     @Test
     public void BatteryValuesTest() throws InvalidValueException {
 
@@ -83,6 +107,7 @@ public class CommonTest {
         assertThrows(InvalidValueException.class, () -> Common.convertLatToDouble("garbage"));
         assertThrows(InvalidValueException.class, () -> Common.convertLatToDouble("-94"));
         assertThrows(InvalidValueException.class, () -> Common.convertLatToDouble("100"));
+        assertThrows(InvalidValueException.class, () -> Common.convertLatToDouble(null));
     }
 
     @Test
@@ -95,6 +120,17 @@ public class CommonTest {
         assertThrows(InvalidValueException.class, () -> Common.convertLonToDouble("garbage"));
         assertThrows(InvalidValueException.class, () -> Common.convertLonToDouble("-194"));
         assertThrows(InvalidValueException.class, () -> Common.convertLonToDouble("310"));
+        assertThrows(InvalidValueException.class, () -> Common.convertLonToDouble(null));
+    }
+
+    @Test
+    public void UUIDValuesTest() throws InvalidUUIDException {
+
+        UUID id = UUID.randomUUID();
+        assertEquals(id, Common.toUUID(id.toString(), Constants.ERR_INVALID_VEHICLE_ID));
+
+        assertThrows(InvalidUUIDException.class, () -> Common.toUUID("garbage", Constants.ERR_INVALID_VEHICLE_ID));
+        assertThrows(InvalidUUIDException.class, () -> Common.toUUID(null, Constants.ERR_INVALID_VEHICLE_ID));
     }
 
 }
@@ -0,0 +1,123 @@
+package io.roach.movrapi.util;
+
+import java.util.Random;
+
+import static io.roach.movrapi.util.Geodesy.Method.HAVERSINE;
+import static io.roach.movrapi.util.Geodesy.Method.SPHERICAL;
+import static io.roach.movrapi.util.Geodesy.Method.VINCENTY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.gavaghan.geodesy.Ellipsoid;
+import org.gavaghan.geodesy.GeodeticCalculator;
+import org.gavaghan.geodesy.GlobalCoordinates;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit Tests for the Geodesy.class, checked against the gavaghan GeodeticCalculator it replaced in Common
+ */
+
+public class GeodesyTest {
+
+    // Vincenty must agree with the previous calculation to within a millimeter
+    private static final double VINCENTY_TOLERANCE_KM = 1e-6;
+    // a sphere is off from the ellipsoid by at most about 0.56% (north-south, near the poles)
+    private static final double SPHERE_RELATIVE_TOLERANCE = 0.006;
+    private static final int TEST_POINTS = 10000;
+
+    private final GeodeticCalculator geodeticCalculator = new GeodeticCalculator();
+    // fixed seed so a failure can be reproduced
+    private final Random random = new Random(42);
+
+    @Test
+    public void testVincentyMatchesGeodeticCalculator() {
+
+        for (int i = 0; i < TEST_POINTS; i++) {
+            double lat1 = randomLatitude();
+            double lon1 = randomLongitude();
+            // stay away from the antipode, where neither implementation is guaranteed to converge
+            double lat2 = Math.max(-90d, Math.min(90d, lat1 + (random.nextDouble() - 0.5) * 120d));
+            double lon2 = lon1 + (random.nextDouble() - 0.5) * 120d;
+            assertEquals(expectedDistance(lat1, lon1, lat2, lon2), Geodesy.vincenty(lat1, lon1, lat2, lon2),
+                VINCENTY_TOLERANCE_KM, String.format("(%f, %f) -> (%f, %f)", lat1, lon1, lat2, lon2));
+        }
+    }
+
+    @Test
+    public void testVincentyMatchesGeodeticCalculatorAtRideDistances() {
+
+        for (int i = 0; i < TEST_POINTS; i++) {
+            double lat1 = randomLatitude() * 0.9;
+            double lon1 = randomLongitude();
+            double lat2 = lat1 + (random.nextDouble() - 0.5) * 0.2;
+            double lon2 = lon1 + (random.nextDouble() - 0.5) * 0.2;
+            assertEquals(expectedDistance(lat1, lon1, lat2, lon2), Geodesy.vincenty(lat1, lon1, lat2, lon2),
+                VINCENTY_TOLERANCE_KM);
+        }
+    }
+
+    @Test
+    public void testSphericalMethodsCloseToVincenty() {
+
+        for (int i = 0; i < TEST_POINTS; i++) {
+            double lat1 = randomLatitude();
+            double lon1 = randomLongitude();
+            double lat2 = Math.max(-90d, Math.min(90d, lat1 + (random.nextDouble() - 0.5) * 20d));
+            double lon2 = lon1 + (random.nextDouble() - 0.5) * 20d;
+            double vincenty = Geodesy.vincenty(lat1, lon1, lat2, lon2);
+            assertEquals(vincenty, Geodesy.haversine(lat1, lon1, lat2, lon2), vincenty * SPHERE_RELATIVE_TOLERANCE);
+            assertEquals(vincenty, Geodesy.spherical(lat1, lon1, lat2, lon2), vincenty * SPHERE_RELATIVE_TOLERANCE);
+        }
+    }
+
+    @Test
+    public void testSamePoint() {
+
+        for (Geodesy.Method method : Geodesy.Method.values()) {
+            assertEquals(0d, Geodesy.distance(method, 40.73061, -73.935242, 40.73061, -73.935242));
+        }
+    }
+
+    @Test
+    public void testTrackLength() {
+
+        double[] latitudes = {40.58901, 40.64, 40.70, 40.73061};
+        double[] longitudes = {-74.4754, -74.30, -74.10, -73.935242};
+        double[] lengths = new double[latitudes.length - 1];
+
+        for (Geodesy.Method method : Geodesy.Method.values()) {
+            Geodesy.segmentLengths(method, latitudes, longitudes, lengths);
+            double expected = 0d;
+            for (int i = 0; i < lengths.length; i++) {
+                assertEquals(Geodesy.distance(method, latitudes[i], longitudes[i], latitudes[i + 1], longitudes[i + 1]),
+                    lengths[i]);
+                expected += lengths[i];
+            }
+            assertEquals(expected, Geodesy.trackLength(method, latitudes, longitudes));
+        }
+
+        assertEquals(0d, Geodesy.trackLength(HAVERSINE, new double[] {40.5}, new double[] {-74.4}));
+        assertEquals(0d, Geodesy.trackLength(SPHERICAL, new double[0], new double[0]));
+    }
+
+    @Test
+    public void testTrackArgumentsChecked() {
+
+        assertThrows(IllegalArgumentException.class,
+            () -> Geodesy.trackLength(VINCENTY, new double[2], new double[3]));
+        assertThrows(IllegalArgumentException.class,
+            () -> Geodesy.segmentLengths(VINCENTY, new double[3], new double[3], new double[1]));
+    }
+
+    private double expectedDistance(double lat1, double lon1, double lat2, double lon2) {
+        return geodeticCalculator.calculateGeodeticCurve(Ellipsoid.WGS84,
+            new GlobalCoordinates(lat1, lon1), new GlobalCoordinates(lat2, lon2)).getEllipsoidalDistance() / 1000d;
+    }
+
+    private double randomLatitude() {
+        return (random.nextDouble() - 0.5) * 180d;
+    }
+
+    private double randomLongitude() {
+        return (random.nextDouble() - 0.5) * 360d;
+    }
+}
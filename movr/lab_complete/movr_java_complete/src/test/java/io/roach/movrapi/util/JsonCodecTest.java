@@ -0,0 +1,44 @@
+package io.roach.movrapi.util;
+
+import io.roach.movrapi.dto.NewVehicleDTO;
+import io.roach.movrapi.dto.VehicleInfo;
+import io.roach.movrapi.dto.VehicleInfoDTO;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit Tests for the JsonCodec.class
+ */
+
+public class JsonCodecTest {
+
+    @Test
+    public void testWriteVehicleInfo() {
+
+        // configured like the application's mapper, which must not rename the stored keys
+        ObjectMapper objectMapper = new ObjectMapper()
+            .setPropertyNamingStrategy(PropertyNamingStrategy.SNAKE_CASE)
+            .registerModule(new AfterburnerModule());
+        JsonCodec jsonCodec = new JsonCodec(objectMapper);
+
+        NewVehicleDTO newVehicleDTO = new NewVehicleDTO();
+        newVehicleDTO.setVehicleType("scooter");
+        newVehicleDTO.setColor("red");
+        newVehicleDTO.setWear("mint");
+        newVehicleDTO.setManufacturer("Scoot Life");
+        newVehicleDTO.setPurchaseDate("2019-10-31 01:45:18");
+        newVehicleDTO.setSerialNumber("11847");
+
+        VehicleInfo vehicleInfo = new VehicleInfo(jsonCodec.writeVehicleInfo(new VehicleInfoDTO(newVehicleDTO)));
+
+        assertEquals("scooter", vehicleInfo.getType());
+        assertEquals("red", vehicleInfo.getColor());
+        assertEquals("mint", vehicleInfo.getWear());
+        assertEquals("Scoot Life", vehicleInfo.getManufacturer());
+        assertEquals("2019-10-31 01:45:18", vehicleInfo.getPurchaseDate());
+        assertEquals("11847", vehicleInfo.getSerialNumber());
+    }
+}
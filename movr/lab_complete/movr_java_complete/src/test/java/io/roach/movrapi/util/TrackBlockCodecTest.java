@@ -0,0 +1,105 @@
+package io.roach.movrapi.util;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit Tests for the TrackBlockCodec.class
+ */
+
+public class TrackBlockCodecTest {
+
+    private static final int POINTS = 720;
+    private static final long START_MICROS = Track.toMicros(Timestamp.valueOf("2020-10-30 12:00:00"));
+    private static final long INTERVAL_MICROS = 5_000_000L;
+    // half a unit of the fixed point
+    private static final double COORDINATE_TOLERANCE = 0.5 / TrackBlockCodec.COORDINATE_SCALE + 1e-12;
+
+    // fixed seed so a failure can be reproduced
+    private final Random random = new Random(42);
+
+    @Test
+    public void testSteadyTrack() {
+
+        Track track = walk(POINTS, false);
+        byte[] block = TrackBlockCodec.encode(track);
+        assertRoundTrip(track, TrackBlockCodec.decode(block));
+        // a byte for each timestamp after the first, and two or three for each coordinate
+        assertTrue(block.length < POINTS * 8, "block of " + block.length + " bytes");
+    }
+
+    @Test
+    public void testIrregularTrack() {
+
+        Track track = walk(POINTS, true);
+        assertRoundTrip(track, TrackBlockCodec.decode(TrackBlockCodec.encode(track)));
+    }
+
+    @Test
+    public void testFarApartPoints() {
+
+        // from one side of the antimeridian to the other, and from before the epoch to after it
+        Track track = new Track(3, new long[] { -1_000_001L, 0L, 4_000_000_000_000_000L },
+            new double[] { -89.9999999, 0d, 89.9999999 }, new double[] { 179.9999999, -179.9999999, 0d });
+        assertRoundTrip(track, TrackBlockCodec.decode(TrackBlockCodec.encode(track)));
+    }
+
+    @Test
+    public void testEmptyTrack() {
+
+        Track decoded = TrackBlockCodec.decode(TrackBlockCodec.encode(new Track(0, new long[0], new double[0],
+            new double[0])));
+        assertEquals(0, decoded.size());
+    }
+
+    @Test
+    public void testCutShortBlock() {
+
+        byte[] block = TrackBlockCodec.encode(walk(10, false));
+        assertThrows(IllegalArgumentException.class,
+            () -> TrackBlockCodec.decode(Arrays.copyOf(block, block.length - 1)));
+    }
+
+    @Test
+    public void testMicros() {
+
+        Timestamp timestamp = Timestamp.valueOf("2020-10-30 12:00:00.123456");
+        assertEquals(timestamp, Track.fromMicros(Track.toMicros(timestamp)));
+        Timestamp beforeEpoch = Timestamp.valueOf("1969-12-31 23:59:59.5");
+        assertEquals(beforeEpoch, Track.fromMicros(Track.toMicros(beforeEpoch)));
+    }
+
+    /**
+     * A vehicle heading roughly north-east a few meters at a time, reporting every 5 seconds (give or take a few
+     * milliseconds, if irregular).
+     */
+    private Track walk(int points, boolean irregular) {
+        long[] timestamps = new long[points];
+        double[] latitudes = new double[points];
+        double[] longitudes = new double[points];
+        for (int i = 0; i < points; i++) {
+            timestamps[i] = START_MICROS + i * INTERVAL_MICROS + (irregular ? random.nextInt(5000) : 0);
+            latitudes[i] = (i == 0 ? 40.7 : latitudes[i - 1]) + random.nextDouble() * 2e-4;
+            longitudes[i] = (i == 0 ? -74.0 : longitudes[i - 1]) + (random.nextDouble() - 0.3) * 2e-4;
+        }
+        return new Track(points, timestamps, latitudes, longitudes);
+    }
+
+    private static void assertRoundTrip(Track expected, Track actual) {
+        assertEquals(expected.size(), actual.size());
+        assertArrayEquals(Arrays.copyOf(expected.getTimestamps(), expected.size()),
+            Arrays.copyOf(actual.getTimestamps(), actual.size()));
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getLatitudes()[i], actual.getLatitudes()[i], COORDINATE_TOLERANCE, "latitude " + i);
+            assertEquals(expected.getLongitudes()[i], actual.getLongitudes()[i], COORDINATE_TOLERANCE,
+                "longitude " + i);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package io.roach.movrapi.util;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit Tests for the TrackSimplifier.class
+ */
+
+public class TrackSimplifierTest {
+
+    private static final double TOLERANCE_METERS = 10;
+    // about 11 m north-south
+    private static final double STEP_DEGREES = 1e-4;
+    // about 84 m east-west at the test latitude
+    private static final double DETOUR_DEGREES = 1e-3;
+    private static final double LATITUDE = 40.7;
+    private static final double LONGITUDE = -74.0;
+
+    // fixed seed so a failure can be reproduced
+    private final Random random = new Random(42);
+
+    @Test
+    public void testStraightTrackKeepsEnds() {
+
+        double[] latitudes = new double[101];
+        double[] longitudes = new double[101];
+        for (int i = 0; i < latitudes.length; i++) {
+            latitudes[i] = LATITUDE + i * STEP_DEGREES;
+            // wobbling about 2 m either side of the line
+            longitudes[i] = LONGITUDE + (random.nextDouble() - 0.5) * 4e-5;
+        }
+
+        boolean[] keep = TrackSimplifier.simplify(latitudes, longitudes, TOLERANCE_METERS);
+        assertEquals(2, count(keep));
+        assertTrue(keep[0]);
+        assertTrue(keep[100]);
+    }
+
+    @Test
+    public void testDetourKeepsCorners() {
+
+        double[] latitudes = new double[101];
+        double[] longitudes = new double[101];
+        for (int i = 0; i < latitudes.length; i++) {
+            latitudes[i] = LATITUDE + i * STEP_DEGREES;
+            longitudes[i] = LONGITUDE + (i >= 40 && i <= 60 ? DETOUR_DEGREES : 0d);
+        }
+
+        boolean[] keep = TrackSimplifier.simplify(latitudes, longitudes, TOLERANCE_METERS);
+        for (int i = 0; i < keep.length; i++) {
+            boolean corner = i == 0 || i == 39 || i == 40 || i == 60 || i == 61 || i == 100;
+            assertEquals(corner, keep[i], "point " + i);
+        }
+    }
+
+    @Test
+    public void testRoundTripKeepsFarthestPoint() {
+
+        // out and back to the start: the first and last points are the same, so the distances are to a point
+        double[] latitudes = { LATITUDE, LATITUDE + STEP_DEGREES, LATITUDE + 2 * STEP_DEGREES, LATITUDE + STEP_DEGREES,
+            LATITUDE };
+        double[] longitudes = { LONGITUDE, LONGITUDE, LONGITUDE, LONGITUDE, LONGITUDE };
+
+        assertArrayEquals(new boolean[] { true, false, true, false, true },
+            TrackSimplifier.simplify(latitudes, longitudes, TOLERANCE_METERS));
+    }
+
+    @Test
+    public void testShortTracks() {
+
+        assertArrayEquals(new boolean[0], TrackSimplifier.simplify(new double[0], new double[0], TOLERANCE_METERS));
+        assertArrayEquals(new boolean[] { true },
+            TrackSimplifier.simplify(new double[] { LATITUDE }, new double[] { LONGITUDE }, TOLERANCE_METERS));
+        assertArrayEquals(new boolean[] { true, true }, TrackSimplifier.simplify(
+            new double[] { LATITUDE, LATITUDE + 1 }, new double[] { LONGITUDE, LONGITUDE }, TOLERANCE_METERS));
+    }
+
+    @Test
+    public void testLongZigZagTrack() {
+
+        // every point is a corner, which is the deepest the stretches to look at can nest
+        int size = 10000;
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        for (int i = 0; i < size; i++) {
+            latitudes[i] = LATITUDE + i * STEP_DEGREES;
+            longitudes[i] = LONGITUDE + (i % 2 == 0 ? 0d : DETOUR_DEGREES);
+        }
+
+        assertEquals(size, count(TrackSimplifier.simplify(latitudes, longitudes, TOLERANCE_METERS)));
+    }
+
+    @Test
+    public void testDistanceToSegment() {
+
+        // a point 0.001 degrees of longitude east of a north-south segment, level with its middle
+        double expected = Math.toRadians(DETOUR_DEGREES) * Geodesy.EARTH_RADIUS_KM * 1000d
+            * Math.cos(Math.toRadians(LATITUDE + STEP_DEGREES));
+        assertEquals(expected, TrackSimplifier.distanceToSegment(LATITUDE + STEP_DEGREES, LONGITUDE + DETOUR_DEGREES,
+            LATITUDE, LONGITUDE, LATITUDE + 2 * STEP_DEGREES, LONGITUDE), 0.01);
+        // and agrees with the great circle distance to the nearer end when past it
+        assertEquals(Geodesy.haversine(LATITUDE, LONGITUDE, LATITUDE - STEP_DEGREES, LONGITUDE) * 1000d,
+            TrackSimplifier.distanceToSegment(LATITUDE - STEP_DEGREES, LONGITUDE,
+                LATITUDE, LONGITUDE, LATITUDE + 2 * STEP_DEGREES, LONGITUDE), 0.01);
+    }
+
+    @Test
+    public void testMismatchedLengths() {
+
+        assertThrows(IllegalArgumentException.class,
+            () -> TrackSimplifier.simplify(new double[2], new double[3], TOLERANCE_METERS));
+    }
+
+    private static int count(boolean[] keep) {
+        int count = 0;
+        for (boolean kept : keep) {
+            if (kept) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
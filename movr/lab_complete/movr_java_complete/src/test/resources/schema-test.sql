@@ -0,0 +1,104 @@
+-- PostgreSQL equivalent of dbinit.sql plus migrations/, used by the tests that run against an embedded database
+
+-- Stand-ins for the CockroachDB spatial type and functions the repository queries use (the embedded database has
+-- no PostGIS): a GEOGRAPHY is a point or a longitude/latitude box, and distances are haversine on a sphere. As in a
+-- real GEOGRAPHY, a box's north and south edges are geodesics between its corners, or between the points it was
+-- segmentized at (segment, in degrees of longitude; NULL for none).
+CREATE TYPE geography AS (west FLOAT8, south FLOAT8, east FLOAT8, north FLOAT8, segment FLOAT8);
+
+CREATE FUNCTION ST_MakePoint(x FLOAT8, y FLOAT8) RETURNS geography
+    LANGUAGE sql IMMUTABLE STRICT AS $$ SELECT ROW(x, y, x, y, NULL)::geography $$;
+
+CREATE FUNCTION ST_MakeEnvelope(xmin FLOAT8, ymin FLOAT8, xmax FLOAT8, ymax FLOAT8, srid INT) RETURNS geography
+    LANGUAGE sql IMMUTABLE STRICT AS $$ SELECT ROW(xmin, ymin, xmax, ymax, NULL)::geography $$;
+
+-- splits each edge into equal segments of at most max_segment_length degrees
+CREATE FUNCTION ST_Segmentize(g geography, max_segment_length FLOAT8) RETURNS geography
+    LANGUAGE sql IMMUTABLE STRICT AS $$
+        SELECT ROW((g).west, (g).south, (g).east, (g).north,
+            ((g).east - (g).west) / greatest(1, ceil(((g).east - (g).west) / max_segment_length)))::geography
+    $$;
+
+-- between two points, in meters
+CREATE FUNCTION ST_Distance(a geography, b geography) RETURNS FLOAT8
+    LANGUAGE sql IMMUTABLE STRICT AS $$
+        SELECT 2 * 6371008.8 * asin(sqrt(power(sin(radians((b).south - (a).south) / 2), 2)
+            + cos(radians((a).south)) * cos(radians((b).south)) * power(sin(radians((b).west - (a).west) / 2), 2)))
+    $$;
+
+CREATE FUNCTION ST_DWithin(a geography, b geography, distance FLOAT8) RETURNS BOOL
+    LANGUAGE sql IMMUTABLE STRICT AS $$ SELECT ST_Distance(a, b) <= distance $$;
+
+-- the latitude at a longitude of a box edge at a latitude: on the geodesic between the edge's points either side
+CREATE FUNCTION edge_latitude(latitude FLOAT8, west FLOAT8, east FLOAT8, segment FLOAT8, longitude FLOAT8)
+    RETURNS FLOAT8 LANGUAGE sql IMMUTABLE AS $$
+        SELECT CASE WHEN east = west THEN latitude ELSE
+            degrees(atan(tan(radians(latitude))
+                * (sin(radians(s.start + s.length - longitude)) + sin(radians(longitude - s.start)))
+                / sin(radians(s.length))))
+        END
+        FROM (SELECT west + least(floor((longitude - west) / l.length), round((east - west) / l.length) - 1)
+                  * l.length AS start, l.length
+              FROM (SELECT nullif(coalesce(segment, east - west), 0) AS length) l) s
+    $$;
+
+-- of a point and a box
+CREATE FUNCTION ST_Intersects(a geography, b geography) RETURNS BOOL
+    LANGUAGE sql IMMUTABLE STRICT AS $$
+        SELECT (a).west BETWEEN (b).west AND (b).east
+            AND (a).south >= edge_latitude((b).south, (b).west, (b).east, (b).segment, (a).west)
+            AND (a).south <= edge_latitude((b).north, (b).west, (b).east, (b).segment, (a).west)
+    $$;
+
+CREATE TABLE vehicles (
+    id UUID PRIMARY KEY,
+    battery INT8,
+    in_use BOOL,
+    vehicle_info JSONB,
+    serial_number INT8 GENERATED ALWAYS AS ((vehicle_info->'purchase_information'->>'serial_number')::INT8) STORED,
+    last_longitude FLOAT8,
+    last_latitude FLOAT8,
+    last_checkin TIMESTAMP,
+    last_location geography GENERATED ALWAYS AS (ST_MakePoint(last_longitude, last_latitude)) STORED
+);
+
+CREATE TABLE location_history (
+    vehicle_id UUID NOT NULL REFERENCES vehicles(id) ON DELETE CASCADE,
+    ts TIMESTAMP NOT NULL,
+    longitude FLOAT8 NOT NULL,
+    latitude FLOAT8 NOT NULL,
+    PRIMARY KEY (vehicle_id, ts)
+);
+
+CREATE TABLE users (
+    email TEXT PRIMARY KEY,
+    last_name TEXT NOT NULL,
+    first_name TEXT NOT NULL,
+    phone_numbers TEXT[]
+);
+
+CREATE TABLE rides (
+    id UUID PRIMARY KEY,
+    vehicle_id UUID REFERENCES vehicles(id) ON DELETE CASCADE,
+    user_email TEXT REFERENCES users(email) ON DELETE CASCADE,
+    start_ts TIMESTAMP NOT NULL,
+    end_ts TIMESTAMP DEFAULT NULL
+);
+
+CREATE INDEX rides_user_start_idx ON rides (user_email, start_ts DESC);
+CREATE INDEX rides_active_idx ON rides (vehicle_id, user_email, start_ts DESC) WHERE end_ts IS NULL;
+
+CREATE TABLE job_watermarks (
+    job TEXT PRIMARY KEY,
+    processed_before TIMESTAMP NOT NULL
+);
+
+CREATE TABLE location_history_blocks (
+    vehicle_id UUID NOT NULL REFERENCES vehicles(id) ON DELETE CASCADE,
+    bucket TIMESTAMP NOT NULL,
+    first_ts TIMESTAMP NOT NULL,
+    last_ts TIMESTAMP NOT NULL,
+    points INT4 NOT NULL,
+    data BYTEA NOT NULL,
+    PRIMARY KEY (vehicle_id, bucket)
+);